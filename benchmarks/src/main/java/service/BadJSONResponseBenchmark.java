@@ -0,0 +1,48 @@
+package service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks building of the error response, which is paid for every invalid request.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BadJSONResponseBenchmark {
+    @Param({"Unterminated array at line 1 column 5 path $[1]",
+            "Use JsonReader.setLenient(true) to accept malformed JSON at line 3 column 14 path $.a.b",
+            "Something unknown at line 1 column 1 path $"})
+    public String cause;
+
+    private JSONHandler mHandler;
+
+    @Setup
+    public void setUp() {
+        mHandler = new JSONHandler(new JVSOptions());
+    }
+
+    @Benchmark
+    public JSONHandler.BadJSONResponse construct() {
+        return new JSONHandler.BadJSONResponse(cause, "json", 1);
+    }
+
+    @Benchmark
+    public String serialize() {
+        return mHandler.toJson(mHandler.errorResponse(cause, "json", 1));
+    }
+}
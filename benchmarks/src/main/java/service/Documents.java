@@ -0,0 +1,96 @@
+package service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Generates the documents the benchmarks are run with.
+ * <p>
+ * Documents are generated with a fixed seed, so every run measures the same bytes.
+ */
+public final class Documents {
+    /** Kinds of documents, each kind is a set of one or more documents */
+    public enum Kind {
+        /** A short object of a few members */
+        SMALL,
+        /** An array of records, about 10 KiB */
+        MEDIUM,
+        /** An array of records, about 8 MiB */
+        HUGE,
+        /** Arrays and objects nested 4096 levels deep */
+        DEEP,
+        /** Short documents each of which has a syntax error, one for every error code */
+        ERRORS
+    }
+
+    private static final String[] ERRORS = {
+            "[1,2",
+            "[1 2]",
+            "{\"a\":1 \"b\":2}",
+            "{\"a\":1,}",
+            "{\"a\" 1}",
+            "{\"a\":,1}",
+            "{\"a\":}",
+            "[\"abc",
+            "[1 /* comment",
+            "{\"a\":abc}",
+            "[\"abc\\",
+            "[\"\\x\"]",
+    };
+
+    private Documents() { }
+
+    static byte[][] get(Kind kind) {
+        switch(kind) {
+            case SMALL:
+                return new byte[][] {bytes("{\"id\": 42, \"name\": \"jvs\", \"tags\": [\"a\", \"b\"], \"ok\": true}")};
+            case MEDIUM:
+                return new byte[][] {records(100)};
+            case HUGE:
+                return new byte[][] {records(80000)};
+            case DEEP:
+                return new byte[][] {deep(4096)};
+            case ERRORS:
+            default:
+                byte[][] documents = new byte[ERRORS.length][];
+                for(int i = 0; i < ERRORS.length; ++i) {
+                    documents[i] = bytes(ERRORS[i]);
+                }
+                return documents;
+        }
+    }
+
+    private static byte[] records(int count) {
+        Random random = new Random(count);
+        StringBuilder builder = new StringBuilder("[\n");
+
+        for(int i = 0; i < count; ++i) {
+            builder.append(0 == i ? "" : ",\n")
+                    .append("  {\"id\": ").append(i)
+                    .append(", \"name\": \"record \\u00e9 ").append(Long.toHexString(random.nextLong()))
+                    .append("\", \"price\": ").append(random.nextInt(100000) / 100.0)
+                    .append(", \"ratio\": ").append(random.nextDouble()).append("e-3")
+                    .append(", \"active\": ").append(random.nextBoolean())
+                    .append(", \"parent\": null")
+                    .append(", \"tags\": [\"alpha\", \"beta\", \"gamma\"]}");
+        }
+        return bytes(builder.append("\n]\n").toString());
+    }
+
+    private static byte[] deep(int depth) {
+        StringBuilder builder = new StringBuilder();
+
+        for(int i = 0; i < depth; ++i) {
+            builder.append(0 == i % 2 ? "[" : "{\"k\":");
+        }
+        builder.append("0");
+        for(int i = depth - 1; i >= 0; --i) {
+            builder.append(0 == i % 2 ? "]" : "}");
+        }
+        return bytes(builder.toString());
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
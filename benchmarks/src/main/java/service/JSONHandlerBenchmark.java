@@ -0,0 +1,108 @@
+package service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the hot paths of {@link JSONHandler} one by one and all together.
+ * <p>
+ * Every benchmark goes through all the documents of a {@link Documents.Kind} in turn, so the error-heavy kind
+ * covers every error code.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JSONHandlerBenchmark {
+    @Param({"SMALL", "MEDIUM", "HUGE", "DEEP", "ERRORS"})
+    public Documents.Kind kind;
+
+    private byte[][] mDocuments;
+    private int mNext = 0;
+    private final char[] mChars = new char[8192];
+    private JSONHandler mPretty;
+    private JSONHandler mGson;
+    private JSONHandler mNative;
+
+    @Setup
+    public void setUp() {
+        mDocuments = Documents.get(kind);
+        mPretty = new JSONHandler(new JVSOptionsBuilder().setMode(JVSOptions.Mode.PRETTY).build());
+        mGson = new JSONHandler(new JVSOptionsBuilder().setMode(JVSOptions.Mode.VALIDATE)
+                .setEngine(JVSOptions.Engine.GSON).build());
+        mNative = new JSONHandler(new JVSOptionsBuilder().setMode(JVSOptions.Mode.VALIDATE)
+                .setEngine(JVSOptions.Engine.NATIVE).build());
+    }
+
+    private byte[] next() {
+        byte[] document = mDocuments[mNext];
+        mNext = (mNext + 1) % mDocuments.length;
+        return document;
+    }
+
+    /** Reading and decoding of a request body */
+    @Benchmark
+    public long readRequest() throws IOException {
+        byte[] document = next();
+        long count = 0;
+
+        try(Utf8Reader reader = new Utf8Reader(new ByteArrayInputStream(document), BufferPool.DEFAULT,
+                document.length)) {
+            int n;
+            while(-1 != (n = reader.read(mChars, 0, mChars.length))) {
+                count += n;
+            }
+        }
+        return count;
+    }
+
+    /** Validation with Gson's reader, without formatting */
+    @Benchmark
+    public JSONHandler.BadJSONResponse validateRequestGson() throws IOException {
+        byte[] document = next();
+
+        return mGson.transferRequest(new Utf8Reader(new ByteArrayInputStream(document), BufferPool.DEFAULT,
+                document.length), null, "json", 1);
+    }
+
+    /** Validation with the native engine */
+    @Benchmark
+    public JSONHandler.BadJSONResponse validateRequestNative() throws IOException {
+        byte[] document = next();
+
+        return mNative.checkRequest(new ByteArrayInputStream(document), document.length, "json", 1);
+    }
+
+    /** The whole exchange in the pretty mode */
+    @Benchmark
+    public long handlePretty() throws IOException {
+        StubExchange exchange = new StubExchange("/bench.json", next());
+
+        mPretty.handle(exchange);
+        return exchange.getResponseLength();
+    }
+
+    /** The whole exchange in the validate mode with the native engine */
+    @Benchmark
+    public long handleValidateNative() throws IOException {
+        StubExchange exchange = new StubExchange("/bench.json", next());
+
+        mNative.handle(exchange);
+        return exchange.getResponseLength();
+    }
+}
@@ -0,0 +1,134 @@
+package service;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+/**
+ * In-memory exchange which lets the benchmarks call {@code JSONHandler.handle()} without a socket.
+ * <p>
+ * The response body is counted and thrown away.
+ */
+class StubExchange extends HttpExchange {
+    private final Headers mRequestHeaders = new Headers();
+    private final Headers mResponseHeaders = new Headers();
+    private final URI mUri;
+    private InputStream mRequestBody;
+    private OutputStream mResponseBody;
+    private int mResponseCode = -1;
+    private long mResponseLength = 0;
+
+    StubExchange(String uri, byte[] body) {
+        mUri = URI.create(uri);
+        mRequestBody = new ByteArrayInputStream(body);
+        mRequestHeaders.set("Content-length", Integer.toString(body.length));
+        mResponseBody = new OutputStream() {
+            @Override
+            public void write(int b) {
+                ++mResponseLength;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                mResponseLength += len;
+            }
+        };
+    }
+
+    long getResponseLength() {
+        return mResponseLength;
+    }
+
+    @Override
+    public Headers getRequestHeaders() {
+        return mRequestHeaders;
+    }
+
+    @Override
+    public Headers getResponseHeaders() {
+        return mResponseHeaders;
+    }
+
+    @Override
+    public URI getRequestURI() {
+        return mUri;
+    }
+
+    @Override
+    public String getRequestMethod() {
+        return "POST";
+    }
+
+    @Override
+    public HttpContext getHttpContext() {
+        return null;
+    }
+
+    @Override
+    public void close() { }
+
+    @Override
+    public InputStream getRequestBody() {
+        return mRequestBody;
+    }
+
+    @Override
+    public OutputStream getResponseBody() {
+        return mResponseBody;
+    }
+
+    @Override
+    public void sendResponseHeaders(int rCode, long responseLength) {
+        mResponseCode = rCode;
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return InetSocketAddress.createUnresolved("localhost", 0);
+    }
+
+    @Override
+    public int getResponseCode() {
+        return mResponseCode;
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        return InetSocketAddress.createUnresolved("localhost", 8080);
+    }
+
+    @Override
+    public String getProtocol() {
+        return "HTTP/1.1";
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+        return null;
+    }
+
+    @Override
+    public void setAttribute(String name, Object value) { }
+
+    @Override
+    public void setStreams(InputStream i, OutputStream o) {
+        if(null != i) {
+            mRequestBody = i;
+        }
+        if(null != o) {
+            mResponseBody = o;
+        }
+    }
+
+    @Override
+    public HttpPrincipal getPrincipal() {
+        return null;
+    }
+}
@@ -0,0 +1,96 @@
+package service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The request bodies of a load test, which are sent one after another in a fixed order.
+ * <p>
+ * A corpus is read from the files of a directory, or the built-in one is generated with a fixed seed: mostly small
+ * objects, some arrays of records of about 10 KiB and a share of invalid documents, so every run sends the same
+ * bytes.
+ */
+final class Corpus {
+    private final byte[][] mBodies;
+    private final AtomicInteger mNext = new AtomicInteger();
+
+    private Corpus(byte[][] bodies) {
+        mBodies = bodies;
+    }
+
+    /**
+     * Reads every regular file under the directory, a file is a request body.
+     *
+     * @throws IOException  if a file cannot be read, or there are no files.
+     */
+    static Corpus read(Path directory) throws IOException {
+        List<Path> files;
+        try(Stream<Path> walk = Files.walk(directory)) {
+            files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+        if(files.isEmpty()) {
+            throw new IOException("No files in " + directory);
+        }
+        byte[][] bodies = new byte[files.size()][];
+        for(int i = 0; i < bodies.length; ++i) {
+            bodies[i] = Files.readAllBytes(files.get(i));
+        }
+        return new Corpus(bodies);
+    }
+
+    /**
+     * Generates the built-in corpus.
+     */
+    static Corpus builtIn() {
+        Random random = new Random(7);
+        List<byte[]> bodies = new ArrayList<>();
+        for(int i = 0; i < 14; ++i) {
+            bodies.add(bytes("{\"id\": " + random.nextInt(100000)
+                    + ", \"name\": \"jvs " + Long.toHexString(random.nextLong())
+                    + "\", \"tags\": [\"a\", \"b\"], \"ok\": " + random.nextBoolean() + "}"));
+        }
+        for(int i = 0; i < 4; ++i) {
+            bodies.add(records(random, 100));
+        }
+        bodies.add(bytes("{\"id\": 42, \"name\" \"jvs\"}"));
+        bodies.add(bytes("[1, 2, {\"a\": tru}]"));
+        return new Corpus(bodies.toArray(new byte[0][]));
+    }
+
+    int size() {
+        return mBodies.length;
+    }
+
+    /**
+     * @return  the next body, the bodies are taken in turn by all threads.
+     */
+    byte[] next() {
+        return mBodies[Math.floorMod(mNext.getAndIncrement(), mBodies.length)];
+    }
+
+    private static byte[] records(Random random, int count) {
+        StringBuilder builder = new StringBuilder("[\n");
+
+        for(int i = 0; i < count; ++i) {
+            builder.append(0 == i ? "" : ",\n")
+                    .append("  {\"id\": ").append(i)
+                    .append(", \"name\": \"record ").append(Long.toHexString(random.nextLong()))
+                    .append("\", \"price\": ").append(random.nextInt(100000) / 100.0)
+                    .append(", \"active\": ").append(random.nextBoolean())
+                    .append(", \"tags\": [\"alpha\", \"beta\"]}");
+        }
+        return bytes(builder.append("\n]\n").toString());
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,118 @@
+package service;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-linear histogram of latencies in nanoseconds, fine enough for tail percentiles.
+ * <p>
+ * Every power of two is split into {@link #SUB_BUCKETS} buckets, so a value is known within 1% of its magnitude,
+ * which {@link Histogram} of the service, made for Prometheus buckets, is too coarse for. A percentile is
+ * reported as the upper bound of its bucket, the same way as HdrHistogram does. Values are recorded by many
+ * threads at once, a snapshot of the counts is taken to compute percentiles of an interval.
+ */
+class LatencyHistogram {
+    private static final int SUB_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    /** Values below this one have a bucket each */
+    private static final int LINEAR = 2 * SUB_BUCKETS;
+    private static final int BUCKETS = LINEAR + (63 - SUB_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMin = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * @param nanos  the latency, negative ones are taken for zero.
+     */
+    void record(long nanos) {
+        nanos = Math.max(0, nanos);
+        mCounts.incrementAndGet(indexOf(nanos));
+        mCount.incrementAndGet();
+        mSum.addAndGet(nanos);
+        mMin.accumulateAndGet(nanos, Math::min);
+        mMax.accumulateAndGet(nanos, Math::max);
+    }
+
+    long getCount() {
+        return mCount.get();
+    }
+
+    long getMin() {
+        return (0 < mCount.get()) ? mMin.get() : 0;
+    }
+
+    long getMax() {
+        return mMax.get();
+    }
+
+    double getMean() {
+        long count = mCount.get();
+        return (0 < count) ? (double) mSum.get() / count : 0;
+    }
+
+    /**
+     * @return  a copy of the counts of the buckets.
+     */
+    long[] snapshot() {
+        long[] counts = new long[BUCKETS];
+        for(int i = 0; i < BUCKETS; ++i) {
+            counts[i] = mCounts.get(i);
+        }
+        return counts;
+    }
+
+    /**
+     * @param quantile  the quantile from 0 to 1, like 0.999.
+     * @return  the latency which {@code quantile} of the recorded ones do not exceed, but not more than the
+     *          largest one.
+     */
+    long percentile(double quantile) {
+        return Math.min(percentile(snapshot(), null, quantile), getMax());
+    }
+
+    /**
+     * Computes a percentile of the values recorded between two snapshots.
+     *
+     * @param counts  the later snapshot.
+     * @param before  the earlier snapshot, or {@code null} for all the values.
+     * @return  the latency which {@code quantile} of the values do not exceed, zero if there are none.
+     */
+    static long percentile(long[] counts, long[] before, double quantile) {
+        long total = 0;
+        for(int i = 0; i < BUCKETS; ++i) {
+            total += counts[i] - ((null != before) ? before[i] : 0);
+        }
+        if(0 == total) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(quantile * total));
+        long count = 0;
+        for(int i = 0; i < BUCKETS; ++i) {
+            count += counts[i] - ((null != before) ? before[i] : 0);
+            if(count >= target) {
+                return upperBound(i);
+            }
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+    private static int indexOf(long value) {
+        if(LINEAR > value) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return LINEAR + (shift - 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    private static long upperBound(int index) {
+        if(LINEAR > index) {
+            return index;
+        }
+        int shift = (index - LINEAR) / SUB_BUCKETS + 1;
+        long lower = (long) (SUB_BUCKETS + (index - LINEAR) % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,437 @@
+package service;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives JVS over HTTP and reports latency percentiles, throughput and error rates.
+ * <p>
+ * The service is started in the same JVM with the given options, unless {@code --url} points at a running one.
+ * Requests are POSTed with the bodies of a {@link Corpus} in turn, in one of two ways:
+ * <ul>
+ *     <li>Open loop ({@code --rate}): requests are started at a fixed rate whatever the service does, by up to
+ *     {@code --concurrency} connections. The latency is measured from the time a request should have started,
+ *     so a request which waits for a free connection because the service has stalled is counted as slow, and a
+ *     stall is not hidden by the requests which have not been sent meanwhile (coordinated omission). The service
+ *     time, measured from the time a request has actually been sent, is reported too.</li>
+ *     <li>Closed loop (otherwise): {@code --concurrency} connections send requests back to back, so the rate is
+ *     whatever the service sustains.</li>
+ * </ul>
+ * Requests started during the warm-up are not counted. For a soak test a line with the rate and the
+ * percentiles of the last interval is written to the standard error every {@code --interval} seconds. The
+ * report is a JSON object, so the results of different runs and releases can be compared:
+ * <pre>
+ * java -cp ... service.LoadTest [--config FILE] [--port N] [--url URL] [--path PATH] [--corpus DIR]
+ *         [--rate N] [--concurrency N] [--duration S] [--warmup S] [--interval S] [--timeout MS]
+ *         [--label TEXT] [--out FILE]
+ * </pre>
+ * A response is counted as invalid if it is the error response of {@link JSONHandler}. An error is a response
+ * with a status of 400 or more, or a request which has failed with an I/O error or a timeout.
+ */
+public final class LoadTest {
+    private static final String USAGE = "Usage: LoadTest [--config FILE] [--port N] [--url URL] [--path PATH] " +
+            "[--corpus DIR] [--rate N] [--concurrency N] [--duration S] [--warmup S] [--interval S] " +
+            "[--timeout MS] [--label TEXT] [--out FILE]";
+
+    /** The beginning of an error response of the service */
+    private static final byte[] ERROR_HEAD = "{\n  \"errorCode\": ".getBytes(StandardCharsets.UTF_8);
+
+    private static final ThreadLocal<byte[]> BUFFERS = ThreadLocal.withInitial(() -> new byte[8192]);
+
+    private String mConfig = null;
+    private int mPort = 18080;
+    private String mUrl = null;
+    private String mPath = null;
+    private String mCorpusPath = null;
+    private double mRate = 0;
+    private int mConcurrency = 16;
+    private long mDuration = 60;
+    private long mWarmup = 10;
+    private long mInterval = 10;
+    private int mTimeout = 10_000;
+    private String mLabel = "";
+    private String mOut = null;
+
+    private Corpus mCorpus;
+    private URL mTarget;
+
+    /** The latency from the time a request should have started */
+    private final LatencyHistogram mLatency = new LatencyHistogram();
+    /** The latency from the time a request has been sent */
+    private final LatencyHistogram mServiceTime = new LatencyHistogram();
+    private final Map<Integer, LongAdder> mStatuses = new ConcurrentHashMap<>();
+    private final LongAdder mInvalid = new LongAdder();
+    private final LongAdder mFailures = new LongAdder();
+    private final LongAdder mBytesSent = new LongAdder();
+    private final LongAdder mBytesReceived = new LongAdder();
+    private final AtomicLong mLastDone = new AtomicLong();
+    private long mMeasureFrom;
+
+    private LoadTest() { }
+
+    public static void main(String[] args) {
+        LoadTest test = new LoadTest();
+        try {
+            test.parse(args);
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        try {
+            System.exit(test.run() ? 0 : 1);
+        } catch (IOException | JVSException e) {
+            System.err.println("Load test has failed: " + e.getMessage());
+            System.exit(2);
+        }
+    }
+
+    private void parse(String[] args) {
+        for(int i = 0; i < args.length; ++i) {
+            switch(args[i]) {
+                case "--config":
+                    mConfig = args[++i];
+                    break;
+                case "--port":
+                    mPort = Integer.parseInt(args[++i]);
+                    break;
+                case "--url":
+                    mUrl = args[++i];
+                    break;
+                case "--path":
+                    mPath = args[++i];
+                    break;
+                case "--corpus":
+                    mCorpusPath = args[++i];
+                    break;
+                case "--rate":
+                    mRate = Double.parseDouble(args[++i]);
+                    break;
+                case "--concurrency":
+                    mConcurrency = Integer.parseInt(args[++i]);
+                    break;
+                case "--duration":
+                    mDuration = Long.parseLong(args[++i]);
+                    break;
+                case "--warmup":
+                    mWarmup = Long.parseLong(args[++i]);
+                    break;
+                case "--interval":
+                    mInterval = Long.parseLong(args[++i]);
+                    break;
+                case "--timeout":
+                    mTimeout = Integer.parseInt(args[++i]);
+                    break;
+                case "--label":
+                    mLabel = args[++i];
+                    break;
+                case "--out":
+                    mOut = args[++i];
+                    break;
+                default:
+                    throw new IllegalArgumentException(args[i]);
+            }
+        }
+        if(0 >= mConcurrency || 0 >= mDuration || 0 > mWarmup || 0 > mRate) {
+            throw new IllegalArgumentException();
+        }
+    }
+
+    /**
+     * @return  {@code true} if no request has failed.
+     */
+    private boolean run() throws IOException, JVSException {
+        mCorpus = (null != mCorpusPath) ? Corpus.read(Paths.get(mCorpusPath)) : Corpus.builtIn();
+        // the connections are kept alive, one per thread
+        System.setProperty("http.maxConnections", Integer.toString(mConcurrency));
+
+        JSONValidationService service = null;
+        JVSOptions options = null;
+        if(null == mUrl) {
+            options = ((null != mConfig) ? new JVSOptions(mConfig) : new JVSOptions()).newBuilder()
+                    .setHost("127.0.0.1")
+                    .setPort(mPort)
+                    .build();
+            service = new JSONValidationService(options);
+            service.start();
+            mTarget = new URL("http", "127.0.0.1", mPort, (null != mPath) ? mPath : options.path);
+        } else {
+            mTarget = new URL(new URL(mUrl), (null != mPath) ? mPath : "");
+        }
+
+        ScheduledExecutorService progress = Executors.newSingleThreadScheduledExecutor(LoadTest::daemon);
+        try {
+            long start = System.nanoTime();
+            mMeasureFrom = start + TimeUnit.SECONDS.toNanos(mWarmup);
+            long end = mMeasureFrom + TimeUnit.SECONDS.toNanos(mDuration);
+            if(0 < mInterval) {
+                long[][] before = {mLatency.snapshot()};
+                long[] count = {0};
+                progress.scheduleAtFixedRate(() -> {
+                    long[] counts = mLatency.snapshot();
+                    long n = mLatency.getCount();
+                    System.err.println(String.format(Locale.ROOT,
+                            "t=%ds requests=%d rate=%.0f/s p50=%.3fms p99=%.3fms p99.9=%.3fms errors=%d",
+                            TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start), n,
+                            (n - count[0]) / (double) mInterval,
+                            millis(LatencyHistogram.percentile(counts, before[0], 0.5)),
+                            millis(LatencyHistogram.percentile(counts, before[0], 0.99)),
+                            millis(LatencyHistogram.percentile(counts, before[0], 0.999)), errors()));
+                    before[0] = counts;
+                    count[0] = n;
+                }, mInterval, mInterval, TimeUnit.SECONDS);
+            }
+
+            if(0 < mRate) {
+                runOpen(start, end);
+            } else {
+                runClosed(end);
+            }
+        } finally {
+            progress.shutdownNow();
+            if(null != service) {
+                service.stop();
+            }
+        }
+
+        Writer out = (null != mOut) ? Files.newBufferedWriter(Paths.get(mOut), StandardCharsets.UTF_8)
+                : new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+        try {
+            report(out, options);
+        } finally {
+            out.flush();
+            if(null != mOut) {
+                out.close();
+            }
+        }
+        return 0 == mFailures.sum();
+    }
+
+    /**
+     * Starts requests at the intended times, they wait in the queue of the pool for a free connection.
+     */
+    private void runOpen(long start, long end) {
+        ExecutorService pool = Executors.newFixedThreadPool(mConcurrency, LoadTest::daemon);
+        for(long i = 0; ; ++i) {
+            long intended = start + (long) (i * 1e9 / mRate);
+            if(intended >= end) {
+                break;
+            }
+            long wait;
+            while(0 < (wait = intended - System.nanoTime())) {
+                LockSupport.parkNanos(wait);
+            }
+            pool.execute(() -> exchange(intended));
+        }
+        pool.shutdown();
+        awaitTermination(pool);
+    }
+
+    /**
+     * Sends requests back to back on every connection.
+     */
+    private void runClosed(long end) {
+        ExecutorService pool = Executors.newFixedThreadPool(mConcurrency, LoadTest::daemon);
+        for(int i = 0; i < mConcurrency; ++i) {
+            pool.execute(() -> {
+                long now;
+                while(end > (now = System.nanoTime())) {
+                    exchange(now);
+                }
+            });
+        }
+        pool.shutdown();
+        awaitTermination(pool);
+    }
+
+    private void awaitTermination(ExecutorService pool) {
+        try {
+            // the requests in flight may take up to the timeout to connect and as long to answer
+            if(!pool.awaitTermination(2L * mTimeout + TimeUnit.SECONDS.toMillis(mDuration), TimeUnit.MILLISECONDS)) {
+                pool.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Sends a request and records the outcome, unless it should have started during the warm-up.
+     *
+     * @param intended  the time the request should have started at.
+     */
+    private void exchange(long intended) {
+        byte[] body = mCorpus.next();
+        long sent = System.nanoTime();
+        int status = 0;
+        long received = 0;
+        boolean invalid = false;
+        try {
+            HttpURLConnection connection = (HttpURLConnection) mTarget.openConnection();
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setConnectTimeout(mTimeout);
+            connection.setReadTimeout(mTimeout);
+            connection.setRequestProperty("Content-Type", "application/json");
+            try(OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+            status = connection.getResponseCode();
+            InputStream response = (400 > status) ? connection.getInputStream() : connection.getErrorStream();
+            if(null != response) {
+                // the response is read to the end, so the connection is reused
+                try(InputStream in = response) {
+                    byte[] buffer = BUFFERS.get();
+                    int n;
+                    while(-1 != (n = in.read(buffer))) {
+                        if(0 == received) {
+                            invalid = startsWith(buffer, n, ERROR_HEAD);
+                        }
+                        received += n;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            status = 0;
+        }
+        long done = System.nanoTime();
+
+        if(intended < mMeasureFrom) {
+            return;
+        }
+        mLatency.record(done - intended);
+        mServiceTime.record(done - sent);
+        mLastDone.accumulateAndGet(done, Math::max);
+        mBytesSent.add(body.length);
+        mBytesReceived.add(received);
+        if(0 == status) {
+            mFailures.increment();
+        } else {
+            mStatuses.computeIfAbsent(status, s -> new LongAdder()).increment();
+        }
+        if(invalid) {
+            mInvalid.increment();
+        }
+    }
+
+    private static boolean startsWith(byte[] buffer, int length, byte[] head) {
+        if(length < head.length) {
+            return false;
+        }
+        for(int i = 0; i < head.length; ++i) {
+            if(buffer[i] != head[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long errors() {
+        long errors = mFailures.sum();
+        for(Map.Entry<Integer, LongAdder> status : mStatuses.entrySet()) {
+            if(400 <= status.getKey()) {
+                errors += status.getValue().sum();
+            }
+        }
+        return errors;
+    }
+
+    private void report(Writer out, JVSOptions options) throws IOException {
+        long requests = mLatency.getCount();
+        double seconds = Math.max(1, mLastDone.get() - mMeasureFrom) / 1e9;
+
+        JsonWriter writer = new JsonWriter(out);
+        writer.setIndent("  ");
+        writer.beginObject();
+        writer.name("label").value(mLabel);
+        writer.name("target").value(mTarget.toString());
+        writer.name("loop").value((0 < mRate) ? "open" : "closed");
+        if(0 < mRate) {
+            writer.name("rate").value(mRate);
+        }
+        writer.name("concurrency").value(mConcurrency);
+        writer.name("duration").value(mDuration);
+        writer.name("warmup").value(mWarmup);
+        writer.name("corpus").value(mCorpus.size());
+        if(null != options) {
+            writer.name("service").beginObject();
+            writer.name("transport").value(options.transport.name().toLowerCase(Locale.ROOT));
+            writer.name("mode").value(options.mode.id);
+            writer.name("engine").value(options.engine.name().toLowerCase(Locale.ROOT));
+            writer.name("executor").value(options.executor.name().toLowerCase(Locale.ROOT));
+            writer.name("threads").value(options.threads);
+            writer.name("shards").value(options.shards);
+            writer.endObject();
+        }
+
+        writer.name("requests").value(requests);
+        writer.name("throughput").value(round(requests / seconds));
+        writer.name("bytesSent").value(mBytesSent.sum());
+        writer.name("bytesReceived").value(mBytesReceived.sum());
+        writer.name("statuses").beginObject();
+        for(Map.Entry<Integer, LongAdder> status : new TreeMap<>(mStatuses).entrySet()) {
+            writer.name(Integer.toString(status.getKey())).value(status.getValue().sum());
+        }
+        writer.endObject();
+        writer.name("invalid").value(mInvalid.sum());
+        writer.name("failures").value(mFailures.sum());
+        writer.name("errorRate").value((0 < requests) ? round((double) errors() / requests) : 0);
+        writer.name("latency");
+        writeLatency(writer, mLatency);
+        writer.name("serviceTime");
+        writeLatency(writer, mServiceTime);
+        writer.endObject();
+        writer.flush();
+        out.write('\n');
+    }
+
+    /**
+     * Writes the latencies in milliseconds.
+     */
+    private static void writeLatency(JsonWriter writer, LatencyHistogram histogram) throws IOException {
+        writer.beginObject();
+        writer.name("min").value(millis(histogram.getMin()));
+        writer.name("mean").value(round(histogram.getMean() / 1e6));
+        writer.name("p50").value(millis(histogram.percentile(0.5)));
+        writer.name("p90").value(millis(histogram.percentile(0.9)));
+        writer.name("p99").value(millis(histogram.percentile(0.99)));
+        writer.name("p99.9").value(millis(histogram.percentile(0.999)));
+        writer.name("max").value(millis(histogram.getMax()));
+        writer.endObject();
+    }
+
+    private static double millis(long nanos) {
+        return round(nanos / 1e6);
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 1000) / 1000.0;
+    }
+
+    private static Thread daemon(Runnable r) {
+        Thread thread = new Thread(r, "jvs-load");
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -1,20 +1,62 @@
+import service.BulkValidator;
 import service.JSONValidationService;
 import service.JVSException;
 import service.JVSOptions;
+import service.JVSOptionsBuilder;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
 
 /**
  * The entry point of the project.
  *
- * Creates {@link JSONValidationService} using configurations from the {@code jvs.properties} file and starts it.
- * There is no way to stop the service other than to send SIGKILL to the process.
+ * Without arguments, creates {@link JSONValidationService} using configurations from the {@code jvs.properties}
+ * file and starts it. There is no way to stop the service other than to send SIGKILL to the process. The file is
+ * watched while the service runs, and its tracing section is applied again whenever it changes, see
+ * {@link JSONValidationService#setTracing(JVSOptions)}; the other options take a restart.
+ * <p>
+ * With the {@code validate} command, validates files on disk with {@link BulkValidator} and exits:
+ * <pre>
+ * java Main validate [--engine gson|native] [--threads N] [--max-depth N] [--list FILE] [--report FILE] [PATH...]
+ * </pre>
+ * A directory is walked recursively. {@code --list} reads more paths from a file, one per line, {@code -} stands
+ * for the standard input. The report goes to the standard output unless {@code --report} is given, the totals go
+ * to the standard error. The exit code is 0 if all files are valid, 1 if any is not or cannot be read, and 2 if
+ * the command is wrong.
  */
 public class Main {
     private static final Logger LOG = Logger.getLogger(Main.class.getName());
 
+    private static final String USAGE = "Usage: java Main [validate [--engine gson|native] [--threads N] " +
+            "[--max-depth N] [--list FILE] [--report FILE] [PATH...]]";
+
     public static void main(String[] args) {
+        if(0 < args.length) {
+            System.exit(command(args));
+        }
+
         JSONValidationService service;
 
         try {
@@ -23,6 +65,181 @@ public class Main {
         } catch (JVSException e) {
             LOG.log(Level.SEVERE, "Service exception", e);
             System.exit(1);
+            return;
+        }
+        watchTracing(service);
+    }
+
+    /**
+     * Applies the tracing of the configuration file whenever the file is written or replaced. It runs on the main
+     * thread until the directory of the file cannot be watched any more.
+     */
+    private static void watchTracing(JSONValidationService service) {
+        Path config = Paths.get(JVSOptions.CONFIG_FILE_PATH).toAbsolutePath();
+        try(WatchService watcher = config.getFileSystem().newWatchService()) {
+            config.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            while(true) {
+                WatchKey key = watcher.take();
+                boolean changed = false;
+                for(WatchEvent<?> event : key.pollEvents()) {
+                    changed |= config.getFileName().equals(event.context());
+                }
+                if(changed) {
+                    service.setTracing(new JVSOptions(config.toString()));
+                }
+                if(!key.reset()) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Configuration file cannot be watched, tracing cannot be changed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static int command(String[] args) {
+        if(!"validate".equals(args[0])) {
+            System.err.println(USAGE);
+            return 2;
+        }
+
+        JVSOptionsBuilder builder = new JVSOptionsBuilder().setMode(JVSOptions.Mode.VALIDATE);
+        List<Path> paths = new ArrayList<>();
+        String list = null;
+        String report = null;
+        try {
+            for(int i = 1; i < args.length; ++i) {
+                switch(args[i]) {
+                    case "--engine":
+                        builder.setEngine(JVSOptions.Engine.valueOf(args[++i].toUpperCase(Locale.ROOT)));
+                        break;
+                    case "--threads":
+                        builder.setThreads(Integer.parseInt(args[++i]));
+                        break;
+                    case "--max-depth":
+                        builder.setMaxDepth(Integer.parseInt(args[++i]));
+                        break;
+                    case "--list":
+                        list = args[++i];
+                        break;
+                    case "--report":
+                        report = args[++i];
+                        break;
+                    default:
+                        if(args[i].startsWith("--")) {
+                            throw new IllegalArgumentException(args[i]);
+                        }
+                        paths.add(Paths.get(args[i]));
+                        break;
+                }
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println(USAGE);
+            return 2;
+        }
+
+        BulkValidator.Summary summary;
+        try(FileIterator files = files(paths, list);
+            Writer out = (null != report)
+                    ? Files.newBufferedWriter(Paths.get(report), StandardCharsets.UTF_8)
+                    : new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))) {
+            summary = new BulkValidator(builder.build()).validate(files, out);
+        } catch (IOException | UncheckedIOException e) {
+            LOG.log(Level.SEVERE, "Validation has failed", e);
+            return 2;
+        }
+
+        System.err.println(summary);
+        return (summary.getFiles() == summary.getValid()) ? 0 : 1;
+    }
+
+    /**
+     * Lists the files to validate: the paths given, the files under the directories given, and the paths
+     * read from {@code list}, if it is not {@code null}.
+     */
+    private static FileIterator files(List<Path> paths, String list) throws IOException {
+        Stream<Path> named = paths.stream();
+        if(null != list) {
+            BufferedReader reader = "-".equals(list)
+                    ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                    : Files.newBufferedReader(Paths.get(list), StandardCharsets.UTF_8);
+            named = Stream.concat(named, reader.lines().filter(line -> !line.trim().isEmpty()).map(Paths::get))
+                    .onClose(() -> {
+                        try {
+                            reader.close();
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+        }
+        return new FileIterator(named);
+    }
+
+    /**
+     * Walks the directories one by one as the files are taken, so millions of files are never listed in memory.
+     */
+    private static final class FileIterator implements Iterator<Path>, Closeable {
+        private final Stream<Path> mNamed;
+        private final Iterator<Path> mPaths;
+        private Stream<Path> mWalk = null;
+        private Iterator<Path> mWalked = null;
+        private Path mNext = null;
+
+        FileIterator(Stream<Path> named) {
+            mNamed = named;
+            mPaths = named.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            while(null == mNext) {
+                if(null != mWalked && mWalked.hasNext()) {
+                    mNext = mWalked.next();
+                } else {
+                    closeWalk();
+                    if(!mPaths.hasNext()) {
+                        return false;
+                    }
+                    Path path = mPaths.next();
+                    if(Files.isDirectory(path)) {
+                        try {
+                            mWalk = Files.walk(path).filter(Files::isRegularFile);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                        mWalked = mWalk.iterator();
+                    } else {
+                        mNext = path;
+                    }
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public Path next() {
+            if(!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Path next = mNext;
+            mNext = null;
+            return next;
+        }
+
+        @Override
+        public void close() {
+            closeWalk();
+            mNamed.close();
+        }
+
+        private void closeWalk() {
+            if(null != mWalk) {
+                mWalk.close();
+                mWalk = null;
+                mWalked = null;
+            }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,65 @@
+package service;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Writes a line per exchange to the {@code service.access} logger:
+ * <pre>
+ * id=7 path=json status=200 in=1024 out=131 time=412us error=4</pre>
+ * {@code in} is the number of bytes read from the request, {@code out} the size of the response body before
+ * compression, {@code error} the code of the error response or {@code -} for any other response. A rejected
+ * exchange is logged too, with the status of the rejection.
+ * <p>
+ * The line is formatted when the record is written out, so with {@link AsyncLogHandler} the exchange only pays for
+ * creating the record. The access log is off unless {@code service.access.level} is set in
+ * {@code logging.properties}.
+ */
+final class AccessLog {
+    private static final Logger LOG = Logger.getLogger("service.access");
+
+    private static final String FORMAT = "id={0,number,#} path={1} status={2,number,#} in={3,number,#} " +
+            "out={4,number,#} time={5,number,#}us error={6}";
+
+    static {
+        if(null == LogManager.getLogManager().getProperty(LOG.getName() + ".level")) {
+            LOG.setLevel(Level.OFF);
+        }
+    }
+
+    private AccessLog() { }
+
+    /**
+     * @return  {@code true} if the lines are written at all.
+     */
+    static boolean isEnabled() {
+        return LOG.isLoggable(Level.INFO);
+    }
+
+    /**
+     * Logs an exchange which has been answered.
+     *
+     * @param id  the id of the request.
+     * @param path  the resource of the request.
+     * @param in  the number of bytes read from the request.
+     * @param out  the number of bytes of the response body.
+     * @param nanos  the duration of the exchange.
+     * @param error  the error response, or {@code null} if there has been none.
+     */
+    static void log(HttpExchange t, int id, String path, long in, long out, long nanos,
+                    JSONHandler.BadJSONResponse error) {
+        if(!isEnabled()) {
+            return;
+        }
+        LogRecord record = new LogRecord(Level.INFO, FORMAT);
+        record.setLoggerName(LOG.getName());
+        record.setParameters(new Object[] {id, path, t.getResponseCode(), in, out,
+                TimeUnit.NANOSECONDS.toMicros(nanos), (null != error) ? (Object) error.errorCode : "-"});
+        LOG.log(record);
+    }
+}
@@ -0,0 +1,235 @@
+package service;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Decides whether an exchange is handled at all, so a single huge or deeply nested request or a burst of them does
+ * not take the whole service down.
+ * <p>
+ * The limits come from {@link JVSOptions}, zero or less disables a limit:
+ * <ul>
+ *     <li>{@code maxBody} - a request with a larger {@code Content-Length} is answered with
+ *     {@code 413 Payload Too Large} before anything is read. A request of unknown length is cut off when it
+ *     grows over the limit</li>
+ *     <li>{@code maxDepth} - a JSON nested deeper is answered with {@code 413} as soon as the validator
+ *     reaches the limit</li>
+ *     <li>{@code maxInFlight} - the number of exchanges being validated at once. Anything over it is answered
+ *     with {@code 503 Service Unavailable} without reading the request</li>
+ *     <li>{@code warmup} - until the {@link Warmup} has finished, every exchange is answered with
+ *     {@code 503 Service Unavailable}</li>
+ * </ul>
+ * The number of exchanges waiting for a worker is limited by {@code queue}, see {@link WorkerPool}.
+ * <p>
+ * A rejection response has no body. The request body is not read, so the connection is closed after a response
+ * other than {@code 503}. A request in a coding which {@link Compression} cannot decode is rejected too, with
+ * {@code 415 Unsupported Media Type}.
+ * <p>
+ * A request over a limit is an expected outcome rather than a failure of the service, so unless
+ * {@code stackTraces} is enabled, {@link LimitExceededException} is thrown without capturing the stack.
+ */
+class Admission {
+    /** Limits which make an exchange rejected, they label the rejections in {@link Metrics} */
+    enum Limit {
+        /** The executor queue is full */
+        QUEUE("queue", java.net.HttpURLConnection.HTTP_UNAVAILABLE),
+        /** Too many exchanges are being validated */
+        IN_FLIGHT("in_flight", java.net.HttpURLConnection.HTTP_UNAVAILABLE),
+        /** The request body is too large */
+        BODY("body", java.net.HttpURLConnection.HTTP_ENTITY_TOO_LARGE),
+        /** The JSON is nested too deep */
+        DEPTH("depth", java.net.HttpURLConnection.HTTP_ENTITY_TOO_LARGE),
+        /** The request body is in a coding which cannot be decoded */
+        ENCODING("encoding", java.net.HttpURLConnection.HTTP_UNSUPPORTED_TYPE),
+        /** The service has not warmed up yet */
+        WARMUP("warmup", java.net.HttpURLConnection.HTTP_UNAVAILABLE);
+
+        final String label;
+        final int status;
+
+        Limit(String label, int status) {
+            this.label = label;
+            this.status = status;
+        }
+    }
+
+    /**
+     * Is thrown while a request is read when it turns out to be over a limit.
+     */
+    static class LimitExceededException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        final Limit limit;
+
+        LimitExceededException(Limit limit) {
+            super("Request is over the " + limit.label + " limit");
+            this.limit = limit;
+        }
+    }
+
+    private static final class UntracedLimitExceededException extends LimitExceededException {
+        private static final long serialVersionUID = 1L;
+
+        UntracedLimitExceededException(Limit limit) {
+            super(limit);
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+    private final long mMaxBody;
+    private final int mMaxDepth;
+    private final Semaphore mInFlight;
+    private final boolean mStackTraces;
+    private volatile boolean mWarm;
+
+    Admission(JVSOptions options) {
+        mMaxBody = (0 < options.maxBody) ? options.maxBody : Long.MAX_VALUE;
+        mMaxDepth = (0 < options.maxDepth) ? options.maxDepth : Integer.MAX_VALUE;
+        mInFlight = (0 < options.maxInFlight) ? new Semaphore(options.maxInFlight) : null;
+        mStackTraces = options.stackTraces;
+        mWarm = 0 >= options.warmup;
+    }
+
+    /**
+     * Checks the limits which are known before the request is read. An admitted exchange has to be followed by
+     * {@link #release()}.
+     *
+     * @param length  the length of the request body, or {@code -1} if it is unknown.
+     * @return  {@code null} if the exchange is admitted, otherwise the limit which it is over.
+     */
+    Limit admit(long length) {
+        if(!mWarm) {
+            return Limit.WARMUP;
+        }
+        if(mMaxBody < length) {
+            return Limit.BODY;
+        }
+        if(null != mInFlight && !mInFlight.tryAcquire()) {
+            return Limit.IN_FLIGHT;
+        }
+        return null;
+    }
+
+    /**
+     * Lets the exchanges in once the service has warmed up.
+     */
+    void warmedUp() {
+        mWarm = true;
+    }
+
+    /**
+     * Ends an exchange which has been admitted.
+     */
+    void release() {
+        if(null != mInFlight) {
+            mInFlight.release();
+        }
+    }
+
+    /**
+     * @return  the maximum size of a request body in bytes, {@link Long#MAX_VALUE} if it is not limited.
+     */
+    long getMaxBody() {
+        return mMaxBody;
+    }
+
+    /**
+     * @return  the maximum nesting depth of a JSON, {@link Integer#MAX_VALUE} if it is not limited.
+     */
+    int getMaxDepth() {
+        return mMaxDepth;
+    }
+
+    /**
+     * Creates the exception which tells that a request is over the limit.
+     */
+    LimitExceededException exceeded(Limit limit) {
+        return mStackTraces ? new LimitExceededException(limit) : new UntracedLimitExceededException(limit);
+    }
+
+    /**
+     * Wraps the request body, so reading it fails with {@link LimitExceededException} past the body limit.
+     */
+    InputStream limit(InputStream in) {
+        return (Long.MAX_VALUE == mMaxBody) ? in : new LimitedInputStream(in, mMaxBody);
+    }
+
+    /**
+     * Sends the response to a rejected exchange and closes it.
+     */
+    static void reject(HttpExchange t, Limit limit) throws IOException {
+        if(java.net.HttpURLConnection.HTTP_UNAVAILABLE != limit.status) {
+            t.getResponseHeaders().set("Connection", "close");
+        }
+        t.sendResponseHeaders(limit.status, -1);
+        t.close();
+    }
+
+    /**
+     * Replaces the response with the rejection of a request which has turned out to be over a limit while it has
+     * been read. If the response has been committed already, the exception is thrown again to abort the exchange.
+     *
+     * @param out  the writer of the response, it is flushed but left open.
+     */
+    static void reject(HttpExchange t, Writer out, DeferredResponseStream body, LimitExceededException e)
+            throws IOException {
+        out.flush();
+        if(body.isCommitted()) {
+            throw e;
+        }
+        body.discard();
+        body.setStatus(e.limit.status);
+        t.getResponseHeaders().remove("Content-type");
+        t.getResponseHeaders().set("Connection", "close");
+    }
+
+    private final class LimitedInputStream extends FilterInputStream {
+        private long mLeft;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            mLeft = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if(-1 != b && 0 > --mLeft) {
+                throw exceeded(Limit.BODY);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            // one byte more than allowed tells a request over the limit from one which ends right at it
+            int n = in.read(b, off, (int) Math.min(len, mLeft + 1));
+            if(0 < n) {
+                mLeft -= n;
+                if(0 > mLeft) {
+                    throw exceeded(Limit.BODY);
+                }
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(Math.min(n, mLeft + 1));
+            mLeft -= skipped;
+            if(0 > mLeft) {
+                throw exceeded(Limit.BODY);
+            }
+            return skipped;
+        }
+    }
+}
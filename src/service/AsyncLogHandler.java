@@ -0,0 +1,308 @@
+package service;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.ConsoleHandler;
+import java.util.logging.ErrorManager;
+import java.util.logging.FileHandler;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.LogRecord;
+import java.util.logging.SimpleFormatter;
+
+/**
+ * A log handler which takes the output off the threads that log.
+ * <p>
+ * A published record is put into a bounded lock-free ring buffer and the method returns. A single writer thread
+ * takes the records out in batches, passes them to the console or to a rotating file and flushes the output once
+ * per batch, so a burst of records does not make the exchanges wait for each other on {@code System.err}.
+ * <p>
+ * The handler is configured in {@code logging.properties} like the handlers of the JDK:
+ * <ul>
+ *     <li>{@code service.AsyncLogHandler.level} - the lowest level which is published, {@code ALL} by default</li>
+ *     <li>{@code service.AsyncLogHandler.capacity} - the number of records the buffer holds, rounded up to
+ *     a power of two, 8192 by default</li>
+ *     <li>{@code service.AsyncLogHandler.policy} - what happens to a record when the buffer is full:
+ *     {@code drop} discards it, {@code block} makes the logging thread wait for room. {@code drop} by default,
+ *     the number of dropped records is logged once there is room again</li>
+ *     <li>{@code service.AsyncLogHandler.target} - {@code console} or {@code file}, {@code console} by default</li>
+ *     <li>{@code service.AsyncLogHandler.pattern}, {@code .limit} and {@code .count} - the file name pattern,
+ *     the size of a file in bytes and the number of files of the {@code file} target, see {@link FileHandler}.
+ *     {@code jvs%g.log}, 10 MiB and 5 by default</li>
+ *     <li>{@code service.AsyncLogHandler.formatter} - the formatter of the target, {@link SimpleFormatter}
+ *     by default</li>
+ *     <li>{@code service.AsyncLogHandler.location} - whether the class and the method which have logged a record
+ *     are found out. It takes a walk over the stack of the logging thread, so it is {@code false} by default and
+ *     the name of the logger is printed instead</li>
+ * </ul>
+ * The writer thread is a daemon. Records which are still in the buffer are written out by {@link #close()}, which
+ * {@link LogManager} calls when the JVM shuts down.
+ */
+public class AsyncLogHandler extends Handler {
+    /** What happens to a record when the buffer is full */
+    public enum Policy {
+        /** The record is discarded */
+        DROP,
+        /** The logging thread waits until the writer makes room */
+        BLOCK
+    }
+
+    private static final int DEFAULT_CAPACITY = 8192;
+    private static final int MAX_CAPACITY = 1 << 20;
+    /** The most records passed to the target between two flushes */
+    private static final int BATCH_SIZE = 256;
+    /** How long the idle writer sleeps when nobody wakes it up */
+    private static final long IDLE_NANOS = 100_000_000L;
+    /** How long {@link #close()} waits for the writer */
+    private static final long CLOSE_MILLIS = 1000;
+
+    private final Handler mTarget;
+    private final Policy mPolicy;
+    private final boolean mLocation;
+
+    private final LogRecord[] mRecords;
+    /** The turn of every slot: the position which may be written to it or, plus one, the one which may be read */
+    private final AtomicLongArray mTurns;
+    private final int mMask;
+    private final AtomicLong mHead = new AtomicLong();
+    /** The next position to read, it is only touched by the writer */
+    private long mTail = 0;
+
+    private final LongAdder mDropped = new LongAdder();
+    private final Thread mWriter;
+    private volatile boolean mIdle = false;
+    private volatile boolean mClosed = false;
+
+    /**
+     * Creates the handler configured by the {@link LogManager}.
+     */
+    public AsyncLogHandler() {
+        this(newTarget(), intProperty("capacity", DEFAULT_CAPACITY), policyProperty(),
+                Boolean.parseBoolean(property("location", "false")));
+        setLevel(levelProperty());
+    }
+
+    /**
+     * @param target  the handler which writes the records out, it is closed together with this handler.
+     * @param capacity  the number of records which can wait for the writer.
+     * @param policy  what happens to a record when the buffer is full.
+     * @param location  {@code true} to find out the class and the method which have logged a record.
+     */
+    public AsyncLogHandler(Handler target, int capacity, Policy policy, boolean location) {
+        int size = Integer.highestOneBit(Math.max(2, Math.min(MAX_CAPACITY, capacity) * 2 - 1));
+        mTarget = target;
+        mPolicy = (null != policy) ? policy : Policy.DROP;
+        mLocation = location;
+        mRecords = new LogRecord[size];
+        mTurns = new AtomicLongArray(size);
+        mMask = size - 1;
+        for(int i = 0; i < size; ++i) {
+            mTurns.set(i, i);
+        }
+
+        mWriter = new Thread(this::write, "jvs-log-writer");
+        mWriter.setDaemon(true);
+        mWriter.start();
+    }
+
+    /**
+     * Puts the record into the buffer. It does not wait for anything unless the buffer is full and the policy is
+     * {@link Policy#BLOCK}.
+     */
+    @Override
+    public void publish(LogRecord record) {
+        if(mClosed || !isLoggable(record)) {
+            return;
+        }
+        if(mLocation) {
+            record.getSourceClassName(); // the stack of the logging thread is needed for that
+        } else {
+            record.setSourceClassName(record.getLoggerName());
+            record.setSourceMethodName(null);
+        }
+
+        while(!offer(record)) {
+            if(Policy.DROP == mPolicy || mClosed) {
+                mDropped.increment();
+                return;
+            }
+            LockSupport.unpark(mWriter);
+            Thread.yield();
+        }
+        if(mIdle) {
+            LockSupport.unpark(mWriter);
+        }
+    }
+
+    /**
+     * Wakes the writer up, the records are written out asynchronously anyway.
+     */
+    @Override
+    public void flush() {
+        LockSupport.unpark(mWriter);
+    }
+
+    /**
+     * Writes out the records which are in the buffer and closes the target.
+     */
+    @Override
+    public void close() {
+        if(mClosed) {
+            return;
+        }
+        mClosed = true;
+        LockSupport.unpark(mWriter);
+        try {
+            mWriter.join(CLOSE_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mTarget.close();
+    }
+
+    /**
+     * @return  the number of records which have been dropped since the start.
+     */
+    public long getDropped() {
+        return mDropped.sum();
+    }
+
+    private boolean offer(LogRecord record) {
+        long position = mHead.get();
+        while(true) {
+            int slot = (int) position & mMask;
+            long lag = mTurns.get(slot) - position;
+            if(0 == lag) {
+                if(mHead.compareAndSet(position, position + 1)) {
+                    mRecords[slot] = record;
+                    mTurns.lazySet(slot, position + 1);
+                    return true;
+                }
+                position = mHead.get();
+            } else if(0 > lag) {
+                return false; // the slot still holds a record of the previous lap
+            } else {
+                position = mHead.get();
+            }
+        }
+    }
+
+    private LogRecord poll() {
+        int slot = (int) mTail & mMask;
+        if(mTail + 1 != mTurns.get(slot)) {
+            return null;
+        }
+        LogRecord record = mRecords[slot];
+        mRecords[slot] = null;
+        mTurns.lazySet(slot, mTail + mRecords.length);
+        ++mTail;
+        return record;
+    }
+
+    private void write() {
+        long reported = 0;
+        while(true) {
+            boolean closed = mClosed;
+            int count = 0;
+            LogRecord record;
+            while(BATCH_SIZE > count && null != (record = poll())) {
+                mTarget.publish(record);
+                ++count;
+            }
+
+            long dropped = mDropped.sum();
+            if(reported != dropped) {
+                LogRecord report = new LogRecord(Level.WARNING, "{0} log records have been dropped");
+                report.setLoggerName(AsyncLogHandler.class.getName());
+                report.setSourceClassName(AsyncLogHandler.class.getName());
+                report.setParameters(new Object[] {dropped - reported});
+                mTarget.publish(report);
+                reported = dropped;
+                ++count;
+            }
+
+            if(0 < count) {
+                mTarget.flush();
+            } else if(closed) {
+                return;
+            } else {
+                mIdle = true;
+                if(null == peek()) {
+                    LockSupport.parkNanos(this, IDLE_NANOS);
+                }
+                mIdle = false;
+            }
+        }
+    }
+
+    private LogRecord peek() {
+        return (mTail + 1 == mTurns.get((int) mTail & mMask)) ? mRecords[(int) mTail & mMask] : null;
+    }
+
+    private static Handler newTarget() {
+        Handler target;
+        if("file".equals(property("target", "console").toLowerCase(Locale.ROOT))) {
+            try {
+                target = new FileHandler(property("pattern", "jvs%g.log"), intProperty("limit", 10 * 1024 * 1024),
+                        intProperty("count", 5), true);
+            } catch (IOException | RuntimeException e) {
+                new ErrorManager().error("Log file cannot be opened, the console is used", e,
+                        ErrorManager.OPEN_FAILURE);
+                target = new ConsoleHandler();
+            }
+        } else {
+            target = new ConsoleHandler();
+        }
+        target.setLevel(Level.ALL);
+        target.setFormatter(formatterProperty());
+        return target;
+    }
+
+    private static String property(String name, String defaultValue) {
+        String value = LogManager.getLogManager().getProperty(AsyncLogHandler.class.getName() + '.' + name);
+        return (null != value) ? value.trim() : defaultValue;
+    }
+
+    private static int intProperty(String name, int defaultValue) {
+        try {
+            return Integer.parseInt(property(name, Integer.toString(defaultValue)));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static Policy policyProperty() {
+        try {
+            return Policy.valueOf(property("policy", "drop").toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return Policy.DROP;
+        }
+    }
+
+    private static Level levelProperty() {
+        try {
+            return Level.parse(property("level", "ALL"));
+        } catch (IllegalArgumentException e) {
+            return Level.ALL;
+        }
+    }
+
+    private static Formatter formatterProperty() {
+        String name = property("formatter", null);
+        if(null != name) {
+            try {
+                return (Formatter) ClassLoader.getSystemClassLoader().loadClass(name).getDeclaredConstructor()
+                        .newInstance();
+            } catch (ReflectiveOperationException | ClassCastException e) {
+                new ErrorManager().error("Formatter cannot be created: " + name, e, ErrorManager.GENERIC_FAILURE);
+            }
+        }
+        return new SimpleFormatter();
+    }
+}
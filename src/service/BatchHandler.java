@@ -0,0 +1,124 @@
+package service;
+
+import com.google.gson.stream.JsonWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+
+/**
+ * Validates a batch of JSON documents sent as <a href="http://ndjson.org">newline-delimited JSON</a>.
+ * <p>
+ * Every line of the request is a document of its own. Lines are validated one by one as the request streams in,
+ * with the engine chosen by {@link JVSOptions#engine}, and no line is held in memory as a whole. Blank lines are
+ * skipped. For every other line a result is written to the response as a line of its own:
+ * <pre>
+ * {"line":1,"ok":true}
+ * {"line":2,"ok":false,"errorCode":4,"errorMessage":"Expected ':'","errorPlace":"at line 1 column 7 path $.a","resource":"batch","requestId":7}
+ * </pre>
+ * The error fields are the same as the ones of the error response of {@link JSONHandler}, and all the lines of
+ * a batch share its request id. Results go through {@link DeferredResponseStream}, so they start flowing to
+ * the client while the rest of the request is being read.
+ * <p>
+ * The limits of {@link Admission} apply to the batch as a whole, except for the nesting depth which applies to
+ * every line. The exchange is admitted and recorded by {@link JSONHandler#exchange(HttpExchange, String,
+ * JVSOptions.Mode, JSONHandler.Responder)}, the same way as a single document.
+ */
+class BatchHandler implements HttpHandler {
+    private final JVSOptions mOptions;
+    private final Metrics mMetrics;
+    private final Admission mAdmission;
+    private final JSONHandler mValidator;
+
+    /**
+     * @param tracing  the tracing of the service, so it is switched for the batches as well.
+     */
+    BatchHandler(JVSOptions options, Metrics metrics, Admission admission, Tracing tracing) {
+        mOptions = options;
+        mMetrics = metrics;
+        mAdmission = admission;
+        mValidator = new JSONHandler(options, metrics, admission, null, null, tracing);
+    }
+
+    @Override
+    public void handle(HttpExchange t) throws IOException {
+        mValidator.exchange(t, "batch", mOptions.mode, (in, coding, length, body, path, id) -> {
+            respond(t, in, coding, body, path, id);
+            return null;
+        });
+    }
+
+    private void respond(HttpExchange t, InputStream in, String coding, DeferredResponseStream body, String path,
+                         int id) throws IOException {
+        t.getResponseHeaders().set("Content-type", "application/x-ndjson");
+
+        Writer out = new Utf8Writer(body, BufferPool.DEFAULT);
+        try {
+            validate(mAdmission.limit(Compression.decode(in, coding)), out, path, id);
+        } catch (Admission.LimitExceededException e) {
+            mMetrics.rejected(e.limit);
+            Admission.reject(t, out, body, e);
+        }
+        out.close();
+    }
+
+    /**
+     * Validates the lines of a batch and writes the result of every line which is not blank to {@code out}.
+     */
+    void validate(InputStream in, Writer out, String path, int id) throws IOException {
+        JsonWriter writer = new JsonWriter(out);
+        writer.setLenient(true); // a result per line makes a sequence of top-level values
+
+        boolean nativeEngine = JVSOptions.Engine.NATIVE == mOptions.engine;
+        LineInputStream lines = new LineInputStream(in, BufferPool.DEFAULT);
+        Utf8Reader reader = nativeEngine ? null : new Utf8Reader(lines, BufferPool.DEFAULT, -1);
+        byte[] buffer = nativeEngine ? BufferPool.DEFAULT.acquire(BufferPool.MIN_SIZE) : null;
+        try {
+            for(long line = 1; lines.nextLine(); ++line) {
+                if(lines.skipBlank()) {
+                    continue;
+                }
+
+                JSONHandler.BadJSONResponse response;
+                if(nativeEngine) {
+                    response = mValidator.checkDocument(lines, buffer, path, id);
+                } else {
+                    reader.restart();
+                    response = mValidator.transferDocument(reader, null, path, id);
+                }
+                if(null != response) {
+                    mMetrics.error(response.errorCode);
+                }
+                writeResult(writer, line, response);
+                out.write('\n');
+            }
+        } finally {
+            BufferPool.DEFAULT.release(buffer);
+            if(null != reader) {
+                reader.close();
+            } else {
+                lines.close();
+            }
+        }
+    }
+
+    private static void writeResult(JsonWriter writer, long line, JSONHandler.BadJSONResponse response)
+            throws IOException {
+        writer.beginObject();
+        writer.name("line").value(line);
+        writer.name("ok").value(null == response);
+        if(null != response) {
+            writer.name("errorCode").value(response.errorCode);
+            writer.name("errorMessage").value(response.errorMessage);
+            String place = response.errorPlace();
+            if(null != place) {
+                writer.name("errorPlace").value(place);
+            }
+            writer.name("resource").value(response.resource);
+            writer.name("requestId").value(response.requestId);
+        }
+        writer.endObject();
+    }
+}
@@ -0,0 +1,78 @@
+package service;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Keeps byte buffers between requests, so reading and writing a request does not produce garbage.
+ * <p>
+ * Buffers are handed out in power-of-two size classes from {@link #MIN_SIZE} to {@link #MAX_SIZE} bytes.
+ * Each class keeps at most {@link #CLASS_CAPACITY} free buffers. A buffer which is not released, or which does
+ * not fit its class any more, is simply left to the garbage collector.
+ */
+class BufferPool {
+    static final int MIN_SIZE = 4 * 1024;
+    static final int MAX_SIZE = 64 * 1024;
+    static final int CLASS_CAPACITY = 64;
+
+    /** The pool which is shared by all the handlers */
+    static final BufferPool DEFAULT = new BufferPool();
+
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_SIZE);
+
+    private final ArrayBlockingQueue<byte[]>[] mClasses;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    BufferPool() {
+        int classes = Integer.numberOfTrailingZeros(MAX_SIZE) - MIN_SHIFT + 1;
+
+        mClasses = new ArrayBlockingQueue[classes];
+        for(int i = 0; i < classes; ++i) {
+            mClasses[i] = new ArrayBlockingQueue<>(CLASS_CAPACITY);
+        }
+    }
+
+    /**
+     * Returns a buffer of at least {@code size} bytes, but no more than {@link #MAX_SIZE} bytes.
+     *
+     * @param size  the desired size of the buffer.
+     * @return  a buffer whose length is a power of two.
+     */
+    byte[] acquire(long size) {
+        int index = classOf(size);
+        byte[] buffer = mClasses[index].poll();
+
+        return (null != buffer) ? buffer : new byte[MIN_SIZE << index];
+    }
+
+    /**
+     * Gives a buffer back to the pool. The buffer must not be used after that.
+     *
+     * @param buffer  a buffer returned by {@link #acquire(long)}.
+     */
+    void release(byte[] buffer) {
+        if(null != buffer && MIN_SIZE <= buffer.length && MAX_SIZE >= buffer.length
+                && 1 == Integer.bitCount(buffer.length)) {
+            mClasses[classOf(buffer.length)].offer(buffer);
+        }
+    }
+
+    /**
+     * Chooses a size for a buffer which reads a request body.
+     *
+     * @param contentLength  the value of {@code Content-Length}, zero or less if it is unknown.
+     * @return  the request size if it is known, the largest buffer size otherwise.
+     */
+    static long sizeFor(long contentLength) {
+        return (0 < contentLength) ? contentLength : MAX_SIZE;
+    }
+
+    private static int classOf(long size) {
+        if(MIN_SIZE >= size) {
+            return 0;
+        }
+        if(MAX_SIZE <= size) {
+            return Integer.numberOfTrailingZeros(MAX_SIZE) - MIN_SHIFT;
+        }
+        return 32 - Integer.numberOfLeadingZeros((int) size - 1) - MIN_SHIFT;
+    }
+}
@@ -0,0 +1,260 @@
+package service;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Validates files on disk with the same rules and error codes as the service, without any HTTP.
+ * <p>
+ * Files are validated in parallel by a {@link WorkerPool} of {@code threads} workers, with the engine and the
+ * nesting limit of {@link JVSOptions}. A file of at least {@link #MAP_THRESHOLD} bytes is memory-mapped, so its
+ * bytes go from the page cache straight into the buffer of the validator; a smaller one is simply read, since
+ * mapping costs more than reading it. A result is written to the report as a line of its own:
+ * <pre>
+ * {"file":"data/a.json","ok":true,"bytes":512}
+ * {"file":"data/b.json","ok":false,"bytes":96,"errorCode":4,"errorMessage":"Expected ':'","errorPlace":"at line 1 column 7 path $.a"}
+ * {"file":"data/c.json","ok":false,"error":"data/c.json (Permission denied)"}
+ * </pre>
+ * The error fields are the same as the ones of the error response of {@link JSONHandler}. Lines are written in
+ * the order the files are done, not in the order they are given.
+ */
+public class BulkValidator {
+    /** The size of the smallest file which is memory-mapped */
+    static final long MAP_THRESHOLD = BufferPool.MAX_SIZE;
+    /** The largest part of a file which is mapped at once */
+    private static final long MAP_WINDOW = 256L * 1024 * 1024;
+
+    private final JVSOptions mOptions;
+    private final JSONHandler mValidator;
+
+    /**
+     * @param options  the options of the service, the engine, the threads and the nesting limit are used.
+     */
+    public BulkValidator(JVSOptions options) {
+        mOptions = options;
+        mValidator = new JSONHandler(options);
+    }
+
+    /**
+     * Validates the files and waits until all of them are done.
+     *
+     * @param files  the files to validate.
+     * @param report  the writer of the report, it is flushed but left open.
+     * @return  the totals of the run.
+     * @throws IOException  if the report cannot be written.
+     */
+    public Summary validate(Iterator<Path> files, Writer report) throws IOException {
+        int threads = (0 < mOptions.threads) ? mOptions.threads : Runtime.getRuntime().availableProcessors();
+        WorkerPool workers = new WorkerPool(new JVSOptionsBuilder()
+                .setExecutor(JVSOptions.Executor.FIXED)
+                .setThreads(threads)
+                .setQueue(4 * threads)
+                .setRejection(JVSOptions.Rejection.CALLER)
+                .build());
+        Summary summary = new Summary();
+        Phaser done = new Phaser(1);
+        AtomicReference<IOException> reportError = new AtomicReference<>();
+
+        long start = System.nanoTime();
+        try {
+            while(files.hasNext() && null == reportError.get()) {
+                Path file = files.next();
+                done.register();
+                workers.execute(() -> {
+                    try {
+                        validate(file, report, summary);
+                    } catch (IOException e) {
+                        reportError.compareAndSet(null, e);
+                    } finally {
+                        done.arriveAndDeregister();
+                    }
+                });
+            }
+            done.arriveAndAwaitAdvance();
+        } finally {
+            workers.shutdown(mOptions.delay);
+        }
+        summary.mNanos = System.nanoTime() - start;
+
+        if(null != reportError.get()) {
+            throw reportError.get();
+        }
+        report.flush();
+        return summary;
+    }
+
+    private void validate(Path file, Writer report, Summary summary) throws IOException {
+        String name = file.toString();
+        long size = -1;
+        JSONHandler.BadJSONResponse response = null;
+        String failure = null;
+
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            size = channel.size();
+            InputStream in = (MAP_THRESHOLD > size) ? Channels.newInputStream(channel)
+                    : new MappedInputStream(channel, size);
+            if(JVSOptions.Engine.NATIVE == mOptions.engine) {
+                response = mValidator.checkRequest(in, size, name, 0);
+            } else {
+                response = mValidator.transferRequest(new Utf8Reader(in, BufferPool.DEFAULT, size), null, name, 0);
+            }
+        } catch (IOException | RuntimeException e) {
+            failure = e.toString();
+        }
+
+        summary.mFiles.increment();
+        if(null != failure) {
+            summary.mFailed.increment();
+        } else {
+            summary.mBytes.add(size);
+            if(null == response) {
+                summary.mValid.increment();
+            } else {
+                summary.mInvalid.increment();
+            }
+        }
+
+        synchronized(report) {
+            JsonWriter writer = new JsonWriter(report);
+            writer.beginObject();
+            writer.name("file").value(name);
+            writer.name("ok").value(null == failure && null == response);
+            if(null != failure) {
+                writer.name("error").value(failure);
+            } else {
+                writer.name("bytes").value(size);
+            }
+            if(null != response) {
+                writer.name("errorCode").value(response.errorCode);
+                writer.name("errorMessage").value(response.errorMessage);
+                String place = response.errorPlace();
+                if(null != place) {
+                    writer.name("errorPlace").value(place);
+                }
+            }
+            writer.endObject();
+            writer.flush();
+            report.write('\n');
+        }
+    }
+
+    /**
+     * The totals of a run.
+     */
+    public static final class Summary {
+        private final LongAdder mFiles = new LongAdder();
+        private final LongAdder mValid = new LongAdder();
+        private final LongAdder mInvalid = new LongAdder();
+        private final LongAdder mFailed = new LongAdder();
+        private final LongAdder mBytes = new LongAdder();
+        private long mNanos;
+
+        /** @return  the number of files validated or failed to be read. */
+        public long getFiles() {
+            return mFiles.sum();
+        }
+
+        /** @return  the number of valid files. */
+        public long getValid() {
+            return mValid.sum();
+        }
+
+        /** @return  the number of files which are not a valid JSON. */
+        public long getInvalid() {
+            return mInvalid.sum();
+        }
+
+        /** @return  the number of files which could not be read. */
+        public long getFailed() {
+            return mFailed.sum();
+        }
+
+        /** @return  the number of bytes validated. */
+        public long getBytes() {
+            return mBytes.sum();
+        }
+
+        /** @return  the time of the whole run in nanoseconds. */
+        public long getNanos() {
+            return mNanos;
+        }
+
+        @Override
+        public String toString() {
+            double seconds = Math.max(1, mNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+            return String.format(Locale.ROOT,
+                    "files=%d valid=%d invalid=%d failed=%d bytes=%d time=%.3fs throughput=%.1fMB/s %.0f files/s",
+                    getFiles(), getValid(), getInvalid(), getFailed(), getBytes(), seconds,
+                    getBytes() / seconds / (1024 * 1024), getFiles() / seconds);
+        }
+    }
+
+    /**
+     * Reads a file through windows mapped one after another, so a file of any size can be read and the address
+     * space is not taken by more than one window per file.
+     */
+    private static final class MappedInputStream extends InputStream {
+        private final FileChannel mChannel;
+        private final long mSize;
+        private long mPosition = 0;
+        private MappedByteBuffer mWindow = null;
+
+        MappedInputStream(FileChannel channel, long size) {
+            mChannel = channel;
+            mSize = size;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return nextWindow() ? mWindow.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(0 == len) {
+                return 0;
+            }
+            if(!nextWindow()) {
+                return -1;
+            }
+            int n = Math.min(len, mWindow.remaining());
+            mWindow.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return (null != mWindow) ? mWindow.remaining() : 0;
+        }
+
+        /**
+         * @return  {@code false} if the file has been read to the end.
+         */
+        private boolean nextWindow() throws IOException {
+            if(null != mWindow && mWindow.hasRemaining()) {
+                return true;
+            }
+            if(mPosition >= mSize) {
+                return false;
+            }
+            long length = Math.min(MAP_WINDOW, mSize - mPosition);
+            mWindow = mChannel.map(FileChannel.MapMode.READ_ONLY, mPosition, length);
+            mPosition += length;
+            return true;
+        }
+    }
+}
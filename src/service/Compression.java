@@ -0,0 +1,189 @@
+package service;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Content codings of requests and responses.
+ * <p>
+ * A request body in {@code gzip} or {@code deflate} coding is decompressed as it is read, so the validators never
+ * see compressed bytes and the limits of {@link Admission} apply to the decompressed ones. A request in any other
+ * coding is rejected with {@code 415 Unsupported Media Type}.
+ * <p>
+ * A response is compressed if the client accepts {@code gzip} or {@code deflate} and the compression level of
+ * {@link JVSOptions} is above zero. {@link DeferredResponseStream} decides on it: a response held back in full is
+ * compressed only if it is at least {@code compressionMin} bytes long, a committed one is compressed as it
+ * streams.
+ */
+class Compression {
+    static final String GZIP = "gzip";
+    static final String DEFLATE = "deflate";
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private final int mLevel;
+    private final int mMinSize;
+
+    Compression(JVSOptions options) {
+        mLevel = Math.min(Deflater.BEST_COMPRESSION, options.compression);
+        mMinSize = Math.max(0, options.compressionMin);
+    }
+
+    /**
+     * @return  the smallest response which is compressed.
+     */
+    int getMinSize() {
+        return mMinSize;
+    }
+
+    /**
+     * Chooses the coding of the response from the {@code Accept-Encoding} header of the request. {@code gzip} is
+     * preferred over {@code deflate} of the same quality. A coding which the header names has the quality given
+     * to it, so {@code q=0} refuses it, and {@code *} stands only for the codings which the header does not name.
+     * If compression is enabled, the response is marked as varying by {@code Accept-Encoding}.
+     *
+     * @return  {@code GZIP}, {@code DEFLATE} or {@code null} if the response is not compressed.
+     */
+    String negotiate(HttpExchange t) {
+        if(0 >= mLevel) {
+            return null;
+        }
+        t.getResponseHeaders().set("Vary", "Accept-Encoding");
+        List<String> headers = t.getRequestHeaders().get("Accept-encoding");
+        return (null != headers) ? negotiate(headers) : null;
+    }
+
+    /**
+     * Chooses the coding of the response from the values of the {@code Accept-Encoding} header.
+     *
+     * @return  {@code GZIP}, {@code DEFLATE} or {@code null} if no coding is acceptable.
+     */
+    static String negotiate(List<String> headers) {
+        // -1 stands for a coding which is not named
+        double gzip = -1;
+        double deflate = -1;
+        double any = -1;
+        for(String header : headers) {
+            for(String element : header.split(",")) {
+                String[] parts = element.split(";");
+                String coding = parts[0].trim().toLowerCase(Locale.ROOT);
+                double quality = 1;
+                for(int i = 1; i < parts.length; ++i) {
+                    String parameter = parts[i].trim();
+                    if(parameter.startsWith("q=")) {
+                        try {
+                            quality = Math.max(0, Math.min(1, Double.parseDouble(parameter.substring(2))));
+                        } catch (NumberFormatException e) {
+                            quality = 0;
+                        }
+                    }
+                }
+                if(GZIP.equals(coding) || "x-gzip".equals(coding)) {
+                    gzip = Math.max(gzip, quality);
+                } else if(DEFLATE.equals(coding)) {
+                    deflate = Math.max(deflate, quality);
+                } else if("*".equals(coding)) {
+                    any = Math.max(any, quality);
+                }
+            }
+        }
+        gzip = (0 <= gzip) ? gzip : any;
+        deflate = (0 <= deflate) ? deflate : any;
+        if(0 < gzip && gzip >= deflate) {
+            return GZIP;
+        }
+        return (0 < deflate) ? DEFLATE : null;
+    }
+
+    /**
+     * Wraps a response body into a compressing stream. Every flush of the stream sends everything written so far.
+     *
+     * @param coding  {@code GZIP} or {@code DEFLATE}.
+     */
+    OutputStream compress(OutputStream out, String coding) throws IOException {
+        if(GZIP.equals(coding)) {
+            return new GZIPOutputStream(out, BUFFER_SIZE, true) {
+                {
+                    def.setLevel(mLevel);
+                }
+            };
+        }
+        Deflater deflater = new Deflater(mLevel);
+        return new DeflaterOutputStream(out, deflater, BUFFER_SIZE, true) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    deflater.end();
+                }
+            }
+        };
+    }
+
+    /**
+     * Reads the coding of the request body from its {@code Content-Encoding} header.
+     *
+     * @return  {@code null} if the body is not encoded, {@code GZIP}, {@code DEFLATE}, or the header value if
+     *          the coding is not supported.
+     */
+    static String coding(HttpExchange t) {
+        String coding = t.getRequestHeaders().getFirst("Content-encoding");
+        if(null == coding) {
+            return null;
+        }
+        coding = coding.trim().toLowerCase(Locale.ROOT);
+        switch(coding) {
+            case "":
+            case "identity":
+                return null;
+            case "x-gzip":
+                return GZIP;
+            default:
+                return coding;
+        }
+    }
+
+    /**
+     * @return  {@code true} if a request body in the coding can be decoded.
+     */
+    static boolean isSupported(String coding) {
+        return null == coding || GZIP.equals(coding) || DEFLATE.equals(coding);
+    }
+
+    /**
+     * Wraps a request body into a decompressing stream.
+     *
+     * @param coding  a supported coding of the body, see {@link #coding(HttpExchange)}.
+     * @throws IOException  if the body does not start with a header of its coding.
+     */
+    static InputStream decode(InputStream in, String coding) throws IOException {
+        if(null == coding) {
+            return in;
+        }
+        if(GZIP.equals(coding)) {
+            return new GZIPInputStream(in, BUFFER_SIZE);
+        }
+        return new InflaterInputStream(in, new Inflater(), BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inf.end();
+                }
+            }
+        };
+    }
+}
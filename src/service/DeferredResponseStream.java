@@ -0,0 +1,244 @@
+package service;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Response body which holds back the response headers until it is known how the response should be sent.
+ * <p>
+ * Everything written is kept in a buffer until the buffer overflows. At that moment the response is committed:
+ * {@code 200 OK} headers are sent with chunked transfer encoding and from then on the output goes straight to
+ * the exchange. A response that fits the buffer is sent with an exact {@code Content-Length} on {@link #close()},
+ * and it can still be replaced with another response via {@link #discard()}.
+ * <p>
+ * The response is compressed if {@link #setCompression(Compression, String)} has chosen a coding: a response
+ * which fits the buffer is compressed as a whole unless it is smaller than {@link Compression#getMinSize()},
+ * and a committed one is compressed as it streams.
+ * <p>
+ * The buffer is taken from a {@link BufferPool} and goes back there when the stream is closed.
+ * The time spent in sending to the exchange and the size of the response are accumulated for {@link Metrics}
+ * and {@link AccessLog}.
+ */
+class DeferredResponseStream extends OutputStream {
+    /** Amount of the output which is held back before the response is committed */
+    static final int COMMIT_THRESHOLD = 64 * 1024;
+
+    private final HttpExchange mExchange;
+    private final BufferPool mPool;
+    private byte[] mBuffer;
+    private int mCount = 0;
+    private int mStatus = java.net.HttpURLConnection.HTTP_OK;
+    private OutputStream mBody = null;
+    private long mNanos = 0;
+    private long mSent = 0;
+    private Compression mCompression = null;
+    private String mCoding = null;
+    private Runnable mBeforeHeaders = null;
+
+    DeferredResponseStream(HttpExchange exchange, BufferPool pool) {
+        mExchange = exchange;
+        mPool = pool;
+        mBuffer = pool.acquire(COMMIT_THRESHOLD);
+    }
+
+    /**
+     * Compresses the response in a coding.
+     *
+     * @param coding  the coding chosen by {@link Compression#negotiate(com.sun.net.httpserver.HttpExchange)},
+     *                or {@code null} if the response is not compressed.
+     */
+    void setCompression(Compression compression, String coding) {
+        mCompression = compression;
+        mCoding = coding;
+    }
+
+    /**
+     * Runs an action right before the response headers are sent, so it can still add headers.
+     *
+     * @param action  the action, or {@code null} for none.
+     */
+    void setBeforeHeaders(Runnable action) {
+        mBeforeHeaders = action;
+    }
+
+    /**
+     * Sets the status of a response which has not been committed yet. A chunked response is always {@code 200 OK}.
+     *
+     * @param status  an HTTP status code.
+     */
+    void setStatus(int status) {
+        mStatus = status;
+    }
+
+    /**
+     * @return  the status of the response, unless it has been committed.
+     */
+    int getStatus() {
+        return mStatus;
+    }
+
+    /**
+     * Copies the output which is held back.
+     *
+     * @return  the whole response body, or {@code null} if the response has been committed.
+     */
+    byte[] toByteArray() {
+        return isCommitted() ? null : Arrays.copyOf(mBuffer, mCount);
+    }
+
+    /**
+     * Tells whether the response headers have been sent.
+     *
+     * @return  {@code true} if the output already goes to the client.
+     */
+    boolean isCommitted() {
+        return null != mBody;
+    }
+
+    /**
+     * Drops everything written so far.
+     *
+     * @throws IllegalStateException  if the response has been committed.
+     */
+    void discard() {
+        if(isCommitted()) {
+            throw new IllegalStateException("Response has been committed");
+        }
+        mCount = 0;
+    }
+
+    /**
+     * Tells how long the stream has been sending the response so far.
+     *
+     * @return  the time in nanoseconds spent in writing to the exchange.
+     */
+    long getWriteNanos() {
+        return mNanos;
+    }
+
+    /**
+     * @return  the number of bytes of the response body sent so far, before compression.
+     */
+    long getSentBytes() {
+        return mSent;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if(!isCommitted() && mCount == mBuffer.length) {
+            commit();
+        }
+        if(isCommitted()) {
+            long start = System.nanoTime();
+            try {
+                mBody.write(b);
+                ++mSent;
+            } finally {
+                mNanos += System.nanoTime() - start;
+            }
+        } else {
+            mBuffer[mCount++] = (byte) b;
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if(!isCommitted() && len > mBuffer.length - mCount) {
+            commit();
+        }
+        if(isCommitted()) {
+            long start = System.nanoTime();
+            try {
+                mBody.write(b, off, len);
+                mSent += len;
+            } finally {
+                mNanos += System.nanoTime() - start;
+            }
+        } else {
+            System.arraycopy(b, off, mBuffer, mCount, len);
+            mCount += len;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if(isCommitted()) {
+            long start = System.nanoTime();
+            try {
+                mBody.flush();
+            } finally {
+                mNanos += System.nanoTime() - start;
+            }
+        }
+    }
+
+    /**
+     * Sends the held back output with the exact length, or finishes the chunked response.
+     */
+    @Override
+    public void close() throws IOException {
+        if(null == mBuffer) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            if(!isCommitted() && null != mCoding && 0 < mCount && mCompression.getMinSize() <= mCount) {
+                byte[] compressed = compressHeld();
+                mExchange.getResponseHeaders().set("Content-encoding", mCoding);
+                beforeHeaders();
+                mExchange.sendResponseHeaders(mStatus, compressed.length);
+                mBody = mExchange.getResponseBody();
+                mBody.write(compressed);
+                mSent += mCount;
+            } else if(!isCommitted()) {
+                beforeHeaders();
+                mExchange.sendResponseHeaders(mStatus, (0 == mCount) ? -1 : mCount);
+                mBody = mExchange.getResponseBody();
+                mBody.write(mBuffer, 0, mCount);
+                mSent += mCount;
+            }
+            mBody.close();
+        } finally {
+            mNanos += System.nanoTime() - start;
+            mPool.release(mBuffer);
+            mBuffer = null;
+        }
+    }
+
+    private void commit() throws IOException {
+        long start = System.nanoTime();
+        try {
+            if(null != mCoding) {
+                mExchange.getResponseHeaders().set("Content-encoding", mCoding);
+            }
+            beforeHeaders();
+            mExchange.sendResponseHeaders(java.net.HttpURLConnection.HTTP_OK, 0);
+            mBody = mExchange.getResponseBody();
+            if(null != mCoding) {
+                mBody = mCompression.compress(mBody, mCoding);
+            }
+            mBody.write(mBuffer, 0, mCount);
+            mSent += mCount;
+            mCount = 0;
+        } finally {
+            mNanos += System.nanoTime() - start;
+        }
+    }
+
+    private void beforeHeaders() {
+        if(null != mBeforeHeaders) {
+            mBeforeHeaders.run();
+        }
+    }
+
+    private byte[] compressHeld() throws IOException {
+        java.io.ByteArrayOutputStream compressed = new java.io.ByteArrayOutputStream(mCount / 2 + 64);
+        try(OutputStream out = mCompression.compress(compressed, mCoding)) {
+            out.write(mBuffer, 0, mCount);
+        }
+        return compressed.toByteArray();
+    }
+}
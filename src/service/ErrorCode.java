@@ -0,0 +1,76 @@
+package service;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Codes of the errors reported for an invalid JSON.
+ * <p>
+ * The codes are the ones the error response has always had. Every code up to {@link #NAN} but {@link #UNKNOWN}
+ * stands for a message of Gson's {@code JsonReader}, {@link NativeValidator} reports the same codes. The message
+ * sent to the client is the same as Gson's except for {@link #MALFORMED}, whose hint about the lenient mode makes
+ * no sense to a client. The codes after them are the ones of the schema of a syntactically valid JSON, see
+ * {@link SchemaValidator}.
+ */
+enum ErrorCode {
+    /** The unexpected end of the document, or a message of Gson which is not known */
+    UNKNOWN(0, "End of input"),
+    UNTERMINATED_ARRAY(1, "Unterminated array"),
+    UNTERMINATED_OBJECT(2, "Unterminated object"),
+    EXPECTED_NAME(3, "Expected name"),
+    EXPECTED_COLON(4, "Expected ':'"),
+    UNEXPECTED_VALUE(5, "Unexpected value"),
+    EXPECTED_VALUE(6, "Expected value"),
+    UNTERMINATED_STRING(7, "Unterminated string"),
+    UNTERMINATED_COMMENT(8, "Unterminated comment"),
+    MALFORMED(9, "Use JsonReader.setLenient(true) to accept malformed JSON", "Malformed JSON"),
+    UNTERMINATED_ESCAPE(10, "Unterminated escape sequence"),
+    INVALID_ESCAPE(11, "Invalid escape sequence"),
+    NAN(12, "JSON forbids NaN and infinities"),
+    /** The JSON is valid, but it does not match its schema */
+    SCHEMA_VIOLATION(13, "JSON does not match the schema"),
+    /** The schema of the request cannot be found or compiled, the JSON has not been read */
+    SCHEMA_UNAVAILABLE(14, "Schema is not available");
+
+    private static final ErrorCode[] CODES = values();
+    private static final Map<String, ErrorCode> REASONS = new HashMap<>();
+
+    static {
+        for(ErrorCode code : CODES) {
+            REASONS.put(code.reason, code);
+        }
+    }
+
+    /** The number in the error response */
+    final int code;
+    /** The message of Gson */
+    final String reason;
+    /** The message in the error response */
+    final String message;
+
+    ErrorCode(int code, String reason) {
+        this(code, reason, reason);
+    }
+
+    ErrorCode(int code, String reason, String message) {
+        this.code = code;
+        this.reason = reason;
+        this.message = message;
+    }
+
+    /**
+     * @return  the error with the number, or {@link #UNKNOWN} if there is none.
+     */
+    static ErrorCode of(int code) {
+        return (0 <= code && CODES.length > code) ? CODES[code] : UNKNOWN;
+    }
+
+    /**
+     * Finds the error of a message of Gson without its location.
+     *
+     * @return  the error, or {@code null} if the message is not known.
+     */
+    static ErrorCode ofReason(String reason) {
+        return REASONS.get(reason);
+    }
+}
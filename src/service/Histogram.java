@@ -0,0 +1,112 @@
+package service;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Log-linear histogram of non-negative values in the spirit of HdrHistogram.
+ * <p>
+ * Every power of two is split into {@link #SUB_BUCKETS} linear buckets, so a value is known within 12.5% of its
+ * magnitude at worst, and recording is a couple of bit operations plus an uncontended {@link LongAdder} increment.
+ * The values below {@link #SUB_BUCKETS} have a bucket each. Values larger than the last bucket are counted in
+ * the overflow bucket.
+ */
+class Histogram {
+    /** The number of powers of two which have their own buckets */
+    private static final int OCTAVES = 40;
+    private static final int SUB_BITS = 3;
+    /** The number of buckets every power of two is split into */
+    static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    private final LongAdder[] mCounts = new LongAdder[(OCTAVES - SUB_BITS + 1) * SUB_BUCKETS + 1];
+    private final LongAdder mSum = new LongAdder();
+
+    Histogram() {
+        for(int i = 0; i < mCounts.length; ++i) {
+            mCounts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records a value.
+     *
+     * @param value  the value, negative ones are taken for zero.
+     */
+    void record(long value) {
+        value = Math.max(0, value);
+        mCounts[Math.min(indexOf(value), mCounts.length - 1)].increment();
+        mSum.add(value);
+    }
+
+    /**
+     * Returns the inclusive upper bound of a bucket.
+     *
+     * @param index  the bucket index, the last bucket has no bound.
+     * @return  the largest value which falls into the bucket.
+     */
+    static long upperBound(int index) {
+        if(SUB_BUCKETS > index) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    static int indexOf(long value) {
+        if(SUB_BUCKETS > value) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * Writes the histogram in the Prometheus text format. Only the buckets whose bounds lie between {@code min}
+     * and {@code max} are written, so the output is not cluttered with meaningless bounds. The smaller values
+     * are still counted by the first written bucket and the larger ones by {@code +Inf}.
+     *
+     * @param out  the output.
+     * @param name  the metric name.
+     * @param labels  labels to add to every sample, like {@code phase="read",}, or an empty string.
+     * @param min  the smallest value which deserves its own bucket.
+     * @param max  the largest value which deserves its own bucket.
+     * @param unit  the number of recorded units in the exported unit, e.g. 1e9 to export nanoseconds as seconds.
+     */
+    void write(StringBuilder out, String name, String labels, long min, long max, double unit) {
+        long count = 0;
+        for(int i = 0; i < mCounts.length - 1; ++i) {
+            count += mCounts[i].sum();
+            long bound = upperBound(i);
+            if(bound < min || bound > max) {
+                continue;
+            }
+            out.append(name).append("_bucket{").append(labels).append("le=\"");
+            appendValue(out, bound, unit);
+            out.append("\"} ").append(count).append('\n');
+        }
+        count += mCounts[mCounts.length - 1].sum();
+        out.append(name).append("_bucket{").append(labels).append("le=\"+Inf\"} ").append(count).append('\n');
+        out.append(name).append("_sum");
+        appendLabels(out, labels);
+        out.append(' ');
+        appendValue(out, mSum.sum(), unit);
+        out.append('\n');
+        out.append(name).append("_count");
+        appendLabels(out, labels);
+        out.append(' ').append(count).append('\n');
+    }
+
+    private static void appendValue(StringBuilder out, long value, double unit) {
+        if(1 == unit) {
+            out.append(value);
+        } else {
+            out.append(value / unit);
+        }
+    }
+
+    static void appendLabels(StringBuilder out, String labels) {
+        if(!labels.isEmpty()) {
+            out.append('{').append(labels, 0, labels.length() - 1).append('}');
+        }
+    }
+}
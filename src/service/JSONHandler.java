@@ -1,16 +1,20 @@
 package service;
 
-import com.google.gson.*;
-import com.google.gson.annotations.Expose;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.google.gson.stream.MalformedJsonException;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 
 import java.io.*;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Processes a request from a client for JSON validation.
@@ -35,68 +39,416 @@ import java.util.regex.Pattern;
  *     "request-id" : "the request id generated by the API for easier tracking of errors"
  * }</pre>
  * <ul>
- *     <li>{@code errorCode}  is a value listed in {@code BadJSONResponse.ERRORS} or zero if some unhandled error
+ *     <li>{@code errorCode}  is a value listed in {@link ErrorCode} or zero if some unhandled error
  *     is occurred</li>
  *     <li>{@code errorMessage} and {@code errorPlace}  are taken from the caught exception that is thrown
- *     by Gson's JsonReader.</li>
+ *     by Gson's JsonReader, or from {@link NativeValidator}.</li>
  *     <li>{@code resource}  a name that is retrieved from a HTTP request URI (path)</li>
  *     <li>{@code request-id}  an id of a request that is unique for the session</li>
  * </ul>
  * <p>
  * So when JVS determines that a JSON is not valid, it builds {@code BadJSONResponse} object with fields
  * as described above and serializes it to JSON format. Then JVS sends this JSON as a response for a client.
- * HTTP status code for any response is 200.
+ * <p>
+ * The request is never held in memory. It is walked as a stream of tokens, and reading stops at the first syntax
+ * error. In the {@link JVSOptions.Mode#PRETTY} mode every token is written to the response as soon as it is read,
+ * so the formatted JSON starts flowing before the request has been read completely. The first
+ * {@link DeferredResponseStream#COMMIT_THRESHOLD} bytes of the output are held back though: a smaller response is
+ * sent with its exact length and can still be replaced with the error response. Once the response is committed
+ * (chunked transfer encoding is used then), an error cannot be reported any more: the exchange is aborted with
+ * {@link AbortedException} before the last chunk, so the client sees a truncated transfer rather than a valid
+ * JSON followed by an error response.
+ * Unlike the JSON tree of Gson, the stream keeps duplicate member names.
+ * The {@link JVSOptions.Mode#MINIFIED} mode writes the tokens without any whitespace. In the
+ * {@link JVSOptions.Mode#VALIDATE} mode a valid JSON is answered with {@code 204 No Content} and nothing is
+ * written at all. The mode of the options is the default one, a request chooses another one with the
+ * {@value #MODE_PARAMETER} query parameter or the {@value #MODE_HEADER} header, the parameter wins. An unknown
+ * mode is ignored.
+ * With {@link JVSOptions.Engine#NATIVE} the request is validated by {@link NativeValidator} instead, which reads
+ * raw bytes without decoding them and reports the same error codes.
+ * <p>
+ * HTTP status code for any other response is 200, unless the exchange has been rejected by the worker pool or
+ * it is over a limit of {@link Admission}. In that case {@code 503 Service Unavailable} or
+ * {@code 413 Payload Too Large} is sent without an error response. A request which turns out to be over a limit
+ * after the response has been committed is cut off by closing the connection.
+ * <p>
+ * A compressed request is decompressed as it is read, and the response is compressed if the client accepts it,
+ * see {@link Compression}.
+ * <p>
+ * Every exchange is recorded in {@link Metrics}: the size of the request, the time spent in reading it, in sending
+ * the response and in between, and the error code if the JSON is invalid.
+ * <p>
+ * If a {@link ResultCache} is given, a request which is not compressed and has a known length of up to {@link ResultCache#MAX_REQUEST} bytes
+ * is read into memory first. A request which has been seen before is answered from the cache, only its bytes are
+ * hashed and compared. Otherwise the response is cached, unless it has been committed already.
+ * <p>
+ * If a {@link SchemaCache} is given, a syntactically valid JSON is checked against a schema as well. The schema is
+ * the one named by the {@value #SCHEMA_PARAMETER} query parameter or the {@value #SCHEMA_HEADER} header, the
+ * parameter wins, otherwise the one named after the resource, if there is such a schema. The schema is checked
+ * by {@link SchemaValidator} in the same pass over the tokens which Gson's reader makes, or over the {@link Tape}
+ * of the native engine, and the violations are sent in the error response with the code
+ * {@link ErrorCode#SCHEMA_VIOLATION}. A schema which has been asked for but is not there is answered with
+ * {@link ErrorCode#SCHEMA_UNAVAILABLE} without reading the request.
  */
 public class JSONHandler implements HttpHandler {
     private static final Logger LOG = Logger.getLogger(JSONHandler.class.getName());
 
-    private static int mRequestId = 0;
-
-    private static class BadJSONResponse {
-
-        @Expose
-        private static final HashMap<String, Integer> ERRORS = new HashMap<String, Integer>() {
-            {
-                put("Unterminated array", 1);
-                put("Unterminated object", 2);
-                put("Expected name", 3);
-                put("Expected \':\'", 4);
-                put("Unexpected value", 5);
-                put("Expected value", 6);
-                put("Unterminated string", 7);
-                put("Unterminated comment", 8);
-                put("Use JsonReader.setLenient(true) to accept malformed JSON", 9);
-                put("Unterminated escape sequence", 10);
-                put("Invalid escape sequence", 11);
-                put("JSON forbids NaN and infinities", 12);
-            }
-        };
-
-        int errorCode;
-        String errorMessage;
-        String errorPlace;
-        String resource;
-        int requestId;
-
-        BadJSONResponse(String cause, String path) {
-            Pattern pattern = Pattern.compile("(.+) (at.*)");
-            Matcher matcher = pattern.matcher(cause);
-            if(matcher.find()) {
-                errorMessage = matcher.group(1);
-                errorPlace = matcher.group(2);
-            }
-
-            Integer err = ERRORS.get(errorMessage);
-            errorCode = (null != err) ?  err : 0;
-            if(0 == errorCode) {
-                LOG.log(Level.WARNING, "Unexpected error message: {0}", errorMessage);
-            } else if(9 == errorCode) {
-                errorMessage = "Malformed JSON";
+    /** The query parameter which chooses the mode of a request */
+    static final String MODE_PARAMETER = "mode";
+    /** The header which chooses the mode of a request */
+    static final String MODE_HEADER = "JVS-Mode";
+    /** The query parameter which chooses the schema of a request */
+    static final String SCHEMA_PARAMETER = "schema";
+    /** The header which chooses the schema of a request */
+    static final String SCHEMA_HEADER = "JVS-Schema";
+
+    private static final AtomicInteger mRequestId = new AtomicInteger();
+
+    private static final ThreadLocal<NativeValidator> VALIDATORS = ThreadLocal.withInitial(NativeValidator::new);
+    private static final ThreadLocal<Tape> TAPES = ThreadLocal.withInitial(Tape::new);
+
+    private final JVSOptions mOptions;
+    private final Metrics mMetrics;
+    private final Admission mAdmission;
+    private final Compression mCompression;
+    private final ResultCache mCache;
+    private final SchemaCache mSchemas;
+    private final ParallelValidator mParallel;
+    private final Tracing mTracing;
+    private final boolean mAccessLog;
+
+    /**
+     * Is thrown when the JSON turns out to be invalid after the response has been committed. The exchange is
+     * aborted then, the same way as for a request which is over a limit.
+     */
+    static class AbortedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        /** The error which could not be sent */
+        final transient BadJSONResponse response;
+
+        AbortedException(BadJSONResponse response) {
+            super("JSON is not valid after the response has been committed: " + response.errorMessage);
+            this.response = response;
+        }
+    }
+
+    private static final class UntracedAbortedException extends AbortedException {
+        private static final long serialVersionUID = 1L;
+
+        UntracedAbortedException(BadJSONResponse response) {
+            super(response);
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+    /**
+     * The error response to an invalid JSON.
+     * <p>
+     * The place of the error is kept as numbers, as the validator has reported it: the line and the column,
+     * the JSON path for Gson's reader and the byte offset for {@link NativeValidator}. They are only formatted
+     * when the response is written.
+     */
+    static class BadJSONResponse {
+        final ErrorCode code;
+        final int errorCode;
+        final String errorMessage;
+        /** One-based line of the error, zero if the place is not known */
+        final long line;
+        /** One-based column of the error */
+        final long column;
+        /** Zero-based byte offset of the error, or -1 if it is not known */
+        final long offset;
+        /** JSON path of the error, or {@code null} if it is not known */
+        final String jsonPath;
+        /** The violations of the schema, or {@code null} if the error is not one */
+        final List<SchemaValidator.Violation> violations;
+        final String resource;
+        final int requestId;
+
+        /**
+         * Makes the response of a message of Gson's reader, which is followed by the location of the error:
+         * {@code "<reason> at line <line> column <column> path <path>"}.
+         */
+        BadJSONResponse(String cause, String path, int id) {
+            String reason = cause;
+            long line = 0;
+            long column = 0;
+            String jsonPath = null;
+
+            int at = cause.indexOf(LINE);
+            int columnAt = (-1 != at) ? cause.indexOf(COLUMN, at + LINE.length()) : -1;
+            int pathAt = (-1 != columnAt) ? cause.indexOf(PATH, columnAt + COLUMN.length()) : -1;
+            if(-1 != pathAt) {
+                line = parseNumber(cause, at + LINE.length(), columnAt);
+                column = parseNumber(cause, columnAt + COLUMN.length(), pathAt);
+                if(0 < line && 0 < column) {
+                    reason = cause.substring(0, at);
+                    jsonPath = cause.substring(pathAt + PATH.length());
+                } else {
+                    line = column = 0;
+                }
+            }
+
+            ErrorCode code = ErrorCode.ofReason(reason);
+            if(null == code) {
+                LOG.log(Level.WARNING, "Unexpected error message: {0}", reason);
+                this.code = ErrorCode.UNKNOWN;
+                this.errorMessage = reason;
+            } else {
+                this.code = code;
+                this.errorMessage = code.message;
             }
+            this.errorCode = this.code.code;
+            this.line = line;
+            this.column = column;
+            this.offset = -1;
+            this.jsonPath = jsonPath;
+            this.violations = null;
+            this.resource = path;
+            this.requestId = id;
+        }
+
+        /**
+         * Makes the response of an error found in raw bytes.
+         */
+        BadJSONResponse(ErrorCode code, long line, long column, long offset, String path, int id) {
+            this.code = code;
+            this.errorCode = code.code;
+            this.errorMessage = code.message;
+            this.line = line;
+            this.column = column;
+            this.offset = offset;
+            this.jsonPath = null;
+            this.violations = null;
+            this.resource = path;
+            this.requestId = id;
+        }
+
+        /**
+         * Makes the response of a valid JSON which does not match its schema, the place is the one of the first
+         * violation.
+         */
+        BadJSONResponse(SchemaValidator validator, String path, int id) {
+            this.code = ErrorCode.SCHEMA_VIOLATION;
+            this.errorCode = code.code;
+            this.errorMessage = code.message;
+            this.line = 0;
+            this.column = 0;
+            this.offset = -1;
+            this.violations = new ArrayList<>(validator.getViolations());
+            this.jsonPath = violations.isEmpty() ? null : violations.get(0).path;
+            this.resource = path;
+            this.requestId = id;
+        }
 
+        /**
+         * Copies the error of another request.
+         */
+        BadJSONResponse(BadJSONResponse other, String path, int id) {
+            code = other.code;
+            errorCode = other.errorCode;
+            errorMessage = other.errorMessage;
+            line = other.line;
+            column = other.column;
+            offset = other.offset;
+            jsonPath = other.jsonPath;
+            violations = other.violations;
             resource = path;
-            requestId = mRequestId;
+            requestId = id;
+        }
+
+        /**
+         * @return  the place of the error as a text, or {@code null} if it is not known.
+         */
+        String errorPlace() {
+            if(0 == line && null == jsonPath) {
+                return null;
+            }
+            StringBuilder place = new StringBuilder(32);
+            appendPlace(place);
+            return place.toString();
+        }
+
+        private void appendPlace(StringBuilder out) {
+            if(0 == line) {
+                out.append("at path ").append(jsonPath); // a violation of the schema has no place in the text
+                return;
+            }
+            out.append("at line ").append(line).append(" column ").append(column);
+            if(null != jsonPath) {
+                out.append(" path ").append(jsonPath);
+            } else if(0 <= offset) {
+                out.append(" offset ").append(offset);
+            }
+        }
+
+        /**
+         * Writes the response formatted the same way as {@code GsonBuilder().setPrettyPrinting()} does.
+         */
+        void appendJson(StringBuilder out) {
+            if(code.message.equals(errorMessage)) {
+                out.append(HEADS[code.ordinal()]);
+            } else {
+                out.append("{\n  \"errorCode\": ").append(errorCode).append(",\n  \"errorMessage\": \"");
+                appendEscaped(out, errorMessage);
+                out.append('"');
+            }
+            if(0 != line || null != jsonPath) {
+                out.append(",\n  \"errorPlace\": \"");
+                int start = out.length();
+                appendPlace(out);
+                if(null != jsonPath) {
+                    escapeFrom(out, start);
+                }
+                out.append('"');
+            }
+            if(null != violations) {
+                out.append(",\n  \"violations\": [");
+                for(int i = 0; i < violations.size(); ++i) {
+                    out.append((0 == i) ? "\n    {\n      \"path\": \"" : ",\n    {\n      \"path\": \"");
+                    appendEscaped(out, violations.get(i).path);
+                    out.append("\",\n      \"message\": \"");
+                    appendEscaped(out, violations.get(i).message);
+                    out.append("\"\n    }");
+                }
+                out.append(violations.isEmpty() ? "]" : "\n  ]");
+            }
+            if(null != resource) {
+                out.append(",\n  \"resource\": \"");
+                appendEscaped(out, resource);
+                out.append('"');
+            }
+            out.append(",\n  \"requestId\": ").append(requestId).append("\n}");
+        }
+
+        private static final String LINE = " at line ";
+        private static final String COLUMN = " column ";
+        private static final String PATH = " path ";
+
+        /** The replacements of ASCII characters which an HTML-safe writer of Gson escapes */
+        private static final String[] ESCAPES = new String[128];
+
+        static {
+            for(int c = 0; c < 0x20; ++c) {
+                ESCAPES[c] = String.format("\\u%04x", c);
+            }
+            ESCAPES['"'] = "\\\"";
+            ESCAPES['\\'] = "\\\\";
+            ESCAPES['\t'] = "\\t";
+            ESCAPES['\b'] = "\\b";
+            ESCAPES['\n'] = "\\n";
+            ESCAPES['\r'] = "\\r";
+            ESCAPES['\f'] = "\\f";
+            ESCAPES['<'] = "\\u003c";
+            ESCAPES['>'] = "\\u003e";
+            ESCAPES['&'] = "\\u0026";
+            ESCAPES['='] = "\\u003d";
+            ESCAPES['\''] = "\\u0027";
+        }
+
+        /** The beginning of the response for every error code */
+        private static final String[] HEADS = new String[ErrorCode.values().length];
+
+        static {
+            for(ErrorCode code : ErrorCode.values()) {
+                StringBuilder head = new StringBuilder("{\n  \"errorCode\": ").append(code.code)
+                        .append(",\n  \"errorMessage\": \"");
+                appendEscaped(head, code.message);
+                HEADS[code.ordinal()] = head.append('"').toString();
+            }
+        }
+
+        private static long parseNumber(String s, int from, int to) {
+            long n = 0;
+            for(int i = from; i < to; ++i) {
+                char c = s.charAt(i);
+                if('0' > c || '9' < c || i - from > 18) {
+                    return 0;
+                }
+                n = n * 10 + (c - '0');
+            }
+            return n;
         }
+
+        private static void appendEscaped(StringBuilder out, String s) {
+            int start = out.length();
+            out.append(s);
+            escapeFrom(out, start);
+        }
+
+        /**
+         * Escapes the end of the builder the same way as an HTML-safe writer of Gson does.
+         */
+        private static void escapeFrom(StringBuilder out, int start) {
+            for(int i = start; i < out.length(); ++i) {
+                char c = out.charAt(i);
+                String replacement;
+                if(128 <= c) {
+                    if('\u2028' != c && '\u2029' != c) {
+                        continue;
+                    }
+                    replacement = ('\u2028' == c) ? "\\u2028" : "\\u2029";
+                } else {
+                    replacement = ESCAPES[c];
+                    if(null == replacement) {
+                        continue;
+                    }
+                }
+                out.replace(i, i + 1, replacement);
+                i += replacement.length() - 1;
+            }
+        }
+    }
+
+    /**
+     * Creates a validator which is not on a context of the service, its exchanges are not in the access log.
+     */
+    JSONHandler(JVSOptions options) {
+        this(options, null, null, Tracing.OFF);
+    }
+
+    /**
+     * Creates a validator which is not on a context of the service, with metrics and limits of its own.
+     *
+     * @param cache  the cache of responses, or {@code null} if every request is validated.
+     * @param schemas  the schemas of requests, or {@code null} if only the syntax is validated.
+     * @param tracing  the tracing of exchanges.
+     */
+    JSONHandler(JVSOptions options, ResultCache cache, SchemaCache schemas, Tracing tracing) {
+        this(options, new Metrics(cache, schemas), new Admission(options), cache, schemas, tracing, false);
+    }
+
+    /**
+     * @param options  the configuration of the service.
+     * @param metrics  the metrics to record exchanges to.
+     * @param admission  the limits of the service.
+     * @param cache  the cache of responses, or {@code null} if every request is validated.
+     * @param schemas  the schemas of requests, or {@code null} if only the syntax is validated.
+     * @param tracing  the tracing of exchanges.
+     */
+    JSONHandler(JVSOptions options, Metrics metrics, Admission admission, ResultCache cache, SchemaCache schemas,
+                Tracing tracing) {
+        this(options, metrics, admission, cache, schemas, tracing, true);
+    }
+
+    private JSONHandler(JVSOptions options, Metrics metrics, Admission admission, ResultCache cache,
+                        SchemaCache schemas, Tracing tracing, boolean accessLog) {
+        mOptions = options;
+        mMetrics = metrics;
+        mAdmission = admission;
+        mCompression = new Compression(options);
+        mCache = cache;
+        mSchemas = schemas;
+        mTracing = tracing;
+        mAccessLog = accessLog;
+        // the scan which cuts a document into segments is only worth it when they are validated meanwhile
+        mParallel = (0 < options.parallel && 1 < Runtime.getRuntime().availableProcessors())
+                ? new ParallelValidator(ForkJoinPool.commonPool(), options.parallel, admission) : null;
     }
 
     /**
@@ -111,55 +463,683 @@ public class JSONHandler implements HttpHandler {
      */
     @Override
     public void handle(HttpExchange t) throws IOException {
-        String request = readRequest(t.getRequestBody());
+        JVSOptions.Mode mode = requestMode(t);
+        exchange(t, "json", mode, (in, coding, length, body, path, id) -> {
+            t.getResponseHeaders().add("Vary", MODE_HEADER);
+            Schema schema = null;
+            if(null != mSchemas) {
+                t.getResponseHeaders().add("Vary", SCHEMA_HEADER);
+                schema = requestSchema(t, path);
+            }
+            return respond(t, in, coding, length, body, mode, schema, path, id);
+        });
+    }
+
+    /**
+     * Handles an exchange which has been admitted, see {@link #exchange(HttpExchange, String, JVSOptions.Mode,
+     * Responder)}.
+     */
+    interface Responder {
+        /**
+         * Reads the request and writes the response.
+         *
+         * @param in  the request body as it has been sent, neither decoded nor limited.
+         * @param coding  the {@code Content-Encoding} of the request, or {@code null} if there is none.
+         * @param length  the length of the request body, or {@code -1} if it is unknown.
+         * @param body  the response body.
+         * @param path  the resource of the request.
+         * @param id  the id of the request.
+         * @return  the error response which has been sent, or {@code null} if there has been none.
+         */
+        BadJSONResponse respond(InputStream in, String coding, long length, DeferredResponseStream body,
+                                String path, int id) throws IOException;
+    }
+
+    /**
+     * Runs an exchange the same way for every handler of the service. An exchange rejected by the worker pool,
+     * with an unsupported coding or over a limit of {@link Admission} is answered right away. Otherwise the
+     * responder handles it with the response body set up for {@link Compression} and {@code Server-Timing}.
+     * Either way the exchange is recorded in {@link Metrics}, in the trace and in the access log, unless the
+     * handler is not on a context of the service.
+     *
+     * @param resource  the resource of a request to the root of the context.
+     * @param mode  the mode of the request for the trace.
+     */
+    void exchange(HttpExchange t, String resource, JVSOptions.Mode mode, Responder responder) throws IOException {
+        long start = System.nanoTime();
         String path = t.getRequestURI().getPath();
         path = path.replaceFirst("^/", "");
-        path = ("".equals(path)) ? "json" : path;
+        path = ("".equals(path)) ? resource : path;
+        int id = nextRequestId();
 
-        String response = validateRequest(request, path);
+        long length = contentLength(t);
+        String coding = Compression.coding(t);
+        Admission.Limit limit = WorkerPool.isRejected() ? Admission.Limit.QUEUE
+                : !Compression.isSupported(coding) ? Admission.Limit.ENCODING : mAdmission.admit(length);
+        if(null != limit) {
+            mMetrics.rejected(limit);
+            Admission.reject(t, limit);
+            if(mAccessLog) {
+                AccessLog.log(t, id, path, 0, 0, System.nanoTime() - start, null);
+            }
+            return;
+        }
+
+        mMetrics.begin();
+        Object event = mTracing.begin();
+        MeteredInputStream in = new MeteredInputStream(t.getRequestBody());
+        DeferredResponseStream body = new DeferredResponseStream(t, BufferPool.DEFAULT);
+        body.setCompression(mCompression, mCompression.negotiate(t));
+        if(mTracing.isServerTiming()) {
+            body.setBeforeHeaders(() -> t.getResponseHeaders().set(Tracing.SERVER_TIMING,
+                    Tracing.serverTiming(in.getNanos(), System.nanoTime() - start)));
+        }
+        BadJSONResponse response = null;
+        try {
+            response = responder.respond(in, coding, length, body, path, id);
+        } catch (AbortedException e) {
+            response = e.response;
+            throw e;
+        } finally {
+            long nanos = System.nanoTime() - start;
+            mMetrics.end(in.getCount(), in.getNanos(), body.getWriteNanos(), nanos);
+            mTracing.commit(event, t, id, path, mode, in.getCount(), body.getSentBytes(),
+                    (null != response) ? response.errorCode : Tracing.NO_ERROR, in.getNanos(),
+                    nanos - in.getNanos() - body.getWriteNanos(), body.getWriteNanos());
+            mAdmission.release();
+            if(mAccessLog) {
+                AccessLog.log(t, id, path, in.getCount(), body.getSentBytes(), nanos, response);
+            }
+        }
+    }
 
+    /**
+     * @return  {@code null} if the JSON is valid, otherwise the error response which has been sent.
+     */
+    private BadJSONResponse respond(HttpExchange t, InputStream in, String coding, long length,
+                                    DeferredResponseStream body, JVSOptions.Mode mode, Schema schema, String path,
+                                    int id) throws IOException {
+        BadJSONResponse response = null;
         t.getResponseHeaders().set("Content-type", "application/json");
 
-        t.sendResponseHeaders(java.net.HttpURLConnection.HTTP_OK, response.length());
-        OutputStream os = t.getResponseBody();
-        os.write(response.getBytes());
-        os.close();
+        Writer out = new Utf8Writer(body, BufferPool.DEFAULT);
+        if(Schema.BROKEN == schema) {
+            response = new BadJSONResponse(ErrorCode.SCHEMA_UNAVAILABLE, 0, 0, -1, path, id);
+            mMetrics.error(response.errorCode);
+            out.write(toJson(response));
+            out.close();
+            return response;
+        }
+        try {
+            InputStream request = mAdmission.limit(Compression.decode(in, coding));
+            // the length of a decoded request is not known
+            response = respond(request, (null == coding) ? length : -1, body, out, mode, schema, path, id);
+        } catch (Admission.LimitExceededException e) {
+            mMetrics.rejected(e.limit);
+            Admission.reject(t, out, body, e);
+        }
+        out.close();
+        return response;
+    }
+
+    private BadJSONResponse respond(InputStream in, long length, DeferredResponseStream body, Writer out,
+                                    JVSOptions.Mode mode, Schema schema, String path, int id) throws IOException {
+        BadJSONResponse response;
+        if(null != mCache && 0 <= length && ResultCache.MAX_REQUEST >= length) {
+            byte[] request = BufferPool.DEFAULT.acquire(length);
+            try {
+                int count = readFully(in, request);
+                // everything which makes a different response to the same bytes
+                int variant = mode.ordinal() * JVSOptions.Engine.values().length + mOptions.engine.ordinal();
+                if(null != schema) {
+                    // a changed schema is a new variant, the responses to the old one are not used any more
+                    variant += JVSOptions.Mode.values().length * JVSOptions.Engine.values().length * schema.version;
+                }
+                ResultCache.Key key = ResultCache.key(request, count, variant);
+                ResultCache.Entry entry = mCache.get(key);
+                if(null != entry) {
+                    response = replay(entry, body, out, path, id);
+                } else {
+                    response = validate(new ByteArrayInputStream(request, 0, count), count,
+                            body, out, mode, schema, path, id);
+                    out.flush();
+                    byte[] held = body.toByteArray();
+                    if(null != response) {
+                        mCache.put(key, new ResultCache.Entry(response));
+                    } else if(null != held) {
+                        mCache.put(key, new ResultCache.Entry(body.getStatus(), held));
+                    }
+                }
+            } finally {
+                BufferPool.DEFAULT.release(request);
+            }
+        } else {
+            response = validate(in, length, body, out, mode, schema, path, id);
+        }
+        return response;
     }
 
-    private String readRequest(InputStream stream) {
-        StringBuilder builder = new StringBuilder();
-        InputStream inputStream = new BufferedInputStream(stream);
-        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
+    /**
+     * Validates the request and writes the response.
+     *
+     * @return  {@code null} if the JSON is valid, otherwise the error response which has been written.
+     * @throws AbortedException  if the JSON is not valid, but the response has been committed already.
+     */
+    private BadJSONResponse validate(InputStream in, long length, DeferredResponseStream body, Writer out,
+                                     JVSOptions.Mode mode, Schema schema, String path, int id) throws IOException {
+        JsonWriter writer = null;
+        BadJSONResponse response;
+        SchemaValidator checker = (null != schema) ? new SchemaValidator(schema) : null;
+        if(JVSOptions.Engine.NATIVE == mOptions.engine) {
+            if(null == mode.indent && null == checker) {
+                response = (null != mParallel)
+                        ? checkParallel(in, length, path, id) : checkRequest(in, length, path, id);
+            } else {
+                // nothing has been written to out yet, so the bytes go to the body past it
+                response = formatRequest(in, length, body, mode.indent, checker, path, id);
+            }
+        } else {
+            writer = (null == mode.indent) ? null : newWriter(out, mode);
+            response = transferRequest(new Utf8Reader(in, BufferPool.DEFAULT, length), writer, checker, path, id);
+        }
+        if(null != writer) {
+            writer.flush();
+        }
+        if(null != response) {
+            mMetrics.error(response.errorCode);
+            if(body.isCommitted()) {
+                // the formatted part has been sent already, the client must not take it for a whole JSON
+                out.flush();
+                throw mOptions.stackTraces ? new AbortedException(response) : new UntracedAbortedException(response);
+            }
+            body.discard();
+            out.write(toJson(response));
+        } else if(null != mode.indent) {
+            out.write('\n');
+        } else {
+            body.setStatus(java.net.HttpURLConnection.HTTP_NO_CONTENT);
+        }
+        return response;
+    }
 
-        String line;
+    /**
+     * Writes a cached response. A cached error is sent with the resource and the id of the current request.
+     *
+     * @return  the error response which has been written, or {@code null} for a cached valid JSON.
+     */
+    private BadJSONResponse replay(ResultCache.Entry entry, DeferredResponseStream body, Writer out, String path,
+                                   int id) throws IOException {
+        if(null != entry.error) {
+            BadJSONResponse response = new BadJSONResponse(entry.error, path, id);
+            mMetrics.error(response.errorCode);
+            out.write(toJson(response));
+            return response;
+        }
+        body.setStatus(entry.status);
+        body.write(entry.body);
+        return null;
+    }
+
+    /**
+     * Reads the stream into the buffer until the stream ends or the buffer is full.
+     *
+     * @return  the number of bytes read.
+     */
+    private static int readFully(InputStream in, byte[] buffer) throws IOException {
+        int count = 0;
+        int n;
+        while(count < buffer.length && -1 != (n = in.read(buffer, count, buffer.length - count))) {
+            count += n;
+        }
+        in.close();
+        return count;
+    }
+
+    /**
+     * @return  an id which is unique for the session.
+     */
+    static int nextRequestId() {
+        return mRequestId.incrementAndGet();
+    }
+
+    /**
+     * @return  the length of the request body, or {@code -1} if it is unknown.
+     */
+    static long contentLength(HttpExchange t) {
+        String length = t.getRequestHeaders().getFirst("Content-length");
+        if(null != length) {
+            try {
+                return Long.parseLong(length.trim());
+            } catch (NumberFormatException e) {
+                LOG.log(Level.FINE, "Bad Content-Length: {0}", length);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the mode chosen by the request.
+     *
+     * @return  the mode of the query parameter or of the header, otherwise the one of the options.
+     */
+    JVSOptions.Mode requestMode(HttpExchange t) {
+        String query = t.getRequestURI().getRawQuery();
+        String name = (null != query) ? queryParameter(query, MODE_PARAMETER) : null;
+        if(null == name) {
+            name = t.getRequestHeaders().getFirst(MODE_HEADER);
+        }
+        if(null == name) {
+            return mOptions.mode;
+        }
+        JVSOptions.Mode mode = JVSOptions.Mode.of(name.trim());
+        if(null == mode) {
+            LOG.log(Level.FINE, "Unknown mode: {0}", name);
+            return mOptions.mode;
+        }
+        return mode;
+    }
+
+    /**
+     * Finds the schema of the request.
+     *
+     * @return  the schema of the query parameter or of the header, otherwise the one of the resource,
+     *          {@link Schema#BROKEN} if the request has asked for a schema which is not available, or {@code null}
+     *          if there is no schema.
+     */
+    private Schema requestSchema(HttpExchange t, String path) {
+        String query = t.getRequestURI().getRawQuery();
+        String name = (null != query) ? queryParameter(query, SCHEMA_PARAMETER) : null;
+        if(null == name) {
+            name = t.getRequestHeaders().getFirst(SCHEMA_HEADER);
+        }
+        if(null == name) {
+            return mSchemas.get(path);
+        }
+        Schema schema = mSchemas.get(name.trim());
+        if(null == schema) {
+            LOG.log(Level.FINE, "Unknown schema: {0}", name);
+            return Schema.BROKEN;
+        }
+        return schema;
+    }
+
+    /**
+     * @return  the value of the first parameter with the given name, or {@code null} if there is none.
+     */
+    private static String queryParameter(String query, String name) {
+        int from = 0;
+        while(from <= query.length()) {
+            int to = query.indexOf('&', from);
+            to = (-1 != to) ? to : query.length();
+            if(query.startsWith(name, from) && to > from + name.length() && '=' == query.charAt(from + name.length())) {
+                return query.substring(from + name.length() + 1, to);
+            }
+            from = to + 1;
+        }
+        return null;
+    }
+
+    /**
+     * Creates a writer which formats JSON the same way as Gson does in the given mode: with
+     * {@code GsonBuilder().setPrettyPrinting()} for {@link JVSOptions.Mode#PRETTY}, without whitespace for
+     * {@link JVSOptions.Mode#MINIFIED}.
+     */
+    private static JsonWriter newWriter(Writer out, JVSOptions.Mode mode) {
+        JsonWriter writer = new JsonWriter(out);
+        writer.setIndent(mode.indent);
+        writer.setLenient(true);
+        writer.setHtmlSafe(true);
+        writer.setSerializeNulls(false);
+        return writer;
+    }
+
+    /**
+     * Walks the request as a stream of tokens without building a JSON tree.
+     * <p>
+     * The reader is as lenient as {@code JsonParser} is, so both accept the same documents. Every token is
+     * passed to {@code writer} right after it has been read, unless the writer is {@code null}. Reading stops
+     * at the first syntax error, the rest of the request is not read at all.
+     *
+     * @param writer  the writer for a valid JSON, or {@code null} if the JSON is only validated.
+     * @return  {@code null} if the JSON is valid, otherwise the error response.
+     * @throws Admission.LimitExceededException  if the request is over a limit of {@link Admission}.
+     */
+    BadJSONResponse transferRequest(Reader in, JsonWriter writer, String path, int id) throws IOException {
+        return transferRequest(in, writer, null, path, id);
+    }
+
+    /**
+     * Does the same as {@link #transferRequest(Reader, JsonWriter, String, int)} and checks every token against
+     * the schema as well.
+     *
+     * @param schema  the validator of the schema, or {@code null} if only the syntax is validated.
+     * @return  {@code null} if the JSON is valid and matches the schema, otherwise the error response.
+     */
+    BadJSONResponse transferRequest(Reader in, JsonWriter writer, SchemaValidator schema, String path, int id)
+            throws IOException {
         try {
-            while ((line = reader.readLine()) != null) {
-                builder.append(line).append('\n');
+            return transferDocument(in, writer, schema, path, id);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Does the same as {@link #transferRequest(Reader, JsonWriter, String, int)} but leaves {@code in} open,
+     * so more documents can be read from it.
+     */
+    BadJSONResponse transferDocument(Reader in, JsonWriter writer, String path, int id) throws IOException {
+        return transferDocument(in, writer, null, path, id);
+    }
+
+    private BadJSONResponse transferDocument(Reader in, JsonWriter writer, SchemaValidator schema, String path,
+                                             int id) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        reader.setLenient(true);
+
+        try {
+            JsonToken token;
+            try {
+                token = reader.peek();
+            } catch (EOFException e) {
+                // an empty document is parsed as JsonNull
+                if(null != writer) {
+                    writer.nullValue();
+                }
+                if(null != schema) {
+                    schema.nullValue();
+                }
+                return schemaError(schema, path, id);
+            }
+
+            transferValue(reader, writer, schema);
+            // JsonParser does not look past a top-level null, and it looks for the end of the document strictly
+            reader.setLenient(false);
+            if(JsonToken.NULL != token && JsonToken.END_DOCUMENT != reader.peek()) {
+                return errorResponse("Did not consume the entire document.", path, id);
             }
+        } catch (MalformedJsonException | EOFException e) {
+            return errorResponse(e.getMessage(), path, id);
+        } catch (NumberFormatException e) {
+            // thrown for a bad unicode escape sequence, the location is the same as the reader would report
+            String location = reader.toString().substring(JsonReader.class.getSimpleName().length());
+            return errorResponse("Invalid escape sequence" + location, path, id);
+        }
+        return schemaError(schema, path, id);
+    }
+
+    /**
+     * @return  the error response of the violations of the schema, or {@code null} if there are none.
+     */
+    private static BadJSONResponse schemaError(SchemaValidator schema, String path, int id) {
+        return (null != schema && !schema.isValid()) ? new BadJSONResponse(schema, path, id) : null;
+    }
+
+    /**
+     * Validates raw bytes of the request with {@link NativeValidator}.
+     * <p>
+     * Reading stops at the first syntax error. The place of the error is reported as the line and the column
+     * in bytes, followed by the byte offset, since the validator does not track JSON paths.
+     *
+     * @return  {@code null} if the JSON is valid, otherwise the error response.
+     */
+    BadJSONResponse checkRequest(InputStream stream, long length, String path, int id) throws IOException {
+        byte[] buffer = BufferPool.DEFAULT.acquire(BufferPool.sizeFor(length));
+
+        try {
+            return checkDocument(stream, buffer, path, id);
+        } finally {
+            BufferPool.DEFAULT.release(buffer);
             stream.close();
-        } catch (IOException e) {
-            LOG.log(Level.SEVERE, "Exception has occurred during reading a request body", e);
         }
-        return builder.toString();
     }
 
-    private String validateRequest(String request, String path) {
-        StringBuilder response = new StringBuilder();
+    /**
+     * Does the same as {@link #checkRequest(InputStream, long, String, int)}, but a large top-level array is
+     * validated on several cores by {@link ParallelValidator}. A request which is known to be shorter than two
+     * segments is validated on the calling thread.
+     */
+    BadJSONResponse checkParallel(InputStream stream, long length, String path, int id) throws IOException {
+        if(0 <= length && 2L * mParallel.getSegmentSize() > length) {
+            return checkRequest(stream, length, path, id);
+        }
+        byte[] buffer = BufferPool.DEFAULT.acquire(BufferPool.sizeFor(length));
 
-        Gson gson = new GsonBuilder().setPrettyPrinting().create();
-        JsonParser parser = new JsonParser();
-        JsonElement json;
+        try {
+            return mParallel.check(stream, buffer, path, id);
+        } finally {
+            BufferPool.DEFAULT.release(buffer);
+            stream.close();
+        }
+    }
+
+    /**
+     * Validates raw bytes of the request with {@link NativeValidator}, checks the schema on a {@link Tape} of it
+     * and writes a valid JSON from the tape. The request is taken in rounds as it is read: the tokens which are
+     * complete in the bytes validated so far are checked and written, and only the bytes of a token which has not
+     * ended are kept for the next round. The buffer grows only if a single token does not fit it, up to the body
+     * limit. Once the schema has been violated nothing more is written, but the rest is still validated, so
+     * a syntax error is reported over a violation.
+     *
+     * @param out  the stream for the UTF-8 bytes of the formatted JSON.
+     * @param indent  the indent of {@link JVSOptions.Mode}, or {@code null} if nothing is written.
+     * @param schema  the validator of the schema, or {@code null} if only the syntax is validated.
+     * @return  {@code null} if the JSON is valid and it has been written, otherwise the error response; the
+     *          part of the JSON before the error may have been written.
+     */
+    BadJSONResponse formatRequest(InputStream stream, long length, OutputStream out, String indent,
+                                  SchemaValidator schema, String path, int id) throws IOException {
+        byte[] pooled = BufferPool.DEFAULT.acquire(BufferPool.sizeFor(length));
+        byte[] buffer = pooled;
+        // one byte over the limit lets the end of a request of the largest size be read
+        long limit = Math.min(mAdmission.getMaxBody(), Integer.MAX_VALUE - 9) + 1;
+        Tape tape = TAPES.get();
 
-        ++mRequestId;
         try {
-            json = parser.parse(request);
+            NativeValidator validator = VALIDATORS.get();
+            validator.reset();
+            validator.setMaxDepth(mAdmission.getMaxDepth());
+            tape.begin(out, indent);
+            int count = 0;
+            int n;
+            while(true) {
+                if(buffer.length == count) {
+                    if(limit <= count) {
+                        throw new IOException("Request is too large to be formatted");
+                    }
+                    buffer = Arrays.copyOf(buffer, (int) Math.min(2L * count, limit));
+                }
+                if(-1 == (n = stream.read(buffer, count, buffer.length - count))) {
+                    break;
+                }
+                if(!validator.feed(buffer, count, n)) {
+                    return nativeError(validator, path, id);
+                }
+                count = take(tape, buffer, count + n, false, indent, schema);
+            }
+            if(!validator.finish()) {
+                return nativeError(validator, path, id);
+            }
+            take(tape, buffer, count, true, indent, schema);
+            if(null != schema && !schema.isValid()) {
+                return schemaError(schema, path, id);
+            }
+            if(null != indent) {
+                tape.finish();
+            }
+            return null;
+        } finally {
+            tape.clear();
+            BufferPool.DEFAULT.release(pooled);
+            stream.close();
+        }
+    }
 
-            response.append(gson.toJson(json));
-        } catch (JsonSyntaxException e) {
-            BadJSONResponse resp = new BadJSONResponse(e.getCause().getMessage(), path);
+    /**
+     * Takes a round of {@link #formatRequest(InputStream, long, OutputStream, String, SchemaValidator, String,
+     * int)} and moves the bytes which have not been taken to the start of the buffer.
+     *
+     * @return  the number of the bytes which have not been taken.
+     */
+    private static int take(Tape tape, byte[] buffer, int count, boolean last, String indent, SchemaValidator schema)
+            throws IOException {
+        int taken = tape.record(buffer, count, last);
+        if(null != schema) {
+            schema.check(tape);
+        }
+        if(null != indent && (null == schema || schema.isValid())) {
+            tape.render();
+        }
+        System.arraycopy(buffer, taken, buffer, 0, count - taken);
+        return count - taken;
+    }
 
-            response.append(gson.toJson(resp));
+    /**
+     * Does the same as {@link #checkRequest(InputStream, long, String, int)} with the given buffer, and leaves
+     * {@code stream} open, so more documents can be read from it.
+     */
+    BadJSONResponse checkDocument(InputStream stream, byte[] buffer, String path, int id) throws IOException {
+        NativeValidator validator = VALIDATORS.get();
+
+        validator.reset();
+        validator.setMaxDepth(mAdmission.getMaxDepth());
+        boolean valid = true;
+        int n;
+        while(valid && -1 != (n = stream.read(buffer))) {
+            valid = validator.feed(buffer, 0, n);
+        }
+        if(valid && validator.finish()) {
+            return null;
         }
-        return response.append('\n').toString();
+        return nativeError(validator, path, id);
+    }
+
+    /**
+     * @return  the error response for the error which the validator has found.
+     * @throws Admission.LimitExceededException  if the JSON is nested too deep.
+     */
+    private BadJSONResponse nativeError(NativeValidator validator, String path, int id)
+            throws Admission.LimitExceededException {
+        if(validator.isTooDeep()) {
+            throw mAdmission.exceeded(Admission.Limit.DEPTH);
+        }
+        return new BadJSONResponse(validator.getError(), validator.getErrorLine(),
+                validator.getErrorColumn(), validator.getErrorOffset(), path, id);
+    }
+
+    /**
+     * Consumes one value token by token the same way as the tree adapter of Gson does, so error places match.
+     * Unlike {@code JsonReader.skipValue()} it keeps member names in the path. The value is written to
+     * {@code writer} and checked by {@code schema} if they are not {@code null}. The nesting is limited by
+     * {@link Admission#getMaxDepth()}.
+     */
+    private void transferValue(JsonReader reader, JsonWriter writer, SchemaValidator schema) throws IOException {
+        int maxDepth = mAdmission.getMaxDepth();
+        int depth = 0;
+        do {
+            switch(reader.peek()) {
+                case BEGIN_ARRAY:
+                    if(maxDepth == depth) {
+                        throw mAdmission.exceeded(Admission.Limit.DEPTH);
+                    }
+                    reader.beginArray();
+                    if(null != writer) {
+                        writer.beginArray();
+                    }
+                    if(null != schema) {
+                        schema.beginArray();
+                    }
+                    ++depth;
+                    break;
+                case END_ARRAY:
+                    reader.endArray();
+                    if(null != writer) {
+                        writer.endArray();
+                    }
+                    if(null != schema) {
+                        schema.endArray();
+                    }
+                    --depth;
+                    break;
+                case BEGIN_OBJECT:
+                    if(maxDepth == depth) {
+                        throw mAdmission.exceeded(Admission.Limit.DEPTH);
+                    }
+                    reader.beginObject();
+                    if(null != writer) {
+                        writer.beginObject();
+                    }
+                    if(null != schema) {
+                        schema.beginObject();
+                    }
+                    ++depth;
+                    break;
+                case END_OBJECT:
+                    reader.endObject();
+                    if(null != writer) {
+                        writer.endObject();
+                    }
+                    if(null != schema) {
+                        schema.endObject();
+                    }
+                    --depth;
+                    break;
+                case NAME:
+                    String name = reader.nextName();
+                    if(null != writer) {
+                        writer.name(name);
+                    }
+                    if(null != schema) {
+                        schema.name(name);
+                    }
+                    break;
+                case BOOLEAN:
+                    boolean bool = reader.nextBoolean();
+                    if(null != writer) {
+                        writer.value(bool);
+                    }
+                    if(null != schema) {
+                        schema.bool(bool);
+                    }
+                    break;
+                case NULL:
+                    reader.nextNull();
+                    if(null != writer) {
+                        writer.nullValue();
+                    }
+                    if(null != schema) {
+                        schema.nullValue();
+                    }
+                    break;
+                case NUMBER:
+                    String number = reader.nextString();
+                    if(null != writer) {
+                        writer.jsonValue(number);
+                    }
+                    if(null != schema) {
+                        schema.number(number);
+                    }
+                    break;
+                default:
+                    String string = reader.nextString();
+                    if(null != writer) {
+                        writer.value(string);
+                    }
+                    if(null != schema) {
+                        schema.string(string);
+                    }
+                    break;
+            }
+        } while(0 < depth);
+    }
+
+    BadJSONResponse errorResponse(String cause, String path, int id) {
+        return new BadJSONResponse(cause, path, id);
+    }
+
+    String toJson(BadJSONResponse response) {
+        StringBuilder json = new StringBuilder(192);
+        response.appendJson(json);
+        return json.append('\n').toString();
     }
 }
\ No newline at end of file
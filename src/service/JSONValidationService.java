@@ -7,6 +7,11 @@ import java.net.BindException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.function.IntConsumer;
 import java.util.logging.Logger;
 
 import static java.util.logging.Level.*;
@@ -43,6 +48,21 @@ import static java.util.logging.Level.*;
  * As you can see, you have to deal with {@link JVSException} which could be thrown if a port number is already in use,
  * a hostname is unresolved and so on.
  * <p>
+ * The service listens with {@code shards} HTTP servers, each of them has its own dispatcher and worker pool,
+ * so accepting connections is not bound to a single thread. The shards share the handlers, thus the cache, the
+ * limits and the metrics are those of the whole service. With {@code reusePort} all of them are bound to the same
+ * address with {@code SO_REUSEPORT} and the kernel spreads connections over them, otherwise the shard {@code i}
+ * listens on {@code port + i}. Only the {@code nio} transport can set {@code SO_REUSEPORT}, the server of the JDK
+ * always uses a port range.
+ * <p>
+ * If {@code unixSocket} is set, one more {@link NioHttpServer} with a worker pool of its own listens on that
+ * Unix domain socket, besides the TCP shards. It runs the same handlers, so a sidecar next to the caller gets
+ * the same answers without going through the TCP stack.
+ * <p>
+ * If {@code warmup} is set, {@link #start()} opens the sockets but the service answers
+ * {@code 503 Service Unavailable} until a {@link Warmup} has run the validation over a corpus on a thread of its
+ * own. The {@code ready} location tells a load balancer when that is over.
+ * <p>
  * Read log messages to retrieve contextual information about service execution. {@code CONFIG} level is verbose
  * enough.
  */
@@ -50,7 +70,11 @@ public class JSONValidationService {
     private static final Logger LOG = Logger.getLogger(JSONValidationService.class.getName());
 
     private JVSOptions mOptions;
-    private HttpServer mServer = null;
+    private HttpServer[] mServers = null;
+    private WorkerPool[] mWorkers = null;
+    private Tracing mTracing = null;
+    private Warmup mWarmup = null;
+    private Thread mWarmupThread = null;
 
     /**
      * Creates an instance of the class using defaults parameters.
@@ -81,11 +105,37 @@ public class JSONValidationService {
         mOptions = options;
         InetAddress address = null;
         InetSocketAddress socket = null;
+        int shards = Math.max(1, mOptions.shards);
+        boolean reusePort = mOptions.reusePort && 1 < shards;
+        boolean unix = null != mOptions.unixSocket && !"".equals(mOptions.unixSocket);
 
-        try {
-            mServer = HttpServer.create();
-        } catch (IOException e) {
-            error("Server could not be created");
+        if(JVSOptions.Transport.NIO == mOptions.transport || unix) {
+            if(JVSOptions.Rejection.CALLER == mOptions.rejection) {
+                LOG.log(WARNING, "Rejection policy {0} would block an event loop, {1} is used",
+                        new Object[] {JVSOptions.Rejection.CALLER, JVSOptions.Rejection.REJECT});
+                mOptions = mOptions.newBuilder().setRejection(JVSOptions.Rejection.REJECT).build();
+            }
+        }
+        if(reusePort && (JVSOptions.Transport.NIO != mOptions.transport || !NioHttpServer.isReusePortSupported())) {
+            LOG.log(WARNING, "SO_REUSEPORT is not available, shards listen on ports {0,number,#}..{1,number,#}",
+                    new Object[] {mOptions.port, mOptions.port + shards - 1});
+            reusePort = false;
+        }
+
+        // the processors are shared by the event loops of all shards
+        int loops = (0 < mOptions.loops) ? mOptions.loops
+                : Math.max(1, Runtime.getRuntime().availableProcessors() / shards);
+        mServers = new HttpServer[unix ? shards + 1 : shards];
+        for(int i = 0; i < shards; ++i) {
+            if(JVSOptions.Transport.NIO == mOptions.transport) {
+                mServers[i] = new NioHttpServer(loops, reusePort);
+            } else {
+                try {
+                    mServers[i] = HttpServer.create();
+                } catch (IOException e) {
+                    error("Server could not be created");
+                }
+            }
         }
 
         try {
@@ -96,47 +146,152 @@ public class JSONValidationService {
             error("Operation is not allowed");
         }
 
-        try {
-            socket = new InetSocketAddress(address, mOptions.port);
-        } catch (IllegalArgumentException e) {
-            error("Port is outside of the range of valid port values: %d", mOptions.port);
-        } catch (SecurityException e) {
-            error("Operation is not allowed");
+        for(int i = 0; i < shards; ++i) {
+            int port = (reusePort || 0 == mOptions.port) ? mOptions.port : mOptions.port + i;
+            try {
+                socket = new InetSocketAddress(address, port);
+            } catch (IllegalArgumentException e) {
+                unbind(i);
+                error("Port is outside of the range of valid port values: %d", port);
+            } catch (SecurityException e) {
+                unbind(i);
+                error("Operation is not allowed");
+            }
+
+            try {
+                mServers[i].bind(socket, mOptions.backlog);
+            } catch (BindException e) {
+                unbind(i);
+                error("Server cannot bind to the requested address: <%s:%d>", mOptions.host, port);
+            } catch (IOException e) {
+                unbind(i);
+                error("Bind failed");
+            }
         }
 
-        try {
-            mServer.bind(socket, mOptions.backlog);
-        } catch (BindException e) {
-            error("Server cannot bind to the requested address: <%s>", mOptions.host);
-        } catch (IOException e) {
-            error("Bind failed");
+        if(unix) {
+            NioHttpServer server = new NioHttpServer(loops);
+            try {
+                server.bindUnix(Paths.get(mOptions.unixSocket), mOptions.backlog);
+            } catch (IOException | InvalidPathException e) {
+                unbind(shards);
+                error("Server cannot listen on the Unix domain socket <%s>: %s", mOptions.unixSocket,
+                        e.getMessage());
+            }
+            mServers[shards] = server;
         }
 
-        try {
-            mServer.createContext(mOptions.path, new JSONHandler());
-        } catch (IllegalArgumentException e) {
-            error("Path <%s> is invalid", mOptions.path);
+        ResultCache cache = (0 < mOptions.cache) ? new ResultCache(mOptions.cache) : null;
+        SchemaCache schemas = null;
+        if(null != mOptions.schemas && !"".equals(mOptions.schemas)) {
+            Path directory;
+            try {
+                directory = Paths.get(mOptions.schemas);
+            } catch (InvalidPathException e) {
+                directory = null;
+            }
+            if(null == directory || !Files.isDirectory(directory)) {
+                unbind(mServers.length);
+                error("Schema directory <%s> does not exist", mOptions.schemas);
+            }
+            schemas = new SchemaCache(directory, mOptions.schemaCache);
+        }
+        Metrics metrics = new Metrics(cache, schemas);
+        Admission admission = new Admission(mOptions);
+        mTracing = new Tracing(mOptions);
+        mWarmup = (0 < mOptions.warmup) ? new Warmup(mOptions, admission) : null;
+        JSONHandler validator = new JSONHandler(mOptions, metrics, admission, cache, schemas, mTracing);
+        MetricsHandler metricsHandler = new MetricsHandler(metrics);
+        ReadyHandler ready = new ReadyHandler(mWarmup);
+        BatchHandler batch = new BatchHandler(mOptions, metrics, admission, mTracing);
+        mWorkers = new WorkerPool[mServers.length];
+        for(int i = 0; i < mServers.length; ++i) {
+            HttpServer server = mServers[i];
+            try {
+                server.createContext(mOptions.path, validator);
+            } catch (IllegalArgumentException e) {
+                unbind(mServers.length);
+                error("Path <%s> is invalid", mOptions.path);
+            }
+
+            if(null != mOptions.metrics && !"".equals(mOptions.metrics)) {
+                try {
+                    server.createContext(mOptions.metrics, metricsHandler);
+                } catch (IllegalArgumentException e) {
+                    unbind(mServers.length);
+                    error("Metrics path <%s> is invalid", mOptions.metrics);
+                }
+            }
+
+            if(null != mOptions.ready && !"".equals(mOptions.ready)) {
+                try {
+                    server.createContext(mOptions.ready, ready);
+                } catch (IllegalArgumentException e) {
+                    unbind(mServers.length);
+                    error("Ready path <%s> is invalid", mOptions.ready);
+                }
+            }
+
+            if(null != mOptions.batch && !"".equals(mOptions.batch)) {
+                try {
+                    server.createContext(mOptions.batch, batch);
+                } catch (IllegalArgumentException e) {
+                    unbind(mServers.length);
+                    error("Batch path <%s> is invalid", mOptions.batch);
+                }
+            }
+
+            mWorkers[i] = new WorkerPool(mOptions);
+            server.setExecutor(mWorkers[i]);
         }
 
-        LOG.log(CONFIG, "Server has been created:\nhost:port=<{0}:{1}>, backlog={2}, path={3}, delay={4}",
+        LOG.log(CONFIG, "Server has been created:\nhost:port=<{0}:{1}>, backlog={2}, path={3}, delay={4}, " +
+                "mode={5}, engine={6}, executor={7}, threads={8}, queue={9}, rejection={10}, metrics={11}, batch={12}, cache={13}, " +
+                "transport={14}, loops={15}, maxBody={16}, maxDepth={17}, maxInFlight={18}, " +
+                "compression={19}, compressionMin={20}, parallel={21}, stackTraces={22}, shards={23}, reusePort={24}, " +
+                "unixSocket={25}, jfr={26}, serverTiming={27}, warmup={28}, warmupCorpus={29}, ready={30}, " +
+                "schemas={31}, schemaCache={32}",
                 new Object[] {(null == mOptions.host) ? "localhost" : mOptions.host, mOptions.port,
-                mOptions.backlog, mOptions.path, mOptions.delay});
+                mOptions.backlog, mOptions.path, mOptions.delay, mOptions.mode, mOptions.engine,
+                mOptions.executor, mOptions.threads, mOptions.queue, mOptions.rejection, mOptions.metrics,
+                mOptions.batch, mOptions.cache, mOptions.transport, mOptions.loops,
+                mOptions.maxBody, mOptions.maxDepth, mOptions.maxInFlight, mOptions.compression,
+                mOptions.compressionMin, mOptions.parallel, mOptions.stackTraces, shards, reusePort,
+                mOptions.unixSocket, mOptions.jfr, mOptions.serverTiming, mOptions.warmup, mOptions.warmupCorpus,
+                mOptions.ready, mOptions.schemas, mOptions.schemaCache});
     }
 
     private void error(String msg, Object... args) throws JVSException {
         mOptions = null;
+        mServers = null;
         throw new JVSException(String.format(msg, args));
     }
 
+    /**
+     * Releases the addresses of the first {@code count} shards, which have been bound.
+     */
+    private void unbind(int count) {
+        for(int i = 0; i < count; ++i) {
+            mServers[i].stop(0);
+        }
+    }
+
     /**
      * Starts the service.
      * <p>
      * The method starts the JVS service if it was properly constructed.
      */
     public void start() {
-        if(null != mServer) {
-            mServer.start();
+        if(null != mServers) {
+            for(HttpServer server : mServers) {
+                server.start();
+            }
             LOG.log(INFO, "Server has been started");
+            if(null != mWarmup && null == mWarmupThread) {
+                mWarmupThread = new Thread(mWarmup, "jvs-warmup");
+                mWarmupThread.setDaemon(true);
+                mWarmupThread.start();
+            }
         } else {
             LOG.log(WARNING, "Server was not initialized");
         }
@@ -146,16 +301,65 @@ public class JSONValidationService {
      * Stops the service.
      * <p>
      * The method stops the JVS service which will wait {@code delay} seconds
-     * until exchanges have finished.
+     * until exchanges have finished. Then the worker threads are shut down. The shards are stopped at once,
+     * so the whole service waits no longer than {@code delay} seconds for each of the two steps.
      *
      * @see JVSOptionsBuilder#setDelay(int)
      */
     public void stop() {
-        if(null != mServer) {
-            mServer.stop(mOptions.delay);
+        if(null != mServers) {
+            int delay = mOptions.delay;
+            if(null != mWarmupThread) {
+                mWarmupThread.interrupt();
+            }
+            inParallel(mServers.length, i -> mServers[i].stop(delay));
+            inParallel(mWorkers.length, i -> mWorkers[i].shutdown(delay));
             LOG.log(INFO, "Server has been stopped");
         } else {
             LOG.log(WARNING, "Server was not initialized");
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Switches the tracing of exchanges on a running service.
+     * <p>
+     * The {@code jfr} and {@code serverTiming} options are taken from {@code options}, the rest of them
+     * is ignored. The exchanges which have started already are traced the way they were.
+     *
+     * @param options  the options with the new tracing.
+     * @see Tracing
+     */
+    public void setTracing(JVSOptions options) {
+        if(null != mTracing) {
+            mTracing.set(options);
+            LOG.log(CONFIG, "Tracing has been changed: jfr={0}, serverTiming={1}",
+                    new Object[] {options.jfr, options.serverTiming});
+        } else {
+            LOG.log(WARNING, "Server was not initialized");
+        }
+    }
+
+    /**
+     * Runs the task for every shard on a thread of its own and waits until all of them are done.
+     */
+    private static void inParallel(int shards, IntConsumer task) {
+        if(1 == shards) {
+            task.accept(0);
+            return;
+        }
+        Thread[] threads = new Thread[shards];
+        for(int i = 0; i < shards; ++i) {
+            int shard = i;
+            threads[i] = new Thread(() -> task.accept(shard), "jvs-stop-" + i);
+            threads[i].start();
+        }
+        for(Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
@@ -2,6 +2,7 @@ package service;
 
 import com.google.gson.Gson;
 import com.google.gson.JsonSyntaxException;
+import com.google.gson.annotations.SerializedName;
 import com.google.gson.stream.JsonReader;
 
 import java.io.FileNotFoundException;
@@ -25,6 +26,101 @@ import java.util.logging.Logger;
  *     <li>{@code baclog} - the maximum number of incoming TCP connections</li>
  *     <li>{@code path} - the location of the service on the given server</li>
  *     <li>{@code delay} - the maximum time in seconds to wait until exchanges have finished</li>
+ *     <li>{@code metrics} - the location of the metrics in the Prometheus text format, an empty one disables
+ *     them</li>
+ *     <li>{@code batch} - the location which validates newline-delimited JSON line by line, an empty one
+ *     disables it</li>
+ *     <li>{@code cache} - the maximum number of bytes kept by the cache of recent responses, zero disables it</li>
+ *     <li>{@code mode} - {@code pretty} sends a valid JSON back formatted, {@code minified} sends it back without
+ *     whitespace, {@code validate} only checks the JSON as it is read and sends {@code 204 No Content} if it is
+ *     valid. A request may choose another mode with the {@code mode} query parameter or the {@code JVS-Mode}
+ *     header</li>
+ *     <li>{@code engine} - {@code gson} validates with Gson's lenient reader, {@code native} with
+ *     {@link NativeValidator} working on raw bytes. The native engine is strict, in the {@code pretty} and
+ *     {@code minified} modes it reads the whole request and writes it from a {@link Tape}, the same way as
+ *     Gson does</li>
+ * </ul>
+ * <p>
+ * The executor section describes the threads which handle exchanges:
+ * <ul>
+ *     <li>{@code executor} - {@code fixed}, {@code work-stealing} or {@code virtual} (one virtual thread
+ *     per request, if the runtime supports it)</li>
+ *     <li>{@code threads} - the number of worker threads; zero or less means four for every available
+ *     processor, since a worker blocks on the I/O of its exchange. For virtual threads it is the number of requests run at once</li>
+ *     <li>{@code queue} - the maximum number of exchanges waiting for a worker</li>
+ *     <li>{@code rejection} - what to do when the queue is full: {@code reject} responds with
+ *     {@code 503 Service Unavailable}, {@code caller} handles the exchange on the dispatcher thread</li>
+ * </ul>
+ * <p>
+ * The transport section chooses the HTTP server:
+ * <ul>
+ *     <li>{@code transport} - {@code jdk} is the server of the JDK, {@code nio} is {@link NioHttpServer} with
+ *     non-blocking event loops. The {@code nio} transport never handles an exchange on an event loop, so
+ *     the {@code caller} rejection policy is replaced with {@code reject} for it</li>
+ *     <li>{@code loops} - the number of event loops of the {@code nio} transport; zero or less means the number
+ *     of available processors shared by all the shards</li>
+ *     <li>{@code shards} - the number of servers which accept connections, each with its own dispatcher and
+ *     worker pool; {@code threads}, {@code queue} and {@code loops} are the ones of a shard</li>
+ *     <li>{@code reusePort} - {@code true} binds all the shards to the same port with {@code SO_REUSEPORT},
+ *     which only the {@code nio} transport supports; {@code false} binds the shard {@code i} to
+ *     {@code port + i}</li>
+ *     <li>{@code unixSocket} - the path of a Unix domain socket which the service listens on besides the TCP
+ *     port, with {@link NioHttpServer} whatever the transport is. It needs Java 16 or later, an empty one
+ *     disables it</li>
+ * </ul>
+ * <p>
+ * The limits section protects the service from outliers, zero or less disables a limit (see {@link Admission}):
+ * <ul>
+ *     <li>{@code maxBody} - the maximum number of bytes in a request body, a larger one is answered with
+ *     {@code 413 Payload Too Large}</li>
+ *     <li>{@code maxDepth} - the maximum nesting of arrays and objects, a deeper JSON is answered with
+ *     {@code 413 Payload Too Large}</li>
+ *     <li>{@code maxInFlight} - the maximum number of exchanges validated at once, others are answered with
+ *     {@code 503 Service Unavailable}. The number of exchanges waiting for a worker is limited by {@code queue}</li>
+ * </ul>
+ * <p>
+ * Requests in {@code gzip} or {@code deflate} coding are always accepted. Responses are compressed for clients
+ * which accept it (see {@link Compression}):
+ * <ul>
+ *     <li>{@code compression} - the compression level from 1 (fastest) to 9 (smallest), zero or less disables
+ *     compression of responses</li>
+ *     <li>{@code compressionMin} - the size of the smallest response which is compressed</li>
+ * </ul>
+ * <p>
+ * {@code parallel} is the size of a segment in bytes, a top-level array is cut into such segments to be validated
+ * on several cores (see {@link ParallelValidator}). It is used by the {@link Engine#NATIVE} engine in the
+ * {@link Mode#VALIDATE} mode only, zero or less disables it. It is ignored on a single processor.
+ * <p>
+ * {@code stackTraces} tells whether the exceptions thrown for expected errors, such as a request over a limit,
+ * capture the stack. They are never logged, so capturing it is only a cost.
+ * <p>
+ * The tracing section shows where the time of an exchange goes (see {@link Tracing}). Both are off by default
+ * and can be switched on a running service with {@link JSONValidationService#setTracing(JVSOptions)}, which the
+ * entry point of the project calls whenever {@link #CONFIG_FILE_PATH} is saved:
+ * <ul>
+ *     <li>{@code jfr} - {@code true} records an event of JDK Flight Recorder for every exchange while
+ *     a recording is running. It needs Java 11 or 8u262 and later</li>
+ *     <li>{@code serverTiming} - {@code true} adds the {@code Server-Timing} header with the durations of
+ *     the phases to every response</li>
+ * </ul>
+ * <p>
+ * The warm-up section keeps traffic away until the JIT compiler has compiled the validation (see {@link Warmup}):
+ * <ul>
+ *     <li>{@code warmup} - the maximum number of passes over the warm-up corpus which run before the service
+ *     accepts requests, it stops earlier when the compilation settles. Zero or less disables the warm-up</li>
+ *     <li>{@code warmupCorpus} - a directory whose files are the warm-up corpus, an empty one means the built-in
+ *     corpus</li>
+ *     <li>{@code ready} - the location which tells whether the service has warmed up, an empty one disables
+ *     it</li>
+ * </ul>
+ * <p>
+ * The schema section checks a valid JSON against a JSON Schema as well (see {@link SchemaValidator}):
+ * <ul>
+ *     <li>{@code schemas} - a directory of schema files, the schema {@code name} is the file
+ *     {@code <name>.json}. A request is checked against the schema named after its resource, or the one it
+ *     asks for. An empty one disables schemas</li>
+ *     <li>{@code schemaCache} - the maximum number of schema names whose compiled schemas are kept, see
+ *     {@link SchemaCache}</li>
  * </ul>
  * <p>
  * If any errors occurs during deserialization of that JSON, default parameters are used.
@@ -43,6 +139,34 @@ import java.util.logging.Logger;
  * static final int SERVER_BACKLOG = 8;
  * static final String SERVER_PATH = "/";
  * static final int SERVER_DELAY = 16;
+ * static final String SERVER_METRICS = "/metrics";
+ * static final String SERVER_BATCH = "/batch";
+ * static final long SERVER_CACHE = 0; // disabled
+ * static final Mode SERVER_MODE = Mode.PRETTY;
+ * static final Engine SERVER_ENGINE = Engine.GSON;
+ * static final Executor SERVER_EXECUTOR = Executor.FIXED;
+ * static final int SERVER_THREADS = 0; // 4 * available processors
+ * static final int SERVER_QUEUE = 1024;
+ * static final Rejection SERVER_REJECTION = Rejection.REJECT;
+ * static final Transport SERVER_TRANSPORT = Transport.JDK;
+ * static final int SERVER_LOOPS = 0; // available processors
+ * static final long SERVER_MAX_BODY = 0; // unlimited
+ * static final int SERVER_MAX_DEPTH = 0; // unlimited
+ * static final int SERVER_MAX_IN_FLIGHT = 0; // unlimited
+ * static final int SERVER_COMPRESSION = 0; // disabled
+ * static final int SERVER_COMPRESSION_MIN = 1024;
+ * static final int SERVER_PARALLEL = 0; // disabled
+ * static final boolean SERVER_STACK_TRACES = false;
+ * static final int SERVER_SHARDS = 1;
+ * static final boolean SERVER_REUSE_PORT = true;
+ * static final String SERVER_UNIX_SOCKET = ""; // disabled
+ * static final boolean SERVER_JFR = false;
+ * static final boolean SERVER_SERVER_TIMING = false;
+ * static final int SERVER_WARMUP = 0; // disabled
+ * static final String SERVER_WARMUP_CORPUS = ""; // built-in
+ * static final String SERVER_READY = "/ready";
+ * static final String SERVER_SCHEMAS = ""; // disabled
+ * static final int SERVER_SCHEMA_CACHE = 64;
  * </pre>
  */
 public class JVSOptions {
@@ -53,6 +177,100 @@ public class JVSOptions {
     static final int SERVER_BACKLOG = 8;
     static final String SERVER_PATH = "/";
     static final int SERVER_DELAY = 16;
+    static final String SERVER_METRICS = "/metrics";
+    static final String SERVER_BATCH = "/batch";
+    static final long SERVER_CACHE = 0; // disabled
+    static final Mode SERVER_MODE = Mode.PRETTY;
+    static final Engine SERVER_ENGINE = Engine.GSON;
+    static final Executor SERVER_EXECUTOR = Executor.FIXED;
+    static final int SERVER_THREADS = 0; // 4 * available processors
+    static final int SERVER_QUEUE = 1024;
+    static final Rejection SERVER_REJECTION = Rejection.REJECT;
+    static final Transport SERVER_TRANSPORT = Transport.JDK;
+    static final int SERVER_LOOPS = 0; // available processors
+    static final long SERVER_MAX_BODY = 0; // unlimited
+    static final int SERVER_MAX_DEPTH = 0; // unlimited
+    static final int SERVER_MAX_IN_FLIGHT = 0; // unlimited
+    static final int SERVER_COMPRESSION = 0; // disabled
+    static final int SERVER_COMPRESSION_MIN = 1024;
+    static final int SERVER_PARALLEL = 0; // disabled
+    static final boolean SERVER_STACK_TRACES = false;
+    static final int SERVER_SHARDS = 1;
+    static final boolean SERVER_REUSE_PORT = true;
+    static final String SERVER_UNIX_SOCKET = ""; // disabled
+    static final boolean SERVER_JFR = false;
+    static final boolean SERVER_SERVER_TIMING = false;
+    static final int SERVER_WARMUP = 0; // disabled
+    static final String SERVER_WARMUP_CORPUS = ""; // built-in
+    static final String SERVER_READY = "/ready";
+    static final String SERVER_SCHEMAS = ""; // disabled
+    static final int SERVER_SCHEMA_CACHE = 64;
+
+    /** What is sent back for a valid JSON */
+    public enum Mode {
+        /** The JSON formatted for better human readability */
+        @SerializedName("pretty") PRETTY("pretty", "  "),
+        /** The JSON without any whitespace, the way {@code Gson.toJson()} writes it */
+        @SerializedName("minified") MINIFIED("minified", ""),
+        /** Nothing, the JSON is only validated as a token stream */
+        @SerializedName("validate") VALIDATE("validate", null);
+
+        /** The name of the mode in the configuration file and in a request */
+        final String id;
+        /** The indent of the writer of a valid JSON, or {@code null} if nothing is written */
+        final String indent;
+
+        Mode(String id, String indent) {
+            this.id = id;
+            this.indent = indent;
+        }
+
+        /**
+         * @return  the mode with the given name, or {@code null} if there is none.
+         */
+        static Mode of(String id) {
+            for(Mode mode : values()) {
+                if(mode.id.equalsIgnoreCase(id)) {
+                    return mode;
+                }
+            }
+            return null;
+        }
+    }
+
+    /** Validators of a request */
+    public enum Engine {
+        /** Gson's reader which is as lenient as {@code JsonParser} */
+        @SerializedName("gson") GSON,
+        /** The strict RFC 7159 state machine working on UTF-8 bytes */
+        @SerializedName("native") NATIVE
+    }
+
+    /** Kinds of the pool which runs exchanges */
+    public enum Executor {
+        /** A fixed number of platform threads */
+        @SerializedName("fixed") FIXED,
+        /** A work-stealing pool of platform threads */
+        @SerializedName("work-stealing") WORK_STEALING,
+        /** One virtual thread per request */
+        @SerializedName("virtual") VIRTUAL
+    }
+
+    /** Policies applied to an exchange when the executor queue is full */
+    public enum Rejection {
+        /** Respond with 503 Service Unavailable right away */
+        @SerializedName("reject") REJECT,
+        /** Handle the exchange on the dispatcher thread */
+        @SerializedName("caller") CALLER
+    }
+
+    /** HTTP servers which accept connections */
+    public enum Transport {
+        /** The server of the JDK, {@code com.sun.net.httpserver} */
+        @SerializedName("jdk") JDK,
+        /** The server on non-blocking channels with a number of event loops */
+        @SerializedName("nio") NIO
+    }
 
     /** Default location for the configuration file */
     public static final String CONFIG_FILE_PATH = "jvs.properties";
@@ -62,6 +280,34 @@ public class JVSOptions {
     int backlog = SERVER_BACKLOG;
     String path = SERVER_PATH;
     int delay = SERVER_DELAY;
+    String metrics = SERVER_METRICS;
+    String batch = SERVER_BATCH;
+    long cache = SERVER_CACHE;
+    Mode mode = SERVER_MODE;
+    Engine engine = SERVER_ENGINE;
+    Executor executor = SERVER_EXECUTOR;
+    int threads = SERVER_THREADS;
+    int queue = SERVER_QUEUE;
+    Rejection rejection = SERVER_REJECTION;
+    Transport transport = SERVER_TRANSPORT;
+    int loops = SERVER_LOOPS;
+    long maxBody = SERVER_MAX_BODY;
+    int maxDepth = SERVER_MAX_DEPTH;
+    int maxInFlight = SERVER_MAX_IN_FLIGHT;
+    int compression = SERVER_COMPRESSION;
+    int compressionMin = SERVER_COMPRESSION_MIN;
+    int parallel = SERVER_PARALLEL;
+    boolean stackTraces = SERVER_STACK_TRACES;
+    int shards = SERVER_SHARDS;
+    boolean reusePort = SERVER_REUSE_PORT;
+    String unixSocket = SERVER_UNIX_SOCKET;
+    boolean jfr = SERVER_JFR;
+    boolean serverTiming = SERVER_SERVER_TIMING;
+    int warmup = SERVER_WARMUP;
+    String warmupCorpus = SERVER_WARMUP_CORPUS;
+    String ready = SERVER_READY;
+    String schemas = SERVER_SCHEMAS;
+    int schemaCache = SERVER_SCHEMA_CACHE;
 
     /**
      * Constructs a JVSOptions object with default configuration.
@@ -106,6 +352,34 @@ public class JVSOptions {
             backlog = options.backlog;
             path = options.path;
             delay = options.delay;
+            metrics = options.metrics;
+            batch = options.batch;
+            cache = options.cache;
+            mode = options.mode;
+            engine = options.engine;
+            executor = options.executor;
+            threads = options.threads;
+            queue = options.queue;
+            rejection = options.rejection;
+            transport = options.transport;
+            loops = options.loops;
+            maxBody = options.maxBody;
+            maxDepth = options.maxDepth;
+            maxInFlight = options.maxInFlight;
+            compression = options.compression;
+            compressionMin = options.compressionMin;
+            parallel = options.parallel;
+            stackTraces = options.stackTraces;
+            shards = options.shards;
+            reusePort = options.reusePort;
+            unixSocket = options.unixSocket;
+            jfr = options.jfr;
+            serverTiming = options.serverTiming;
+            warmup = options.warmup;
+            warmupCorpus = options.warmupCorpus;
+            ready = options.ready;
+            schemas = options.schemas;
+            schemaCache = options.schemaCache;
         }
 
         checkConstraints();
@@ -120,17 +394,65 @@ public class JVSOptions {
         return new JVSOptionsBuilder(this);
     }
 
-    JVSOptions(String host, int port, int backlog, String path, int delay) {
-        this.host = host;
-        this.port = port;
-        this.backlog = backlog;
-        this.path = path;
-        this.delay = delay;
+    JVSOptions(JVSOptionsBuilder builder) {
+        host = builder.host;
+        port = builder.port;
+        backlog = builder.backlog;
+        path = builder.path;
+        delay = builder.delay;
+        metrics = builder.metrics;
+        batch = builder.batch;
+        cache = builder.cache;
+        mode = builder.mode;
+        engine = builder.engine;
+        executor = builder.executor;
+        threads = builder.threads;
+        queue = builder.queue;
+        rejection = builder.rejection;
+        transport = builder.transport;
+        loops = builder.loops;
+        maxBody = builder.maxBody;
+        maxDepth = builder.maxDepth;
+        maxInFlight = builder.maxInFlight;
+        compression = builder.compression;
+        compressionMin = builder.compressionMin;
+        parallel = builder.parallel;
+        stackTraces = builder.stackTraces;
+        shards = builder.shards;
+        reusePort = builder.reusePort;
+        unixSocket = builder.unixSocket;
+        jfr = builder.jfr;
+        serverTiming = builder.serverTiming;
+        warmup = builder.warmup;
+        warmupCorpus = builder.warmupCorpus;
+        ready = builder.ready;
+        schemas = builder.schemas;
+        schemaCache = builder.schemaCache;
 
         checkConstraints();
     }
 
     private void checkConstraints() {
         // TODO: check constraints: e.g. port is in range [1, 65535] and so on
+        if(null == mode) {
+            LOG.log(Level.WARNING, "Configuration: unknown mode, {0} is used", SERVER_MODE);
+            mode = SERVER_MODE;
+        }
+        if(null == engine) {
+            LOG.log(Level.WARNING, "Configuration: unknown engine, {0} is used", SERVER_ENGINE);
+            engine = SERVER_ENGINE;
+        }
+        if(null == executor) {
+            LOG.log(Level.WARNING, "Configuration: unknown executor, {0} is used", SERVER_EXECUTOR);
+            executor = SERVER_EXECUTOR;
+        }
+        if(null == rejection) {
+            LOG.log(Level.WARNING, "Configuration: unknown rejection policy, {0} is used", SERVER_REJECTION);
+            rejection = SERVER_REJECTION;
+        }
+        if(null == transport) {
+            LOG.log(Level.WARNING, "Configuration: unknown transport, {0} is used", SERVER_TRANSPORT);
+            transport = SERVER_TRANSPORT;
+        }
     }
 }
@@ -10,11 +10,39 @@ package service;
  * </p>
  */
 public class JVSOptionsBuilder {
-    private String host = JVSOptions.SERVER_HOST;
-    private int port = JVSOptions.SERVER_PORT;
-    private int backlog = JVSOptions.SERVER_BACKLOG;
-    private String path = JVSOptions.SERVER_PATH;
-    private int delay = JVSOptions.SERVER_DELAY;
+    String host = JVSOptions.SERVER_HOST;
+    int port = JVSOptions.SERVER_PORT;
+    int backlog = JVSOptions.SERVER_BACKLOG;
+    String path = JVSOptions.SERVER_PATH;
+    int delay = JVSOptions.SERVER_DELAY;
+    String metrics = JVSOptions.SERVER_METRICS;
+    String batch = JVSOptions.SERVER_BATCH;
+    long cache = JVSOptions.SERVER_CACHE;
+    JVSOptions.Mode mode = JVSOptions.SERVER_MODE;
+    JVSOptions.Engine engine = JVSOptions.SERVER_ENGINE;
+    JVSOptions.Executor executor = JVSOptions.SERVER_EXECUTOR;
+    int threads = JVSOptions.SERVER_THREADS;
+    int queue = JVSOptions.SERVER_QUEUE;
+    JVSOptions.Rejection rejection = JVSOptions.SERVER_REJECTION;
+    JVSOptions.Transport transport = JVSOptions.SERVER_TRANSPORT;
+    int loops = JVSOptions.SERVER_LOOPS;
+    long maxBody = JVSOptions.SERVER_MAX_BODY;
+    int maxDepth = JVSOptions.SERVER_MAX_DEPTH;
+    int maxInFlight = JVSOptions.SERVER_MAX_IN_FLIGHT;
+    int compression = JVSOptions.SERVER_COMPRESSION;
+    int compressionMin = JVSOptions.SERVER_COMPRESSION_MIN;
+    int parallel = JVSOptions.SERVER_PARALLEL;
+    boolean stackTraces = JVSOptions.SERVER_STACK_TRACES;
+    int shards = JVSOptions.SERVER_SHARDS;
+    boolean reusePort = JVSOptions.SERVER_REUSE_PORT;
+    String unixSocket = JVSOptions.SERVER_UNIX_SOCKET;
+    boolean jfr = JVSOptions.SERVER_JFR;
+    boolean serverTiming = JVSOptions.SERVER_SERVER_TIMING;
+    int warmup = JVSOptions.SERVER_WARMUP;
+    String warmupCorpus = JVSOptions.SERVER_WARMUP_CORPUS;
+    String ready = JVSOptions.SERVER_READY;
+    String schemas = JVSOptions.SERVER_SCHEMAS;
+    int schemaCache = JVSOptions.SERVER_SCHEMA_CACHE;
 
     /**
      * Creates a JVSOptionsBuilder instance that can be used to build JVSOptions with various configuration
@@ -35,6 +63,34 @@ public class JVSOptionsBuilder {
         backlog = options.backlog;
         path = options.path;
         delay = options.delay;
+        metrics = options.metrics;
+        batch = options.batch;
+        cache = options.cache;
+        mode = options.mode;
+        engine = options.engine;
+        executor = options.executor;
+        threads = options.threads;
+        queue = options.queue;
+        rejection = options.rejection;
+        transport = options.transport;
+        loops = options.loops;
+        maxBody = options.maxBody;
+        maxDepth = options.maxDepth;
+        maxInFlight = options.maxInFlight;
+        compression = options.compression;
+        compressionMin = options.compressionMin;
+        parallel = options.parallel;
+        stackTraces = options.stackTraces;
+        shards = options.shards;
+        reusePort = options.reusePort;
+        unixSocket = options.unixSocket;
+        jfr = options.jfr;
+        serverTiming = options.serverTiming;
+        warmup = options.warmup;
+        warmupCorpus = options.warmupCorpus;
+        ready = options.ready;
+        schemas = options.schemas;
+        schemaCache = options.schemaCache;
     }
 
     /**
@@ -105,12 +161,347 @@ public class JVSOptionsBuilder {
         return this;
     }
 
+    /**
+     * Sets a URI path where the metrics of the service are exposed in the Prometheus text format.
+     *
+     * @param metrics  the URI path of the metrics, {@code null} or an empty string disables them.
+     * @return  reference to this {@code JVSOptionsBuilder} object to fulfill the "Builder" pattern.
+     */
+    public JVSOptionsBuilder setMetrics(String metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    /**
+     * Sets a URI path where batches of newline-delimited JSON documents are validated.
+     *
+     * @param batch  the URI path of the batch validation, {@code null} or an empty string disables it.
+     * @return  reference to this {@code JVSOptionsBuilder} object to fulfill the "Builder" pattern.
+     */
+    public JVSOptionsBuilder setBatch(String batch) {
+        this.batch = batch;
+        return this;
+    }
+
+    /**
+     * Sets the size of the cache which keeps responses to recent requests, so a repeated request is not
+     * validated again.
+     *
+     * @param cache  the maximum number of bytes kept by the cache. If this value is less than or equal to zero,
+     *               then the cache is not used.
+     * @return  reference to this {@code JVSOptionsBuilder} object to fulfill the "Builder" pattern.
+     */
+    public JVSOptionsBuilder setCache(long cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    /**
+     * Sets what is sent back for a valid JSON.
+     *
+     * @param mode  {@code PRETTY} to send the formatted JSON, {@code MINIFIED} to send it without whitespace,
+     *              {@code VALIDATE} to only check the request without building a JSON tree. It is the default
+     *              one, a request may choose another mode.
+     * @return  reference to this {@code JVSOptionsBuilder} object to fulfill the "Builder" pattern.
+     */
+    public JVSOptionsBuilder setMode(JVSOptions.Mode mode) {
+        this.mode = mode;
+        return this;
+    }
+
+    /**
+     * Sets a validator of requests.
+     *
+     * @param engine  {@code GSON} for Gson's lenient reader, {@code NATIVE} for the strict RFC 7159 validator
+     *                working on raw bytes, which formats a valid JSON from a {@link Tape}.
+     * @return  reference to this {@code JVSOptionsBuilder} object to fulfill the "Builder" pattern.
+     */
+    public JVSOptionsBuilder setEngine(JVSOptions.Engine engine) {
+        this.engine = engine;
+        return this;
+    }
+
+    /**
+     * Sets a kind of the pool which handles exchanges.
+     *
+     * @param executor  fixed pool, work-stealing pool or a virtual thread per request.
+     * @return  reference to this {@code JVSOptionsBuilder} object to fulfill the "Builder" pattern.
+     */
+    public JVSOptionsBuilder setExecutor(JVSOptions.Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Sets a number of worker threads.
+     *
+     * @param threads  the number of threads. If this value is less than or equal to zero,
+     *                 then four threads for every available processor are used.
+     * @return  reference to this {@code JVSOptionsBuilder} object to fulfill the "Builder" pattern.
+     */
+    public JVSOptionsBuilder setThreads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of exchanges which wait for a free worker.
+     *
+     * @param queue  the capacity of the executor queue.
+     * @return  reference to this {@code JVSOptionsBuilder} object to fulfill the "Builder" pattern.
+     */
+    public JVSOptionsBuilder setQueue(int queue) {
+        this.queue = queue;
+        return this;
+    }
+
+    /**
+     * Sets a policy which is applied to an exchange when the executor queue is full.
+     *
+     * @param rejection  respond with 503 right away or handle the exchange on the dispatcher thread.
+     * @return  reference to this {@code JVSOptionsBuilder} object to fulfill the "Builder" pattern.
+     */
+    public JVSOptionsBuilder setRejection(JVSOptions.Rejection rejection) {
+        this.rejection = rejection;
+        return this;
+    }
+
+    /**
+     * Sets the HTTP server which accepts connections.
+     *
+     * @param transport  the server of the JDK or the server on non-blocking channels.
+     * @return  reference to this {@code JVSOptionsBuilder} object to fulfill the "Builder" pattern.
+     */
+    public JVSOptionsBuilder setTransport(JVSOptions.Transport transport) {
+        this.transport = transport;
+        return this;
+    }
+
+    /**
+     * Sets a number of event loops of the {@code NIO} transport.
+     *
+     * @param loops  the number of event loops. If this value is less than or equal to zero,
+     *               then the number of available processors is used.
+     * @return  reference to this {@code JVSOptionsBuilder} object to fulfill the "Builder" pattern.
+     */
+    public JVSOptionsBuilder setLoops(int loops) {
+        this.loops = loops;
+        return this;
+    }
+
+    /**
+     * Sets the maximum size of a request body. A larger request is answered with {@code 413 Payload Too Large}.
+     *
+     * @param maxBody  the maximum number of bytes. If this value is less than or equal to zero,
+     *                 then the size is not limited.
+     * @return  reference to this {@code JVSOptionsBuilder} object to fulfill the "Builder" pattern.
+     */
+    public JVSOptionsBuilder setMaxBody(long maxBody) {
+        this.maxBody = maxBody;
+        return this;
+    }
+
+    /**
+     * Sets the maximum nesting of arrays and objects. A deeper JSON is answered with {@code 413 Payload Too Large}.
+     *
+     * @param maxDepth  the maximum depth. If this value is less than or equal to zero,
+     *                  then the depth is not limited.
+     * @return  reference to this {@code JVSOptionsBuilder} object to fulfill the "Builder" pattern.
+     */
+    public JVSOptionsBuilder setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of exchanges validated at once. Others are answered with
+     * {@code 503 Service Unavailable}.
+     *
+     * @param maxInFlight  the maximum number of exchanges. If this value is less than or equal to zero,
+     *                     then the number is not limited.
+     * @return  reference to this {@code JVSOptionsBuilder} object to fulfill the "Builder" pattern.
+     */
+    public JVSOptionsBuilder setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+        return this;
+    }
+
+    /**
+     * Sets the level of compression of responses for clients which accept {@code gzip} or {@code deflate}.
+     *
+     * @param compression  the level from 1 (fastest) to 9 (smallest). If this value is less than or equal to zero,
+     *                     then responses are not compressed.
+     * @return  reference to this {@code JVSOptionsBuilder} object to fulfill the "Builder" pattern.
+     */
+    public JVSOptionsBuilder setCompression(int compression) {
+        this.compression = compression;
+        return this;
+    }
+
+    /**
+     * Sets the size of the smallest response which is compressed.
+     *
+     * @param compressionMin  the number of bytes.
+     * @return  reference to this {@code JVSOptionsBuilder} object to fulfill the "Builder" pattern.
+     */
+    public JVSOptionsBuilder setCompressionMin(int compressionMin) {
+        this.compressionMin = compressionMin;
+        return this;
+    }
+
+    /**
+     * Sets the size of a segment of a top-level array which is validated on its own, so a large array is validated
+     * on several cores. Only the {@code native} engine in the {@code validate} mode does it.
+     *
+     * @param parallel  the number of bytes. If this value is less than or equal to zero, then every request is
+     *                  validated on a single thread.
+     * @return  reference to this {@code JVSOptionsBuilder} object to fulfill the "Builder" pattern.
+     */
+    public JVSOptionsBuilder setParallel(int parallel) {
+        this.parallel = parallel;
+        return this;
+    }
+
+    /**
+     * Sets whether the exceptions thrown for expected errors, such as a request over a limit, capture the stack.
+     *
+     * @param stackTraces  {@code true} to capture the stack, which only helps to debug the service.
+     * @return  reference to this {@code JVSOptionsBuilder} object to fulfill the "Builder" pattern.
+     */
+    public JVSOptionsBuilder setStackTraces(boolean stackTraces) {
+        this.stackTraces = stackTraces;
+        return this;
+    }
+
+    /**
+     * Sets a number of servers which accept connections. Every shard has its own dispatcher and worker pool,
+     * the handlers, the cache, the limits and the metrics are shared.
+     *
+     * @param shards  the number of shards. If this value is less than one, then one is used.
+     * @return  reference to this {@code JVSOptionsBuilder} object to fulfill the "Builder" pattern.
+     */
+    public JVSOptionsBuilder setShards(int shards) {
+        this.shards = shards;
+        return this;
+    }
+
+    /**
+     * Sets how the shards share the address.
+     *
+     * @param reusePort  {@code true} to bind all the shards to the same port with {@code SO_REUSEPORT}, which
+     *                   needs the {@code NIO} transport; {@code false} to bind the shard {@code i} to
+     *                   {@code port + i}.
+     * @return  reference to this {@code JVSOptionsBuilder} object to fulfill the "Builder" pattern.
+     */
+    public JVSOptionsBuilder setReusePort(boolean reusePort) {
+        this.reusePort = reusePort;
+        return this;
+    }
+
+    /**
+     * Sets a Unix domain socket which the service listens on besides the TCP port. It speaks the same HTTP/1.1
+     * and runs the same handlers, it needs Java 16 or later.
+     *
+     * @param unixSocket  the path of the socket. If this value is {@code null} or an empty string, then
+     *                    the service listens on TCP only.
+     * @return  reference to this {@code JVSOptionsBuilder} object to fulfill the "Builder" pattern.
+     */
+    public JVSOptionsBuilder setUnixSocket(String unixSocket) {
+        this.unixSocket = unixSocket;
+        return this;
+    }
+
+    /**
+     * Sets whether an event of JDK Flight Recorder is recorded for every exchange. The events cost nothing
+     * until a recording which enables them is started, e.g. with {@code jcmd <pid> JFR.start}.
+     *
+     * @param jfr  {@code true} to record the events, it is ignored if the JVM has no Flight Recorder.
+     * @return  reference to this {@code JVSOptionsBuilder} object to fulfill the "Builder" pattern.
+     */
+    public JVSOptionsBuilder setJfr(boolean jfr) {
+        this.jfr = jfr;
+        return this;
+    }
+
+    /**
+     * Sets whether a response has the {@code Server-Timing} header with the durations of the phases of
+     * the exchange.
+     *
+     * @param serverTiming  {@code true} to add the header.
+     * @return  reference to this {@code JVSOptionsBuilder} object to fulfill the "Builder" pattern.
+     */
+    public JVSOptionsBuilder setServerTiming(boolean serverTiming) {
+        this.serverTiming = serverTiming;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of passes over the warm-up corpus which run before the service accepts requests.
+     * The warm-up stops earlier as soon as the JIT compiler has nothing more to compile.
+     *
+     * @param warmup  the number of passes. If this value is zero or less, then requests are accepted at once.
+     * @return  reference to this {@code JVSOptionsBuilder} object to fulfill the "Builder" pattern.
+     */
+    public JVSOptionsBuilder setWarmup(int warmup) {
+        this.warmup = warmup;
+        return this;
+    }
+
+    /**
+     * Sets a directory whose files are validated during the warm-up instead of the built-in corpus.
+     *
+     * @param warmupCorpus  the path of the directory. If this value is {@code null} or an empty string, then
+     *                      the built-in corpus is used.
+     * @return  reference to this {@code JVSOptionsBuilder} object to fulfill the "Builder" pattern.
+     */
+    public JVSOptionsBuilder setWarmupCorpus(String warmupCorpus) {
+        this.warmupCorpus = warmupCorpus;
+        return this;
+    }
+
+    /**
+     * Sets a URI path which answers {@code 200 OK} once the service has warmed up and
+     * {@code 503 Service Unavailable} until then.
+     *
+     * @param ready  the URI path of the readiness, {@code null} or an empty string disables it.
+     * @return  reference to this {@code JVSOptionsBuilder} object to fulfill the "Builder" pattern.
+     */
+    public JVSOptionsBuilder setReady(String ready) {
+        this.ready = ready;
+        return this;
+    }
+
+    /**
+     * Sets a directory of JSON Schema files. A valid JSON is checked against the schema named after its resource,
+     * or the one chosen by the request, e.g. {@code orders} for {@code <schemas>/orders.json}.
+     *
+     * @param schemas  the path of the directory. If this value is {@code null} or an empty string, then only
+     *                 the syntax is validated.
+     * @return  reference to this {@code JVSOptionsBuilder} object to fulfill the "Builder" pattern.
+     */
+    public JVSOptionsBuilder setSchemas(String schemas) {
+        this.schemas = schemas;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of schema names whose compiled schemas are kept, the least recently used ones
+     * are evicted.
+     *
+     * @param schemaCache  the number of names, at least one is kept.
+     * @return  reference to this {@code JVSOptionsBuilder} object to fulfill the "Builder" pattern.
+     */
+    public JVSOptionsBuilder setSchemaCache(int schemaCache) {
+        this.schemaCache = schemaCache;
+        return this;
+    }
+
     /**
      * Creates a {@link JVSOptions} instance based on the current configuration.
      *
      * @return  an instance of JVSOptions configured with the options currently set in this builder.
      */
     public JVSOptions build() {
-        return new JVSOptions(host, port, backlog, path, delay);
+        return new JVSOptions(this);
     }
 }
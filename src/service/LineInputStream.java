@@ -0,0 +1,169 @@
+package service;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Splits a stream of bytes into lines, and reads every line as a stream of its own.
+ * <p>
+ * A line is started with {@link #nextLine()} and then it is read until the end of input is reported at the line
+ * feed, which is consumed but never returned. Whatever has not been read from a line is skipped by the next call to
+ * {@link #nextLine()}, so a reader can stop at any point. Lines are never held in memory as a whole, only the
+ * pooled buffer is.
+ */
+class LineInputStream extends InputStream {
+    private final InputStream mStream;
+    private final BufferPool mPool;
+    private byte[] mBuffer;
+    private int mPosition = 0;
+    private int mLimit = 0;
+    private boolean mInLine = false;
+    private boolean mEndOfStream = false;
+
+    LineInputStream(InputStream stream, BufferPool pool) {
+        mStream = stream;
+        mPool = pool;
+        mBuffer = pool.acquire(BufferPool.MAX_SIZE);
+    }
+
+    /**
+     * Skips the rest of the current line and starts the next one.
+     *
+     * @return  {@code false} if there are no more lines.
+     */
+    boolean nextLine() throws IOException {
+        while(mInLine) {
+            if(mPosition == mLimit && !fill()) {
+                mInLine = false;
+                break;
+            }
+            int feed = indexOfLineFeed(mPosition, mLimit);
+            if(-1 != feed) {
+                mPosition = feed + 1;
+                mInLine = false;
+            } else {
+                mPosition = mLimit;
+            }
+        }
+        if(mPosition == mLimit && !fill()) {
+            return false;
+        }
+        mInLine = true;
+        return true;
+    }
+
+    /**
+     * Skips the current line if it consists of whitespace only. A line is not skipped if its whitespace does not
+     * fit the buffer.
+     *
+     * @return  {@code true} if the line has been skipped.
+     */
+    boolean skipBlank() throws IOException {
+        int i = mPosition;
+        while(mInLine) {
+            if(i == mLimit) {
+                if(0 == mPosition && mBuffer.length == mLimit) {
+                    return false;
+                }
+                int offset = i - mPosition;
+                if(!fill()) {
+                    mPosition = mLimit;
+                    mInLine = false;
+                    return true;
+                }
+                i = mPosition + offset;
+                continue;
+            }
+            byte c = mBuffer[i++];
+            if('\n' == c) {
+                mPosition = i;
+                mInLine = false;
+                return true;
+            }
+            if(' ' != c && '\t' != c && '\r' != c) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if(!mInLine || (mPosition == mLimit && !fill())) {
+            mInLine = false;
+            return -1;
+        }
+        byte c = mBuffer[mPosition++];
+        if('\n' == c) {
+            mInLine = false;
+            return -1;
+        }
+        return c & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if(0 == len) {
+            return 0;
+        }
+        if(!mInLine || (mPosition == mLimit && !fill())) {
+            mInLine = false;
+            return -1;
+        }
+
+        int end = Math.min(mLimit, mPosition + len);
+        int feed = indexOfLineFeed(mPosition, end);
+        int count = ((-1 != feed) ? feed : end) - mPosition;
+        System.arraycopy(mBuffer, mPosition, b, off, count);
+        mPosition += count;
+        if(-1 != feed) {
+            ++mPosition;
+            mInLine = false;
+            if(0 == count) {
+                return -1;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(null != mBuffer) {
+            mPool.release(mBuffer);
+            mBuffer = null;
+        }
+        mStream.close();
+    }
+
+    private int indexOfLineFeed(int from, int to) {
+        for(int i = from; i < to; ++i) {
+            if('\n' == mBuffer[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Moves the unread bytes to the start of the buffer and reads more bytes after them.
+     *
+     * @return  {@code false} at the end of the stream.
+     */
+    private boolean fill() throws IOException {
+        if(mEndOfStream) {
+            return false;
+        }
+        if(0 < mPosition) {
+            System.arraycopy(mBuffer, mPosition, mBuffer, 0, mLimit - mPosition);
+            mLimit -= mPosition;
+            mPosition = 0;
+        }
+        int n = mStream.read(mBuffer, mLimit, mBuffer.length - mLimit);
+        if(-1 == n) {
+            mEndOfStream = true;
+            return false;
+        }
+        mLimit += n;
+        return true;
+    }
+}
@@ -0,0 +1,59 @@
+package service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read from a request body and the time spent waiting for them.
+ */
+class MeteredInputStream extends FilterInputStream {
+    private long mCount = 0;
+    private long mNanos = 0;
+
+    MeteredInputStream(InputStream in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        long start = System.nanoTime();
+        try {
+            int b = in.read();
+            if(-1 != b) {
+                ++mCount;
+            }
+            return b;
+        } finally {
+            mNanos += System.nanoTime() - start;
+        }
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        long start = System.nanoTime();
+        try {
+            int n = in.read(b, off, len);
+            if(0 < n) {
+                mCount += n;
+            }
+            return n;
+        } finally {
+            mNanos += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * @return  the number of bytes read so far.
+     */
+    long getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return  the time in nanoseconds spent in reading so far.
+     */
+    long getNanos() {
+        return mNanos;
+    }
+}
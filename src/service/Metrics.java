@@ -0,0 +1,156 @@
+package service;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and histograms of the exchanges handled by the service.
+ * <p>
+ * Everything is recorded into {@link LongAdder}s, so the worker threads do not contend with each other, and the
+ * values are only summed up when they are exported. The metrics are exported in the Prometheus text format:
+ * <ul>
+ *     <li>{@code jvs_requests_total} - the validated requests; the rate is computed by Prometheus</li>
+ *     <li>{@code jvs_requests_in_flight} - the exchanges being handled right now</li>
+ *     <li>{@code jvs_requests_rejected_total} - the exchanges rejected by the {@code limit} they are over,
+ *     see {@link Admission.Limit}</li>
+ *     <li>{@code jvs_request_errors_total} - the invalid requests by {@code code} of the error response,
+ *     zero is an unknown error</li>
+ *     <li>{@code jvs_request_size_bytes} - the histogram of the bytes read from the requests</li>
+ *     <li>{@code jvs_request_duration_seconds} - the histograms of the time spent in every {@code phase}:
+ *     {@code read} waits for the request, {@code write} sends the response, {@code parse} is the rest of it,
+ *     and {@code total} is the whole exchange</li>
+ * </ul>
+ * The statistics of the {@link ResultCache} and of the {@link SchemaCache} follow, if the caches are used.
+ */
+class Metrics {
+    /** The error codes of {@code BadJSONResponse} are the ordinals of {@link ErrorCode} */
+    private static final int ERROR_CODES = ErrorCode.values().length;
+
+    private static final long MIN_SIZE = 64;
+    private static final long MAX_SIZE = 1L << 30;
+    private static final long MIN_DURATION = 1000; // 1 microsecond
+    private static final long MAX_DURATION = 1L << 36; // about a minute
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private final LongAdder mRequests = new LongAdder();
+    private final LongAdder mInFlight = new LongAdder();
+    private final LongAdder[] mRejected = new LongAdder[Admission.Limit.values().length];
+    private final LongAdder[] mErrors = new LongAdder[ERROR_CODES];
+    private final Histogram mSize = new Histogram();
+    private final Histogram mRead = new Histogram();
+    private final Histogram mParse = new Histogram();
+    private final Histogram mWrite = new Histogram();
+    private final Histogram mTotal = new Histogram();
+    private final ResultCache mCache;
+    private final SchemaCache mSchemas;
+
+    Metrics() {
+        this(null, null);
+    }
+
+    /**
+     * @param cache  the cache whose statistics are exported, or {@code null}.
+     * @param schemas  the schemas whose statistics are exported, or {@code null}.
+     */
+    Metrics(ResultCache cache, SchemaCache schemas) {
+        mCache = cache;
+        mSchemas = schemas;
+        for(int i = 0; i < ERROR_CODES; ++i) {
+            mErrors[i] = new LongAdder();
+        }
+        for(int i = 0; i < mRejected.length; ++i) {
+            mRejected[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records an exchange which has been rejected.
+     *
+     * @param limit  the limit which the exchange is over.
+     */
+    void rejected(Admission.Limit limit) {
+        mRejected[limit.ordinal()].increment();
+    }
+
+    /**
+     * Records the start of an exchange. It has to be followed by {@link #end(long, long, long, long)}.
+     */
+    void begin() {
+        mRequests.increment();
+        mInFlight.increment();
+    }
+
+    /**
+     * Records the end of an exchange.
+     *
+     * @param bytes  the number of bytes read from the request.
+     * @param readNanos  the time spent in reading the request.
+     * @param writeNanos  the time spent in sending the response.
+     * @param totalNanos  the time of the whole exchange.
+     */
+    void end(long bytes, long readNanos, long writeNanos, long totalNanos) {
+        mInFlight.decrement();
+        mSize.record(bytes);
+        mRead.record(readNanos);
+        mWrite.record(writeNanos);
+        mParse.record(totalNanos - readNanos - writeNanos);
+        mTotal.record(totalNanos);
+    }
+
+    /**
+     * Records an error response.
+     *
+     * @param code  the error code of the response.
+     */
+    void error(int code) {
+        mErrors[(0 <= code && ERROR_CODES > code) ? code : 0].increment();
+    }
+
+    /**
+     * Writes all the metrics in the Prometheus text format.
+     *
+     * @param out  the output.
+     */
+    void write(StringBuilder out) {
+        out.append("# HELP jvs_requests_total Requests handled by the service.\n")
+                .append("# TYPE jvs_requests_total counter\n")
+                .append("jvs_requests_total ").append(mRequests.sum()).append('\n');
+        out.append("# HELP jvs_requests_in_flight Exchanges being handled.\n")
+                .append("# TYPE jvs_requests_in_flight gauge\n")
+                .append("jvs_requests_in_flight ").append(mInFlight.sum()).append('\n');
+        out.append("# HELP jvs_requests_rejected_total Exchanges rejected by the limit they are over.\n")
+                .append("# TYPE jvs_requests_rejected_total counter\n");
+        for(Admission.Limit limit : Admission.Limit.values()) {
+            out.append("jvs_requests_rejected_total{limit=\"").append(limit.label).append("\"} ")
+                    .append(mRejected[limit.ordinal()].sum()).append('\n');
+        }
+
+        out.append("# HELP jvs_request_errors_total Invalid requests by the error code.\n")
+                .append("# TYPE jvs_request_errors_total counter\n");
+        for(int i = 0; i < ERROR_CODES; ++i) {
+            out.append("jvs_request_errors_total{code=\"").append(i).append("\"} ")
+                    .append(mErrors[i].sum()).append('\n');
+        }
+
+        out.append("# HELP jvs_request_size_bytes Bytes read from a request.\n")
+                .append("# TYPE jvs_request_size_bytes histogram\n");
+        mSize.write(out, "jvs_request_size_bytes", "", MIN_SIZE, MAX_SIZE, 1);
+
+        out.append("# HELP jvs_request_duration_seconds Time spent in every phase of an exchange.\n")
+                .append("# TYPE jvs_request_duration_seconds histogram\n");
+        mRead.write(out, "jvs_request_duration_seconds", "phase=\"read\",",
+                MIN_DURATION, MAX_DURATION, NANOS_PER_SECOND);
+        mParse.write(out, "jvs_request_duration_seconds", "phase=\"parse\",",
+                MIN_DURATION, MAX_DURATION, NANOS_PER_SECOND);
+        mWrite.write(out, "jvs_request_duration_seconds", "phase=\"write\",",
+                MIN_DURATION, MAX_DURATION, NANOS_PER_SECOND);
+        mTotal.write(out, "jvs_request_duration_seconds", "phase=\"total\",",
+                MIN_DURATION, MAX_DURATION, NANOS_PER_SECOND);
+
+        if(null != mCache) {
+            mCache.write(out);
+        }
+        if(null != mSchemas) {
+            mSchemas.write(out);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package service;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Sends {@link Metrics} of the service in the Prometheus text format.
+ * <p>
+ * The handler is registered on its own context, see {@link JVSOptionsBuilder#setMetrics(String)}.
+ * It answers any request, the request body is ignored.
+ */
+class MetricsHandler implements HttpHandler {
+    private final Metrics mMetrics;
+
+    MetricsHandler(Metrics metrics) {
+        mMetrics = metrics;
+    }
+
+    @Override
+    public void handle(HttpExchange t) throws IOException {
+        StringBuilder text = new StringBuilder(8 * 1024);
+        mMetrics.write(text);
+        byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+
+        t.getResponseHeaders().set("Content-type", "text/plain; version=0.0.4; charset=utf-8");
+        if("HEAD".equals(t.getRequestMethod())) {
+            t.sendResponseHeaders(java.net.HttpURLConnection.HTTP_OK, -1);
+            t.close();
+            return;
+        }
+        t.sendResponseHeaders(java.net.HttpURLConnection.HTTP_OK, bytes.length);
+        try(OutputStream body = t.getResponseBody()) {
+            body.write(bytes);
+        }
+    }
+}
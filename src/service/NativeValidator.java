@@ -0,0 +1,607 @@
+package service;
+
+import java.util.Arrays;
+
+/**
+ * Table-driven validator of <a href="http://www.ietf.org/rfc/rfc7159.txt">RFC 7159</a> JSON text which works
+ * directly on UTF-8 bytes.
+ * <p>
+ * The validator is a state machine which is fed with chunks of the document as they arrive, see
+ * {@link #feed(byte[], int, int)} and {@link #finish()}. It builds nothing and allocates nothing unless the nesting
+ * is deeper than any document it has seen before. The same instance can be used again after {@link #reset()}.
+ * <p>
+ * Errors are reported with the codes listed in {@link ErrorCode}, so the validator tells about
+ * the same problems as Gson's {@code JsonReader} does in the strict mode:
+ * <ul>
+ *     <li>{@code Unterminated array}, {@code Unterminated object} - something else than a comma or the closing
+ *     bracket after a value</li>
+ *     <li>{@code Expected name}, {@code Expected ':'}, {@code Expected value}, {@code Unexpected value}</li>
+ *     <li>{@code Unterminated string}, {@code Unterminated escape sequence}, {@code Invalid escape sequence}</li>
+ *     <li>{@code Malformed JSON} - anything which only a lenient reader accepts: comments, single quotes,
+ *     unquoted strings, bad numbers, trailing data and so on</li>
+ *     <li>{@code End of input} ({@link ErrorCode#UNKNOWN}) - the document ends in the middle of a value</li>
+ * </ul>
+ * A document nested deeper than {@link #setMaxDepth(int)} allows is not a syntax error, so it has no code: the
+ * validator stops with {@link #isTooDeep()} instead.
+ * The place of an error is given as the byte offset, the line and the column (in bytes) of the offending byte.
+ * Gson's reader reports the column it has stopped at instead, which is one more for a character which is out of
+ * place and the first hex digit for an escape sequence <code>&#92;u</code>; the line is the same.
+ * <p>
+ * Like Gson, the validator accepts an empty document, skips a byte order mark and does not look into the bytes of
+ * a string, so control characters and malformed UTF-8 inside strings pass. Unlike Gson it accepts
+ * {@code true}, {@code false} and {@code null} in lower case only, and rejects {@code \'} and an escaped line break.
+ */
+class NativeValidator {
+    // byte classes
+    private static final int C_OTHER = 0;
+    private static final int C_WS = 1;
+    private static final int C_LBRACE = 2;
+    private static final int C_RBRACE = 3;
+    private static final int C_LBRACKET = 4;
+    private static final int C_RBRACKET = 5;
+    private static final int C_COLON = 6;
+    private static final int C_COMMA = 7;
+    private static final int C_QUOTE = 8;
+    private static final int C_MINUS = 9;
+    private static final int C_DIGIT = 10;
+    private static final int C_KEYWORD = 11;
+    private static final int C_SEMICOLON = 12; // a lenient reader takes it for a comma
+    private static final int C_EQUALS = 13;    // a lenient reader takes it for a colon
+    private static final int C_COMMENT = 14;   // a lenient reader starts a comment with it
+    private static final int C_FORMFEED = 15;  // not a whitespace, but not a part of a literal either
+    private static final int C_SLASH = 16;     // a comment too, unless it is the last byte of the document
+    private static final int CLASSES = 17;
+
+    // structural states
+    private static final int S_DOC_START = 0;
+    private static final int S_DOC_END = 1;
+    private static final int S_ARRAY_FIRST = 2;
+    private static final int S_ARRAY_NEXT = 3;
+    private static final int S_ARRAY_VALUE = 4;
+    private static final int S_OBJECT_FIRST = 5;
+    private static final int S_OBJECT_NEXT = 6;
+    private static final int S_OBJECT_NAME = 7;
+    private static final int S_COLON = 8;
+    private static final int S_MEMBER_VALUE = 9;
+    // lexical states
+    private static final int S_STRING = 10;
+    private static final int S_ESCAPE = 11;
+    private static final int S_UNICODE = 12;
+    private static final int S_NUMBER = 13;
+    private static final int S_KEYWORD = 14;
+    private static final int S_SLASH = 15;
+    private static final int S_BAD_UNICODE = 16;
+    private static final int S_ERROR = 17;
+
+    // actions, negative values are the codes of ErrorCode
+    private static final byte A_SKIP = 1;
+    private static final byte A_OPEN_ARRAY = 2;
+    private static final byte A_OPEN_OBJECT = 3;
+    private static final byte A_CLOSE_ARRAY = 4;
+    private static final byte A_CLOSE_OBJECT = 5;
+    private static final byte A_STRING = 6;
+    private static final byte A_NAME = 7;
+    private static final byte A_NUMBER = 8;
+    private static final byte A_KEYWORD = 9;
+    private static final byte A_NEXT_VALUE = 10;
+    private static final byte A_NEXT_NAME = 11;
+    private static final byte A_MEMBER_VALUE = 12;
+    private static final byte A_SLASH = 13;
+    private static final byte A_MALFORMED = (byte) -ErrorCode.MALFORMED.code;
+
+    private static final byte[] CLASS = new byte[256];
+    private static final byte[][] ACTIONS = new byte[S_MEMBER_VALUE + 1][CLASSES];
+
+    // number states, a number is complete in the states marked in NUMBER_END
+    private static final int N_MINUS = 0;
+    private static final int N_ZERO = 1;
+    private static final int N_INT = 2;
+    private static final int N_DOT = 3;
+    private static final int N_FRACTION = 4;
+    private static final int N_E = 5;
+    private static final int N_EXP_SIGN = 6;
+    private static final int N_EXPONENT = 7;
+    private static final int N_END = 8;
+    private static final int N_BAD = 9;
+    private static final byte[][] NUMBER = new byte[N_END][256];
+    private static final boolean[] NUMBER_END = {false, true, true, false, true, false, false, true};
+
+    private static final byte[] HEX = new byte[256];
+    private static final byte[] ESCAPES = new byte[256];
+
+    private static final byte[] BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+
+    private static final byte CONTAINER_ARRAY = 0;
+    private static final byte CONTAINER_OBJECT = 1;
+
+    static {
+        CLASS[' '] = CLASS['\t'] = CLASS['\r'] = CLASS['\n'] = C_WS;
+        CLASS['{'] = C_LBRACE;
+        CLASS['}'] = C_RBRACE;
+        CLASS['['] = C_LBRACKET;
+        CLASS[']'] = C_RBRACKET;
+        CLASS[':'] = C_COLON;
+        CLASS[','] = C_COMMA;
+        CLASS['"'] = C_QUOTE;
+        CLASS['-'] = C_MINUS;
+        for(int c = '0'; c <= '9'; ++c) {
+            CLASS[c] = C_DIGIT;
+        }
+        CLASS['t'] = CLASS['f'] = CLASS['n'] = C_KEYWORD;
+        CLASS[';'] = C_SEMICOLON;
+        CLASS['='] = C_EQUALS;
+        CLASS['#'] = C_COMMENT;
+        CLASS['/'] = C_SLASH;
+        CLASS['\f'] = C_FORMFEED;
+
+        // a value where any value is allowed
+        byte[] value = new byte[CLASSES];
+        Arrays.fill(value, A_MALFORMED);
+        value[C_WS] = A_SKIP;
+        value[C_LBRACE] = A_OPEN_OBJECT;
+        value[C_LBRACKET] = A_OPEN_ARRAY;
+        value[C_QUOTE] = A_STRING;
+        value[C_MINUS] = value[C_DIGIT] = A_NUMBER;
+        value[C_KEYWORD] = A_KEYWORD;
+        value[C_RBRACE] = value[C_COLON] = value[C_FORMFEED] = (byte) -ErrorCode.EXPECTED_VALUE.code;
+        value[C_RBRACKET] = value[C_COMMA] = value[C_SEMICOLON] = (byte) -ErrorCode.UNEXPECTED_VALUE.code;
+
+        ACTIONS[S_DOC_START] = value.clone();
+        ACTIONS[S_MEMBER_VALUE] = value.clone();
+
+        ACTIONS[S_ARRAY_VALUE] = value.clone();
+        // a lenient reader reads a missing value as null
+        ACTIONS[S_ARRAY_VALUE][C_RBRACKET] = A_MALFORMED;
+        ACTIONS[S_ARRAY_VALUE][C_COMMA] = A_MALFORMED;
+        ACTIONS[S_ARRAY_VALUE][C_SEMICOLON] = A_MALFORMED;
+        ACTIONS[S_ARRAY_FIRST] = ACTIONS[S_ARRAY_VALUE].clone();
+        ACTIONS[S_ARRAY_FIRST][C_RBRACKET] = A_CLOSE_ARRAY;
+
+        Arrays.fill(ACTIONS[S_DOC_END], A_MALFORMED);
+        ACTIONS[S_DOC_END][C_WS] = A_SKIP;
+
+        Arrays.fill(ACTIONS[S_ARRAY_NEXT], (byte) -ErrorCode.UNTERMINATED_ARRAY.code);
+        ACTIONS[S_ARRAY_NEXT][C_WS] = A_SKIP;
+        ACTIONS[S_ARRAY_NEXT][C_RBRACKET] = A_CLOSE_ARRAY;
+        ACTIONS[S_ARRAY_NEXT][C_COMMA] = A_NEXT_VALUE;
+        ACTIONS[S_ARRAY_NEXT][C_SEMICOLON] = A_MALFORMED;
+        ACTIONS[S_ARRAY_NEXT][C_COMMENT] = A_MALFORMED;
+
+        Arrays.fill(ACTIONS[S_OBJECT_NEXT], (byte) -ErrorCode.UNTERMINATED_OBJECT.code);
+        ACTIONS[S_OBJECT_NEXT][C_WS] = A_SKIP;
+        ACTIONS[S_OBJECT_NEXT][C_RBRACE] = A_CLOSE_OBJECT;
+        ACTIONS[S_OBJECT_NEXT][C_COMMA] = A_NEXT_NAME;
+        ACTIONS[S_OBJECT_NEXT][C_SEMICOLON] = A_MALFORMED;
+        ACTIONS[S_OBJECT_NEXT][C_COMMENT] = A_MALFORMED;
+
+        Arrays.fill(ACTIONS[S_OBJECT_FIRST], A_MALFORMED);
+        ACTIONS[S_OBJECT_FIRST][C_WS] = A_SKIP;
+        ACTIONS[S_OBJECT_FIRST][C_QUOTE] = A_NAME;
+        ACTIONS[S_OBJECT_FIRST][C_RBRACE] = A_CLOSE_OBJECT;
+        ACTIONS[S_OBJECT_NAME] = ACTIONS[S_OBJECT_FIRST].clone();
+        ACTIONS[S_OBJECT_NAME][C_RBRACE] = (byte) -ErrorCode.EXPECTED_NAME.code;
+
+        Arrays.fill(ACTIONS[S_COLON], (byte) -ErrorCode.EXPECTED_COLON.code);
+        ACTIONS[S_COLON][C_WS] = A_SKIP;
+        ACTIONS[S_COLON][C_COLON] = A_MEMBER_VALUE;
+        ACTIONS[S_COLON][C_EQUALS] = A_MALFORMED;
+        ACTIONS[S_COLON][C_COMMENT] = A_MALFORMED;
+
+        for(byte[] row : ACTIONS) {
+            row[C_SLASH] = A_SLASH;
+        }
+
+        for(byte[] row : NUMBER) {
+            Arrays.fill(row, (byte) N_BAD);
+        }
+        for(int c = 0; c < 256; ++c) {
+            // a number ends with a byte which cannot be a part of a literal
+            int cls = CLASS[c];
+            if(C_WS == cls || C_LBRACE == cls || C_RBRACE == cls || C_LBRACKET == cls || C_RBRACKET == cls
+                    || C_COLON == cls || C_COMMA == cls || C_FORMFEED == cls) {
+                for(int state = 0; state < N_END; ++state) {
+                    NUMBER[state][c] = (byte) (NUMBER_END[state] ? N_END : N_BAD);
+                }
+            }
+        }
+        NUMBER[N_MINUS]['0'] = N_ZERO;
+        NUMBER[N_ZERO]['.'] = NUMBER[N_INT]['.'] = N_DOT;
+        NUMBER[N_ZERO]['e'] = NUMBER[N_ZERO]['E'] = N_E;
+        NUMBER[N_INT]['e'] = NUMBER[N_INT]['E'] = N_E;
+        NUMBER[N_FRACTION]['e'] = NUMBER[N_FRACTION]['E'] = N_E;
+        NUMBER[N_E]['+'] = NUMBER[N_E]['-'] = N_EXP_SIGN;
+        for(int c = '0'; c <= '9'; ++c) {
+            if('0' != c) {
+                NUMBER[N_MINUS][c] = N_INT;
+            }
+            NUMBER[N_INT][c] = N_INT;
+            NUMBER[N_DOT][c] = NUMBER[N_FRACTION][c] = N_FRACTION;
+            NUMBER[N_E][c] = NUMBER[N_EXP_SIGN][c] = NUMBER[N_EXPONENT][c] = N_EXPONENT;
+        }
+
+        for(int c = '0'; c <= '9'; ++c) {
+            HEX[c] = 1;
+        }
+        for(int c = 'a'; c <= 'f'; ++c) {
+            HEX[c] = HEX[c - 'a' + 'A'] = 1;
+        }
+        for(char c : new char[] {'"', '\\', '/', 'b', 'f', 'n', 'r', 't'}) {
+            ESCAPES[c] = 1;
+        }
+    }
+
+    private int mState;
+    private int mNumber;
+    private byte[] mKeyword;
+    private boolean mName;
+    private int mSlashState;
+    private int mBom;
+    private int mCount;
+    private byte[] mStack = new byte[32];
+    private int mDepth;
+    private int mMaxDepth = Integer.MAX_VALUE;
+    private long mOffset;
+    private long mLine;
+    private long mLineStart;
+
+    private ErrorCode mError;
+    private boolean mTooDeep;
+    private long mErrorOffset;
+    private long mErrorLine;
+    private long mErrorColumn;
+
+    NativeValidator() {
+        reset();
+    }
+
+    /**
+     * Limits the nesting of arrays and objects, a deeper document fails with {@link #isTooDeep()}.
+     *
+     * @param maxDepth  the maximum number of containers open at once.
+     */
+    void setMaxDepth(int maxDepth) {
+        mMaxDepth = maxDepth;
+    }
+
+    /**
+     * Prepares the validator for another document.
+     */
+    void reset() {
+        mState = S_DOC_START;
+        mDepth = 0;
+        mOffset = 0;
+        mLine = 1;
+        mLineStart = 0;
+        mBom = 0;
+        mError = null;
+        mTooDeep = false;
+    }
+
+    /**
+     * Validates the next chunk of the document.
+     *
+     * @param bytes  a buffer with UTF-8 bytes.
+     * @param off  the offset of the chunk in the buffer.
+     * @param len  the length of the chunk.
+     * @return  {@code false} if an error has been found, so there is no need to read the rest of the document.
+     */
+    boolean feed(byte[] bytes, int off, int len) {
+        int end = off + len;
+        int i = off;
+
+        while(S_DOC_START == mState && mBom < BOM.length && mOffset + i - off == mBom && i < end) {
+            if(BOM[mBom] == bytes[i]) {
+                ++mBom;
+                ++i;
+            } else if(0 < mBom) {
+                return error(ErrorCode.MALFORMED, i, off); // a part of the byte order mark is not a character
+            } else {
+                break;
+            }
+        }
+
+        while(i < end) {
+            int b = bytes[i] & 0xFF;
+
+            switch(mState) {
+                case S_STRING:
+                    // the hot loop: nothing but the quote, the backslash and the line feed matter
+                    while('"' != b && '\\' != b) {
+                        if('\n' == b) {
+                            newLine(i + 1, off);
+                        }
+                        if(++i == end) {
+                            break;
+                        }
+                        b = bytes[i] & 0xFF;
+                    }
+                    if(i == end) {
+                        continue;
+                    }
+                    if('"' == b) {
+                        mState = mName ? S_COLON : endOfValue();
+                    } else {
+                        mState = S_ESCAPE;
+                    }
+                    ++i;
+                    continue;
+
+                case S_ESCAPE:
+                    if('u' == b) {
+                        mState = S_UNICODE;
+                        mNumber = 0;
+                    } else if(0 != ESCAPES[b]) {
+                        mState = S_STRING;
+                    } else {
+                        return error(ErrorCode.INVALID_ESCAPE, i, off);
+                    }
+                    ++i;
+                    continue;
+
+                case S_UNICODE:
+                    if(0 == HEX[b]) {
+                        // Gson reads the four characters before it looks at them, so a document which ends
+                        // before them has an unterminated escape sequence rather than an invalid one
+                        mark(i, off);
+                        mState = S_BAD_UNICODE;
+                        continue;
+                    }
+                    if(4 == ++mNumber) {
+                        mState = S_STRING;
+                    }
+                    ++i;
+                    continue;
+
+                case S_BAD_UNICODE:
+                    // continuation bytes are a part of a character, a four-byte sequence is a surrogate pair
+                    mNumber += (0x80 == (b & 0xC0)) ? 0 : (0xF0 <= b) ? 2 : 1;
+                    if(4 <= mNumber) {
+                        return fail(ErrorCode.INVALID_ESCAPE);
+                    }
+                    if('\n' == b) {
+                        newLine(i + 1, off);
+                    }
+                    ++i;
+                    continue;
+
+                case S_NUMBER:
+                    int next = NUMBER[mNumber][b];
+                    if(N_END == next) {
+                        mState = endOfValue();
+                        continue; // the byte is a part of the structure
+                    }
+                    if(N_BAD == next) {
+                        return error(ErrorCode.MALFORMED, i, off);
+                    }
+                    mNumber = next;
+                    ++i;
+                    continue;
+
+                case S_KEYWORD:
+                    if(mCount == mKeyword.length) {
+                        int cls = CLASS[b];
+                        if(C_WS != cls && C_LBRACE != cls && C_RBRACE != cls && C_LBRACKET != cls
+                                && C_RBRACKET != cls && C_COLON != cls && C_COMMA != cls && C_FORMFEED != cls) {
+                            return error(ErrorCode.MALFORMED, i, off);
+                        }
+                        mState = endOfValue();
+                        continue;
+                    }
+                    if(mKeyword[mCount] != (byte) b) {
+                        return error(ErrorCode.MALFORMED, i, off);
+                    }
+                    ++mCount;
+                    ++i;
+                    continue;
+
+                case S_SLASH:
+                    return error(ErrorCode.MALFORMED, i, off);
+
+                case S_ERROR:
+                    return false;
+
+                default:
+                    break;
+            }
+
+            int action = ACTIONS[mState][CLASS[b]];
+            switch(action) {
+                case A_SKIP:
+                    if('\n' == b) {
+                        newLine(i + 1, off);
+                    }
+                    break;
+                case A_OPEN_ARRAY:
+                    if(mDepth == mMaxDepth) {
+                        return tooDeep(i, off);
+                    }
+                    push(CONTAINER_ARRAY);
+                    mState = S_ARRAY_FIRST;
+                    break;
+                case A_OPEN_OBJECT:
+                    if(mDepth == mMaxDepth) {
+                        return tooDeep(i, off);
+                    }
+                    push(CONTAINER_OBJECT);
+                    mState = S_OBJECT_FIRST;
+                    break;
+                case A_CLOSE_ARRAY:
+                case A_CLOSE_OBJECT:
+                    --mDepth;
+                    mState = endOfValue();
+                    break;
+                case A_STRING:
+                    mState = S_STRING;
+                    mName = false;
+                    break;
+                case A_NAME:
+                    mState = S_STRING;
+                    mName = true;
+                    break;
+                case A_NUMBER:
+                    mState = S_NUMBER;
+                    mNumber = ('-' == b) ? N_MINUS : NUMBER[N_MINUS][b];
+                    break;
+                case A_KEYWORD:
+                    mState = S_KEYWORD;
+                    mKeyword = ('t' == b) ? TRUE : ('f' == b) ? FALSE : NULL;
+                    mCount = 1;
+                    break;
+                case A_NEXT_VALUE:
+                    mState = S_ARRAY_VALUE;
+                    break;
+                case A_NEXT_NAME:
+                    mState = S_OBJECT_NAME;
+                    break;
+                case A_MEMBER_VALUE:
+                    mState = S_MEMBER_VALUE;
+                    break;
+                case A_SLASH:
+                    mSlashState = mState;
+                    mState = S_SLASH;
+                    break;
+                default:
+                    return error(ErrorCode.of(-action), i, off);
+            }
+            ++i;
+        }
+
+        mOffset += end - off;
+        return true;
+    }
+
+    /**
+     * Tells the validator that the document has ended.
+     *
+     * @return  {@code true} if the document is valid.
+     */
+    boolean finish() {
+        if(0 < mBom && mBom < BOM.length) {
+            return error(ErrorCode.MALFORMED, 0, 0);
+        }
+        switch(mState) {
+            case S_ERROR:
+                return false;
+            case S_NUMBER:
+                if(!NUMBER_END[mNumber]) {
+                    return error(ErrorCode.MALFORMED, 0, 0);
+                }
+                mState = endOfValue();
+                break;
+            case S_KEYWORD:
+                if(mCount != mKeyword.length) {
+                    return error(ErrorCode.MALFORMED, 0, 0);
+                }
+                mState = endOfValue();
+                break;
+            case S_STRING:
+                return error(ErrorCode.UNTERMINATED_STRING, 0, 0);
+            case S_ESCAPE:
+            case S_UNICODE:
+            case S_BAD_UNICODE:
+                return error(ErrorCode.UNTERMINATED_ESCAPE, 0, 0);
+            case S_SLASH:
+                // the last slash of the document cannot start a comment, so it is just an unexpected byte
+                return error(ErrorCode.of(-ACTIONS[mSlashState][C_OTHER]), 0, 0);
+            default:
+                break;
+        }
+        return (S_DOC_START == mState || S_DOC_END == mState) || error(ErrorCode.UNKNOWN, 0, 0);
+    }
+
+    /**
+     * Returns the syntax error found, {@link ErrorCode#UNKNOWN} for the unexpected end of the document.
+     *
+     * @return  the error, or {@code null} if there has been no syntax error.
+     */
+    ErrorCode getError() {
+        return mError;
+    }
+
+    /**
+     * Tells whether the validator has stopped because the document is nested deeper than
+     * {@link #setMaxDepth(int)} allows. The place of the error is that of the bracket which opens one container
+     * too many.
+     */
+    boolean isTooDeep() {
+        return mTooDeep;
+    }
+
+    /** @return  one-based number of the line which the validator has reached. */
+    long getLine() {
+        return mLine;
+    }
+
+    /** @return  zero-based offset of the first byte of the line which the validator has reached. */
+    long getLineStart() {
+        return mLineStart;
+    }
+
+    /** @return  zero-based offset of the byte where the error has been found. */
+    long getErrorOffset() {
+        return mErrorOffset;
+    }
+
+    /** @return  one-based line number of the error. */
+    long getErrorLine() {
+        return mErrorLine;
+    }
+
+    /** @return  one-based column of the error, in bytes. */
+    long getErrorColumn() {
+        return mErrorColumn;
+    }
+
+    private int endOfValue() {
+        if(0 == mDepth) {
+            return S_DOC_END;
+        }
+        return (CONTAINER_ARRAY == mStack[mDepth - 1]) ? S_ARRAY_NEXT : S_OBJECT_NEXT;
+    }
+
+    private void push(byte container) {
+        if(mDepth == mStack.length) {
+            mStack = Arrays.copyOf(mStack, mDepth * 2);
+        }
+        mStack[mDepth++] = container;
+    }
+
+    private void newLine(int index, int off) {
+        ++mLine;
+        mLineStart = mOffset + index - off;
+    }
+
+    /**
+     * @param index  the index of the offending byte in the buffer; for the end of the document this is the offset
+     *               of the chunk, so the error is at the end of the input.
+     */
+    private boolean error(ErrorCode code, int index, int off) {
+        mark(index, off);
+        return fail(code);
+    }
+
+    /**
+     * Takes the place of an error which is only reported later by {@link #fail(ErrorCode)}.
+     */
+    private void mark(int index, int off) {
+        mErrorOffset = mOffset + index - off;
+        mErrorLine = mLine;
+        mErrorColumn = mErrorOffset - mLineStart + 1;
+    }
+
+    private boolean fail(ErrorCode code) {
+        mError = code;
+        mState = S_ERROR;
+        return false;
+    }
+
+    private boolean tooDeep(int index, int off) {
+        mark(index, off);
+        mTooDeep = true;
+        mState = S_ERROR;
+        return false;
+    }
+}
@@ -0,0 +1,1049 @@
+package service;
+
+import com.sun.net.httpserver.Headers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A connection of {@link NioHttpServer}.
+ * <p>
+ * The state of the connection belongs to its event loop. The handler thread talks to the connection through the
+ * {@link RequestBody} and {@link ResponseBody} streams only: the request body is passed over in a bounded buffer,
+ * and the response is passed back as a queue of byte buffers which the event loop writes to the channel. When the
+ * queue grows over {@link #HIGH_WATER} bytes, the handler waits until the loop has written it down to
+ * {@link #LOW_WATER} bytes.
+ * <p>
+ * The bytes are copied as little as possible. The body buffer is a direct buffer, which the loop reads a body
+ * into straight from the channel unless there is chunk framing to take apart, so the only copy is into the array
+ * of the handler. The response body queues the arrays of the handler as they are and waits until they have been
+ * written before it gives them back, and small writes are gathered in two buffers, one of which is filled while
+ * the loop writes the other.
+ */
+class NioConnection {
+    private static final Logger LOG = Logger.getLogger(NioConnection.class.getName());
+
+    /** The largest request head, the input buffer is as large */
+    static final int MAX_HEAD = 16 * 1024;
+    /** Size of the buffer which passes the request body to the handler */
+    static final int BODY_BUFFER = 16 * 1024;
+    static final long HIGH_WATER = 256 * 1024;
+    static final long LOW_WATER = 64 * 1024;
+
+    private static final int MAX_GATHER = 64;
+    /** Direct buffers of request bodies, which are taken and given back on the event loops only */
+    private static final ArrayBlockingQueue<ByteBuffer> BODY_BUFFERS = new ArrayBlockingQueue<>(256);
+    private static final ByteBuffer END_OF_RESPONSE = ByteBuffer.allocate(0);
+    private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    private enum State {
+        /** Waiting for a request head */
+        HEAD,
+        /** Passing the request body to the handler */
+        BODY,
+        /** Waiting for the response to be written */
+        WAIT,
+        CLOSED
+    }
+
+    private enum Chunk {SIZE, DATA, DATA_END, TRAILER}
+
+    private final NioHttpServer mServer;
+    private final NioHttpServer.EventLoop mLoop;
+    private final SocketChannel mChannel;
+    private SelectionKey mKey = null;
+    private State mState = State.HEAD;
+    private long mLastActive = System.currentTimeMillis();
+    private boolean mInputShut = false;
+
+    /** Received bytes which have not been processed, taken from the pool only when there are some */
+    private byte[] mIn = null;
+    private int mInStart = 0;
+    private int mInEnd = 0;
+
+    private RequestBody mBody = null;
+    private boolean mDispatched = false;
+    private boolean mChunked = false;
+    private Chunk mChunk = Chunk.SIZE;
+    private long mRemaining = 0;
+    private volatile boolean mKeepAlive = true;
+    private boolean mResponseDone = false;
+
+    private final ConcurrentLinkedQueue<ByteBuffer> mOutput = new ConcurrentLinkedQueue<>();
+    /** Bytes ever queued, and bytes ever written, so the handler can wait for a position in the output */
+    private final AtomicLong mQueued = new AtomicLong();
+    private volatile long mWritten = 0;
+    private final AtomicBoolean mFlushScheduled = new AtomicBoolean();
+    private final ArrayDeque<ByteBuffer> mPending = new ArrayDeque<>();
+    private final ByteBuffer[] mGather = new ByteBuffer[MAX_GATHER];
+    private final Object mDrained = new Object();
+    private volatile boolean mWaiting = false;
+    private volatile boolean mClosed = false;
+
+    NioConnection(NioHttpServer server, NioHttpServer.EventLoop loop, SocketChannel channel) {
+        mServer = server;
+        mLoop = loop;
+        mChannel = channel;
+    }
+
+    SocketChannel getChannel() {
+        return mChannel;
+    }
+
+    void register() throws IOException {
+        mKey = mChannel.register(mLoop.mSelector, SelectionKey.OP_READ, this);
+        mLoop.register(this);
+    }
+
+    /**
+     * Tells whether the connection has been waiting for a request longer than the idle timeout of the server, or
+     * for the rest of a request body longer than the body timeout. A body is not waited for while the handler has
+     * not made room for it.
+     */
+    boolean isIdle(long now) {
+        switch(mState) {
+            case HEAD:
+                return mServer.getIdleTimeout() < now - mLastActive;
+            case BODY:
+                return mServer.getBodyTimeout() < now - mLastActive && !mBody.isStarved();
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Handles readiness of the channel.
+     */
+    void ready(SelectionKey key) {
+        try {
+            if(key.isWritable()) {
+                write();
+            }
+            if(key.isValid() && key.isReadable()) {
+                read();
+            }
+        } catch (IOException e) {
+            LOG.log(Level.FINE, "Connection failed", e);
+            close();
+        }
+    }
+
+    private void read() throws IOException {
+        if(readsDirectly()) {
+            readBody();
+            return;
+        }
+        if(null == mIn) {
+            mIn = BufferPool.DEFAULT.acquire(MAX_HEAD);
+            mInStart = mInEnd = 0;
+        } else if(0 < mInStart) {
+            System.arraycopy(mIn, mInStart, mIn, 0, mInEnd - mInStart);
+            mInEnd -= mInStart;
+            mInStart = 0;
+        }
+        if(mIn.length == mInEnd) {
+            updateInterest();
+            return;
+        }
+
+        ByteBuffer buffer = mLoop.mReadBuffer;
+        buffer.clear();
+        buffer.limit(Math.min(buffer.capacity(), mIn.length - mInEnd));
+        int n = mChannel.read(buffer);
+        if(-1 == n) {
+            endOfInput();
+            return;
+        }
+        mLastActive = System.currentTimeMillis();
+        buffer.flip();
+        buffer.get(mIn, mInEnd, n);
+        mInEnd += n;
+        process();
+    }
+
+    /**
+     * Tells whether the body bytes can be read into the body buffer without looking at them.
+     */
+    private boolean readsDirectly() {
+        return State.BODY == mState && (!mChunked || Chunk.DATA == mChunk) && (null == mIn || mInStart == mInEnd);
+    }
+
+    private void readBody() throws IOException {
+        release();
+        int n = mBody.receive(mRemaining);
+        if(-1 == n) {
+            endOfInput();
+            return;
+        }
+        if(0 < n) {
+            mLastActive = System.currentTimeMillis();
+            mRemaining -= n;
+            if(0 == mRemaining) {
+                if(!mChunked) {
+                    finishBody();
+                    return;
+                }
+                mChunk = Chunk.DATA_END;
+            }
+        }
+        process();
+    }
+
+    private void endOfInput() throws IOException {
+        mInputShut = true;
+        switch(mState) {
+            case WAIT:
+                // the response is still coming, the requests received so far are answered before closing
+                updateInterest();
+                break;
+            case BODY:
+                mBody.abort();
+                close();
+                break;
+            default:
+                close();
+                break;
+        }
+    }
+
+    /**
+     * Parses and decodes as much of the received bytes as the state allows.
+     */
+    private void process() throws IOException {
+        boolean progress = true;
+        while(progress) {
+            switch(mState) {
+                case HEAD:
+                    progress = parseHead();
+                    break;
+                case BODY:
+                    progress = decodeBody();
+                    break;
+                default:
+                    progress = false;
+                    break;
+            }
+        }
+        updateInterest();
+    }
+
+    private void updateInterest() {
+        if(State.CLOSED == mState) {
+            return;
+        }
+        int ops = 0;
+        boolean room = readsDirectly() ? !mBody.isFull() : null == mIn || mInEnd - mInStart < mIn.length;
+        if(!mInputShut && room && (State.HEAD == mState || State.BODY == mState)) {
+            ops |= SelectionKey.OP_READ;
+        }
+        if(!mPending.isEmpty()) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        if(mKey.interestOps() != ops) {
+            mKey.interestOps(ops);
+        }
+    }
+
+    /**
+     * Parses a request head and dispatches the exchange.
+     *
+     * @return  {@code true} if the head has been parsed.
+     */
+    private boolean parseHead() throws IOException {
+        if(null == mIn) {
+            return false;
+        }
+        // empty lines before a request are ignored
+        while(mInStart < mInEnd && ('\r' == mIn[mInStart] || '\n' == mIn[mInStart])) {
+            ++mInStart;
+        }
+        if(mInStart == mInEnd) {
+            release();
+            return false;
+        }
+
+        int end = findHeadEnd();
+        if(-1 == end) {
+            if(mIn.length == mInEnd - mInStart) {
+                respondError(431);
+            }
+            return false;
+        }
+        String head = new String(mIn, mInStart, end - mInStart, StandardCharsets.ISO_8859_1);
+        mInStart = end;
+
+        String[] lines = head.split("\r?\n");
+        String[] request = lines[0].split(" ");
+        if(3 != request.length) {
+            respondError(400);
+            return false;
+        }
+        String method = request[0];
+        String protocol = request[2];
+        if(!"HTTP/1.1".equals(protocol) && !"HTTP/1.0".equals(protocol)) {
+            respondError(505);
+            return false;
+        }
+        URI uri;
+        try {
+            uri = new URI(request[1]);
+        } catch (URISyntaxException e) {
+            respondError(400);
+            return false;
+        }
+
+        Headers headers = new Headers();
+        for(int i = 1; i < lines.length; ++i) {
+            int colon = lines[i].indexOf(':');
+            if(0 >= colon || ' ' == lines[i].charAt(0) || '\t' == lines[i].charAt(0)) {
+                respondError(400);
+                return false;
+            }
+            headers.add(lines[i].substring(0, colon).trim(), lines[i].substring(colon + 1).trim());
+        }
+
+        String connection = headers.getFirst("Connection");
+        connection = (null != connection) ? connection.toLowerCase(Locale.ROOT) : "";
+        mKeepAlive = "HTTP/1.1".equals(protocol) ? !connection.contains("close") : connection.contains("keep-alive");
+
+        String encoding = headers.getFirst("Transfer-encoding");
+        String length = headers.getFirst("Content-length");
+        boolean hasBody;
+        if(null != encoding) {
+            if(null != length || !encoding.toLowerCase(Locale.ROOT).trim().endsWith("chunked")) {
+                respondError(400);
+                return false;
+            }
+            mChunked = true;
+            mChunk = Chunk.SIZE;
+            hasBody = true;
+        } else {
+            mChunked = false;
+            try {
+                mRemaining = (null != length) ? Long.parseLong(length) : 0;
+            } catch (NumberFormatException e) {
+                mRemaining = -1;
+            }
+            if(0 > mRemaining) {
+                respondError(400);
+                return false;
+            }
+            hasBody = 0 < mRemaining;
+        }
+
+        String path = uri.getPath();
+        NioHttpServer.Context context = mServer.findContext((null != path && !path.isEmpty()) ? path : "/");
+        if(null == context) {
+            respondError(404);
+            return false;
+        }
+
+        mBody = new RequestBody(hasBody);
+        mResponseDone = false;
+        mState = hasBody ? State.BODY : State.WAIT;
+        NioHttpExchange exchange = new NioHttpExchange(this, context, method, uri, protocol, headers, mBody,
+                new ResponseBody(), mKeepAlive);
+        if(hasBody && "100-continue".equalsIgnoreCase(headers.getFirst("Expect"))) {
+            send(ByteBuffer.wrap(CONTINUE));
+        }
+        mDispatched = true;
+        mServer.dispatch(exchange);
+        return true;
+    }
+
+    private int findHeadEnd() {
+        for(int i = mInStart; i < mInEnd; ++i) {
+            if('\n' != mIn[i]) {
+                continue;
+            }
+            if(i + 1 < mInEnd && '\n' == mIn[i + 1]) {
+                return i + 2;
+            }
+            if(i + 2 < mInEnd && '\r' == mIn[i + 1] && '\n' == mIn[i + 2]) {
+                return i + 3;
+            }
+        }
+        return -1;
+    }
+
+    private int findLineEnd() {
+        for(int i = mInStart; i < mInEnd; ++i) {
+            if('\n' == mIn[i]) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Passes the request body to the handler.
+     *
+     * @return  {@code true} if the body has ended.
+     */
+    private boolean decodeBody() throws IOException {
+        if(null == mIn) {
+            return false;
+        }
+        while(true) {
+            if(!mChunked || Chunk.DATA == mChunk) {
+                int n = (int) Math.min(mRemaining, mInEnd - mInStart);
+                int accepted = mBody.offer(mIn, mInStart, n);
+                mInStart += accepted;
+                mRemaining -= accepted;
+                if(0 == mRemaining) {
+                    if(!mChunked) {
+                        finishBody();
+                        return true;
+                    }
+                    mChunk = Chunk.DATA_END;
+                    continue;
+                }
+                return false;
+            }
+
+            int line = findLineEnd();
+            if(-1 == line) {
+                if(mIn.length == mInEnd - mInStart) {
+                    protocolError();
+                }
+                return false;
+            }
+            String text = new String(mIn, mInStart, line - mInStart, StandardCharsets.ISO_8859_1).trim();
+            mInStart = line;
+            switch(mChunk) {
+                case SIZE:
+                    int extension = text.indexOf(';');
+                    try {
+                        mRemaining = Long.parseLong((-1 != extension) ? text.substring(0, extension).trim() : text,
+                                16);
+                    } catch (NumberFormatException e) {
+                        mRemaining = -1;
+                    }
+                    if(0 > mRemaining) {
+                        protocolError();
+                        return false;
+                    }
+                    mChunk = (0 == mRemaining) ? Chunk.TRAILER : Chunk.DATA;
+                    break;
+                case DATA_END:
+                    if(!text.isEmpty()) {
+                        protocolError();
+                        return false;
+                    }
+                    mChunk = Chunk.SIZE;
+                    break;
+                default:
+                    if(text.isEmpty()) {
+                        finishBody();
+                        return true;
+                    }
+                    break;
+            }
+        }
+    }
+
+    private void finishBody() throws IOException {
+        mBody.finish();
+        mState = State.WAIT;
+        checkComplete();
+    }
+
+    private void protocolError() {
+        mBody.abort();
+        close();
+    }
+
+    /**
+     * Sends an error response on behalf of the server, and closes the connection after it.
+     */
+    private void respondError(int code) throws IOException {
+        mState = State.WAIT;
+        mKeepAlive = false;
+        mResponseDone = false;
+        String response = "HTTP/1.1 " + code + " " + NioHttpExchange.reason(code) + "\r\nDate: "
+                + NioHttpServer.httpDate() + "\r\nContent-length: 0\r\nConnection: close\r\n\r\n";
+        send(ByteBuffer.wrap(response.getBytes(StandardCharsets.ISO_8859_1)), END_OF_RESPONSE);
+    }
+
+    /**
+     * Starts the next request when both the request and the response are done with.
+     */
+    private void checkComplete() throws IOException {
+        if(State.WAIT != mState || !mResponseDone) {
+            return;
+        }
+        if(mDispatched) {
+            mDispatched = false;
+            mServer.finished();
+        }
+        if(null != mBody) {
+            mBody.free();
+            mBody = null;
+        }
+        if(!mKeepAlive) {
+            close();
+            return;
+        }
+        mState = State.HEAD;
+        mResponseDone = false;
+        mLastActive = System.currentTimeMillis();
+        process();
+        if(mInputShut && State.HEAD == mState) {
+            close();
+        }
+    }
+
+    private void responseDone() throws IOException {
+        mResponseDone = true;
+        if(State.BODY == mState) {
+            // nobody reads the rest of the body any more
+            mBody.free();
+            process();
+        } else {
+            checkComplete();
+        }
+    }
+
+    /**
+     * Queues bytes for writing. It is called by the handler thread, which waits if too much is queued.
+     *
+     * @return  the position in the output after the bytes.
+     */
+    long send(ByteBuffer... buffers) throws IOException {
+        if(mClosed) {
+            throw new IOException("Connection has been closed");
+        }
+        long size = 0;
+        for(ByteBuffer buffer : buffers) {
+            mOutput.add(buffer);
+            size += buffer.remaining();
+        }
+        long end = mQueued.addAndGet(size);
+        if(mFlushScheduled.compareAndSet(false, true)) {
+            mLoop.execute(this::flush);
+        }
+        if(HIGH_WATER < end - mWritten) {
+            awaitWritten(end - LOW_WATER);
+        }
+        return end;
+    }
+
+    /**
+     * Waits until the output has been written up to the position. The event loop does not wait.
+     */
+    private void awaitWritten(long position) throws IOException {
+        if(position <= mWritten || mLoop.inLoop()) {
+            return;
+        }
+        synchronized(mDrained) {
+            mWaiting = true;
+            try {
+                while(position > mWritten && !mClosed) {
+                    mDrained.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while sending the response");
+            } finally {
+                mWaiting = false;
+            }
+        }
+        if(mClosed) {
+            throw new IOException("Connection has been closed");
+        }
+    }
+
+    private void flush() {
+        mFlushScheduled.set(false);
+        try {
+            write();
+        } catch (IOException e) {
+            LOG.log(Level.FINE, "Connection failed", e);
+            close();
+        }
+    }
+
+    /**
+     * Writes the queued bytes with gathering writes until the socket buffer is full.
+     */
+    private void write() throws IOException {
+        if(State.CLOSED == mState) {
+            return;
+        }
+        ByteBuffer buffer;
+        while(null != (buffer = mOutput.poll())) {
+            mPending.add(buffer);
+        }
+
+        while(!mPending.isEmpty()) {
+            if(END_OF_RESPONSE == mPending.peek()) {
+                mPending.poll();
+                responseDone();
+                if(State.CLOSED == mState) {
+                    return;
+                }
+                continue;
+            }
+
+            int count = 0;
+            for(ByteBuffer pending : mPending) {
+                if(END_OF_RESPONSE == pending || MAX_GATHER == count) {
+                    break;
+                }
+                mGather[count++] = pending;
+            }
+            long n = mChannel.write(mGather, 0, count);
+            boolean full = mGather[count - 1].hasRemaining();
+            Arrays.fill(mGather, 0, count, null);
+            mLastActive = System.currentTimeMillis();
+            drained(n);
+
+            while(!mPending.isEmpty() && END_OF_RESPONSE != mPending.peek() && !mPending.peek().hasRemaining()) {
+                mPending.poll();
+            }
+            if(full) {
+                break;
+            }
+        }
+        updateInterest();
+    }
+
+    private void drained(long n) {
+        mWritten += n; // only the loop writes it
+        if(mWaiting) {
+            synchronized(mDrained) {
+                mDrained.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Closes the connection from the handler thread.
+     */
+    void abort() {
+        mLoop.execute(this::close);
+    }
+
+    /**
+     * Makes the connection close after the current response.
+     */
+    void closeAfterResponse() {
+        mKeepAlive = false;
+    }
+
+    void close() {
+        if(State.CLOSED == mState) {
+            return;
+        }
+        mState = State.CLOSED;
+        mClosed = true;
+        if(null != mKey) {
+            mKey.cancel();
+        }
+        try {
+            mChannel.close();
+        } catch (IOException e) {
+            LOG.log(Level.FINE, "Channel could not be closed", e);
+        }
+        mLoop.unregister(this);
+
+        if(null != mBody) {
+            mBody.abort();
+            mBody.free();
+            mBody = null;
+        }
+        if(mDispatched) {
+            mDispatched = false;
+            mServer.finished();
+        }
+        synchronized(mDrained) {
+            mDrained.notifyAll();
+        }
+        mOutput.clear();
+        mPending.clear();
+        mInStart = mInEnd = 0;
+        release();
+    }
+
+    private void release() {
+        if(null != mIn && mInStart == mInEnd) {
+            BufferPool.DEFAULT.release(mIn);
+            mIn = null;
+        }
+    }
+
+    private void resumeBody(RequestBody body) {
+        mLoop.execute(() -> {
+            if(body != mBody || State.BODY != mState) {
+                return;
+            }
+            try {
+                mLastActive = System.currentTimeMillis(); // the client has not been read from while it waited
+                process();
+            } catch (IOException e) {
+                LOG.log(Level.FINE, "Connection failed", e);
+                close();
+            }
+        });
+    }
+
+    /**
+     * The request body, which is filled by the event loop and read by the handler.
+     * <p>
+     * The loop fills the free part of the buffer without holding the lock, which is safe because the handler only
+     * reads the filled part, and gives the buffer back to the pool itself, so it is never given back while being
+     * filled.
+     */
+    final class RequestBody extends InputStream {
+        private ByteBuffer mBuffer = null;
+        /** Views of the buffer: the free part is filled through the first two, the handler reads through the last */
+        private final ByteBuffer[] mFree = new ByteBuffer[2];
+        private ByteBuffer mFilled = null;
+        private final byte[] mOne = new byte[1];
+        private int mHead = 0;
+        private int mCount = 0;
+        private boolean mEnd;
+        private boolean mAborted = false;
+        private boolean mDiscard = false;
+        /** The loop waits for the handler to make room */
+        private boolean mStarved = false;
+
+        RequestBody(boolean hasBody) {
+            mEnd = !hasBody;
+            if(hasBody) {
+                mBuffer = BODY_BUFFERS.poll();
+                if(null == mBuffer) {
+                    mBuffer = ByteBuffer.allocateDirect(BODY_BUFFER);
+                }
+                mBuffer.clear();
+                mFree[0] = mBuffer.duplicate();
+                mFree[1] = mBuffer.duplicate();
+                mFilled = mBuffer.duplicate();
+            }
+        }
+
+        /**
+         * Takes as many bytes as fit the buffer.
+         *
+         * @return  the number of bytes taken.
+         */
+        synchronized int offer(byte[] b, int off, int len) {
+            if(mDiscard) {
+                return len;
+            }
+            int n = reserve(len);
+            int first = mFree[0].remaining();
+            mFree[0].put(b, off, first);
+            mFree[1].put(b, off + first, n - first);
+            fill(n);
+            if(n < len) {
+                mStarved = true;
+            }
+            return n;
+        }
+
+        /**
+         * Reads body bytes from the channel into the buffer, or drops them if nobody reads them any more.
+         *
+         * @param max  the number of bytes left in the body or the chunk.
+         * @return  the number of bytes read, or -1 at the end of input.
+         */
+        int receive(long max) throws IOException {
+            boolean discard;
+            synchronized(this) {
+                discard = mDiscard;
+                if(!discard && 0 == reserve(max)) {
+                    mStarved = true;
+                    return 0;
+                }
+            }
+            if(discard) {
+                ByteBuffer skipped = mLoop.mReadBuffer;
+                skipped.clear();
+                skipped.limit((int) Math.min(skipped.capacity(), max));
+                return mChannel.read(skipped);
+            }
+            int n = (int) mChannel.read(mFree);
+            if(0 < n) {
+                synchronized(this) {
+                    if(!mDiscard) {
+                        fill(n);
+                    }
+                }
+            }
+            return n;
+        }
+
+        /**
+         * Points the free views at the free part of the buffer, or at its first {@code max} bytes.
+         *
+         * @return  the number of bytes the views can take.
+         */
+        private int reserve(long max) {
+            int capacity = mBuffer.capacity();
+            int n = (int) Math.min(max, capacity - mCount);
+            int tail = (mHead + mCount) % capacity;
+            int first = Math.min(n, capacity - tail);
+            mFree[0].limit(tail + first).position(tail);
+            mFree[1].limit(n - first).position(0);
+            return n;
+        }
+
+        private void fill(int n) {
+            mCount += n;
+            if(mBuffer.capacity() == mCount) {
+                mStarved = true;
+            }
+            if(0 < n) {
+                notifyAll();
+            }
+        }
+
+        synchronized boolean isFull() {
+            return !mDiscard && mBuffer.capacity() == mCount;
+        }
+
+        synchronized boolean isStarved() {
+            return mStarved;
+        }
+
+        synchronized void finish() {
+            mEnd = true;
+            notifyAll();
+        }
+
+        synchronized void abort() {
+            mAborted = true;
+            discard();
+        }
+
+        /**
+         * Drops the buffered bytes and everything which comes later.
+         */
+        synchronized void discard() {
+            mDiscard = true;
+            mCount = 0;
+            notifyAll();
+        }
+
+        /**
+         * Drops the body and gives the buffer back to the pool, it is called by the event loop.
+         */
+        synchronized void free() {
+            discard();
+            if(null != mBuffer) {
+                BODY_BUFFERS.offer(mBuffer);
+                mBuffer = mFilled = mFree[0] = mFree[1] = null;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            return (-1 == read(mOne, 0, 1)) ? -1 : mOne[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(mLoop.inLoop()) {
+                throw new IOException("Request body cannot be read on the event loop");
+            }
+            if(0 == len) {
+                return 0;
+            }
+            boolean resume;
+            int n;
+            synchronized(this) {
+                try {
+                    while(0 == mCount && !mEnd && !mDiscard) {
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while reading the request");
+                }
+                if(mAborted) {
+                    throw new IOException("Connection has been closed");
+                }
+                if(0 == mCount) {
+                    return -1;
+                }
+                int capacity = mBuffer.capacity();
+                n = Math.min(len, mCount);
+                int first = Math.min(n, capacity - mHead);
+                mFilled.limit(mHead + first).position(mHead);
+                mFilled.get(b, off, first);
+                mFilled.limit(n - first).position(0);
+                mFilled.get(b, off + first, n - first);
+                mHead = (mHead + n) % capacity;
+                mCount -= n;
+                resume = mStarved;
+                mStarved = false;
+            }
+            if(resume) {
+                resumeBody(this);
+            }
+            return n;
+        }
+
+        @Override
+        public synchronized int available() {
+            return mCount;
+        }
+
+        @Override
+        public void close() {
+            boolean resume;
+            synchronized(this) {
+                resume = mStarved;
+                mStarved = false;
+                discard();
+            }
+            if(resume) {
+                resumeBody(this);
+            }
+        }
+    }
+
+    /**
+     * The response body, which frames the output of the handler and queues it for the event loop.
+     * <p>
+     * A write of at least {@link #AGGREGATE} bytes is queued without a copy and returns when it has been written.
+     * Smaller writes are gathered in one of two buffers, and the other one is only filled again when the loop has
+     * written it. A handler which runs on the event loop cannot wait, so its bytes are copied.
+     */
+    final class ResponseBody extends OutputStream {
+        private static final int AGGREGATE = 8 * 1024;
+
+        private boolean mStarted = false;
+        private boolean mChunkedOutput = false;
+        private boolean mDrop = false;
+        private long mLeft = -1;
+        private boolean mFinished = false;
+        private final byte[][] mAggregates = new byte[2][];
+        /** The positions in the output up to which the loop writes before the aggregates can be filled again */
+        private final long[] mAggregateEnds = new long[2];
+        private int mCurrent = 0;
+        private int mAggregated = 0;
+        private final byte[] mOne = new byte[1];
+
+        /**
+         * Sets up framing of the body after the response head has been queued.
+         *
+         * @param chunked  whether the body is sent with chunked transfer encoding.
+         * @param length  the exact length of the body, or -1 if it is not known.
+         * @param drop  whether the body is not sent at all, e.g. for a {@code HEAD} request.
+         */
+        void start(boolean chunked, long length, boolean drop) {
+            mStarted = true;
+            mChunkedOutput = chunked;
+            mLeft = length;
+            mDrop = drop;
+        }
+
+        boolean isStarted() {
+            return mStarted;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            mOne[0] = (byte) b;
+            write(mOne, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if(!mStarted) {
+                throw new IOException("Response headers have not been sent");
+            }
+            if(mFinished) {
+                throw new IOException("Response body has been closed");
+            }
+            if(mDrop || 0 == len) {
+                return;
+            }
+            if(-1 != mLeft) {
+                if(len > mLeft) {
+                    throw new IOException("Too many bytes to write to the response body");
+                }
+                mLeft -= len;
+            }
+
+            if(AGGREGATE <= len) {
+                flush();
+                awaitWritten(emit(b, off, len));
+                return;
+            }
+            if(len > AGGREGATE - mAggregated) {
+                flush();
+            }
+            if(null == mAggregates[mCurrent]) {
+                mAggregates[mCurrent] = new byte[AGGREGATE];
+            }
+            System.arraycopy(b, off, mAggregates[mCurrent], mAggregated, len);
+            mAggregated += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if(0 < mAggregated) {
+                mAggregateEnds[mCurrent] = emit(mAggregates[mCurrent], 0, mAggregated);
+                mAggregated = 0;
+                mCurrent ^= 1;
+                awaitWritten(mAggregateEnds[mCurrent]);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if(mFinished) {
+                return;
+            }
+            mFinished = true;
+            if(!mStarted) {
+                abort();
+                return;
+            }
+            flush();
+            if(mChunkedOutput && !mDrop) {
+                send(ByteBuffer.wrap(LAST_CHUNK), END_OF_RESPONSE);
+            } else {
+                if(0 < mLeft) {
+                    closeAfterResponse(); // the client would wait for the missing bytes otherwise
+                }
+                send(END_OF_RESPONSE);
+            }
+        }
+
+        /**
+         * @return  the position in the output after the bytes.
+         */
+        private long emit(byte[] b, int off, int len) throws IOException {
+            ByteBuffer data = mLoop.inLoop() ? ByteBuffer.wrap(Arrays.copyOfRange(b, off, off + len))
+                    : ByteBuffer.wrap(b, off, len);
+            if(mChunkedOutput) {
+                byte[] size = (Integer.toHexString(len) + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+                return send(ByteBuffer.wrap(size), data, ByteBuffer.wrap(CRLF));
+            }
+            return send(data);
+        }
+    }
+}
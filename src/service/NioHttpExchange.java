@@ -0,0 +1,256 @@
+package service;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An exchange of {@link NioHttpServer}. It behaves as the exchanges of the server of the JDK do: the response
+ * length given to {@link #sendResponseHeaders(int, long)} is {@code -1} for no body, {@code 0} for a body of
+ * unknown length, which is sent chunked, or the exact length of the body.
+ */
+class NioHttpExchange extends HttpExchange {
+    private final NioConnection mConnection;
+    private final HttpContext mContext;
+    private final String mMethod;
+    private final URI mUri;
+    private final String mProtocol;
+    private final Headers mRequestHeaders;
+    private final Headers mResponseHeaders = new Headers();
+    private final NioConnection.ResponseBody mResponse;
+    private final boolean mKeepAlive;
+    private final Map<String, Object> mAttributes = new HashMap<>();
+    private InputStream mIn;
+    private OutputStream mOut;
+    private int mResponseCode = -1;
+
+    NioHttpExchange(NioConnection connection, HttpContext context, String method, URI uri, String protocol,
+            Headers requestHeaders, InputStream requestBody, NioConnection.ResponseBody responseBody,
+            boolean keepAlive) {
+        mConnection = connection;
+        mContext = context;
+        mMethod = method;
+        mUri = uri;
+        mProtocol = protocol;
+        mRequestHeaders = requestHeaders;
+        mIn = requestBody;
+        mResponse = responseBody;
+        mOut = responseBody;
+        mKeepAlive = keepAlive;
+    }
+
+    @Override
+    public Headers getRequestHeaders() {
+        return mRequestHeaders;
+    }
+
+    @Override
+    public Headers getResponseHeaders() {
+        return mResponseHeaders;
+    }
+
+    @Override
+    public URI getRequestURI() {
+        return mUri;
+    }
+
+    @Override
+    public String getRequestMethod() {
+        return mMethod;
+    }
+
+    @Override
+    public HttpContext getHttpContext() {
+        return mContext;
+    }
+
+    @Override
+    public void close() {
+        try {
+            mIn.close();
+        } catch (IOException ignored) {
+            // the request body is only discarded
+        }
+        try {
+            if(mResponse.isStarted()) {
+                mOut.close();
+            } else {
+                abort();
+            }
+        } catch (IOException e) {
+            abort();
+        }
+    }
+
+    @Override
+    public InputStream getRequestBody() {
+        return mIn;
+    }
+
+    @Override
+    public OutputStream getResponseBody() {
+        return mOut;
+    }
+
+    @Override
+    public void sendResponseHeaders(int rCode, long responseLength) throws IOException {
+        if(mResponse.isStarted()) {
+            throw new IOException("Headers have already been sent");
+        }
+        mResponseCode = rCode;
+
+        boolean noBody = "HEAD".equals(mMethod) || 204 == rCode || 304 == rCode || 200 > rCode;
+        boolean http11 = "HTTP/1.1".equals(mProtocol);
+        boolean keepAlive = mKeepAlive && !"close".equalsIgnoreCase(mResponseHeaders.getFirst("Connection"));
+        boolean chunked = false;
+        long length = -1;
+
+        StringBuilder head = new StringBuilder(256);
+        head.append("HTTP/1.1 ").append(rCode).append(' ').append(reason(rCode)).append("\r\n");
+        head.append("Date: ").append(NioHttpServer.httpDate()).append("\r\n");
+        for(Map.Entry<String, List<String>> header : mResponseHeaders.entrySet()) {
+            String name = header.getKey();
+            if("Content-length".equalsIgnoreCase(name) || "Transfer-encoding".equalsIgnoreCase(name)
+                    || "Connection".equalsIgnoreCase(name)) {
+                continue;
+            }
+            for(String value : header.getValue()) {
+                head.append(name).append(": ").append(value).append("\r\n");
+            }
+        }
+
+        if(noBody) {
+            if(0 < responseLength) {
+                head.append("Content-length: ").append(responseLength).append("\r\n");
+            }
+            length = 0;
+        } else if(-1 == responseLength) {
+            head.append("Content-length: 0\r\n");
+            length = 0;
+        } else if(0 == responseLength) {
+            if(http11) {
+                head.append("Transfer-encoding: chunked\r\n");
+                chunked = true;
+            } else {
+                keepAlive = false; // the end of the body is told by closing the connection
+            }
+        } else {
+            head.append("Content-length: ").append(responseLength).append("\r\n");
+            length = responseLength;
+        }
+
+        if(!keepAlive) {
+            mConnection.closeAfterResponse();
+            head.append("Connection: close\r\n");
+        } else if(!http11) {
+            head.append("Connection: keep-alive\r\n");
+        }
+        head.append("\r\n");
+
+        mConnection.send(ByteBuffer.wrap(head.toString().getBytes(StandardCharsets.ISO_8859_1)));
+        mResponse.start(chunked, length, noBody);
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        try {
+            SocketAddress address = mConnection.getChannel().getRemoteAddress();
+            return (address instanceof InetSocketAddress) ? (InetSocketAddress) address : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public int getResponseCode() {
+        return mResponseCode;
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        try {
+            SocketAddress address = mConnection.getChannel().getLocalAddress();
+            return (address instanceof InetSocketAddress) ? (InetSocketAddress) address : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String getProtocol() {
+        return mProtocol;
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+        return mAttributes.get(name);
+    }
+
+    @Override
+    public void setAttribute(String name, Object value) {
+        if(null == value) {
+            mAttributes.remove(name);
+        } else {
+            mAttributes.put(name, value);
+        }
+    }
+
+    @Override
+    public void setStreams(InputStream i, OutputStream o) {
+        if(null != i) {
+            mIn = i;
+        }
+        if(null != o) {
+            mOut = o;
+        }
+    }
+
+    @Override
+    public HttpPrincipal getPrincipal() {
+        return null;
+    }
+
+    /**
+     * Closes the connection without finishing the response.
+     */
+    void abort() {
+        mConnection.abort();
+    }
+
+    /**
+     * @return  the reason phrase of a status code.
+     */
+    static String reason(int code) {
+        switch(code) {
+            case 100: return "Continue";
+            case 200: return "OK";
+            case 201: return "Created";
+            case 204: return "No Content";
+            case 304: return "Not Modified";
+            case 400: return "Bad Request";
+            case 404: return "Not Found";
+            case 405: return "Method Not Allowed";
+            case 411: return "Length Required";
+            case 413: return "Payload Too Large";
+            case 415: return "Unsupported Media Type";
+            case 431: return "Request Header Fields Too Large";
+            case 500: return "Internal Server Error";
+            case 503: return "Service Unavailable";
+            case 505: return "HTTP Version Not Supported";
+            default: return (500 <= code) ? "Server Error" : (400 <= code) ? "Client Error" : "Status";
+        }
+    }
+}
@@ -0,0 +1,607 @@
+package service;
+
+import com.sun.net.httpserver.Authenticator;
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.SocketOption;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * HTTP/1.1 server on non-blocking channels, which can be used instead of the server of the JDK.
+ * <p>
+ * Connections are spread over a number of event loops, each of them is a thread with its own {@link Selector}.
+ * An event loop reads requests into a direct buffer, parses request heads and decodes request bodies, and writes
+ * responses with gathering writes. Handlers are not run on the event loops: a parsed request is handed over to the
+ * executor as an {@link com.sun.net.httpserver.HttpExchange}, so the same handlers serve both servers. The request
+ * body streams from the event loop to the handler through a bounded buffer, and the response streams back
+ * through a bounded queue, so neither side is ever held in memory as a whole and a slow peer slows down only
+ * its own handler.
+ * <p>
+ * Connections are kept alive as HTTP/1.1 requires. Pipelined requests are answered one by one in the order they
+ * have come: the next request is not parsed until the response to the previous one has been written. A connection
+ * which stays idle between requests for {@link #IDLE_TIMEOUT} milliseconds is closed, and so is one which sends
+ * nothing of a request body for {@link #BODY_TIMEOUT} milliseconds while the handler waits for it, which fails
+ * the read of the handler, so a stalled upload does not hold a worker forever.
+ * <p>
+ * Handlers block when they read the request body, so they must not run on the event loops. Use an executor
+ * which never runs an exchange on the calling thread, except for the rejected ones which do not read the body.
+ * <p>
+ * Besides a TCP address, the server can listen on a Unix domain socket, see {@link #bindUnix(Path, int)}.
+ * The local and the remote address of such an exchange are {@code null}, since they are not IP addresses.
+ */
+class NioHttpServer extends HttpServer {
+    private static final Logger LOG = Logger.getLogger(NioHttpServer.class.getName());
+
+    /** Time after which an idle connection is closed */
+    static final long IDLE_TIMEOUT = 30_000;
+    /** Time after which a connection is closed if it sends nothing of the request body the handler waits for */
+    static final long BODY_TIMEOUT = 30_000;
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private static volatile String[] sDate = {"", ""};
+
+    /** {@code SO_REUSEPORT}, or {@code null} if the runtime or the platform does not support it */
+    private static final SocketOption<Boolean> REUSE_PORT = reusePortOption();
+
+    private final int mLoopCount;
+    private final boolean mReusePort;
+    private final List<Context> mContexts = new CopyOnWriteArrayList<>();
+    private final AtomicInteger mNextLoop = new AtomicInteger();
+    private final AtomicInteger mExchanges = new AtomicInteger();
+    private ServerSocketChannel mChannel = null;
+    /** The file of the Unix domain socket, or {@code null} if the server listens on TCP */
+    private Path mSocketFile = null;
+    private EventLoop[] mLoops = null;
+    private volatile Executor mExecutor = null;
+    private volatile long mIdleTimeout = IDLE_TIMEOUT;
+    private volatile long mBodyTimeout = BODY_TIMEOUT;
+
+    /**
+     * @param loops  the number of event loops. If this value is less than or equal to zero,
+     *               then the number of available processors is used.
+     */
+    NioHttpServer(int loops) {
+        this(loops, false);
+    }
+
+    /**
+     * @param loops  the number of event loops. If this value is less than or equal to zero,
+     *               then the number of available processors is used.
+     * @param reusePort  {@code true} to bind with {@code SO_REUSEPORT}, so other servers can listen on the same
+     *                   address and the kernel spreads connections over them.
+     */
+    NioHttpServer(int loops, boolean reusePort) {
+        mLoopCount = (0 < loops) ? loops : Runtime.getRuntime().availableProcessors();
+        mReusePort = reusePort;
+    }
+
+    /**
+     * Changes the timeouts, which are {@link #IDLE_TIMEOUT} and {@link #BODY_TIMEOUT} by default. Connections are
+     * looked at about once a second, so a timeout is not kept more precisely than that.
+     *
+     * @param idle  the time in milliseconds after which a connection idle between requests is closed.
+     * @param body  the time in milliseconds after which a connection which sends nothing of a request body is closed.
+     */
+    void setTimeouts(long idle, long body) {
+        mIdleTimeout = idle;
+        mBodyTimeout = body;
+    }
+
+    long getIdleTimeout() {
+        return mIdleTimeout;
+    }
+
+    long getBodyTimeout() {
+        return mBodyTimeout;
+    }
+
+    /**
+     * @return  {@code true} if several servers can be bound to the same address.
+     */
+    static boolean isReusePortSupported() {
+        return null != REUSE_PORT;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static SocketOption<Boolean> reusePortOption() {
+        try(ServerSocketChannel channel = ServerSocketChannel.open()) {
+            // the option has been added in Java 9
+            SocketOption<Boolean> option = (SocketOption<Boolean>) StandardSocketOptions.class
+                    .getField("SO_REUSEPORT").get(null);
+            return channel.supportedOptions().contains(option) ? option : null;
+        } catch (ReflectiveOperationException | IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void bind(InetSocketAddress address, int backlog) throws IOException {
+        if(null != mChannel) {
+            throw new IllegalStateException("Server is already bound");
+        }
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        try {
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            if(mReusePort) {
+                if(null == REUSE_PORT) {
+                    throw new IOException("SO_REUSEPORT is not supported");
+                }
+                channel.setOption(REUSE_PORT, true);
+            }
+            channel.bind(address, backlog);
+            channel.configureBlocking(false);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        mChannel = channel;
+    }
+
+    /**
+     * Binds the server to a Unix domain socket, which needs Java 16 or later. A socket which has been left at
+     * {@code path} by a previous run is removed first, and the socket is removed when the server stops.
+     *
+     * @throws IOException  if the socket cannot be created, or the runtime does not support Unix domain sockets.
+     */
+    void bindUnix(Path path, int backlog) throws IOException {
+        if(null != mChannel) {
+            throw new IllegalStateException("Server is already bound");
+        }
+        SocketAddress address;
+        ServerSocketChannel channel;
+        try {
+            // the sources target Java 8, which has no Unix domain sockets
+            address = (SocketAddress) Class.forName("java.net.UnixDomainSocketAddress")
+                    .getMethod("of", Path.class).invoke(null, path);
+            channel = (ServerSocketChannel) ServerSocketChannel.class.getMethod("open", ProtocolFamily.class)
+                    .invoke(null, StandardProtocolFamily.valueOf("UNIX"));
+        } catch (InvocationTargetException e) {
+            if(e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Unix domain socket cannot be created", e.getCause());
+        } catch (ReflectiveOperationException | IllegalArgumentException e) {
+            throw new IOException("Unix domain sockets are not supported by the runtime", e);
+        }
+
+        try {
+            if(Files.exists(path, LinkOption.NOFOLLOW_LINKS)
+                    && Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isOther()) {
+                Files.delete(path);
+            }
+            channel.bind(address, backlog);
+            channel.configureBlocking(false);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        mChannel = channel;
+        mSocketFile = path;
+    }
+
+    @Override
+    public void start() {
+        if(null == mChannel || null != mLoops) {
+            throw new IllegalStateException("Server is not bound or already started");
+        }
+        mLoops = new EventLoop[mLoopCount];
+        try {
+            for(int i = 0; i < mLoopCount; ++i) {
+                mLoops[i] = new EventLoop(i);
+            }
+            mChannel.register(mLoops[0].mSelector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            throw new IllegalStateException("Event loops could not be created", e);
+        }
+        for(EventLoop loop : mLoops) {
+            loop.mThread.start();
+        }
+    }
+
+    @Override
+    public void setExecutor(Executor executor) {
+        mExecutor = executor;
+    }
+
+    @Override
+    public Executor getExecutor() {
+        return mExecutor;
+    }
+
+    /**
+     * Stops accepting connections, waits up to {@code delay} seconds for the exchanges in progress to finish,
+     * then closes all the connections and stops the event loops.
+     */
+    @Override
+    public void stop(int delay) {
+        try {
+            if(null != mChannel) {
+                mChannel.close();
+            }
+            if(null != mSocketFile) {
+                Files.deleteIfExists(mSocketFile);
+            }
+        } catch (IOException e) {
+            LOG.log(Level.FINE, "Listening channel could not be closed", e);
+        }
+        if(null == mLoops) {
+            return;
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(Math.max(0, delay));
+        try {
+            while(0 < mExchanges.get() && 0 < deadline - System.nanoTime()) {
+                Thread.sleep(50);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        for(EventLoop loop : mLoops) {
+            loop.shutdown();
+        }
+        for(EventLoop loop : mLoops) {
+            try {
+                loop.mThread.join(TimeUnit.SECONDS.toMillis(1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+    }
+
+    @Override
+    public HttpContext createContext(String path, HttpHandler handler) {
+        if(null == path || !path.startsWith("/")) {
+            throw new IllegalArgumentException("Invalid path: " + path);
+        }
+        for(Context context : mContexts) {
+            if(context.mPath.equals(path)) {
+                throw new IllegalArgumentException("Context already exists: " + path);
+            }
+        }
+        Context context = new Context(path, handler);
+        mContexts.add(context);
+        return context;
+    }
+
+    @Override
+    public HttpContext createContext(String path) {
+        return createContext(path, null);
+    }
+
+    @Override
+    public void removeContext(String path) {
+        if(!mContexts.removeIf(context -> context.mPath.equals(path))) {
+            throw new IllegalArgumentException("No context: " + path);
+        }
+    }
+
+    @Override
+    public void removeContext(HttpContext context) {
+        if(!mContexts.remove(context)) {
+            throw new IllegalArgumentException("No context: " + context.getPath());
+        }
+    }
+
+    @Override
+    public InetSocketAddress getAddress() {
+        try {
+            SocketAddress address = (null != mChannel) ? mChannel.getLocalAddress() : null;
+            return (address instanceof InetSocketAddress) ? (InetSocketAddress) address : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Finds the context with the longest path which is a prefix of the request path, the same way as the server
+     * of the JDK does.
+     *
+     * @return  the context, or {@code null} if none matches.
+     */
+    Context findContext(String path) {
+        Context found = null;
+        for(Context context : mContexts) {
+            if(path.startsWith(context.mPath)
+                    && (null == found || context.mPath.length() > found.mPath.length())) {
+                found = context;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Runs the handler of an exchange on the executor.
+     */
+    void dispatch(NioHttpExchange exchange) {
+        mExchanges.incrementAndGet();
+        Context context = (Context) exchange.getHttpContext();
+        Runnable task = () -> {
+            try {
+                new Filter.Chain(context.mFilters, context.mHandler).doFilter(exchange);
+            } catch (IOException | RuntimeException e) {
+                LOG.log(Level.FINE, "Exchange failed", e);
+                exchange.abort();
+            }
+        };
+
+        Executor executor = mExecutor;
+        try {
+            if(null != executor) {
+                executor.execute(task);
+            } else {
+                Thread thread = new Thread(task, "jvs-exchange");
+                thread.start();
+            }
+        } catch (RejectedExecutionException e) {
+            LOG.log(Level.FINE, "Exchange has been rejected by the executor");
+            exchange.abort();
+        }
+    }
+
+    /**
+     * Is called once for every dispatched exchange when its connection is done with it.
+     */
+    void finished() {
+        mExchanges.decrementAndGet();
+    }
+
+    /**
+     * @return  the current time formatted for the {@code Date} header.
+     */
+    static String httpDate() {
+        String[] date = sDate;
+        String second = Long.toString(System.currentTimeMillis() / 1000);
+        if(!second.equals(date[0])) {
+            date = new String[] {second,
+                    DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC))};
+            sDate = date;
+        }
+        return date[1];
+    }
+
+    /**
+     * A thread which serves a share of the connections.
+     */
+    final class EventLoop implements Runnable {
+        final Selector mSelector;
+        final Thread mThread;
+        /** Shared by all the connections of the loop, it is only used during a read */
+        final ByteBuffer mReadBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+        private final ConcurrentLinkedQueue<Runnable> mTasks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean mWakeup = new AtomicBoolean();
+        private final Set<NioConnection> mConnections = new HashSet<>();
+        private volatile boolean mRunning = true;
+        private long mLastSweep = System.currentTimeMillis();
+
+        EventLoop(int index) throws IOException {
+            mSelector = Selector.open();
+            mThread = new Thread(this, "jvs-nio-" + index);
+        }
+
+        /**
+         * Runs a task on the loop thread.
+         */
+        void execute(Runnable task) {
+            mTasks.add(task);
+            if(Thread.currentThread() != mThread && mWakeup.compareAndSet(false, true)) {
+                mSelector.wakeup();
+            }
+        }
+
+        boolean inLoop() {
+            return Thread.currentThread() == mThread;
+        }
+
+        void shutdown() {
+            execute(() -> mRunning = false);
+        }
+
+        void register(NioConnection connection) {
+            mConnections.add(connection);
+        }
+
+        void unregister(NioConnection connection) {
+            mConnections.remove(connection);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while(mRunning) {
+                    mSelector.select(1000);
+                    mWakeup.set(false);
+
+                    Runnable task;
+                    while(null != (task = mTasks.poll())) {
+                        task.run();
+                    }
+
+                    Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+                    while(keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if(!key.isValid()) {
+                            continue;
+                        }
+                        if(key.isAcceptable()) {
+                            accept();
+                        } else {
+                            ((NioConnection) key.attachment()).ready(key);
+                        }
+                    }
+
+                    sweep();
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                LOG.log(Level.SEVERE, "Event loop has failed", e);
+            } finally {
+                for(NioConnection connection : new ArrayList<>(mConnections)) {
+                    connection.close();
+                }
+                try {
+                    mSelector.close();
+                } catch (IOException e) {
+                    LOG.log(Level.FINE, "Selector could not be closed", e);
+                }
+            }
+        }
+
+        private void accept() {
+            while(true) {
+                SocketChannel channel;
+                try {
+                    channel = mChannel.accept();
+                } catch (IOException e) {
+                    LOG.log(Level.FINE, "Connection could not be accepted", e);
+                    return;
+                }
+                if(null == channel) {
+                    return;
+                }
+
+                EventLoop loop = mLoops[Math.floorMod(mNextLoop.getAndIncrement(), mLoops.length)];
+                if(loop == this) {
+                    loop.adopt(channel);
+                } else {
+                    loop.execute(() -> loop.adopt(channel));
+                }
+            }
+        }
+
+        private void adopt(SocketChannel channel) {
+            try {
+                channel.configureBlocking(false);
+                if(channel.supportedOptions().contains(StandardSocketOptions.TCP_NODELAY)) {
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                }
+                NioConnection connection = new NioConnection(NioHttpServer.this, this, channel);
+                connection.register();
+            } catch (IOException e) {
+                LOG.log(Level.FINE, "Connection could not be registered", e);
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // nothing else can be done with it
+                }
+            }
+        }
+
+        private void sweep() {
+            long now = System.currentTimeMillis();
+            if(1000 > now - mLastSweep) {
+                return;
+            }
+            mLastSweep = now;
+            for(NioConnection connection : new ArrayList<>(mConnections)) {
+                if(connection.isIdle(now)) {
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * A context of the server.
+     */
+    final class Context extends HttpContext {
+        final String mPath;
+        volatile HttpHandler mHandler;
+        final List<Filter> mFilters = new CopyOnWriteArrayList<>();
+        private final Map<String, Object> mAttributes = new HashMap<>();
+
+        Context(String path, HttpHandler handler) {
+            mPath = path;
+            mHandler = handler;
+        }
+
+        @Override
+        public HttpHandler getHandler() {
+            return mHandler;
+        }
+
+        @Override
+        public void setHandler(HttpHandler handler) {
+            mHandler = handler;
+        }
+
+        @Override
+        public String getPath() {
+            return mPath;
+        }
+
+        @Override
+        public HttpServer getServer() {
+            return NioHttpServer.this;
+        }
+
+        @Override
+        public Map<String, Object> getAttributes() {
+            return mAttributes;
+        }
+
+        @Override
+        public List<Filter> getFilters() {
+            return mFilters;
+        }
+
+        /**
+         * Authentication is not supported by this server.
+         *
+         * @throws UnsupportedOperationException  if {@code authenticator} is not {@code null}.
+         */
+        @Override
+        public Authenticator setAuthenticator(Authenticator authenticator) {
+            if(null != authenticator) {
+                throw new UnsupportedOperationException("Authenticators are not supported");
+            }
+            return null;
+        }
+
+        @Override
+        public Authenticator getAuthenticator() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,389 @@
+package service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Validates a large top-level array with {@link NativeValidator} on several cores.
+ * <p>
+ * The request is read and scanned on the calling thread. The scan only follows strings and brackets, and it cuts
+ * the top-level array into segments at the first comma between elements after every {@code segmentSize} bytes.
+ * The first segment is validated right away as it is read, the others are handed to a {@link ForkJoinPool}.
+ * A validator of a segment is put into the state after a comma of the top-level array by feeding it {@code [0}
+ * first, and every segment but the last one takes the comma which ends it, so a number or a literal cut at the
+ * comma is still checked.
+ * <p>
+ * The results are taken in document order, so the error reported is the first one in the document, with the same
+ * code, line, column and offset as a sequential validation would report. The scan agrees with the validator on
+ * every byte before the first error, thus the segments before it are validated in the right state. Lines are
+ * counted by the validators of the segments, and the line of a segment is known once the segments before it are.
+ * Reading stops once the first error is known. A document which is not an array is never cut and is validated as
+ * it is read, the same way as {@link JSONHandler#checkRequest(InputStream, long, String, int)} does.
+ * <p>
+ * Up to two segments per thread of the pool wait to be validated, so a segment is held in memory only until the
+ * pool catches up with the reading.
+ */
+class ParallelValidator {
+    /** The bytes after which a validator expects the next element of the top-level array */
+    private static final byte[] PREFIX = {'[', '0'};
+
+    private static final byte B_OTHER = 0;
+    private static final byte B_QUOTE = 1;
+    private static final byte B_OPEN = 2;
+    private static final byte B_CLOSE = 3;
+    private static final byte B_COMMA = 4;
+    private static final byte B_ESCAPE = 5;
+
+    /** The bytes which matter outside of strings */
+    private static final byte[] STRUCTURE = new byte[256];
+    /** The bytes which matter inside a string */
+    private static final byte[] STRING = new byte[256];
+
+    static {
+        STRUCTURE['"'] = B_QUOTE;
+        STRUCTURE['['] = STRUCTURE['{'] = B_OPEN;
+        STRUCTURE[']'] = STRUCTURE['}'] = B_CLOSE;
+        STRUCTURE[','] = B_COMMA;
+        STRING['"'] = B_QUOTE;
+        STRING['\\'] = B_ESCAPE;
+    }
+
+    private static final ThreadLocal<NativeValidator> VALIDATORS = ThreadLocal.withInitial(NativeValidator::new);
+
+    private final ForkJoinPool mPool;
+    private final int mSegmentSize;
+    private final int mMaxPending;
+    private final Admission mAdmission;
+
+    /**
+     * @param segmentSize  the least number of bytes of a segment.
+     */
+    ParallelValidator(ForkJoinPool pool, int segmentSize, Admission admission) {
+        mPool = pool;
+        mSegmentSize = Math.max(BufferPool.MIN_SIZE, segmentSize);
+        mMaxPending = 2 * pool.getParallelism();
+        mAdmission = admission;
+    }
+
+    /**
+     * @return  the least number of bytes of a segment.
+     */
+    int getSegmentSize() {
+        return mSegmentSize;
+    }
+
+    /**
+     * Validates the request and leaves {@code stream} open.
+     *
+     * @param buffer  a buffer to read the request into.
+     * @return  {@code null} if the JSON is valid, otherwise the error response.
+     * @throws Admission.LimitExceededException  if the request is over a limit of {@link Admission}.
+     */
+    JSONHandler.BadJSONResponse check(InputStream stream, byte[] buffer, String path, int id) throws IOException {
+        NativeValidator first = VALIDATORS.get();
+        first.reset();
+        first.setMaxDepth(mAdmission.getMaxDepth());
+
+        ArrayDeque<ForkJoinTask<Result>> pending = new ArrayDeque<>();
+        Lines lines = new Lines();
+        Scanner scanner = new Scanner();
+        Segment segment = null;
+        Failure failure = null;
+        try {
+            int n;
+            while(null == failure && -1 != (n = stream.read(buffer))) {
+                int from = 0;
+                int cut;
+                while(-1 != (cut = scanner.scan(buffer, from, n))) {
+                    // the comma ends a segment and starts the next one
+                    if(null == segment) {
+                        first.feed(buffer, from, cut + 1 - from);
+                        failure = lines.follow(new Result(first, 0, 0));
+                    } else {
+                        Segment full = segment;
+                        full.append(buffer, from, cut + 1 - from);
+                        pending.add(mPool.submit(() -> full.validate(false)));
+                        failure = takeDone(pending, lines);
+                    }
+                    if(null != failure) {
+                        break;
+                    }
+                    segment = new Segment(scanner.startSegment(cut), mSegmentSize + mSegmentSize / 4);
+                    from = cut;
+                }
+                if(null == failure) {
+                    if(null == segment) {
+                        if(!first.feed(buffer, from, n - from)) {
+                            failure = lines.follow(new Result(first, 0, 0));
+                        }
+                    } else {
+                        segment.append(buffer, from, n - from);
+                    }
+                    scanner.advance(n);
+                }
+            }
+
+            if(null == failure) {
+                if(null == segment) {
+                    first.finish();
+                    failure = lines.follow(new Result(first, 0, 0));
+                } else {
+                    Result last = segment.validate(true);
+                    failure = takeAll(pending, lines);
+                    failure = (null != failure) ? failure : lines.follow(last);
+                }
+            }
+        } finally {
+            for(ForkJoinTask<Result> task : pending) {
+                task.cancel(false);
+            }
+        }
+
+        if(null == failure) {
+            return null;
+        }
+        if(failure.tooDeep) {
+            throw mAdmission.exceeded(Admission.Limit.DEPTH);
+        }
+        return new JSONHandler.BadJSONResponse(failure.error, failure.line, failure.column,
+                failure.offset, path, id);
+    }
+
+    /**
+     * Takes the results of the segments which are done, and waits for the oldest one if too many are pending.
+     *
+     * @return  the first error, or {@code null} if there has been none so far.
+     */
+    private Failure takeDone(ArrayDeque<ForkJoinTask<Result>> pending, Lines lines) {
+        while(!pending.isEmpty() && (pending.peekFirst().isDone() || mMaxPending < pending.size())) {
+            Failure failure = lines.follow(pending.pollFirst().join());
+            if(null != failure) {
+                return failure;
+            }
+        }
+        return null;
+    }
+
+    private static Failure takeAll(ArrayDeque<ForkJoinTask<Result>> pending, Lines lines) {
+        while(!pending.isEmpty()) {
+            Failure failure = lines.follow(pending.pollFirst().join());
+            if(null != failure) {
+                return failure;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * What a validator has found in a segment, in the offsets of the whole document.
+     */
+    private static final class Result {
+        /** The syntax error, or {@code null} */
+        final ErrorCode error;
+        final boolean tooDeep;
+        final long offset;
+        final long errorLine;
+        final long errorColumn;
+        /** The number of line feeds in the segment */
+        final long lines;
+        /** The offset of the last line of the segment */
+        final long lineStart;
+
+        /**
+         * @param start  the offset of the segment in the document.
+         * @param shift  the number of bytes the validator has been fed before the segment.
+         */
+        Result(NativeValidator validator, long start, int shift) {
+            error = validator.getError();
+            tooDeep = validator.isTooDeep();
+            offset = validator.getErrorOffset() - shift + start;
+            errorLine = validator.getErrorLine();
+            errorColumn = validator.getErrorColumn();
+            lines = validator.getLine() - 1;
+            lineStart = validator.getLineStart() - shift + start;
+        }
+    }
+
+    /**
+     * The place of the error in the document.
+     */
+    private static final class Failure {
+        final ErrorCode error;
+        final boolean tooDeep;
+        final long line;
+        final long column;
+        final long offset;
+
+        Failure(Result result, long line, long column) {
+            this.error = result.error;
+            this.tooDeep = result.tooDeep;
+            this.line = line;
+            this.column = column;
+            this.offset = result.offset;
+        }
+    }
+
+    /**
+     * Counts the lines of the segments in document order.
+     */
+    private static final class Lines {
+        private long mLine = 1;
+        private long mLineStart = 0;
+
+        /**
+         * Moves past the next segment.
+         *
+         * @return  the error of the segment, or {@code null} if it is valid.
+         */
+        Failure follow(Result result) {
+            if(null != result.error || result.tooDeep) {
+                if(1 == result.errorLine) {
+                    return new Failure(result, mLine, result.offset - mLineStart + 1);
+                }
+                return new Failure(result, mLine + result.errorLine - 1, result.errorColumn);
+            }
+            if(0 < result.lines) {
+                mLine += result.lines;
+                mLineStart = result.lineStart;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Bytes of the document from a comma of the top-level array up to the comma which ends them.
+     */
+    private final class Segment {
+        final long start;
+        byte[] bytes;
+        int length = 0;
+
+        Segment(long start, int capacity) {
+            this.start = start;
+            bytes = new byte[capacity];
+        }
+
+        void append(byte[] b, int off, int len) {
+            if(length + len > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + len));
+            }
+            System.arraycopy(b, off, bytes, length, len);
+            length += len;
+        }
+
+        /**
+         * @param last  {@code true} if the segment ends the document.
+         */
+        Result validate(boolean last) {
+            NativeValidator validator = VALIDATORS.get();
+            validator.reset();
+            validator.setMaxDepth(mAdmission.getMaxDepth());
+            if(validator.feed(PREFIX, 0, PREFIX.length) && validator.feed(bytes, 0, length) && last) {
+                validator.finish();
+            }
+            return new Result(validator, start, PREFIX.length);
+        }
+    }
+
+    /**
+     * Follows strings and brackets of the document to find the commas between elements of the top-level array.
+     */
+    private final class Scanner {
+        private long mOffset = 0;
+        private long mSegmentStart = 0;
+        private int mDepth = 0;
+        private boolean mArray = false;
+        private boolean mString = false;
+        private boolean mEscape = false;
+
+        /**
+         * Scans the bytes up to a comma which ends a segment.
+         *
+         * @return  the index of the comma, or {@code -1} if the bytes up to {@code to} have been scanned.
+         */
+        int scan(byte[] b, int from, int to) {
+            long end = mSegmentStart - mOffset + mSegmentSize; // the index where a segment may end
+            int depth = mDepth;
+            boolean string = mString;
+            int i = from;
+            if(mEscape && i < to) {
+                mEscape = false;
+                ++i;
+            }
+            try {
+                while(i < to) {
+                    if(string) {
+                        // the hot loop: nothing but the quote and the backslash matter
+                        byte c;
+                        while(B_OTHER == (c = STRING[b[i] & 0xFF])) {
+                            if(++i == to) {
+                                return -1;
+                            }
+                        }
+                        if(B_ESCAPE == c) {
+                            i += 2;
+                            if(i > to) {
+                                mEscape = true;
+                            }
+                            continue;
+                        }
+                        string = false;
+                        ++i;
+                        continue;
+                    }
+
+                    byte c;
+                    while(B_OTHER == (c = STRUCTURE[b[i] & 0xFF])) {
+                        if(++i == to) {
+                            return -1;
+                        }
+                    }
+                    switch(c) {
+                        case B_QUOTE:
+                            string = true;
+                            break;
+                        case B_OPEN:
+                            if(0 == depth++) {
+                                mArray = '[' == b[i];
+                            }
+                            break;
+                        case B_CLOSE:
+                            --depth;
+                            break;
+                        default:
+                            if(1 == depth && mArray && i >= end) {
+                                return i;
+                            }
+                            break;
+                    }
+                    ++i;
+                }
+                return -1;
+            } finally {
+                mDepth = depth;
+                mString = string;
+            }
+        }
+
+        /**
+         * Starts a segment at the comma found by {@link #scan(byte[], int, int)}.
+         *
+         * @return  the offset of the segment in the document.
+         */
+        long startSegment(int comma) {
+            mSegmentStart = mOffset + comma;
+            return mSegmentStart;
+        }
+
+        /**
+         * Moves on to the next buffer of the document.
+         */
+        void advance(int n) {
+            mOffset += n;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package service;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tells a load balancer whether the service takes requests.
+ * <p>
+ * The handler is registered on its own context, see {@link JVSOptionsBuilder#setReady(String)}. It answers
+ * {@code 200 OK} once the {@link Warmup} is over, or at once if there is none, and {@code 503 Service Unavailable}
+ * until then. The body tells how far the warm-up has got:
+ * <pre>
+ * {"ready":false,"passes":37,"budget":1000,"settled":false,"millis":2140}</pre>
+ * It answers any request, the request body is ignored.
+ */
+class ReadyHandler implements HttpHandler {
+    private final Warmup mWarmup;
+
+    /**
+     * @param warmup  the warm-up of the service, or {@code null} if there is none.
+     */
+    ReadyHandler(Warmup warmup) {
+        mWarmup = warmup;
+    }
+
+    @Override
+    public void handle(HttpExchange t) throws IOException {
+        boolean ready = null == mWarmup || mWarmup.isDone();
+        StringBuilder text = new StringBuilder(96).append("{\"ready\":").append(ready);
+        if(null != mWarmup) {
+            text.append(",\"passes\":").append(mWarmup.getPasses())
+                    .append(",\"budget\":").append(mWarmup.getBudget())
+                    .append(",\"settled\":").append(mWarmup.isSettled())
+                    .append(",\"millis\":").append(mWarmup.getMillis());
+        }
+        byte[] bytes = text.append("}\n").toString().getBytes(StandardCharsets.UTF_8);
+
+        int status = ready ? java.net.HttpURLConnection.HTTP_OK : java.net.HttpURLConnection.HTTP_UNAVAILABLE;
+        t.getResponseHeaders().set("Content-type", "application/json");
+        t.getResponseHeaders().set("Cache-control", "no-store");
+        if("HEAD".equals(t.getRequestMethod())) {
+            t.sendResponseHeaders(status, -1);
+            t.close();
+            return;
+        }
+        t.sendResponseHeaders(status, bytes.length);
+        try(OutputStream body = t.getResponseBody()) {
+            body.write(bytes);
+        }
+    }
+}
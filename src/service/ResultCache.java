@@ -0,0 +1,220 @@
+package service;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps responses to the requests which have been validated recently, so a repeated request is answered without
+ * parsing it again.
+ * <p>
+ * An entry is found by a 64-bit hash of the request bytes and a variant, which stands for everything else that
+ * changes the response, like the output mode. The request bytes are kept in the entry and compared on a hit,
+ * so a hash collision never returns a wrong response. The least recently used entries are evicted when the total
+ * size of the request and response bytes exceeds the capacity.
+ * <p>
+ * Only requests of up to {@link #MAX_REQUEST} bytes are cached. The map is guarded by the cache itself, the lock
+ * is held for a lookup or an insertion only. Hits, misses and evictions are counted for {@link Metrics}.
+ */
+class ResultCache {
+    /** The largest request which is cached */
+    static final int MAX_REQUEST = BufferPool.MAX_SIZE;
+
+    /** Approximate size of an entry without its bytes */
+    private static final int ENTRY_OVERHEAD = 128;
+
+    /**
+     * A cached response: either the bytes of the response body, or an error which is sent with the current
+     * request id.
+     */
+    static final class Entry {
+        final int status;
+        final byte[] body;
+        final JSONHandler.BadJSONResponse error;
+
+        Entry(int status, byte[] body) {
+            this.status = status;
+            this.body = body;
+            this.error = null;
+        }
+
+        Entry(JSONHandler.BadJSONResponse error) {
+            this.status = java.net.HttpURLConnection.HTTP_OK;
+            this.body = null;
+            this.error = error;
+        }
+
+        int size() {
+            return (null != body) ? body.length : ENTRY_OVERHEAD;
+        }
+    }
+
+    /**
+     * Identifies a request. A key made by {@link #key(byte[], int, int)} refers to the buffer of the request,
+     * it is copied when it goes into the cache.
+     */
+    static final class Key {
+        private final long mHash;
+        private final int mVariant;
+        private final byte[] mBytes;
+        private final int mLength;
+
+        private Key(long hash, int variant, byte[] bytes, int length) {
+            mHash = hash;
+            mVariant = variant;
+            mBytes = bytes;
+            mLength = length;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (mHash ^ (mHash >>> 32));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o) {
+                return true;
+            }
+            if(!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            if(mHash != other.mHash || mVariant != other.mVariant || mLength != other.mLength) {
+                return false;
+            }
+            for(int i = 0; i < mLength; ++i) {
+                if(mBytes[i] != other.mBytes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private final long mCapacity;
+    private final LinkedHashMap<Key, Entry> mEntries = new LinkedHashMap<>(256, 0.75f, true);
+    private long mSize = 0;
+
+    private final LongAdder mHits = new LongAdder();
+    private final LongAdder mMisses = new LongAdder();
+    private final LongAdder mEvictions = new LongAdder();
+
+    /**
+     * @param capacity  the maximum number of bytes kept in the cache.
+     */
+    ResultCache(long capacity) {
+        mCapacity = capacity;
+    }
+
+    /**
+     * Makes a key of a request.
+     *
+     * @param request  the buffer which holds the request.
+     * @param length  the number of bytes in the request.
+     * @param variant  a number which tells apart different responses to the same request.
+     * @return  a key which refers to {@code request}.
+     */
+    static Key key(byte[] request, int length, int variant) {
+        return new Key(hash(request, length), variant, request, length);
+    }
+
+    /**
+     * Looks the response up.
+     *
+     * @return  the cached response, or {@code null} if the request has not been cached.
+     */
+    Entry get(Key key) {
+        Entry entry;
+        synchronized(this) {
+            entry = mEntries.get(key);
+        }
+        if(null != entry) {
+            mHits.increment();
+        } else {
+            mMisses.increment();
+        }
+        return entry;
+    }
+
+    /**
+     * Caches a response. The least recently used entries are evicted to make room for it.
+     */
+    void put(Key key, Entry entry) {
+        long size = weigh(key, entry);
+        if(size > mCapacity) {
+            return;
+        }
+        Key copy = new Key(key.mHash, key.mVariant, Arrays.copyOf(key.mBytes, key.mLength), key.mLength);
+        synchronized(this) {
+            Entry old = mEntries.put(copy, entry);
+            mSize += size - ((null != old) ? weigh(copy, old) : 0);
+
+            Iterator<Map.Entry<Key, Entry>> eldest = mEntries.entrySet().iterator();
+            while(mSize > mCapacity && eldest.hasNext()) {
+                Map.Entry<Key, Entry> e = eldest.next();
+                mSize -= weigh(e.getKey(), e.getValue());
+                eldest.remove();
+                mEvictions.increment();
+            }
+        }
+    }
+
+    /**
+     * Writes the statistics of the cache in the Prometheus text format.
+     *
+     * @param out  the output.
+     */
+    void write(StringBuilder out) {
+        long entries;
+        long size;
+        synchronized(this) {
+            entries = mEntries.size();
+            size = mSize;
+        }
+        out.append("# HELP jvs_cache_hits_total Requests answered from the result cache.\n")
+                .append("# TYPE jvs_cache_hits_total counter\n")
+                .append("jvs_cache_hits_total ").append(mHits.sum()).append('\n');
+        out.append("# HELP jvs_cache_misses_total Cacheable requests which have been validated.\n")
+                .append("# TYPE jvs_cache_misses_total counter\n")
+                .append("jvs_cache_misses_total ").append(mMisses.sum()).append('\n');
+        out.append("# HELP jvs_cache_evictions_total Entries evicted from the result cache.\n")
+                .append("# TYPE jvs_cache_evictions_total counter\n")
+                .append("jvs_cache_evictions_total ").append(mEvictions.sum()).append('\n');
+        out.append("# HELP jvs_cache_entries Entries in the result cache.\n")
+                .append("# TYPE jvs_cache_entries gauge\n")
+                .append("jvs_cache_entries ").append(entries).append('\n');
+        out.append("# HELP jvs_cache_bytes Bytes held by the result cache.\n")
+                .append("# TYPE jvs_cache_bytes gauge\n")
+                .append("jvs_cache_bytes ").append(size).append('\n');
+    }
+
+    private static long weigh(Key key, Entry entry) {
+        return ENTRY_OVERHEAD + key.mLength + entry.size();
+    }
+
+    /**
+     * Hashes the bytes eight at a time, the result is finished with the mixer of MurmurHash3.
+     */
+    static long hash(byte[] bytes, int length) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length).order(ByteOrder.LITTLE_ENDIAN);
+        long h = 0x9E3779B97F4A7C15L ^ length;
+        int i = 0;
+        for(; i + 8 <= length; i += 8) {
+            h = Long.rotateLeft(h ^ buffer.getLong(i) * 0xC2B2AE3D27D4EB4FL, 31) * 0x9E3779B97F4A7C15L;
+        }
+        for(; i < length; ++i) {
+            h = (h ^ (bytes[i] & 0xFF)) * 0x100000001B3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,453 @@
+package service;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A JSON Schema compiled into a graph of nodes which {@link SchemaValidator} checks a stream of tokens against.
+ * <p>
+ * Everything which can be worked out before a request comes is done once: the types become a bit mask, the
+ * numbers become {@link BigDecimal}s, the patterns are compiled, the required members are numbered and
+ * a {@code $ref} points straight at the node it refers to, so a recursive schema is a cycle in the graph.
+ * <p>
+ * The keywords which can be checked in a single pass over the tokens are supported:
+ * <ul>
+ *     <li>{@code type}, {@code enum} and {@code const}, the last two with values other than objects and
+ *     arrays</li>
+ *     <li>{@code properties}, {@code patternProperties}, {@code additionalProperties}, {@code required},
+ *     {@code minProperties} and {@code maxProperties}</li>
+ *     <li>{@code items} (a schema, or an array of schemas as a tuple), {@code prefixItems},
+ *     {@code additionalItems}, {@code minItems} and {@code maxItems}</li>
+ *     <li>{@code minLength}, {@code maxLength} and {@code pattern}</li>
+ *     <li>{@code minimum}, {@code maximum}, {@code exclusiveMinimum}, {@code exclusiveMaximum}, also the
+ *     boolean ones of draft 4, and {@code multipleOf}</li>
+ *     <li>{@code allOf}, and {@code $ref} to a JSON pointer in the same document</li>
+ * </ul>
+ * Annotations like {@code title} or {@code format} are ignored. The keywords which need to look at a value
+ * more than once, like {@code anyOf}, {@code oneOf}, {@code not} or {@code uniqueItems}, are ignored too, and
+ * a warning names them when the schema is compiled.
+ */
+final class Schema {
+    private static final Logger LOG = Logger.getLogger(Schema.class.getName());
+
+    // the bits of the types of a value
+    static final int NULL = 1;
+    static final int BOOLEAN = 1 << 1;
+    static final int OBJECT = 1 << 2;
+    static final int ARRAY = 1 << 3;
+    static final int NUMBER = 1 << 4;
+    static final int INTEGER = 1 << 5;
+    static final int STRING = 1 << 6;
+
+    /** The names of the types in the order of their bits */
+    static final String[] TYPES = {"null", "boolean", "object", "array", "number", "integer", "string"};
+
+    private static final AtomicInteger VERSIONS = new AtomicInteger();
+
+    /** A schema whose file cannot be compiled */
+    static final Schema BROKEN = new Schema();
+
+    /** The value of {@code null} in {@link #constants} */
+    static final Object NULL_VALUE = new Object();
+
+    private static final Set<String> ANNOTATIONS = new TreeSet<>(Arrays.asList("$schema", "$id", "id",
+            "$comment", "$anchor", "title", "description", "default", "examples", "definitions", "$defs", "format",
+            "readOnly", "writeOnly", "deprecated", "contentMediaType", "contentEncoding"));
+
+    /** A number which is unique for every compiled node, a changed file gets new ones */
+    final int version = VERSIONS.incrementAndGet();
+    /** {@code true} for the {@code false} schema, which no value matches */
+    boolean nothing = false;
+    /** The bits of the allowed types, zero if any type is allowed */
+    int types = 0;
+    /** The values of {@code enum} or {@code const}, or {@code null} if any value is allowed */
+    Object[] constants = null;
+    Map<String, Schema> properties = null;
+    Pattern[] patterns = null;
+    Schema[] patternSchemas = null;
+    /** The schema of the other members, or {@code null} if they are not checked */
+    Schema additionalProperties = null;
+    String[] required = null;
+    /** The number of every required member in {@link #required} */
+    Map<String, Integer> requiredIndex = null;
+    long minProperties = 0;
+    long maxProperties = Long.MAX_VALUE;
+    Schema[] prefixItems = null;
+    /** The schema of the items after {@link #prefixItems}, or {@code null} if they are not checked */
+    Schema items = null;
+    long minItems = 0;
+    long maxItems = Long.MAX_VALUE;
+    long minLength = 0;
+    long maxLength = Long.MAX_VALUE;
+    Pattern pattern = null;
+    BigDecimal minimum = null;
+    BigDecimal maximum = null;
+    BigDecimal exclusiveMinimum = null;
+    BigDecimal exclusiveMaximum = null;
+    BigDecimal multipleOf = null;
+    /** The schemas which the value has to match as well, {@code $ref} included */
+    Schema[] allOf = null;
+
+    private Schema() {
+    }
+
+    /**
+     * @return  {@code true} if any value matches the schema, so it need not be checked.
+     */
+    boolean isEmpty() {
+        return !nothing && 0 == types && null == constants && null == properties && null == patterns
+                && null == additionalProperties && null == required && 0 == minProperties
+                && Long.MAX_VALUE == maxProperties && null == prefixItems && null == items && 0 == minItems
+                && Long.MAX_VALUE == maxItems && 0 == minLength && Long.MAX_VALUE == maxLength && null == pattern
+                && null == minimum && null == maximum && null == exclusiveMinimum && null == exclusiveMaximum
+                && null == multipleOf && null == allOf;
+    }
+
+    /**
+     * Compiles a schema.
+     *
+     * @param document  the schema.
+     * @param name  the name of the schema for the warnings.
+     * @return  the root node.
+     * @throws IllegalArgumentException  if the schema is not valid.
+     */
+    static Schema compile(JsonElement document, String name) {
+        Compiler compiler = new Compiler(document);
+        Schema root = compiler.compile(document, "#");
+        if(!compiler.mIgnored.isEmpty()) {
+            LOG.log(Level.WARNING, "Schema {0} has keywords which are not supported and are ignored: {1}",
+                    new Object[] {name, compiler.mIgnored});
+        }
+        return root;
+    }
+
+    /**
+     * Compiles the nodes of one document, every JSON object becomes one node even if it is referred to many times.
+     */
+    private static final class Compiler {
+        private final JsonElement mRoot;
+        private final Map<JsonElement, Schema> mNodes = new IdentityHashMap<>();
+        private final Set<String> mIgnored = new TreeSet<>();
+
+        Compiler(JsonElement root) {
+            mRoot = root;
+        }
+
+        /**
+         * @param where  the JSON pointer of the node for the error messages.
+         */
+        Schema compile(JsonElement element, String where) {
+            Schema schema = mNodes.get(element);
+            if(null != schema) {
+                return schema;
+            }
+            schema = new Schema();
+            mNodes.put(element, schema);
+            if(element.isJsonPrimitive() && element.getAsJsonPrimitive().isBoolean()) {
+                schema.nothing = !element.getAsBoolean();
+                return schema;
+            }
+            if(!element.isJsonObject()) {
+                throw new IllegalArgumentException(where + " is neither an object nor a boolean");
+            }
+
+            List<Schema> allOf = new ArrayList<>();
+            for(Map.Entry<String, JsonElement> member : element.getAsJsonObject().entrySet()) {
+                String keyword = member.getKey();
+                JsonElement value = member.getValue();
+                String at = where + "/" + keyword;
+                switch(keyword) {
+                    case "type":
+                        schema.types = types(value, at);
+                        break;
+                    case "enum":
+                        if(!value.isJsonArray()) {
+                            throw new IllegalArgumentException(at + " is not an array");
+                        }
+                        List<Object> constants = new ArrayList<>();
+                        for(JsonElement constant : value.getAsJsonArray()) {
+                            constants.add(constant(constant, at));
+                        }
+                        schema.constants = constants.toArray();
+                        break;
+                    case "const":
+                        schema.constants = new Object[] {constant(value, at)};
+                        break;
+                    case "properties":
+                        schema.properties = new HashMap<>();
+                        for(Map.Entry<String, JsonElement> property : object(value, at).entrySet()) {
+                            schema.properties.put(property.getKey(),
+                                    compile(property.getValue(), at + "/" + escape(property.getKey())));
+                        }
+                        break;
+                    case "patternProperties": {
+                        JsonObject patterns = object(value, at);
+                        schema.patterns = new Pattern[patterns.size()];
+                        schema.patternSchemas = new Schema[patterns.size()];
+                        int i = 0;
+                        for(Map.Entry<String, JsonElement> property : patterns.entrySet()) {
+                            schema.patterns[i] = pattern(property.getKey(), at);
+                            schema.patternSchemas[i++] =
+                                    compile(property.getValue(), at + "/" + escape(property.getKey()));
+                        }
+                        break;
+                    }
+                    case "additionalProperties":
+                        schema.additionalProperties = compile(value, at);
+                        break;
+                    case "required": {
+                        if(!value.isJsonArray()) {
+                            throw new IllegalArgumentException(at + " is not an array");
+                        }
+                        Map<String, Integer> index = new LinkedHashMap<>();
+                        for(JsonElement required : value.getAsJsonArray()) {
+                            if(!required.isJsonPrimitive() || !required.getAsJsonPrimitive().isString()) {
+                                throw new IllegalArgumentException(at + " has a name which is not a string");
+                            }
+                            if(!index.containsKey(required.getAsString())) {
+                                index.put(required.getAsString(), index.size());
+                            }
+                        }
+                        if(!index.isEmpty()) {
+                            schema.requiredIndex = index;
+                            schema.required = index.keySet().toArray(new String[0]);
+                        }
+                        break;
+                    }
+                    case "minProperties":
+                        schema.minProperties = count(value, at);
+                        break;
+                    case "maxProperties":
+                        schema.maxProperties = count(value, at);
+                        break;
+                    case "items":
+                        if(value.isJsonArray()) {
+                            schema.prefixItems = schemas(value.getAsJsonArray(), at);
+                        } else {
+                            schema.items = compile(value, at);
+                        }
+                        break;
+                    case "prefixItems":
+                        if(!value.isJsonArray()) {
+                            throw new IllegalArgumentException(at + " is not an array");
+                        }
+                        schema.prefixItems = schemas(value.getAsJsonArray(), at);
+                        break;
+                    case "additionalItems":
+                        // it only counts next to a tuple, then it is the same as items after prefixItems
+                        if(element.getAsJsonObject().has("items")
+                                && element.getAsJsonObject().get("items").isJsonArray()) {
+                            schema.items = compile(value, at);
+                        }
+                        break;
+                    case "minItems":
+                        schema.minItems = count(value, at);
+                        break;
+                    case "maxItems":
+                        schema.maxItems = count(value, at);
+                        break;
+                    case "minLength":
+                        schema.minLength = count(value, at);
+                        break;
+                    case "maxLength":
+                        schema.maxLength = count(value, at);
+                        break;
+                    case "pattern":
+                        if(!value.isJsonPrimitive() || !value.getAsJsonPrimitive().isString()) {
+                            throw new IllegalArgumentException(at + " is not a string");
+                        }
+                        schema.pattern = pattern(value.getAsString(), at);
+                        break;
+                    case "minimum":
+                        schema.minimum = number(value, at);
+                        break;
+                    case "maximum":
+                        schema.maximum = number(value, at);
+                        break;
+                    case "exclusiveMinimum":
+                    case "exclusiveMaximum":
+                        if(!value.isJsonPrimitive() || !value.getAsJsonPrimitive().isBoolean()) {
+                            if("exclusiveMinimum".equals(keyword)) {
+                                schema.exclusiveMinimum = number(value, at);
+                            } else {
+                                schema.exclusiveMaximum = number(value, at);
+                            }
+                        }
+                        break;
+                    case "multipleOf":
+                        schema.multipleOf = number(value, at);
+                        if(0 >= schema.multipleOf.signum()) {
+                            throw new IllegalArgumentException(at + " is not greater than zero");
+                        }
+                        break;
+                    case "allOf":
+                        if(!value.isJsonArray()) {
+                            throw new IllegalArgumentException(at + " is not an array");
+                        }
+                        Collections.addAll(allOf, schemas(value.getAsJsonArray(), at));
+                        break;
+                    case "$ref":
+                        allOf.add(compile(resolve(value, at), value.getAsString()));
+                        break;
+                    default:
+                        if(!ANNOTATIONS.contains(keyword)) {
+                            mIgnored.add(keyword);
+                        }
+                        break;
+                }
+            }
+            // the boolean exclusive bounds of draft 4 turn the bounds next to them into exclusive ones
+            JsonObject object = element.getAsJsonObject();
+            if(isTrue(object.get("exclusiveMinimum")) && null != schema.minimum) {
+                schema.exclusiveMinimum = schema.minimum;
+                schema.minimum = null;
+            }
+            if(isTrue(object.get("exclusiveMaximum")) && null != schema.maximum) {
+                schema.exclusiveMaximum = schema.maximum;
+                schema.maximum = null;
+            }
+            if(!allOf.isEmpty()) {
+                schema.allOf = allOf.toArray(new Schema[0]);
+            }
+            return schema;
+        }
+
+        private Schema[] schemas(JsonArray array, String where) {
+            Schema[] schemas = new Schema[array.size()];
+            for(int i = 0; i < schemas.length; ++i) {
+                schemas[i] = compile(array.get(i), where + "/" + i);
+            }
+            return schemas;
+        }
+
+        /**
+         * Finds the element which a {@code $ref} points at, only JSON pointers within the document are known.
+         */
+        private JsonElement resolve(JsonElement ref, String where) {
+            if(!ref.isJsonPrimitive() || !ref.getAsJsonPrimitive().isString()
+                    || !ref.getAsString().startsWith("#")) {
+                throw new IllegalArgumentException(where + " is not a JSON pointer within the schema");
+            }
+            String pointer = ref.getAsString();
+            JsonElement element = mRoot;
+            if(1 < pointer.length()) {
+                if('/' != pointer.charAt(1)) {
+                    throw new IllegalArgumentException(where + " is not a JSON pointer within the schema");
+                }
+                for(String token : pointer.substring(2).split("/", -1)) {
+                    token = token.replace("~1", "/").replace("~0", "~");
+                    if(element.isJsonObject()) {
+                        element = element.getAsJsonObject().get(token);
+                    } else if(element.isJsonArray() && token.matches("\\d{1,9}")
+                            && element.getAsJsonArray().size() > Integer.parseInt(token)) {
+                        element = element.getAsJsonArray().get(Integer.parseInt(token));
+                    } else {
+                        element = null;
+                    }
+                    if(null == element) {
+                        throw new IllegalArgumentException(where + " refers to nothing: " + pointer);
+                    }
+                }
+            }
+            return element;
+        }
+    }
+
+    private static int types(JsonElement value, String where) {
+        int types = 0;
+        JsonArray names = new JsonArray();
+        if(value.isJsonArray()) {
+            names = value.getAsJsonArray();
+        } else {
+            names.add(value);
+        }
+        for(JsonElement name : names) {
+            int bit = -1;
+            for(int i = 0; i < TYPES.length; ++i) {
+                if(name.isJsonPrimitive() && TYPES[i].equals(name.getAsString())) {
+                    bit = 1 << i;
+                }
+            }
+            if(-1 == bit) {
+                throw new IllegalArgumentException(where + " has an unknown type: " + name);
+            }
+            types |= bit;
+        }
+        return types;
+    }
+
+    private static Object constant(JsonElement value, String where) {
+        if(value.isJsonNull()) {
+            return NULL_VALUE;
+        }
+        if(!value.isJsonPrimitive()) {
+            throw new IllegalArgumentException(where + " has an object or an array, which is not supported");
+        }
+        JsonPrimitive primitive = value.getAsJsonPrimitive();
+        if(primitive.isBoolean()) {
+            return primitive.getAsBoolean();
+        }
+        if(primitive.isNumber()) {
+            return new BigDecimal(primitive.getAsString());
+        }
+        return primitive.getAsString();
+    }
+
+    private static JsonObject object(JsonElement value, String where) {
+        if(!value.isJsonObject()) {
+            throw new IllegalArgumentException(where + " is not an object");
+        }
+        return value.getAsJsonObject();
+    }
+
+    private static long count(JsonElement value, String where) {
+        BigDecimal count = number(value, where);
+        if(0 > count.signum() || 0 < count.stripTrailingZeros().scale()) {
+            throw new IllegalArgumentException(where + " is not a non-negative integer");
+        }
+        return count.min(BigDecimal.valueOf(Long.MAX_VALUE)).longValue();
+    }
+
+    private static BigDecimal number(JsonElement value, String where) {
+        if(!value.isJsonPrimitive() || !value.getAsJsonPrimitive().isNumber()) {
+            throw new IllegalArgumentException(where + " is not a number");
+        }
+        return new BigDecimal(value.getAsString());
+    }
+
+    private static Pattern pattern(String regex, String where) {
+        try {
+            return Pattern.compile(regex);
+        } catch (PatternSyntaxException e) {
+            throw new IllegalArgumentException(where + " is not a valid pattern: " + e.getDescription());
+        }
+    }
+
+    private static boolean isTrue(JsonElement value) {
+        return null != value && value.isJsonPrimitive() && value.getAsJsonPrimitive().isBoolean()
+                && value.getAsBoolean();
+    }
+
+    private static String escape(String token) {
+        return token.replace("~", "~0").replace("/", "~1");
+    }
+}
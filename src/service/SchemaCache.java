@@ -0,0 +1,169 @@
+package service;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps the schemas of the directory {@code schemas} compiled, so a schema is parsed once and not for every request.
+ * <p>
+ * The schema {@code name} is the file {@code <schemas>/<name>.json}, a name may have slashes, which go into
+ * subdirectories. A name with {@code ..} or any other segment starting with a dot is not looked up at all.
+ * A compiled schema is kept with the time of the last modification and the size of its file, the file is
+ * looked at again when the entry is older than {@link #CHECK_MILLIS}, and it is compiled again if it has changed.
+ * A name without a file is cached too, so a resource without a schema costs a lookup in the map only. A file
+ * which cannot be parsed or compiled is logged once and stays {@link Schema#BROKEN} until it changes.
+ * <p>
+ * At most {@code schemaCache} names are kept, the least recently used ones are evicted. The map is guarded by
+ * the cache itself, the lock is not held while a file is read. Compilations, failures and evictions are counted
+ * for {@link Metrics}.
+ */
+class SchemaCache {
+    private static final Logger LOG = Logger.getLogger(SchemaCache.class.getName());
+
+    /** The time for which a file is not looked at again */
+    static final long CHECK_MILLIS = 1000;
+
+    private static final String EXTENSION = ".json";
+    private static final Pattern NAME = Pattern.compile("[\\w-][\\w.-]*(/[\\w-][\\w.-]*)*");
+
+    /** The schema of a name, or {@code null} if it has no file */
+    private static final class Entry {
+        final Schema schema;
+        final FileTime modified;
+        final long size;
+        volatile long checked;
+
+        Entry(Schema schema, FileTime modified, long size, long checked) {
+            this.schema = schema;
+            this.modified = modified;
+            this.size = size;
+            this.checked = checked;
+        }
+    }
+
+    private final Path mDirectory;
+    private final int mCapacity;
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(64, 0.75f, true);
+
+    private final LongAdder mCompilations = new LongAdder();
+    private final LongAdder mFailures = new LongAdder();
+    private final LongAdder mEvictions = new LongAdder();
+
+    /**
+     * @param directory  the directory of the schema files.
+     * @param capacity  the maximum number of names kept in the cache.
+     */
+    SchemaCache(Path directory, int capacity) {
+        mDirectory = directory;
+        mCapacity = Math.max(1, capacity);
+    }
+
+    /**
+     * Finds the compiled schema.
+     *
+     * @param name  the name of the schema, the resource of a request or the name it has asked for.
+     * @return  the schema, {@link Schema#BROKEN} if its file cannot be compiled, or {@code null} if there is no
+     *          schema with the name.
+     */
+    Schema get(String name) {
+        if(!NAME.matcher(name).matches()) {
+            return null;
+        }
+        Entry entry;
+        synchronized(this) {
+            entry = mEntries.get(name);
+        }
+        long now = System.nanoTime();
+        if(null != entry && TimeUnit.MILLISECONDS.toNanos(CHECK_MILLIS) > now - entry.checked) {
+            return entry.schema;
+        }
+
+        Path file = mDirectory.resolve(name + EXTENSION);
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            attributes = null;
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Schema " + name + " cannot be read", e);
+            attributes = null;
+        }
+        if(null == attributes || !attributes.isRegularFile()) {
+            return put(name, new Entry(null, null, -1, now));
+        }
+        if(null != entry && attributes.lastModifiedTime().equals(entry.modified) && attributes.size() == entry.size) {
+            entry.checked = now;
+            return entry.schema;
+        }
+        return put(name, new Entry(compile(name, file), attributes.lastModifiedTime(), attributes.size(), now));
+    }
+
+    private Schema compile(String name, Path file) {
+        try(Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            JsonElement document = new JsonParser().parse(reader);
+            Schema schema = Schema.compile(document, name);
+            mCompilations.increment();
+            LOG.log(Level.INFO, "Schema {0} has been compiled", name);
+            return schema;
+        } catch (IOException | JsonParseException | IllegalArgumentException e) {
+            mFailures.increment();
+            LOG.log(Level.WARNING, "Schema {0} cannot be compiled: {1}", new Object[] {name, e.getMessage()});
+            return Schema.BROKEN;
+        }
+    }
+
+    private Schema put(String name, Entry entry) {
+        synchronized(this) {
+            mEntries.put(name, entry);
+            Iterator<Map.Entry<String, Entry>> eldest = mEntries.entrySet().iterator();
+            while(mEntries.size() > mCapacity && eldest.hasNext()) {
+                eldest.next();
+                eldest.remove();
+                mEvictions.increment();
+            }
+        }
+        return entry.schema;
+    }
+
+    /**
+     * Writes the statistics of the cache in the Prometheus text format.
+     *
+     * @param out  the output.
+     */
+    void write(StringBuilder out) {
+        long entries;
+        synchronized(this) {
+            entries = mEntries.size();
+        }
+        out.append("# HELP jvs_schema_compilations_total Schema files which have been compiled.\n")
+                .append("# TYPE jvs_schema_compilations_total counter\n")
+                .append("jvs_schema_compilations_total ").append(mCompilations.sum()).append('\n');
+        out.append("# HELP jvs_schema_failures_total Schema files which could not be compiled.\n")
+                .append("# TYPE jvs_schema_failures_total counter\n")
+                .append("jvs_schema_failures_total ").append(mFailures.sum()).append('\n');
+        out.append("# HELP jvs_schema_evictions_total Schemas evicted from the schema cache.\n")
+                .append("# TYPE jvs_schema_evictions_total counter\n")
+                .append("jvs_schema_evictions_total ").append(mEvictions.sum()).append('\n');
+        out.append("# HELP jvs_schema_entries Names in the schema cache, with a schema or without one.\n")
+                .append("# TYPE jvs_schema_entries gauge\n")
+                .append("jvs_schema_entries ").append(entries).append('\n');
+    }
+}
@@ -0,0 +1,526 @@
+package service;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Checks a JSON against a {@link Schema} as its tokens go by, in the same pass which validates the syntax.
+ * <p>
+ * The tokens come from Gson's reader in {@link JSONHandler#transferRequest(java.io.Reader,
+ * com.google.gson.stream.JsonWriter, SchemaValidator, String, int)} or from the rounds of a {@link Tape}, which
+ * the native engine records while it reads the request.
+ * Every value is checked against all the schemas which apply to it at once: the ones of its parent container
+ * resolve the schemas of a member or an item, and {@code allOf} and {@code $ref} add theirs. A scalar is checked
+ * right away, the counts and the required members of a container are checked when it ends. Nothing is kept
+ * but a frame for every open container, so the memory does not depend on the size of the document.
+ * <p>
+ * The first {@link #MAX_VIOLATIONS} violations are kept with the JSON path of the value, in the same form as
+ * the paths of Gson, and the rest are only counted. The result is only meaningful if the syntax is valid.
+ * An instance checks a single document.
+ */
+final class SchemaValidator {
+    /** The most violations which are reported */
+    static final int MAX_VIOLATIONS = 16;
+    /** The most digits which a number and a divisor of {@code multipleOf} can be apart */
+    private static final long MAX_SCALE_GAP = 1000;
+
+    /** A violation of the schema, the way it is sent in the error response */
+    static final class Violation {
+        /** JSON path of the value */
+        final String path;
+        final String message;
+
+        Violation(String path, String message) {
+            this.path = path;
+            this.message = message;
+        }
+    }
+
+    /** A container which is open, with the schemas which apply to it */
+    private static final class Frame {
+        boolean object;
+        Schema[] schemas = new Schema[4];
+        int count;
+        /** The members or items so far */
+        long size;
+        /** The name of the current member */
+        String name;
+        /** Whether every required member of every schema has been seen, the schemas follow one another */
+        boolean[] seen = new boolean[16];
+
+        void reset(boolean object) {
+            this.object = object;
+            count = 0;
+            size = 0;
+            name = null;
+        }
+    }
+
+    private final Schema mRoot;
+    private Frame[] mFrames = new Frame[16];
+    private int mDepth = 0;
+    /** The schemas of the value which is checked */
+    private Schema[] mSchemas = new Schema[4];
+    private int mCount = 0;
+    private final List<Violation> mViolations = new ArrayList<>();
+    private long mTotal = 0;
+
+    /**
+     * @param schema  the schema of the document.
+     */
+    SchemaValidator(Schema schema) {
+        mRoot = schema;
+    }
+
+    /**
+     * @return  the schema of the document.
+     */
+    Schema getSchema() {
+        return mRoot;
+    }
+
+    /**
+     * @return  {@code true} if nothing has violated the schema so far.
+     */
+    boolean isValid() {
+        return 0 == mTotal;
+    }
+
+    /**
+     * @return  the first {@link #MAX_VIOLATIONS} violations.
+     */
+    List<Violation> getViolations() {
+        return Collections.unmodifiableList(mViolations);
+    }
+
+    /**
+     * @return  the number of all the violations.
+     */
+    long getTotal() {
+        return mTotal;
+    }
+
+    void beginObject() {
+        begin(true, Schema.OBJECT);
+    }
+
+    void beginArray() {
+        begin(false, Schema.ARRAY);
+    }
+
+    void endObject() {
+        Frame frame = mFrames[mDepth - 1];
+        int seen = 0;
+        for(int i = 0; i < frame.count; ++i) {
+            Schema schema = frame.schemas[i];
+            if(null != schema.required) {
+                for(int j = 0; j < schema.required.length; ++j) {
+                    if(!frame.seen[seen + j]) {
+                        violation(mDepth - 1, "required member \"" + schema.required[j] + "\" is missing");
+                    }
+                }
+                seen += schema.required.length;
+            }
+            if(schema.minProperties > frame.size) {
+                violation(mDepth - 1, "has fewer than " + schema.minProperties + " members");
+            }
+            if(schema.maxProperties < frame.size) {
+                violation(mDepth - 1, "has more than " + schema.maxProperties + " members");
+            }
+        }
+        end();
+    }
+
+    void endArray() {
+        Frame frame = mFrames[mDepth - 1];
+        for(int i = 0; i < frame.count; ++i) {
+            Schema schema = frame.schemas[i];
+            if(schema.minItems > frame.size) {
+                violation(mDepth - 1, "has fewer than " + schema.minItems + " items");
+            }
+            if(schema.maxItems < frame.size) {
+                violation(mDepth - 1, "has more than " + schema.maxItems + " items");
+            }
+        }
+        end();
+    }
+
+    /**
+     * Takes the name of the next member of the current object.
+     */
+    void name(String name) {
+        Frame frame = mFrames[mDepth - 1];
+        frame.name = name;
+        int seen = 0;
+        for(int i = 0; i < frame.count; ++i) {
+            Schema schema = frame.schemas[i];
+            if(null != schema.requiredIndex) {
+                Integer index = schema.requiredIndex.get(name);
+                if(null != index) {
+                    frame.seen[seen + index] = true;
+                }
+                seen += schema.required.length;
+            }
+        }
+    }
+
+    void string(String value) {
+        if(0 == resolve(Schema.STRING)) {
+            next();
+            return;
+        }
+        long length = -1;
+        for(int i = 0; i < mCount; ++i) {
+            Schema schema = mSchemas[i];
+            if(0 != schema.minLength || Long.MAX_VALUE != schema.maxLength) {
+                length = (-1 != length) ? length : value.codePointCount(0, value.length());
+                if(schema.minLength > length) {
+                    violation(mDepth, "is shorter than " + schema.minLength + " characters");
+                }
+                if(schema.maxLength < length) {
+                    violation(mDepth, "is longer than " + schema.maxLength + " characters");
+                }
+            }
+            if(null != schema.pattern && !schema.pattern.matcher(value).find()) {
+                violation(mDepth, "does not match the pattern " + schema.pattern.pattern());
+            }
+            if(null != schema.constants && !contains(schema.constants, value)) {
+                violation(mDepth, notConstant(schema));
+            }
+        }
+        next();
+    }
+
+    /**
+     * @param value  the number as it is written in the document.
+     */
+    void number(String value) {
+        if(0 == resolve(isInteger(value) ? Schema.INTEGER | Schema.NUMBER : Schema.NUMBER)) {
+            next();
+            return;
+        }
+        BigDecimal number = null;
+        for(int i = 0; i < mCount && null == number; ++i) {
+            Schema schema = mSchemas[i];
+            if(null != schema.minimum || null != schema.maximum || null != schema.exclusiveMinimum
+                    || null != schema.exclusiveMaximum || null != schema.multipleOf || null != schema.constants) {
+                number = decimal(value);
+                if(null == number) {
+                    next(); // NaN or an infinity which the lenient reader has taken
+                    return;
+                }
+            }
+        }
+        if(null == number) {
+            next();
+            return;
+        }
+        for(int i = 0; i < mCount; ++i) {
+            Schema schema = mSchemas[i];
+            if(null != schema.minimum && 0 > number.compareTo(schema.minimum)) {
+                violation(mDepth, "is less than the minimum " + schema.minimum);
+            }
+            if(null != schema.maximum && 0 < number.compareTo(schema.maximum)) {
+                violation(mDepth, "is greater than the maximum " + schema.maximum);
+            }
+            if(null != schema.exclusiveMinimum && 0 >= number.compareTo(schema.exclusiveMinimum)) {
+                violation(mDepth, "is not greater than " + schema.exclusiveMinimum);
+            }
+            if(null != schema.exclusiveMaximum && 0 <= number.compareTo(schema.exclusiveMaximum)) {
+                violation(mDepth, "is not less than " + schema.exclusiveMaximum);
+            }
+            if(null != schema.multipleOf && isDivisible(number, schema.multipleOf)
+                    && 0 != number.remainder(schema.multipleOf).signum()) {
+                violation(mDepth, "is not a multiple of " + schema.multipleOf);
+            }
+            if(null != schema.constants && !contains(schema.constants, number)) {
+                violation(mDepth, notConstant(schema));
+            }
+        }
+        next();
+    }
+
+    void bool(boolean value) {
+        scalar(Schema.BOOLEAN, value);
+    }
+
+    void nullValue() {
+        scalar(Schema.NULL, Schema.NULL_VALUE);
+    }
+
+    /**
+     * Checks the tokens which the tape has recorded in a round.
+     */
+    void check(Tape tape) {
+        for(int i = 0; i < tape.size(); ++i) {
+            switch(tape.type(i)) {
+                case Tape.BEGIN_OBJECT:
+                    beginObject();
+                    break;
+                case Tape.END_OBJECT:
+                    endObject();
+                    break;
+                case Tape.BEGIN_ARRAY:
+                    beginArray();
+                    break;
+                case Tape.END_ARRAY:
+                    endArray();
+                    break;
+                case Tape.NAME:
+                    name(tape.text(i));
+                    break;
+                case Tape.STRING:
+                    string(tape.text(i));
+                    break;
+                case Tape.NUMBER:
+                    number(tape.text(i));
+                    break;
+                case Tape.TRUE:
+                    bool(true);
+                    break;
+                case Tape.FALSE:
+                    bool(false);
+                    break;
+                default:
+                    nullValue();
+                    break;
+            }
+        }
+    }
+
+    private void scalar(int type, Object value) {
+        if(0 != resolve(type)) {
+            for(int i = 0; i < mCount; ++i) {
+                if(null != mSchemas[i].constants && !contains(mSchemas[i].constants, value)) {
+                    violation(mDepth, notConstant(mSchemas[i]));
+                }
+            }
+        }
+        next();
+    }
+
+    private void begin(boolean object, int type) {
+        resolve(type);
+        for(int i = 0; i < mCount; ++i) {
+            if(null != mSchemas[i].constants) {
+                violation(mDepth, notConstant(mSchemas[i]));
+            }
+        }
+        if(mFrames.length == mDepth) {
+            mFrames = Arrays.copyOf(mFrames, 2 * mDepth);
+        }
+        Frame frame = mFrames[mDepth];
+        if(null == frame) {
+            frame = mFrames[mDepth] = new Frame();
+        }
+        frame.reset(object);
+        if(frame.schemas.length < mCount) {
+            frame.schemas = new Schema[mCount];
+        }
+        System.arraycopy(mSchemas, 0, frame.schemas, 0, mCount);
+        frame.count = mCount;
+        if(object) {
+            int required = 0;
+            for(int i = 0; i < mCount; ++i) {
+                required += (null != mSchemas[i].required) ? mSchemas[i].required.length : 0;
+            }
+            if(frame.seen.length < required) {
+                frame.seen = new boolean[required];
+            }
+            Arrays.fill(frame.seen, 0, required, false);
+        }
+        ++mDepth;
+    }
+
+    private void end() {
+        --mDepth;
+        next();
+    }
+
+    /**
+     * Counts the value which has been checked in its container.
+     */
+    private void next() {
+        if(0 < mDepth) {
+            ++mFrames[mDepth - 1].size;
+        }
+    }
+
+    /**
+     * Finds the schemas of the value which starts and checks its type against them.
+     *
+     * @param type  the bits of the types which the value has.
+     * @return  the number of the schemas which apply to the value.
+     */
+    private int resolve(int type) {
+        mCount = 0;
+        if(0 == mDepth) {
+            add(mRoot);
+        } else {
+            Frame frame = mFrames[mDepth - 1];
+            for(int i = 0; i < frame.count; ++i) {
+                if(frame.object) {
+                    member(frame.schemas[i], frame.name);
+                } else {
+                    item(frame.schemas[i], frame.size);
+                }
+            }
+        }
+        for(int i = 0; i < mCount; ++i) {
+            Schema schema = mSchemas[i];
+            if(schema.nothing) {
+                violation(mDepth, "is not allowed");
+            } else if(0 != schema.types && 0 == (schema.types & type)) {
+                violation(mDepth, "is " + typeOf(type) + ", expected " + typeNames(schema.types));
+            }
+        }
+        return mCount;
+    }
+
+    private void member(Schema parent, String name) {
+        boolean matched = false;
+        if(null != parent.properties) {
+            Schema schema = parent.properties.get(name);
+            if(null != schema) {
+                add(schema);
+                matched = true;
+            }
+        }
+        if(null != parent.patterns) {
+            for(int i = 0; i < parent.patterns.length; ++i) {
+                if(parent.patterns[i].matcher(name).find()) {
+                    add(parent.patternSchemas[i]);
+                    matched = true;
+                }
+            }
+        }
+        if(!matched && null != parent.additionalProperties) {
+            add(parent.additionalProperties);
+        }
+    }
+
+    private void item(Schema parent, long index) {
+        if(null != parent.prefixItems && parent.prefixItems.length > index) {
+            add(parent.prefixItems[(int) index]);
+        } else if(null != parent.items) {
+            add(parent.items);
+        }
+    }
+
+    /**
+     * Adds the schema and the ones of its {@code allOf}, unless they are there already or match anything.
+     */
+    private void add(Schema schema) {
+        for(int i = 0; i < mCount; ++i) {
+            if(schema == mSchemas[i]) {
+                return;
+            }
+        }
+        if(!schema.isEmpty()) {
+            if(mSchemas.length == mCount) {
+                mSchemas = Arrays.copyOf(mSchemas, 2 * mCount);
+            }
+            mSchemas[mCount++] = schema;
+        }
+        if(null != schema.allOf) {
+            for(Schema other : schema.allOf) {
+                add(other);
+            }
+        }
+    }
+
+    /**
+     * @return  {@code true} if the number has no fraction, like {@code 12} or {@code 1.0}.
+     */
+    private static boolean isInteger(String value) {
+        for(int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            if(('0' > c || '9' < c) && '-' != c) {
+                BigDecimal number = decimal(value);
+                return null != number && 0 >= number.stripTrailingZeros().scale();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return  {@code false} if the exponents are so far apart that the division would take forever, a client
+     *          could send {@code 1e999999999} on purpose.
+     */
+    private static boolean isDivisible(BigDecimal number, BigDecimal divisor) {
+        return MAX_SCALE_GAP >= Math.abs((long) number.scale() - divisor.scale())
+                && MAX_SCALE_GAP >= (long) number.precision() - number.scale();
+    }
+
+    private static BigDecimal decimal(String value) {
+        try {
+            return new BigDecimal(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static boolean contains(Object[] constants, Object value) {
+        for(Object constant : constants) {
+            if(constant instanceof BigDecimal && value instanceof BigDecimal) {
+                if(0 == ((BigDecimal) constant).compareTo((BigDecimal) value)) {
+                    return true;
+                }
+            } else if(constant.equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String notConstant(Schema schema) {
+        return (1 == schema.constants.length) ? "is not the constant value" : "is not one of the enumerated values";
+    }
+
+    private static String typeOf(int type) {
+        if(Schema.NULL == type) {
+            return "null";
+        }
+        String name = ((Schema.INTEGER | Schema.NUMBER) == type) ? "integer" : typeNames(type);
+        return (-1 != "aeiou".indexOf(name.charAt(0)) ? "an " : "a ") + name;
+    }
+
+    private static String typeNames(int types) {
+        StringBuilder names = new StringBuilder();
+        for(int i = 0; i < Schema.TYPES.length; ++i) {
+            if(0 != (types & (1 << i))) {
+                names.append((0 == names.length()) ? "" : " or ").append(Schema.TYPES[i]);
+            }
+        }
+        return names.toString();
+    }
+
+    /**
+     * Records a violation of the value at the given depth: a container on the stack, or the current value if
+     * it is {@link #mDepth}.
+     */
+    private void violation(int depth, String message) {
+        if(MAX_VIOLATIONS > mTotal++) {
+            mViolations.add(new Violation(path(depth), message));
+        }
+    }
+
+    /**
+     * @return  the JSON path of the value at the given depth, the way {@code JsonReader.getPath()} writes it.
+     */
+    private String path(int depth) {
+        StringBuilder path = new StringBuilder("$");
+        for(int i = 0; i < depth; ++i) {
+            Frame frame = mFrames[i];
+            if(frame.object) {
+                path.append('.').append(frame.name);
+            } else {
+                path.append('[').append(frame.size).append(']');
+            }
+        }
+        return path.toString();
+    }
+}
@@ -0,0 +1,545 @@
+package service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A JSON document recorded as a flat tape of tokens, which is rendered pretty or minified without building
+ * a tree or decoding the document into strings.
+ * <p>
+ * An entry of the tape is a {@code long}: the type of the token in the top byte and the offset of its first byte
+ * in the document below it, so the tape costs 8 bytes per token whatever the token is, and the document itself is
+ * the only copy of the strings and the numbers. Both recording and rendering are loops over the tape with an
+ * explicit stack, so the nesting is only limited by {@code maxDepth}.
+ * <p>
+ * The tape is recorded from a document which {@link NativeValidator} has accepted, so
+ * {@link #record(byte[], int, boolean)} does not check anything. A document is taken in rounds as it arrives: every
+ * round records the tokens which are complete in the bytes validated so far, and {@link #render()} writes them
+ * before the next round forgets them, so neither the document nor its tape is ever held whole. The output is the
+ * same as the one of Gson's {@code JsonWriter} set up by {@link JSONHandler}: strings are escaped in the HTML-safe
+ * way, numbers are copied as they are, and a member whose value is {@code null} is left out. A string of
+ * well-formed UTF-8 which needs no escaping is copied byte by byte, any other one is decoded and escaped again,
+ * so the usual document is rendered without a single allocation.
+ * <p>
+ * An instance is reused by a thread for one document after another: {@link #begin(OutputStream, String)}, then
+ * rounds of {@link #record(byte[], int, boolean)} and {@link #render()}, then {@link #finish()} and {@link #clear()}.
+ */
+final class Tape {
+    static final int BEGIN_OBJECT = 1;
+    static final int END_OBJECT = 2;
+    static final int BEGIN_ARRAY = 3;
+    static final int END_ARRAY = 4;
+    static final int NAME = 5;
+    static final int STRING = 6;
+    static final int NUMBER = 7;
+    static final int TRUE = 8;
+    static final int FALSE = 9;
+    static final int NULL = 10;
+
+    /** A block of the tape has 8K entries, so a large tape grows without copying what has been recorded */
+    private static final int BLOCK_BITS = 13;
+    private static final int BLOCK_MASK = (1 << BLOCK_BITS) - 1;
+    /** The blocks which are kept for the next document, the ones past them are dropped after use */
+    private static final int KEPT_BLOCKS = 8;
+    /** A stack of {@link #render()} which has grown over this depth is dropped after use */
+    private static final int MAX_KEPT = 64 * 1024;
+    private static final int TYPE_SHIFT = 56;
+    private static final long OFFSET_MASK = (1L << TYPE_SHIFT) - 1;
+    private static final int BYTES = 4096;
+    private static final byte[] COLON = {':'};
+    private static final byte[] COLON_SPACE = {':', ' '};
+    private static final byte[][] LITERALS = new byte[NULL + 1][];
+
+    /** The escapes of Gson's HTML-safe {@code JsonWriter}, {@code null} if an ASCII character is written as is */
+    private static final String[] ESCAPES = new String[128];
+
+    static {
+        LITERALS[TRUE] = "true".getBytes(StandardCharsets.US_ASCII);
+        LITERALS[FALSE] = "false".getBytes(StandardCharsets.US_ASCII);
+        LITERALS[NULL] = "null".getBytes(StandardCharsets.US_ASCII);
+        for(int c = 0; 0x20 > c; ++c) {
+            ESCAPES[c] = String.format("\\u%04x", c);
+        }
+        ESCAPES['"'] = "\\\"";
+        ESCAPES['\\'] = "\\\\";
+        ESCAPES['\t'] = "\\t";
+        ESCAPES['\b'] = "\\b";
+        ESCAPES['\n'] = "\\n";
+        ESCAPES['\r'] = "\\r";
+        ESCAPES['\f'] = "\\f";
+        ESCAPES['<'] = "\\u003c";
+        ESCAPES['>'] = "\\u003e";
+        ESCAPES['&'] = "\\u0026";
+        ESCAPES['='] = "\\u003d";
+        ESCAPES['\''] = "\\u0027";
+    }
+
+    private long[][] mBlocks = new long[KEPT_BLOCKS][];
+    private int mSize = 0;
+    private byte[] mDocument = null;
+    private int mLength = 0;
+    /** Nothing of the document has been recorded yet, so it may start with a byte order mark */
+    private boolean mStart = true;
+    private boolean mEmpty = true;
+
+    // the state of rendering, which goes on from one round to the next
+    private OutputStream mOut = null;
+    private String mIndent = "";
+    private byte[] mSeparator = COLON;
+    private byte[] mNewLine = null;
+    private int mDepth = 0;
+    private boolean mAfterName = false;
+    /** Whether a container on the stack of {@link #render()} has had a member written */
+    private boolean[] mWritten = new boolean[64];
+    private final byte[] mBytes = new byte[BYTES];
+    private int mCount = 0;
+
+    /**
+     * Starts a document.
+     *
+     * @param out  the stream which {@link #render()} writes the document to, or {@code null} if it is not rendered.
+     * @param indent  the indent of a level, an empty one writes the document on a single line.
+     */
+    void begin(OutputStream out, String indent) {
+        mOut = out;
+        mIndent = (null != indent) ? indent : "";
+        mSeparator = mIndent.isEmpty() ? COLON : COLON_SPACE;
+        mNewLine = null;
+        mDepth = 0;
+        mAfterName = false;
+        mCount = 0;
+        mStart = true;
+        mEmpty = true;
+    }
+
+    /**
+     * Records the tokens which are complete in the bytes of a valid document, the tokens of the previous round are
+     * forgotten. A token is complete when the bytes after it tell where it ends, and a name when its value is
+     * there too, so {@link #render()} can leave out a member whose value is {@code null}. An empty document is
+     * recorded as {@code null}, the way {@code JsonParser} reads it.
+     *
+     * @param document  the bytes of the document which have not been recorded yet, they are used until the next
+     *                  round.
+     * @param length  the number of the bytes.
+     * @param last  whether the bytes end the document.
+     * @return  the offset of the first byte which has not been recorded, the bytes from it on are passed again in
+     *          the next round followed by more of the document.
+     */
+    int record(byte[] document, int length, boolean last) {
+        mDocument = document;
+        mLength = length;
+        mSize = 0;
+
+        int i = 0;
+        if(mStart) {
+            if(0 < length && (byte) 0xEF == document[0]) {
+                if(3 > length) {
+                    return 0; // the rest of the byte order mark is on its way
+                }
+                i = 3;
+            } else if(0 == length && !last) {
+                return 0;
+            }
+            mStart = false;
+        }
+        int recorded = i;
+        while(i < length) {
+            switch(document[i]) {
+                case ' ':
+                case '\t':
+                case '\n':
+                case '\r':
+                case ',':
+                case ':':
+                    ++i;
+                    break;
+                case '{':
+                    add(BEGIN_OBJECT, i++);
+                    break;
+                case '}':
+                    add(END_OBJECT, i++);
+                    break;
+                case '[':
+                    add(BEGIN_ARRAY, i++);
+                    break;
+                case ']':
+                    add(END_ARRAY, i++);
+                    break;
+                case '"':
+                    int end = endOfString(i);
+                    if(-1 == end) {
+                        return incomplete(recorded);
+                    }
+                    int next = end;
+                    while(next < length && isWhitespace(document[next])) {
+                        ++next;
+                    }
+                    if(next == length && !last) {
+                        return incomplete(recorded); // it is not known yet whether it is a name
+                    }
+                    // a string followed by a colon is a name
+                    add((next < length && ':' == document[next]) ? NAME : STRING, i);
+                    i = end;
+                    break;
+                case 't':
+                case 'n':
+                    if(i + 4 > length) {
+                        return incomplete(recorded);
+                    }
+                    add(('t' == document[i]) ? TRUE : NULL, i);
+                    i += 4;
+                    break;
+                case 'f':
+                    if(i + 5 > length) {
+                        return incomplete(recorded);
+                    }
+                    add(FALSE, i);
+                    i += 5;
+                    break;
+                default:
+                    int number = endOfNumber(i);
+                    if(number == length && !last) {
+                        return incomplete(recorded);
+                    }
+                    add(NUMBER, i);
+                    i = number;
+                    break;
+            }
+            recorded = i;
+        }
+        if(last && mEmpty && 0 == mSize) {
+            add(NULL, i);
+        }
+        mEmpty &= 0 == mSize;
+        return incomplete(length);
+    }
+
+    /**
+     * Ends a round before a token which is not complete, and before a name which is not followed by its value.
+     *
+     * @return  the offset of the first byte which has not been recorded.
+     */
+    private int incomplete(int recorded) {
+        if(0 < mSize && NAME == type(mSize - 1)) {
+            recorded = offset(--mSize);
+        }
+        mEmpty &= 0 == mSize;
+        return recorded;
+    }
+
+    /**
+     * @return  the number of tokens of the document.
+     */
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * @return  the type of the token {@code index}.
+     */
+    int type(int index) {
+        return (int) (mBlocks[index >>> BLOCK_BITS][index & BLOCK_MASK] >>> TYPE_SHIFT);
+    }
+
+    /**
+     * @return  the offset of the first byte of the token {@code index} in the document.
+     */
+    int offset(int index) {
+        return (int) (mBlocks[index >>> BLOCK_BITS][index & BLOCK_MASK] & OFFSET_MASK);
+    }
+
+    /**
+     * @return  the decoded text of the name or the string {@code index}, or the number as it is written.
+     */
+    String text(int index) {
+        int start = offset(index);
+        if(NUMBER == type(index)) {
+            return new String(mDocument, start, endOfNumber(start) - start, StandardCharsets.US_ASCII);
+        }
+        return unescape(new String(mDocument, start + 1, endOfString(start) - start - 2, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Writes the tokens of the round the way {@code JsonWriter} does with the indent, as UTF-8. The bytes are
+     * passed on to the stream in blocks of {@value #BYTES}, the rest of them by {@link #finish()}.
+     */
+    void render() throws IOException {
+        String indent = mIndent;
+        for(int i = 0; i < mSize; ++i) {
+            int type = type(i);
+            if(END_OBJECT == type || END_ARRAY == type) {
+                if(mWritten[--mDepth] && !indent.isEmpty()) {
+                    mNewLine = newLine(mNewLine, indent, mDepth);
+                }
+                put((END_OBJECT == type) ? (byte) '}' : (byte) ']');
+                continue;
+            }
+            if(NAME == type && NULL == type(i + 1)) {
+                ++i; // a member whose value is null is not written
+                continue;
+            }
+            if(mAfterName) {
+                mAfterName = false;
+            } else if(0 < mDepth) {
+                if(mWritten[mDepth - 1]) {
+                    put((byte) ',');
+                }
+                mWritten[mDepth - 1] = true;
+                if(!indent.isEmpty()) {
+                    mNewLine = newLine(mNewLine, indent, mDepth);
+                }
+            }
+            switch(type) {
+                case BEGIN_OBJECT:
+                case BEGIN_ARRAY:
+                    if(mWritten.length == mDepth) {
+                        mWritten = Arrays.copyOf(mWritten, 2 * mDepth);
+                    }
+                    mWritten[mDepth++] = false;
+                    put((BEGIN_OBJECT == type) ? (byte) '{' : (byte) '[');
+                    break;
+                case NAME:
+                    string(offset(i));
+                    put(mSeparator, 0, mSeparator.length);
+                    mAfterName = true;
+                    break;
+                case STRING:
+                    string(offset(i));
+                    break;
+                case NUMBER:
+                    put(mDocument, offset(i), endOfNumber(offset(i)) - offset(i));
+                    break;
+                default:
+                    put(LITERALS[type]);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Writes what {@link #render()} has left of the document to the stream.
+     */
+    void finish() throws IOException {
+        mOut.write(mBytes, 0, mCount);
+        mCount = 0;
+    }
+
+    /**
+     * Forgets the document, and the tape too if it has grown too large to be kept.
+     */
+    void clear() {
+        mDocument = null;
+        mLength = 0;
+        mSize = 0;
+        mOut = null;
+        if(KEPT_BLOCKS < mBlocks.length) {
+            mBlocks = Arrays.copyOf(mBlocks, KEPT_BLOCKS);
+        }
+        if(MAX_KEPT < mWritten.length) {
+            mWritten = new boolean[64];
+        }
+    }
+
+    private void add(int type, int offset) {
+        int block = mSize >>> BLOCK_BITS;
+        if(mBlocks.length == block) {
+            mBlocks = Arrays.copyOf(mBlocks, 2 * block);
+        }
+        if(null == mBlocks[block]) {
+            mBlocks[block] = new long[BLOCK_MASK + 1];
+        }
+        mBlocks[block][mSize++ & BLOCK_MASK] = ((long) type << TYPE_SHIFT) | offset;
+    }
+
+    /**
+     * @param start  the offset of the opening quote.
+     * @return  the offset right after the closing quote, or -1 if the string does not end in the bytes.
+     */
+    private int endOfString(int start) {
+        int i = start + 1;
+        while(i < mLength && '"' != mDocument[i]) {
+            i += ('\\' == mDocument[i]) ? 2 : 1;
+        }
+        return (i < mLength) ? i + 1 : -1;
+    }
+
+    private int endOfNumber(int start) {
+        int i = start;
+        while(i < mLength) {
+            byte b = mDocument[i];
+            if(('0' > b || '9' < b) && '-' != b && '+' != b && '.' != b && 'e' != b && 'E' != b) {
+                break;
+            }
+            ++i;
+        }
+        return i;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return ' ' == b || '\t' == b || '\n' == b || '\r' == b;
+    }
+
+    /**
+     * Writes the string which starts at the quote. A string of well-formed UTF-8 which has nothing to escape is
+     * copied as it is, any other one is decoded and escaped again.
+     */
+    private void string(int start) throws IOException {
+        int end = start + 1;
+        boolean plain = true;
+        for(byte b = mDocument[end]; '"' != b; b = mDocument[end]) {
+            if('\\' == b) {
+                plain = false;
+                end += 2;
+            } else if(0 <= b) {
+                plain &= 0x20 <= b && null == ESCAPES[b];
+                ++end;
+            } else {
+                int n = sequence(end);
+                plain &= 0 < n;
+                end += (0 < n) ? n : 1;
+            }
+        }
+
+        put((byte) '"');
+        if(plain) {
+            put(mDocument, start + 1, end - start - 1);
+        } else {
+            String text = unescape(new String(mDocument, start + 1, end - start - 1, StandardCharsets.UTF_8));
+            byte[] escaped = escape(text).getBytes(StandardCharsets.UTF_8);
+            put(escaped, 0, escaped.length);
+        }
+        put((byte) '"');
+    }
+
+    /**
+     * Checks a multi-byte UTF-8 sequence which {@code JsonWriter} writes as it is.
+     *
+     * @return  the length of the sequence, or zero if it is malformed or it is {@code U+2028} or {@code U+2029}.
+     */
+    private int sequence(int i) {
+        int b = mDocument[i] & 0xFF;
+        int n = (0xC2 <= b && 0xDF >= b) ? 2 : (0xE0 <= b && 0xEF >= b) ? 3 : (0xF0 <= b && 0xF4 >= b) ? 4 : 0;
+        if(0 == n || i + n > mLength) {
+            return 0;
+        }
+        int second = mDocument[i + 1] & 0xFF;
+        // the second byte rules out overlong forms, surrogates and code points over U+10FFFF
+        int low = (0xE0 == b) ? 0xA0 : (0xF0 == b) ? 0x90 : 0x80;
+        int high = (0xED == b) ? 0x9F : (0xF4 == b) ? 0x8F : 0xBF;
+        if(low > second || high < second) {
+            return 0;
+        }
+        for(int j = 2; j < n; ++j) {
+            if(0x80 != (mDocument[i + j] & 0xC0)) {
+                return 0;
+            }
+        }
+        if(0xE2 == b && 0x80 == second && (0xA8 == (mDocument[i + 2] & 0xFF) || 0xA9 == (mDocument[i + 2] & 0xFF))) {
+            return 0; // U+2028 and U+2029 are escaped
+        }
+        return n;
+    }
+
+    /**
+     * Resolves the escape sequences of a string.
+     */
+    private static String unescape(String raw) {
+        if(-1 == raw.indexOf('\\')) {
+            return raw;
+        }
+        StringBuilder text = new StringBuilder(raw.length());
+        for(int i = 0; i < raw.length(); ++i) {
+            char c = raw.charAt(i);
+            if('\\' == c) {
+                char next = raw.charAt(++i);
+                switch(next) {
+                    case 'u':
+                        c = (char) Integer.parseInt(raw.substring(i + 1, i + 5), 16);
+                        i += 4;
+                        break;
+                    case 'b':
+                        c = '\b';
+                        break;
+                    case 'f':
+                        c = '\f';
+                        break;
+                    case 'n':
+                        c = '\n';
+                        break;
+                    case 'r':
+                        c = '\r';
+                        break;
+                    case 't':
+                        c = '\t';
+                        break;
+                    default:
+                        c = next; // \" \\ and \/
+                        break;
+                }
+            }
+            text.append(c);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Escapes a string the way {@code JsonWriter} does.
+     */
+    private static String escape(String text) {
+        StringBuilder escaped = new StringBuilder(text.length() + 16);
+        for(int i = 0; i < text.length(); ++i) {
+            char c = text.charAt(i);
+            if(128 > c && null != ESCAPES[c]) {
+                escaped.append(ESCAPES[c]);
+            } else if('\u2028' == c) {
+                escaped.append("\\u2028");
+            } else if('\u2029' == c) {
+                escaped.append("\\u2029");
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private byte[] newLine(byte[] newLine, String indent, int depth) throws IOException {
+        int length = 1 + depth * indent.length();
+        if(null == newLine || newLine.length < length) {
+            // a new line followed by the indents of the deepest level so far
+            StringBuilder line = new StringBuilder("\n");
+            for(int i = 0; i < 2 * depth; ++i) {
+                line.append(indent);
+            }
+            newLine = line.toString().getBytes(StandardCharsets.UTF_8);
+        }
+        put(newLine, 0, length);
+        return newLine;
+    }
+
+    private void put(byte b) throws IOException {
+        if(mBytes.length == mCount) {
+            mOut.write(mBytes, 0, mCount);
+            mCount = 0;
+        }
+        mBytes[mCount++] = b;
+    }
+
+    private void put(byte[] bytes) throws IOException {
+        put(bytes, 0, bytes.length);
+    }
+
+    private void put(byte[] bytes, int off, int len) throws IOException {
+        if(mBytes.length - mCount < len) {
+            mOut.write(mBytes, 0, mCount);
+            mCount = 0;
+            if(mBytes.length < len) {
+                mOut.write(bytes, off, len);
+                return;
+            }
+        }
+        System.arraycopy(bytes, off, mBytes, mCount, len);
+        mCount += len;
+    }
+}
@@ -0,0 +1,262 @@
+package service;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Tells where the time of an exchange goes, with the same phases as {@link Metrics}: {@code read} waits for
+ * the request, {@code write} sends the response and {@code parse} is the rest of it.
+ * <p>
+ * With {@code jfr} every exchange is recorded as a {@code service.Exchange} event of JDK Flight Recorder, which
+ * carries the request id, the path, the mode, the bytes read and sent, the status, the error code and the time
+ * of every phase. The phases of a streamed exchange interleave, so they are fields of one event instead of events
+ * of their own. The event is defined with {@code jdk.jfr.EventFactory} through reflection, since the service is
+ * built for Java 8; a JVM without Flight Recorder simply has no events. Nothing is recorded until a recording
+ * enables the event:
+ * <pre>
+ * jcmd &lt;pid&gt; JFR.start name=jvs filename=jvs.jfr
+ * jfr print --events service.Exchange jvs.jfr
+ * </pre>
+ * <p>
+ * With {@code serverTiming} a response has the {@code Server-Timing} header. The headers are sent before
+ * the response body, so the header has the phases up to that moment: all of them but {@code write} for
+ * a response held back by {@link DeferredResponseStream}, and the time until the buffer has overflowed for
+ * a streamed one:
+ * <pre>
+ * Server-Timing: read;dur=0.041, parse;dur=0.317, total;dur=0.358
+ * </pre>
+ * <p>
+ * Both switches are volatile fields which are read once per exchange, so they can be changed on a running
+ * service and cost nothing while they are off.
+ */
+final class Tracing {
+    private static final Logger LOG = Logger.getLogger(Tracing.class.getName());
+
+    static final String SERVER_TIMING = "Server-Timing";
+
+    /** The error code of an event for a valid JSON */
+    static final int NO_ERROR = -1;
+
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    // the indices of the fields of the event
+    private static final int REQUEST_ID = 0;
+    private static final int PATH = 1;
+    private static final int MODE = 2;
+    private static final int BYTES_READ = 3;
+    private static final int BYTES_SENT = 4;
+    private static final int STATUS = 5;
+    private static final int ERROR_CODE = 6;
+    private static final int READ_TIME = 7;
+    private static final int PARSE_TIME = 8;
+    private static final int WRITE_TIME = 9;
+
+    /** Tracing which is off, for the validators which do not handle exchanges on their own */
+    static final Tracing OFF = new Tracing(new JVSOptionsBuilder().setJfr(false).setServerTiming(false).build());
+
+    private volatile boolean mEvents;
+    private volatile boolean mServerTiming;
+
+    /**
+     * @param options  the options whose {@code jfr} and {@code serverTiming} are used.
+     */
+    Tracing(JVSOptions options) {
+        set(options);
+    }
+
+    /**
+     * Switches the tracing the way the options say, the exchanges in progress are traced the old way.
+     */
+    void set(JVSOptions options) {
+        if(options.jfr && null == Jfr.FACTORY) {
+            LOG.log(Level.WARNING, "JDK Flight Recorder is not available, no events are recorded");
+        }
+        mEvents = options.jfr && null != Jfr.FACTORY;
+        mServerTiming = options.serverTiming;
+    }
+
+    /**
+     * @return  {@code true} if responses have the {@code Server-Timing} header.
+     */
+    boolean isServerTiming() {
+        return mServerTiming;
+    }
+
+    /**
+     * Starts the event of an exchange.
+     *
+     * @return  the event, to be passed to {@link #commit(Object, HttpExchange, int, String, JVSOptions.Mode,
+     *          long, long, int, long, long, long)}, or {@code null} if the exchange is not recorded.
+     */
+    Object begin() {
+        if(!mEvents) {
+            return null;
+        }
+        try {
+            if(!(boolean) Jfr.IS_ENABLED.invokeExact(Jfr.EVENT_TYPE)) {
+                return null;
+            }
+            Object event = (Object) Jfr.NEW_EVENT.invokeExact(Jfr.FACTORY);
+            Jfr.BEGIN.invokeExact(event);
+            return event;
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * Records the event of an exchange, unless it is {@code null} or below the threshold of the recording.
+     *
+     * @param errorCode  the code of the error response, or {@link #NO_ERROR}.
+     */
+    void commit(Object event, HttpExchange t, int id, String path, JVSOptions.Mode mode, long read, long sent,
+                int errorCode, long readNanos, long parseNanos, long writeNanos) {
+        if(null == event) {
+            return;
+        }
+        try {
+            Jfr.END.invokeExact(event);
+            if(!(boolean) Jfr.SHOULD_COMMIT.invokeExact(event)) {
+                return;
+            }
+            Jfr.SET.invokeExact(event, REQUEST_ID, (Object) id);
+            Jfr.SET.invokeExact(event, PATH, (Object) path);
+            Jfr.SET.invokeExact(event, MODE, (Object) mode.id);
+            Jfr.SET.invokeExact(event, BYTES_READ, (Object) read);
+            Jfr.SET.invokeExact(event, BYTES_SENT, (Object) sent);
+            Jfr.SET.invokeExact(event, STATUS, (Object) t.getResponseCode());
+            Jfr.SET.invokeExact(event, ERROR_CODE, (Object) errorCode);
+            Jfr.SET.invokeExact(event, READ_TIME, (Object) readNanos);
+            Jfr.SET.invokeExact(event, PARSE_TIME, (Object) parseNanos);
+            Jfr.SET.invokeExact(event, WRITE_TIME, (Object) writeNanos);
+            Jfr.COMMIT.invokeExact(event);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * Formats the value of the {@code Server-Timing} header, the durations are in milliseconds.
+     *
+     * @param readNanos  the time spent in reading the request.
+     * @param totalNanos  the time since the exchange has started.
+     */
+    static String serverTiming(long readNanos, long totalNanos) {
+        return "read;dur=" + millis(readNanos) + ", parse;dur=" + millis(totalNanos - readNanos)
+                + ", total;dur=" + millis(totalNanos);
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / NANOS_PER_MILLI);
+    }
+
+    /**
+     * The event type and the methods of the events, the type is only defined when the events are switched on.
+     */
+    private static final class Jfr {
+        /** The factory of the events, or {@code null} if the JVM has no Flight Recorder */
+        static final Object FACTORY;
+        static final Object EVENT_TYPE;
+        static final MethodHandle IS_ENABLED;
+        static final MethodHandle NEW_EVENT;
+        static final MethodHandle BEGIN;
+        static final MethodHandle END;
+        static final MethodHandle SHOULD_COMMIT;
+        static final MethodHandle SET;
+        static final MethodHandle COMMIT;
+
+        static {
+            Object factory = null;
+            Object type = null;
+            MethodHandle[] handles = new MethodHandle[7];
+            try {
+                Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+                Class<?> eventClass = Class.forName("jdk.jfr.Event");
+                Class<?> typeClass = Class.forName("jdk.jfr.EventType");
+                factory = factoryClass.getMethod("create", List.class, List.class)
+                        .invoke(null, Arrays.asList(
+                                annotation("Name", "service.Exchange"),
+                                annotation("Label", "JVS Exchange"),
+                                annotation("Category", new String[] {"JVS"}),
+                                annotation("Description", "An exchange handled by the JSON Validation Service"),
+                                annotation("StackTrace", false)),
+                        Arrays.asList(
+                                field(int.class, "requestId", "Request Id"),
+                                field(String.class, "path", "Path"),
+                                field(String.class, "mode", "Mode"),
+                                field(long.class, "bytesRead", "Bytes Read", annotation("DataAmount", "BYTES")),
+                                field(long.class, "bytesSent", "Bytes Sent", annotation("DataAmount", "BYTES")),
+                                field(int.class, "status", "Status"),
+                                field(int.class, "errorCode", "Error Code",
+                                        annotation("Description", "The code of the error response, -1 if valid")),
+                                field(long.class, "readTime", "Read", annotation("Timespan", "NANOSECONDS")),
+                                field(long.class, "parseTime", "Parse", annotation("Timespan", "NANOSECONDS")),
+                                field(long.class, "writeTime", "Write", annotation("Timespan", "NANOSECONDS"))));
+                type = factoryClass.getMethod("getEventType").invoke(factory);
+
+                MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+                MethodType object = MethodType.methodType(Object.class, Object.class);
+                MethodType bool = MethodType.methodType(boolean.class, Object.class);
+                MethodType procedure = MethodType.methodType(void.class, Object.class);
+                handles[0] = lookup.unreflect(typeClass.getMethod("isEnabled")).asType(bool);
+                handles[1] = lookup.unreflect(factoryClass.getMethod("newEvent")).asType(object);
+                handles[2] = lookup.unreflect(eventClass.getMethod("begin")).asType(procedure);
+                handles[3] = lookup.unreflect(eventClass.getMethod("end")).asType(procedure);
+                handles[4] = lookup.unreflect(eventClass.getMethod("shouldCommit")).asType(bool);
+                handles[5] = lookup.unreflect(eventClass.getMethod("set", int.class, Object.class))
+                        .asType(MethodType.methodType(void.class, Object.class, int.class, Object.class));
+                handles[6] = lookup.unreflect(eventClass.getMethod("commit")).asType(procedure);
+            } catch (ClassNotFoundException e) {
+                factory = null;
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                LOG.log(Level.WARNING, "Events of JDK Flight Recorder cannot be defined", e);
+                factory = null;
+            }
+            FACTORY = factory;
+            EVENT_TYPE = type;
+            IS_ENABLED = handles[0];
+            NEW_EVENT = handles[1];
+            BEGIN = handles[2];
+            END = handles[3];
+            SHOULD_COMMIT = handles[4];
+            SET = handles[5];
+            COMMIT = handles[6];
+        }
+    }
+
+    private static Object annotation(String type, Object value) throws ReflectiveOperationException {
+        Class<?> annotation = Class.forName("jdk.jfr." + type);
+        return Class.forName("jdk.jfr.AnnotationElement").getConstructor(Class.class, Object.class)
+                .newInstance(annotation.asSubclass(Annotation.class), value);
+    }
+
+    private static Object field(Class<?> type, String name, String label, Object... annotations)
+            throws ReflectiveOperationException {
+        List<Object> elements = new ArrayList<>(annotations.length + 1);
+        elements.add(annotation("Label", label));
+        Collections.addAll(elements, annotations);
+        return Class.forName("jdk.jfr.ValueDescriptor").getConstructor(Class.class, String.class, List.class)
+                .newInstance(type, name, elements);
+    }
+
+    private static RuntimeException rethrow(Throwable e) {
+        if(e instanceof RuntimeException) {
+            return (RuntimeException) e;
+        }
+        if(e instanceof Error) {
+            throw (Error) e;
+        }
+        return new IllegalStateException(e);
+    }
+}
@@ -0,0 +1,99 @@
+package service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes UTF-8 from a stream of bytes which are read into a pooled buffer.
+ * <p>
+ * Malformed input is replaced with {@code U+FFFD} the same way as {@code InputStreamReader} does.
+ * The buffer goes back to the pool when the reader is closed.
+ */
+class Utf8Reader extends Reader {
+    private final InputStream mStream;
+    private final BufferPool mPool;
+    private final CharsetDecoder mDecoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private ByteBuffer mBytes;
+    private boolean mEndOfInput = false;
+    private boolean mFlushed = false;
+
+    /**
+     * @param stream  the stream of UTF-8 bytes.
+     * @param pool  the pool to take the buffer from.
+     * @param size  the expected amount of bytes in the stream, zero or less if it is unknown.
+     */
+    Utf8Reader(InputStream stream, BufferPool pool, long size) {
+        mStream = stream;
+        mPool = pool;
+        mBytes = ByteBuffer.wrap(pool.acquire(BufferPool.sizeFor(size)));
+        mBytes.limit(0);
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if(mFlushed) {
+            return -1;
+        }
+        if(0 == len) {
+            return 0;
+        }
+
+        CharBuffer chars = CharBuffer.wrap(cbuf, off, len);
+        while(chars.position() == off) {
+            CoderResult result = mDecoder.decode(mBytes, chars, mEndOfInput);
+            if(result.isOverflow() || chars.position() != off) {
+                break;
+            }
+            if(mEndOfInput) {
+                mDecoder.flush(chars);
+                mFlushed = true;
+                break;
+            }
+            fill();
+        }
+
+        int count = chars.position() - off;
+        return (0 == count && mFlushed) ? -1 : count;
+    }
+
+    /**
+     * Makes the reader read the stream again after it has reported the end of the input. This is used for a stream
+     * which ends every record with its own end of input, see {@link LineInputStream}.
+     */
+    void restart() {
+        mDecoder.reset();
+        mBytes.clear();
+        mBytes.limit(0);
+        mEndOfInput = false;
+        mFlushed = false;
+    }
+
+    private void fill() throws IOException {
+        mBytes.compact();
+        int n = mStream.read(mBytes.array(), mBytes.position(), mBytes.remaining());
+        if(-1 == n) {
+            mEndOfInput = true;
+        } else {
+            mBytes.position(mBytes.position() + n);
+        }
+        mBytes.flip();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(null != mBytes) {
+            mPool.release(mBytes.array());
+            mBytes = null;
+        }
+        mStream.close();
+    }
+}
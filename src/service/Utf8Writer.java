@@ -0,0 +1,110 @@
+package service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * Encodes characters to UTF-8 in a pooled buffer and writes the bytes to a stream.
+ * <p>
+ * Unlike {@code OutputStreamWriter} it does not allocate anything per write. A surrogate pair split between two
+ * writes is kept until its second half arrives; an unpaired surrogate is written as {@code '?'}.
+ * The buffer goes back to the pool when the writer is closed.
+ */
+class Utf8Writer extends Writer {
+    private final OutputStream mStream;
+    private final BufferPool mPool;
+    private byte[] mBuffer;
+    private int mCount = 0;
+    private char mHighSurrogate = 0;
+
+    Utf8Writer(OutputStream stream, BufferPool pool) {
+        mStream = stream;
+        mPool = pool;
+        mBuffer = pool.acquire(BufferPool.MIN_SIZE);
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        encode((char) c);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        for(int i = off, end = off + len; i < end; ++i) {
+            encode(cbuf[i]);
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        for(int i = off, end = off + len; i < end; ++i) {
+            encode(str.charAt(i));
+        }
+    }
+
+    private void encode(char c) throws IOException {
+        if(mBuffer.length - mCount < 4) {
+            flushBuffer();
+        }
+
+        if(0 != mHighSurrogate) {
+            char high = mHighSurrogate;
+            mHighSurrogate = 0;
+            if(Character.isLowSurrogate(c)) {
+                int code = Character.toCodePoint(high, c);
+                mBuffer[mCount++] = (byte) (0xF0 | (code >> 18));
+                mBuffer[mCount++] = (byte) (0x80 | ((code >> 12) & 0x3F));
+                mBuffer[mCount++] = (byte) (0x80 | ((code >> 6) & 0x3F));
+                mBuffer[mCount++] = (byte) (0x80 | (code & 0x3F));
+                return;
+            }
+            mBuffer[mCount++] = '?';
+            encode(c);
+            return;
+        }
+
+        if(0x80 > c) {
+            mBuffer[mCount++] = (byte) c;
+        } else if(0x800 > c) {
+            mBuffer[mCount++] = (byte) (0xC0 | (c >> 6));
+            mBuffer[mCount++] = (byte) (0x80 | (c & 0x3F));
+        } else if(Character.isHighSurrogate(c)) {
+            mHighSurrogate = c;
+        } else if(Character.isLowSurrogate(c)) {
+            mBuffer[mCount++] = '?';
+        } else {
+            mBuffer[mCount++] = (byte) (0xE0 | (c >> 12));
+            mBuffer[mCount++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            mBuffer[mCount++] = (byte) (0x80 | (c & 0x3F));
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if(0 < mCount) {
+            mStream.write(mBuffer, 0, mCount);
+            mCount = 0;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        mStream.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(null == mBuffer) {
+            return;
+        }
+        if(0 != mHighSurrogate) {
+            mHighSurrogate = 0;
+            mBuffer[mCount++] = '?';
+        }
+        flushBuffer();
+        mPool.release(mBuffer);
+        mBuffer = null;
+        mStream.close();
+    }
+}
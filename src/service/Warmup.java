@@ -0,0 +1,376 @@
+package service;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs exchanges through the validation and formatting of {@link JSONHandler} before the service accepts requests,
+ * so the first requests after a start do not run in the interpreter.
+ * <p>
+ * A pass sends every document of the corpus in every {@link JVSOptions.Mode}, with the engine, the limits, the
+ * compression, the schemas and the tracing of the service. The exchanges are made in memory and are handled by
+ * a {@link JSONHandler} of their own, so they do not show up in the metrics, the caches or the access log of the
+ * service. Every pass starts with an empty cache of responses, so the documents are validated, and sends every
+ * document once more to be answered from the cache. With {@code schemas} half of the passes ask for the schemas
+ * of the directory in turn. The built-in
+ * corpus has objects, arrays of records, escaped strings, numbers, a response large enough to be streamed, and
+ * a document for every error code the engines report. A directory given by {@code warmupCorpus} replaces it.
+ * <p>
+ * The passes stop when the JIT compiler has not compiled anything for {@link #SETTLE_MILLIS} or after
+ * {@code warmup} passes, whichever comes first. If the JVM does not tell the time of the compilation, all the
+ * passes are run. Until then {@link Admission} rejects the exchanges of the service with
+ * {@code 503 Service Unavailable} and {@link ReadyHandler} tells the load balancer that the service is not ready.
+ */
+class Warmup implements Runnable {
+    private static final Logger LOG = Logger.getLogger(Warmup.class.getName());
+
+    /** The time without a compilation which means that the compilation has settled */
+    static final long SETTLE_MILLIS = 500;
+    /** The passes which always run, so the counters of the compiler have something to count */
+    private static final int MIN_PASSES = 10;
+    private static final URI REQUEST_URI = URI.create("/warmup");
+
+    private final JVSOptions mOptions;
+    private final Admission mAdmission;
+    private volatile long mStart = 0;
+    private volatile int mPasses = 0;
+    private volatile boolean mSettled = false;
+    private volatile boolean mDone = false;
+    private volatile long mNanos = 0;
+
+    /**
+     * @param options  the options of the service.
+     * @param admission  the admission of the service, it is opened when the warm-up is over.
+     */
+    Warmup(JVSOptions options, Admission admission) {
+        mOptions = options;
+        mAdmission = admission;
+    }
+
+    /**
+     * @return  {@code true} if the warm-up is over and the service accepts requests.
+     */
+    boolean isDone() {
+        return mDone;
+    }
+
+    /**
+     * @return  {@code true} if the warm-up has stopped because the compilation has settled.
+     */
+    boolean isSettled() {
+        return mSettled;
+    }
+
+    /**
+     * @return  the number of passes done so far.
+     */
+    int getPasses() {
+        return mPasses;
+    }
+
+    /**
+     * @return  the maximum number of passes.
+     */
+    int getBudget() {
+        return mOptions.warmup;
+    }
+
+    /**
+     * @return  the time of the warm-up in milliseconds, so far if it is not over.
+     */
+    long getMillis() {
+        if(mDone) {
+            return TimeUnit.NANOSECONDS.toMillis(mNanos);
+        }
+        return (0 == mStart) ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - mStart);
+    }
+
+    /**
+     * Runs the passes and opens the service, even if the warm-up has failed or has been interrupted.
+     */
+    @Override
+    public void run() {
+        mStart = System.nanoTime();
+        try {
+            List<byte[]> corpus = corpus();
+            JVSOptions options = mOptions.newBuilder().setWarmup(0).build();
+            SchemaCache schemas = hasSchemas() ? new SchemaCache(Paths.get(mOptions.schemas), mOptions.schemaCache)
+                    : null;
+            List<String> names = hasSchemas() ? schemaNames() : new ArrayList<>();
+            Tracing tracing = new Tracing(mOptions);
+            LOG.log(Level.INFO, "Warm-up has started: {0} documents, at most {1} passes",
+                    new Object[] {corpus.size(), mOptions.warmup});
+
+            CompilationMXBean jit = ManagementFactory.getCompilationMXBean();
+            boolean timed = null != jit && jit.isCompilationTimeMonitoringSupported();
+            long compiled = timed ? jit.getTotalCompilationTime() : 0;
+            long compiledAt = System.nanoTime();
+            for(int pass = 0; pass < mOptions.warmup && !Thread.currentThread().isInterrupted(); ) {
+                ResultCache cache = (0 < mOptions.cache) ? new ResultCache(mOptions.cache) : null;
+                run(new JSONHandler(options, cache, schemas, tracing), corpus, names, pass);
+                mPasses = ++pass;
+                if(timed) {
+                    long now = jit.getTotalCompilationTime();
+                    if(now != compiled) {
+                        compiled = now;
+                        compiledAt = System.nanoTime();
+                    } else if(MIN_PASSES <= pass
+                            && TimeUnit.MILLISECONDS.toNanos(SETTLE_MILLIS) <= System.nanoTime() - compiledAt) {
+                        mSettled = true;
+                        break;
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.log(Level.WARNING, "Warm-up has failed", e);
+        } finally {
+            mNanos = System.nanoTime() - mStart;
+            mDone = true;
+            mAdmission.warmedUp();
+        }
+        LOG.log(Level.INFO, "Warm-up is over after {0} passes in {1} ms, the compilation has {2}settled",
+                new Object[] {mPasses, getMillis(), mSettled ? "" : "not "});
+    }
+
+    private static void run(JSONHandler handler, List<byte[]> corpus, List<String> schemas, int pass)
+            throws IOException {
+        JVSOptions.Mode[] modes = JVSOptions.Mode.values();
+        for(int i = 0; i < corpus.size(); ++i) {
+            String schema = (!schemas.isEmpty() && 2 <= pass % 4) ? schemas.get(i % schemas.size()) : null;
+            // the last exchange repeats the first one, so it is answered from the cache
+            for(int m = 0; m <= modes.length; ++m) {
+                WarmupExchange exchange = new WarmupExchange(corpus.get(i));
+                exchange.getRequestHeaders().set(JSONHandler.MODE_HEADER, modes[m % modes.length].id);
+                if(1 == pass % 2) {
+                    exchange.getRequestHeaders().set("Accept-encoding", "gzip");
+                }
+                if(null != schema) {
+                    exchange.getRequestHeaders().set(JSONHandler.SCHEMA_HEADER, schema);
+                }
+                try {
+                    handler.handle(exchange);
+                } catch (JSONHandler.AbortedException e) {
+                    // a streamed response with an error, the server would close the connection
+                }
+            }
+        }
+    }
+
+    private boolean hasSchemas() {
+        return null != mOptions.schemas && !"".equals(mOptions.schemas);
+    }
+
+    /**
+     * Lists the names of the schemas in the directory {@code schemas}.
+     */
+    private List<String> schemaNames() throws IOException {
+        Path directory = Paths.get(mOptions.schemas);
+        try(Stream<Path> walk = Files.walk(directory)) {
+            return walk.filter(Files::isRegularFile)
+                    .map(file -> directory.relativize(file).toString().replace(File.separatorChar, '/'))
+                    .filter(name -> name.endsWith(".json"))
+                    .map(name -> name.substring(0, name.length() - ".json".length()))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Reads the corpus from {@code warmupCorpus}, or generates the built-in one if it is not set.
+     */
+    private List<byte[]> corpus() throws IOException {
+        if(null == mOptions.warmupCorpus || "".equals(mOptions.warmupCorpus)) {
+            return builtIn();
+        }
+        List<Path> files;
+        try(Stream<Path> walk = Files.walk(Paths.get(mOptions.warmupCorpus))) {
+            files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+        if(files.isEmpty()) {
+            throw new IOException("No files in " + mOptions.warmupCorpus);
+        }
+        List<byte[]> corpus = new ArrayList<>(files.size());
+        for(Path file : files) {
+            corpus.add(Files.readAllBytes(file));
+        }
+        return corpus;
+    }
+
+    private static List<byte[]> builtIn() {
+        Random random = new Random(7);
+        List<String> documents = new ArrayList<>();
+        documents.add("{}");
+        documents.add("[]");
+        documents.add("{\"id\": 1, \"name\": \"jvs\", \"ok\": true, \"none\": null, \"tags\": [\"a\", \"b\"]}");
+        documents.add("{\"a\": {\"b\": {\"c\": [[1, 2], [3.5, -4e-7], {\"d\": \"\\u00e9\\n\\\"\"}]}}}");
+        documents.add("[\"caf\u00e9\", \"\u65e5\u672c\", \"\\ud83d\\ude00\", \"tab\\there\", \"\\/\"]");
+        documents.add("[0, -1, 9223372036854775807, 1.5E300, 0.000001, -0.0]");
+        documents.add(records(random, 100));
+        documents.add(records(random, 1000)); // over the commit threshold, the response is streamed
+        // a document for every error code
+        documents.add("{\"a\": 1");
+        documents.add("[1 2]");
+        documents.add("{\"a\": 1 \"b\": 2}");
+        documents.add("{\"a\": 1,}");
+        documents.add("{\"a\" 1}");
+        documents.add("{\"a\": ]");
+        documents.add("{\"a\": }");
+        documents.add("\"abc");
+        documents.add("[1, /* c");
+        documents.add("{'a': 1}");
+        documents.add("\"\\u12");
+        documents.add("\"\\q\"");
+        documents.add("[NaN]");
+
+        List<byte[]> corpus = new ArrayList<>(documents.size());
+        for(String document : documents) {
+            corpus.add(document.getBytes(StandardCharsets.UTF_8));
+        }
+        return corpus;
+    }
+
+    private static String records(Random random, int count) {
+        StringBuilder builder = new StringBuilder("[\n");
+        for(int i = 0; i < count; ++i) {
+            builder.append(0 == i ? "" : ",\n")
+                    .append("  {\"id\": ").append(i)
+                    .append(", \"name\": \"record ").append(Long.toHexString(random.nextLong()))
+                    .append("\", \"price\": ").append(random.nextInt(100000) / 100.0)
+                    .append(", \"active\": ").append(random.nextBoolean())
+                    .append(", \"tags\": [\"alpha\", \"beta\"]}");
+        }
+        return builder.append("\n]\n").toString();
+    }
+
+    /**
+     * An exchange in memory: the request is a document of the corpus and the response is thrown away.
+     */
+    private static final class WarmupExchange extends HttpExchange {
+        private final Headers mRequestHeaders = new Headers();
+        private final Headers mResponseHeaders = new Headers();
+        private InputStream mIn;
+        private OutputStream mOut = new OutputStream() {
+            @Override
+            public void write(int b) { }
+
+            @Override
+            public void write(byte[] b, int off, int len) { }
+        };
+        private int mResponseCode = -1;
+
+        WarmupExchange(byte[] document) {
+            mIn = new ByteArrayInputStream(document);
+            mRequestHeaders.set("Content-length", Integer.toString(document.length));
+        }
+
+        @Override
+        public Headers getRequestHeaders() {
+            return mRequestHeaders;
+        }
+
+        @Override
+        public Headers getResponseHeaders() {
+            return mResponseHeaders;
+        }
+
+        @Override
+        public URI getRequestURI() {
+            return REQUEST_URI;
+        }
+
+        @Override
+        public String getRequestMethod() {
+            return "POST";
+        }
+
+        @Override
+        public HttpContext getHttpContext() {
+            return null;
+        }
+
+        @Override
+        public void close() { }
+
+        @Override
+        public InputStream getRequestBody() {
+            return mIn;
+        }
+
+        @Override
+        public OutputStream getResponseBody() {
+            return mOut;
+        }
+
+        @Override
+        public void sendResponseHeaders(int rCode, long responseLength) {
+            mResponseCode = rCode;
+        }
+
+        @Override
+        public InetSocketAddress getRemoteAddress() {
+            return null;
+        }
+
+        @Override
+        public int getResponseCode() {
+            return mResponseCode;
+        }
+
+        @Override
+        public InetSocketAddress getLocalAddress() {
+            return null;
+        }
+
+        @Override
+        public String getProtocol() {
+            return "HTTP/1.1";
+        }
+
+        @Override
+        public Object getAttribute(String name) {
+            return null;
+        }
+
+        @Override
+        public void setAttribute(String name, Object value) { }
+
+        @Override
+        public void setStreams(InputStream i, OutputStream o) {
+            if(null != i) {
+                mIn = i;
+            }
+            if(null != o) {
+                mOut = o;
+            }
+        }
+
+        @Override
+        public HttpPrincipal getPrincipal() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package service;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs HTTP exchanges on behalf of the {@code HttpServer} dispatcher thread.
+ * <p>
+ * The pool is built from the executor section of {@link JVSOptions}: a fixed pool of platform threads,
+ * a work-stealing pool or one virtual thread per request. Whatever the kind is, the number of exchanges that
+ * are either running or waiting is bounded by {@code threads + queue}. When the bound is reached, the
+ * {@link JVSOptions.Rejection} policy decides what to do with an exchange:
+ * <ul>
+ *     <li>{@code reject} - the exchange is run on the dispatcher thread in the rejected state, so the handler
+ *     responds with {@code 503 Service Unavailable} without reading the request body</li>
+ *     <li>{@code caller} - the exchange is fully handled on the dispatcher thread, which slows down
+ *     accepting of new connections</li>
+ * </ul>
+ * Exchanges cannot be simply dropped because nobody would close their connections then.
+ * <p>
+ * A worker blocks while it reads the request body and writes the response, so the pool is sized for I/O
+ * rather than for the processors: by default there are {@link #THREADS_PER_PROCESSOR} workers for every
+ * available processor, and a few slow clients do not stall the exchanges of the others.
+ */
+class WorkerPool implements Executor {
+    private static final Logger LOG = Logger.getLogger(WorkerPool.class.getName());
+
+    /** The number of workers for every available processor when {@code threads} is not set */
+    static final int THREADS_PER_PROCESSOR = 4;
+
+    private static final ThreadLocal<Boolean> REJECTED = new ThreadLocal<>();
+
+    private final ExecutorService mExecutor;
+    private final Semaphore mPermits;
+    private final JVSOptions.Rejection mRejection;
+
+    WorkerPool(JVSOptions options) {
+        int threads = (0 < options.threads)
+                ? options.threads : THREADS_PER_PROCESSOR * Runtime.getRuntime().availableProcessors();
+        int queue = Math.max(0, options.queue);
+
+        mRejection = options.rejection;
+
+        switch(options.executor) {
+            case WORK_STEALING:
+                mExecutor = Executors.newWorkStealingPool(threads);
+                mPermits = new Semaphore(threads + queue);
+                break;
+            case VIRTUAL:
+                ExecutorService virtual = newVirtualThreadPerTaskExecutor();
+                if(null != virtual) {
+                    mExecutor = virtual;
+                    mPermits = new Semaphore(threads + queue);
+                } else {
+                    LOG.log(Level.WARNING, "Virtual threads are not supported by the runtime, a fixed pool is used");
+                    mExecutor = newFixedPool(threads, queue);
+                    mPermits = null;
+                }
+                break;
+            case FIXED:
+            default:
+                mExecutor = newFixedPool(threads, queue);
+                mPermits = null;
+                break;
+        }
+    }
+
+    /**
+     * Tells whether the exchange on the current thread has been rejected by the pool.
+     *
+     * @return  {@code true} if the handler should not process the exchange, but respond with an error.
+     */
+    static boolean isRejected() {
+        return Boolean.TRUE.equals(REJECTED.get());
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if(null == mPermits) {
+            mExecutor.execute(command);
+        } else if(mPermits.tryAcquire()) {
+            try {
+                mExecutor.execute(() -> {
+                    try {
+                        command.run();
+                    } finally {
+                        mPermits.release();
+                    }
+                });
+            } catch (RuntimeException e) {
+                mPermits.release();
+                reject(command);
+            }
+        } else {
+            reject(command);
+        }
+    }
+
+    private void reject(Runnable command) {
+        if(JVSOptions.Rejection.CALLER == mRejection) {
+            command.run();
+            return;
+        }
+
+        REJECTED.set(Boolean.TRUE);
+        try {
+            command.run();
+        } finally {
+            REJECTED.remove();
+        }
+    }
+
+    /**
+     * Stops accepting new exchanges and waits {@code delay} seconds for the running ones to finish.
+     *
+     * @param delay  the maximum time in seconds to wait.
+     */
+    void shutdown(int delay) {
+        mExecutor.shutdown();
+        try {
+            if(!mExecutor.awaitTermination(Math.max(0, delay), TimeUnit.SECONDS)) {
+                LOG.log(Level.WARNING, "Workers have not finished in {0} seconds, interrupting", delay);
+                mExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            mExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Creates a pool of platform threads whose queue is bounded, so the pool itself rejects an exchange.
+     */
+    private ExecutorService newFixedPool(int threads, int queue) {
+        BlockingQueue<Runnable> workQueue = (0 < queue)
+                ? new ArrayBlockingQueue<Runnable>(queue)
+                : new SynchronousQueue<Runnable>();
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, workQueue,
+                new WorkerFactory(), (r, executor) -> reject(r));
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static class WorkerFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "jvs-worker-" + mCount.incrementAndGet());
+            thread.setDaemon(false);
+            return thread;
+        }
+    }
+}
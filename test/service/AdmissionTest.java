@@ -0,0 +1,237 @@
+package service;
+
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Sends requests over the limits of {@link Admission} to {@link JSONHandler} behind the JDK's {@code HttpServer}
+ * and watches how they are rejected.
+ */
+class AdmissionTest {
+    private static final int MAX_BODY = 10_000;
+    private static final int MAX_DEPTH = 16;
+
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+    private HttpServer mServer;
+
+    @AfterEach
+    void stop() {
+        if(null != mServer) {
+            mServer.stop(0);
+        }
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    void bodyAtTheLimitIsAccepted() throws IOException {
+        byte[] document = padded(MAX_BODY);
+        for(JVSOptions.Engine engine : JVSOptions.Engine.values()) {
+            start(new JVSOptionsBuilder().setEngine(engine).setMaxBody(MAX_BODY));
+            RawHttp.Response response = exchange(document);
+            assertEquals(200, response.status, engine.toString());
+            assertEquals(parse(document), parse(response.bytes), engine.toString());
+
+            // without a length, the byte read past the body finds the end of it
+            response = chunked(document);
+            assertEquals(200, response.status, engine + " chunked");
+            assertEquals(parse(document), parse(response.bytes), engine + " chunked");
+            mServer.stop(0);
+        }
+    }
+
+    @Test
+    void bodyOfUnknownLengthOverTheLimitIsRejected() throws IOException {
+        byte[] document = padded(MAX_BODY + 1);
+        for(JVSOptions.Engine engine : JVSOptions.Engine.values()) {
+            start(new JVSOptionsBuilder().setEngine(engine).setMaxBody(MAX_BODY));
+            assertRejected(chunked(document), 413, engine.toString());
+            // the connection is closed, the next one is served
+            assertEquals(200, chunked(padded(MAX_BODY)).status, engine.toString());
+            mServer.stop(0);
+        }
+    }
+
+    @Test
+    void declaredLengthOverTheLimitIsRejectedBeforeTheBody() throws IOException {
+        start(new JVSOptionsBuilder().setMaxBody(MAX_BODY));
+        try(Socket socket = RawHttp.connect(port())) {
+            OutputStream out = socket.getOutputStream();
+            out.write(RawHttp.post("/json", MAX_BODY + 1));
+            out.flush();
+            // nothing of the body has been sent
+            assertRejected(RawHttp.read(socket, new CountDownLatch(1)), 413, "Content-Length");
+        }
+    }
+
+    @Test
+    void depthOverTheLimitReplacesTheResponseBeforeTheCommit() throws IOException {
+        byte[] document = deep(array(1_000), MAX_DEPTH + 1);
+        for(JVSOptions.Engine engine : JVSOptions.Engine.values()) {
+            start(new JVSOptionsBuilder().setEngine(engine).setMaxDepth(MAX_DEPTH));
+            assertRejected(exchange(document), 413, engine.toString());
+            assertEquals(200, exchange(deep(array(1_000), MAX_DEPTH)).status, engine + " at the limit");
+            mServer.stop(0);
+        }
+    }
+
+    @Test
+    void depthOverTheLimitCutsTheResponseAfterTheCommit() throws IOException {
+        byte[] document = deep(array(200_000), MAX_DEPTH + 1);
+        for(JVSOptions.Engine engine : JVSOptions.Engine.values()) {
+            start(new JVSOptionsBuilder().setEngine(engine).setMaxDepth(MAX_DEPTH));
+            RawHttp.Response response = exchange(document);
+            assertEquals(200, response.status, engine.toString());
+            assertTrue(response.chunked, engine.toString());
+            assertFalse(response.complete, engine + ": the response has not been cut");
+            assertTrue(DeferredResponseStream.COMMIT_THRESHOLD < response.bytes.length, engine.toString());
+            mServer.stop(0);
+        }
+    }
+
+    @Test
+    void exchangeOverMaxInFlightIsRejected() throws Exception {
+        byte[] document = array(200_000);
+        start(new JVSOptionsBuilder().setMaxInFlight(1));
+        try(Socket socket = RawHttp.connect(port())) {
+            OutputStream out = socket.getOutputStream();
+            out.write(RawHttp.post("/json", document.length));
+            int half = document.length / 2;
+            out.write(document, 0, half);
+            out.flush();
+
+            RawHttp.Response[] response = {null};
+            CountDownLatch started = new CountDownLatch(1);
+            Thread reader = new Thread(() -> {
+                try {
+                    response[0] = RawHttp.read(socket, started);
+                } catch (IOException e) {
+                    fail("The response cannot be read: " + e);
+                }
+            });
+            reader.start();
+            // the first exchange is being validated once its response has started
+            assertTrue(started.await(10, TimeUnit.SECONDS), "no response to the first half");
+
+            RawHttp.Response rejected = exchange(array(100));
+            assertEquals(503, rejected.status);
+            assertNull(rejected.headers.get("connection"));
+            assertEquals(0, rejected.bytes.length);
+
+            out.write(document, half, document.length - half);
+            out.flush();
+            reader.join(30_000);
+            assertNotNull(response[0]);
+            assertEquals(200, response[0].status);
+            assertTrue(response[0].complete);
+        }
+        // the first exchange has let the next one in
+        assertEquals(200, exchange(array(100)).status);
+    }
+
+    private static void assertRejected(RawHttp.Response response, int status, String message) {
+        assertEquals(status, response.status, message);
+        assertEquals("close", response.headers.get("connection"), message);
+        assertNull(response.headers.get("content-type"), message);
+        assertEquals(0, response.bytes.length, message + ": " + response.body());
+    }
+
+    private void start(JVSOptionsBuilder builder) throws IOException {
+        JVSOptions options = builder.setMode(JVSOptions.Mode.PRETTY).setJfr(false).setServerTiming(false).build();
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        mServer.setExecutor(mExecutor);
+        mServer.createContext("/", new JSONHandler(options));
+        mServer.start();
+    }
+
+    private int port() {
+        return mServer.getAddress().getPort();
+    }
+
+    private RawHttp.Response exchange(byte[] document) throws IOException {
+        return RawHttp.exchange(port(), "/json", document);
+    }
+
+    /**
+     * Sends the document in chunks, so the request has no {@code Content-Length}.
+     */
+    private RawHttp.Response chunked(byte[] document) throws IOException {
+        try(Socket socket = RawHttp.connect(port())) {
+            OutputStream out = socket.getOutputStream();
+            out.write(RawHttp.post("/json", -1, "Transfer-Encoding: chunked"));
+            try {
+                for(int off = 0; off < document.length; off += 1000) {
+                    int n = Math.min(1000, document.length - off);
+                    out.write((Integer.toHexString(n) + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+                    out.write(document, off, n);
+                    out.write("\r\n".getBytes(StandardCharsets.ISO_8859_1));
+                }
+                out.write("0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+                out.flush();
+            } catch (IOException e) {
+                // the server may answer and close the connection before the body has been sent
+            }
+            return RawHttp.read(socket, new CountDownLatch(1));
+        }
+    }
+
+    /**
+     * Makes a string of exactly {@code size} bytes.
+     */
+    private static byte[] padded(int size) {
+        StringBuilder document = new StringBuilder("\"");
+        while(document.length() < size - 1) {
+            document.append('x');
+        }
+        return document.append('"').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Appends an element nested {@code depth} deep, counting the array itself, to the end of the array.
+     */
+    private static byte[] deep(byte[] array, int depth) {
+        StringBuilder document = new StringBuilder(new String(array, 0, array.length - 1, StandardCharsets.UTF_8));
+        document.append(',');
+        for(int i = 1; i < depth; ++i) {
+            document.append('[');
+        }
+        for(int i = 1; i < depth; ++i) {
+            document.append(']');
+        }
+        return document.append(']').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Makes an array of objects, at least {@code size} bytes long.
+     */
+    private static byte[] array(int size) {
+        StringBuilder document = new StringBuilder("[");
+        for(int i = 0; document.length() < size; ++i) {
+            document.append((0 == i) ? "" : ",").append("{\"id\":").append(i).append(",\"tags\":[\"a\",null]}");
+        }
+        return document.append(']').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static Object parse(byte[] json) {
+        return new JsonParser().parse(new String(json, StandardCharsets.UTF_8));
+    }
+}
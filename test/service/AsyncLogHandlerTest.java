@@ -0,0 +1,204 @@
+package service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Logs from several threads through a small {@link AsyncLogHandler} into a target which can be held up, so the
+ * ring buffer fills up and wraps around.
+ */
+class AsyncLogHandlerTest {
+    private static final int CAPACITY = 16;
+    private static final int THREADS = 4;
+    private static final String LOGGER = "test";
+
+    /**
+     * Keeps the records, and holds the writer up until it is opened.
+     */
+    private static final class Target extends Handler {
+        final CountDownLatch opened = new CountDownLatch(1);
+        final List<LogRecord> records = new ArrayList<>();
+        volatile boolean closed = false;
+
+        @Override
+        public void publish(LogRecord record) {
+            try {
+                opened.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized(records) {
+                records.add(record);
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        /**
+         * @return  the number of the records logged by the test, without the drop reports.
+         */
+        int logged() {
+            synchronized(records) {
+                int count = 0;
+                for(LogRecord record : records) {
+                    count += LOGGER.equals(record.getLoggerName()) ? 1 : 0;
+                }
+                return count;
+            }
+        }
+    }
+
+    @Test
+    void fullBufferDropsRecordsAndReportsThem() throws Exception {
+        Target target = new Target();
+        AsyncLogHandler handler = new AsyncLogHandler(target, CAPACITY, AsyncLogHandler.Policy.DROP, false);
+
+        // the writer is held up, so all but the records in the buffer and the one being written are dropped
+        log(handler, 0, 100, new AtomicInteger());
+        long dropped = handler.getDropped();
+        assertTrue(THREADS * 100 - CAPACITY - 1 <= dropped, "dropped " + dropped);
+
+        target.opened.countDown();
+        awaitLogged(target, THREADS * 100 - (int) dropped);
+        // the buffer is empty, so at least a lap of the records gets in after the wraparound
+        log(handler, 100, 2000, new AtomicInteger());
+        handler.close();
+
+        assertTrue(target.closed);
+        int logged = check(target.records, 2000, handler.getDropped());
+        assertTrue(THREADS * 100 - dropped + CAPACITY <= logged, "logged " + logged);
+    }
+
+    @Test
+    void fullBufferBlocksTheLoggingThreads() throws Exception {
+        Target target = new Target();
+        AsyncLogHandler handler = new AsyncLogHandler(target, CAPACITY, AsyncLogHandler.Policy.BLOCK, false);
+
+        AtomicInteger published = new AtomicInteger();
+        Thread logging = new Thread(() -> log(handler, 0, 2000, published));
+        logging.start();
+        // the writer takes a record and is held up with it, then the buffer fills up
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while(CAPACITY + 1 > published.get() && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        Thread.sleep(50);
+        assertEquals(CAPACITY + 1, published.get());
+
+        target.opened.countDown();
+        logging.join(30_000);
+        handler.close();
+
+        assertTrue(target.closed);
+        assertEquals(0, handler.getDropped());
+        assertEquals(THREADS * 2000, check(target.records, 2000, 0));
+    }
+
+    @Test
+    void closeWritesOutTheBufferedRecords() throws Exception {
+        Target target = new Target();
+        AsyncLogHandler handler = new AsyncLogHandler(target, CAPACITY, AsyncLogHandler.Policy.DROP, false);
+        log(handler, 0, 100, new AtomicInteger());
+        long dropped = handler.getDropped();
+
+        // the buffer is full when the handler is closed, the writer is let go only then
+        Thread closing = new Thread(handler::close);
+        closing.start();
+        Thread.sleep(50);
+        target.opened.countDown();
+        closing.join(30_000);
+
+        assertTrue(target.closed);
+        assertEquals(THREADS * 100 - dropped, check(target.records, 100, dropped));
+    }
+
+    /**
+     * Logs from {@link #THREADS} threads at once and waits for them. The record {@code i} of the thread
+     * {@code t} has the parameters {@code t} and {@code i}.
+     *
+     * @param published  counts the records which have been published.
+     */
+    private static void log(AsyncLogHandler handler, int from, int to, AtomicInteger published) {
+        List<Thread> threads = new ArrayList<>();
+        for(int t = 0; t < THREADS; ++t) {
+            int thread = t;
+            threads.add(new Thread(() -> {
+                for(int i = from; i < to; ++i) {
+                    LogRecord record = new LogRecord(Level.INFO, "{0} {1}");
+                    record.setLoggerName(LOGGER);
+                    record.setParameters(new Object[] {thread, i});
+                    handler.publish(record);
+                    published.incrementAndGet();
+                }
+            }));
+        }
+        for(Thread thread : threads) {
+            thread.start();
+        }
+        try {
+            for(Thread thread : threads) {
+                thread.join(30_000);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void awaitLogged(Target target, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while(count > target.logged() && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(count, target.logged());
+    }
+
+    /**
+     * Checks that no record has been written twice, that the records of every thread are in order, that every
+     * record has been either written or dropped, and that the drop reports add up to the dropped records.
+     *
+     * @param count  the number of the records logged by every thread.
+     * @return  the number of the records written.
+     */
+    private static int check(List<LogRecord> records, int count, long dropped) {
+        Set<Long> seen = new HashSet<>();
+        int[] last = new int[THREADS];
+        Arrays.fill(last, -1);
+        long reported = 0;
+        for(LogRecord record : records) {
+            if(!LOGGER.equals(record.getLoggerName())) {
+                assertEquals(AsyncLogHandler.class.getName(), record.getLoggerName());
+                reported += ((Number) record.getParameters()[0]).longValue();
+                continue;
+            }
+            int thread = (Integer) record.getParameters()[0];
+            int i = (Integer) record.getParameters()[1];
+            assertTrue(seen.add((long) thread * count + i), "written twice: " + thread + " " + i);
+            assertTrue(last[thread] < i, "out of order: " + thread + " " + i);
+            last[thread] = i;
+        }
+        assertEquals(dropped, reported);
+        assertEquals(THREADS * count, seen.size() + dropped);
+        return seen.size();
+    }
+}
@@ -0,0 +1,164 @@
+package service;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Splits batches into lines with both engines, and sends batches to {@link BatchHandler} behind the JDK's
+ * {@code HttpServer}.
+ */
+class BatchHandlerTest {
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+    private HttpServer mServer;
+
+    @AfterEach
+    void stop() {
+        if(null != mServer) {
+            mServer.stop(0);
+        }
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    void serverTimingIsSwitchedForBatches() throws IOException {
+        Tracing tracing = new Tracing(tracingOptions(false));
+        start(new JVSOptions(), tracing);
+        assertNull(post("{}\n").getHeaderField(Tracing.SERVER_TIMING));
+
+        tracing.set(tracingOptions(true));
+        HttpURLConnection connection = post("{}\n[1]\n");
+        String timing = connection.getHeaderField(Tracing.SERVER_TIMING);
+        assertNotNull(timing);
+        assertTrue(timing.contains("total;dur="), timing);
+        assertEquals("{\"line\":1,\"ok\":true}\n{\"line\":2,\"ok\":true}\n", body(connection));
+    }
+
+    @Test
+    void linesAreSplitAcrossRefills() throws IOException {
+        String spaces = repeat(" ", BufferPool.MAX_SIZE + 100);
+        String batch = "{\"a\": [1, 2, 3]}\n"
+                + "[1, 2]\r\n"
+                + "  \t\r\n"
+                // longer than the buffer, so it straddles the refills
+                + "[" + "1" + repeat(",\"abc\"", BufferPool.MAX_SIZE / 4) + "]\r\n"
+                // whitespace which fills the whole buffer before the document
+                + spaces + "{}\n"
+                // the validator stops at the colon, the rest of the line is skipped
+                + "{\"a\" 1, \"b\": \"" + repeat("x", BufferPool.MAX_SIZE * 2) + "\"}\n"
+                + "\n"
+                + "[\"x\n"
+                // the last line has no line feed
+                + "\"last\"";
+        byte[] bytes = batch.getBytes(StandardCharsets.UTF_8);
+        for(JVSOptions.Engine engine : JVSOptions.Engine.values()) {
+            for(boolean trickle : new boolean[] {false, true}) {
+                String message = engine + (trickle ? " one byte per read" : "");
+                List<JsonObject> results = validate(engine,
+                        trickle ? new TrickleInputStream(bytes) : new ByteArrayInputStream(bytes));
+                assertEquals(7, results.size(), message + ": " + results);
+                assertOk(results.get(0), 1, message);
+                assertOk(results.get(1), 2, message);
+                assertOk(results.get(2), 4, message);
+                assertOk(results.get(3), 5, message);
+                assertError(results.get(4), 6, ErrorCode.EXPECTED_COLON, message);
+                assertError(results.get(5), 8, ErrorCode.UNTERMINATED_STRING, message);
+                assertOk(results.get(6), 9, message);
+            }
+        }
+    }
+
+    private static void assertOk(JsonObject result, long line, String message) {
+        assertEquals(line, result.get("line").getAsLong(), message + ": " + result);
+        assertTrue(result.get("ok").getAsBoolean(), message + ": " + result);
+        assertNull(result.get("errorCode"), message + ": " + result);
+    }
+
+    private static void assertError(JsonObject result, long line, ErrorCode code, String message) {
+        assertEquals(line, result.get("line").getAsLong(), message + ": " + result);
+        assertFalse(result.get("ok").getAsBoolean(), message + ": " + result);
+        assertEquals(code.code, result.get("errorCode").getAsInt(), message + ": " + result);
+    }
+
+    private static List<JsonObject> validate(JVSOptions.Engine engine, InputStream in) throws IOException {
+        JVSOptions options = new JVSOptionsBuilder().setEngine(engine).setJfr(false).setServerTiming(false).build();
+        BatchHandler handler = new BatchHandler(options, new Metrics(null, null), new Admission(options),
+                new Tracing(options));
+        StringWriter out = new StringWriter();
+        handler.validate(in, out, "batch", 1);
+        List<JsonObject> results = new ArrayList<>();
+        for(String line : out.toString().split("\n")) {
+            results.add(new JsonParser().parse(line).getAsJsonObject());
+        }
+        return results;
+    }
+
+    private static String repeat(String part, int count) {
+        StringBuilder s = new StringBuilder(part.length() * count);
+        for(int i = 0; i < count; ++i) {
+            s.append(part);
+        }
+        return s.toString();
+    }
+
+    private static JVSOptions tracingOptions(boolean serverTiming) {
+        return new JVSOptionsBuilder().setJfr(false).setServerTiming(serverTiming).build();
+    }
+
+    private void start(JVSOptions options, Tracing tracing) throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        mServer.setExecutor(mExecutor);
+        mServer.createContext("/batch",
+                new BatchHandler(options, new Metrics(null, null), new Admission(options), tracing));
+        mServer.start();
+    }
+
+    private HttpURLConnection post(String batch) throws IOException {
+        URL url = new URL("http", InetAddress.getLoopbackAddress().getHostAddress(), mServer.getAddress().getPort(),
+                "/batch");
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setDoOutput(true);
+        connection.setRequestMethod("POST");
+        try(OutputStream out = connection.getOutputStream()) {
+            out.write(batch.getBytes(StandardCharsets.UTF_8));
+        }
+        assertEquals(200, connection.getResponseCode());
+        return connection;
+    }
+
+    private static String body(HttpURLConnection connection) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try(InputStream in = connection.getInputStream()) {
+            byte[] buffer = new byte[8192];
+            int n;
+            while(-1 != (n = in.read(buffer))) {
+                body.write(buffer, 0, n);
+            }
+        }
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
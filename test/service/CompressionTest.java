@@ -0,0 +1,199 @@
+package service;
+
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Negotiates the coding of responses and sends compressed requests to {@link JSONHandler} behind the JDK's
+ * {@code HttpServer}.
+ */
+class CompressionTest {
+    private static final String GZIP = Compression.GZIP;
+    private static final String DEFLATE = Compression.DEFLATE;
+
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+    private HttpServer mServer;
+
+    @AfterEach
+    void stop() {
+        if(null != mServer) {
+            mServer.stop(0);
+        }
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    void codingOfTheHighestQualityIsChosen() {
+        assertEquals(GZIP, negotiate("gzip"));
+        assertEquals(GZIP, negotiate("x-gzip"));
+        assertEquals(DEFLATE, negotiate("deflate"));
+        assertEquals(DEFLATE, negotiate("gzip;q=0.5, deflate"));
+        assertEquals(DEFLATE, negotiate("deflate;q=0.8", "gzip; q=0.2"));
+        assertEquals(GZIP, negotiate(" Deflate ; q=0.3 , GZIP;q=0.7"));
+        assertNull(negotiate("identity"));
+        assertNull(negotiate("br, identity;q=0.5"));
+        assertNull(negotiate(""));
+    }
+
+    @Test
+    void gzipWinsATie() {
+        assertEquals(GZIP, negotiate("deflate, gzip"));
+        assertEquals(GZIP, negotiate("deflate;q=0.5, gzip;q=0.5"));
+        assertEquals(GZIP, negotiate("*"));
+    }
+
+    @Test
+    void zeroQualityRefusesACoding() {
+        assertNull(negotiate("gzip;q=0"));
+        assertNull(negotiate("gzip;q=0, deflate;q=0.000"));
+        assertNull(negotiate("*;q=0"));
+        assertNull(negotiate("gzip;q=nonsense"));
+        assertEquals(DEFLATE, negotiate("gzip;q=0, deflate;q=0.1"));
+    }
+
+    @Test
+    void wildcardStandsForTheCodingsWhichAreNotNamed() {
+        assertEquals(DEFLATE, negotiate("gzip;q=0, *"));
+        assertEquals(DEFLATE, negotiate("*", "gzip;q=0"));
+        assertEquals(GZIP, negotiate("deflate;q=0, *;q=0.1"));
+        assertEquals(DEFLATE, negotiate("gzip;q=0.2, *;q=0.5"));
+        assertEquals(GZIP, negotiate("gzip;q=0.5, *;q=0.5"));
+        assertNull(negotiate("gzip;q=0, deflate;q=0, *"));
+        assertNull(negotiate("*;q=0, br"));
+    }
+
+    @Test
+    void refusedCodingIsNotSent() throws IOException {
+        start(JVSOptions.Engine.GSON);
+        byte[] document = array(4000);
+        RawHttp.Response response = RawHttp.exchange(port(), "/json", document, "Accept-Encoding: gzip;q=0, *");
+        assertEquals(200, response.status);
+        assertEquals(DEFLATE, response.headers.get("content-encoding"));
+        assertEquals(parse(document), parse(inflate(response.bytes)));
+
+        response = RawHttp.exchange(port(), "/json", document, "Accept-Encoding: gzip;q=0, deflate;q=0");
+        assertEquals(200, response.status);
+        assertNull(response.headers.get("content-encoding"));
+        assertEquals(parse(document), parse(response.bytes));
+    }
+
+    @Test
+    void compressedRequestsAreDecoded() throws IOException {
+        byte[] document = array(200_000);
+        for(JVSOptions.Engine engine : JVSOptions.Engine.values()) {
+            start(engine);
+            for(String coding : new String[] {"gzip", "x-gzip", "deflate"}) {
+                RawHttp.Response response = RawHttp.exchange(port(), "/json", compress(document, coding),
+                        "Content-Encoding: " + coding);
+                assertEquals(200, response.status, engine + " " + coding);
+                assertTrue(response.complete, engine + " " + coding);
+                assertEquals(parse(document), parse(response.bytes), engine + " " + coding);
+            }
+            mServer.stop(0);
+        }
+    }
+
+    @Test
+    void corruptRequestAbortsTheExchange() throws IOException {
+        byte[] document = array(1000);
+        for(JVSOptions.Engine engine : JVSOptions.Engine.values()) {
+            start(engine);
+            for(String coding : new String[] {"gzip", "deflate"}) {
+                byte[] compressed = compress(document, coding);
+                // the header is intact, the data after it is not
+                for(int i = 12; i < compressed.length; i += 3) {
+                    compressed[i] ^= 0x5A;
+                }
+                assertAborted(RawHttp.exchange(port(), "/json", compressed, "Content-Encoding: " + coding),
+                        engine + " " + coding);
+                assertAborted(RawHttp.exchange(port(), "/json", document, "Content-Encoding: " + coding),
+                        engine + " " + coding + " without a header");
+            }
+            mServer.stop(0);
+        }
+    }
+
+    @Test
+    void unsupportedCodingIsRejected() throws IOException {
+        start(JVSOptions.Engine.GSON);
+        assertEquals(415, RawHttp.exchange(port(), "/json", array(100), "Content-Encoding: br").status);
+    }
+
+    private static void assertAborted(RawHttp.Response response, String message) {
+        // no status line, or a response which is cut
+        assertFalse(200 == response.status && response.complete, message + ": " + response.body());
+        assertFalse(response.body().contains("\"id\""), message);
+    }
+
+    private static String negotiate(String... headers) {
+        return Compression.negotiate(Arrays.asList(headers));
+    }
+
+    private void start(JVSOptions.Engine engine) throws IOException {
+        JVSOptions options = new JVSOptionsBuilder().setEngine(engine).setMode(JVSOptions.Mode.PRETTY)
+                .setCompression(6).setCompressionMin(1024).setJfr(false).setServerTiming(false).build();
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        mServer.setExecutor(mExecutor);
+        mServer.createContext("/", new JSONHandler(options));
+        mServer.start();
+    }
+
+    private int port() {
+        return mServer.getAddress().getPort();
+    }
+
+    private static byte[] array(int size) {
+        StringBuilder document = new StringBuilder("[");
+        for(int i = 0; document.length() < size; ++i) {
+            document.append((0 == i) ? "" : ",").append("{\"id\":").append(i).append(",\"tags\":[\"a\",null]}");
+        }
+        return document.append(']').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static Object parse(byte[] json) {
+        return new JsonParser().parse(new String(json, StandardCharsets.UTF_8));
+    }
+
+    private static byte[] compress(byte[] bytes, String coding) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try(OutputStream out = DEFLATE.equals(coding)
+                ? new DeflaterOutputStream(compressed) : new GZIPOutputStream(compressed)) {
+            out.write(bytes);
+        }
+        return compressed.toByteArray();
+    }
+
+    private static byte[] inflate(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try(InputStream in = new InflaterInputStream(new ByteArrayInputStream(bytes))) {
+            byte[] buffer = new byte[8192];
+            int n;
+            while(-1 != (n = in.read(buffer))) {
+                out.write(buffer, 0, n);
+            }
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,238 @@
+package service;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Feeds the conformance corpus to both engines, as a whole and one byte at a time.
+ * <p>
+ * Gson's {@code JsonReader} in the strict mode is the reference which the corpus is written for. The lenient
+ * reader of the {@code gson} engine accepts what the strict one only rejects with {@code Malformed JSON}, so it is
+ * held to the codes of the other documents only.
+ */
+class CorpusTest {
+    private static final File VALID = new File("corpus/valid");
+    private static final File INVALID = new File("corpus/invalid");
+
+    /** The constructs which the engines judge differently on purpose, see corpus/README.md */
+    private static final Pattern DISAGREEMENTS = Pattern.compile("(?i)true|false|null|\\\\'|\\\\\n");
+
+    private final JSONHandler mHandler = new JSONHandler(new JVSOptions());
+
+    @Test
+    void validDocumentsAreAccepted() throws IOException {
+        for(File file : files(VALID)) {
+            byte[] document = Files.readAllBytes(file.toPath());
+            String name = file.getName();
+
+            assertNull(strict(document), name);
+            assertNull(gson(new ByteArrayInputStream(document), document.length), name);
+            assertNull(gson(new TrickleInputStream(document), -1), name);
+            assertNull(mHandler.checkRequest(new ByteArrayInputStream(document), document.length, name, 0), name);
+            assertNull(mHandler.checkRequest(new TrickleInputStream(document), -1, name, 0), name);
+        }
+    }
+
+    @Test
+    void invalidDocumentsHaveTheCodeOfTheirName() throws IOException {
+        for(File file : files(INVALID)) {
+            byte[] document = Files.readAllBytes(file.toPath());
+            String name = file.getName();
+            int code = Integer.parseInt(name.substring(0, 2));
+
+            assertEquals(code, errorCode(strict(document)), name);
+            JSONHandler.BadJSONResponse whole =
+                    mHandler.checkRequest(new ByteArrayInputStream(document), document.length, name, 0);
+            JSONHandler.BadJSONResponse trickled = mHandler.checkRequest(new TrickleInputStream(document), -1, name, 0);
+            assertEquals(code, errorCode(whole), name);
+            assertEquals(whole.errorPlace(), trickled.errorPlace(), name);
+            if(ErrorCode.MALFORMED.code != code) {
+                assertEquals(code, errorCode(gson(new ByteArrayInputStream(document), document.length)), name);
+                assertEquals(code, errorCode(gson(new TrickleInputStream(document), -1)), name);
+            }
+        }
+    }
+
+    /**
+     * The native engine reports the offending byte, Gson the column it has stopped at, as README.md describes.
+     */
+    @Test
+    void errorPlacesDifferAsDocumented() throws IOException {
+        for(File file : files(INVALID)) {
+            byte[] document = Files.readAllBytes(file.toPath());
+            String name = file.getName();
+            JSONHandler.BadJSONResponse gson = gson(new ByteArrayInputStream(document), document.length);
+            JSONHandler.BadJSONResponse nativ =
+                    mHandler.checkRequest(new ByteArrayInputStream(document), document.length, name, 0);
+            if(null == gson) {
+                continue; // accepted by the lenient reader
+            }
+
+            assertEquals(gson.line, nativ.line, name);
+            if(1 == nativ.line) {
+                assertEquals(nativ.offset + 1, nativ.column, name);
+            }
+            if(new String(document, StandardCharsets.UTF_8).contains("\\u")) {
+                assertTrue(gson.column <= nativ.column, name);
+            } else {
+                assertTrue(nativ.column <= gson.column && gson.column <= nativ.column + 1,
+                        name + ": " + gson.errorPlace() + " / " + nativ.errorPlace());
+            }
+        }
+        JSONHandler.BadJSONResponse nativ = mHandler.checkRequest(bytes("{\"a\" 1}"), -1, "a", 0);
+        assertEquals("at line 1 column 6 offset 5", nativ.errorPlace());
+        JSONHandler.BadJSONResponse gson = gson(bytes("{\"a\" 1}"), -1);
+        assertEquals("at line 1 column 7 path $.a", gson.errorPlace());
+    }
+
+    /**
+     * Mutates the corpus with a fixed seed, so a disagreement can be reproduced.
+     */
+    @Test
+    void mutationsAreJudgedTheSame() throws IOException {
+        List<byte[]> documents = new ArrayList<>();
+        for(File file : files(VALID)) {
+            if(4096 >= file.length()) {
+                documents.add(Files.readAllBytes(file.toPath()));
+            }
+        }
+        for(File file : files(INVALID)) {
+            documents.add(Files.readAllBytes(file.toPath()));
+        }
+        byte[] alphabet = "{}[]:,\"\\01-.eEtrunx/#;= \n'".getBytes(StandardCharsets.US_ASCII);
+        Random random = new Random(20240601);
+        int compared = 0;
+        for(int i = 0; i < 30000; ++i) {
+            byte[] document = mutate(documents.get(random.nextInt(documents.size())), alphabet, random);
+            if(disagreeOnPurpose(document)) {
+                continue;
+            }
+            String text = new String(document, StandardCharsets.UTF_8);
+            int expected = errorCode(strict(document));
+            JSONHandler.BadJSONResponse whole =
+                    mHandler.checkRequest(new ByteArrayInputStream(document), document.length, "m", 0);
+            JSONHandler.BadJSONResponse trickled = mHandler.checkRequest(new TrickleInputStream(document), -1, "m", 0);
+            assertEquals(expected, errorCode(whole), text);
+            assertEquals(errorCode(whole), errorCode(trickled), text);
+            if(null != whole) {
+                assertEquals(whole.errorPlace(), trickled.errorPlace(), text);
+            }
+            ++compared;
+        }
+        assertTrue(10000 < compared, "too few mutations: " + compared);
+    }
+
+    private static byte[] mutate(byte[] document, byte[] alphabet, Random random) {
+        byte[] mutated = document;
+        for(int n = 1 + random.nextInt(3); 0 < n; --n) {
+            int at = random.nextInt(mutated.length + 1);
+            byte b = alphabet[random.nextInt(alphabet.length)];
+            switch(random.nextInt(4)) {
+                case 0: // insert
+                    byte[] inserted = new byte[mutated.length + 1];
+                    System.arraycopy(mutated, 0, inserted, 0, at);
+                    inserted[at] = b;
+                    System.arraycopy(mutated, at, inserted, at + 1, mutated.length - at);
+                    mutated = inserted;
+                    break;
+                case 1: // delete
+                    if(at < mutated.length) {
+                        byte[] deleted = new byte[mutated.length - 1];
+                        System.arraycopy(mutated, 0, deleted, 0, at);
+                        System.arraycopy(mutated, at + 1, deleted, at, mutated.length - at - 1);
+                        mutated = deleted;
+                    }
+                    break;
+                case 2: // replace
+                    if(at < mutated.length) {
+                        mutated = mutated.clone();
+                        mutated[at] = b;
+                    }
+                    break;
+                default: // truncate
+                    mutated = Arrays.copyOf(mutated, at);
+                    break;
+            }
+        }
+        return mutated;
+    }
+
+    private static boolean disagreeOnPurpose(byte[] document) {
+        Matcher matcher = DISAGREEMENTS.matcher(new String(document, StandardCharsets.ISO_8859_1));
+        while(matcher.find()) {
+            String found = matcher.group();
+            if(!found.equals(found.toLowerCase()) || found.startsWith("\\")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Validates the document with Gson's reader in the strict mode, an empty document is a null as for
+     * {@code JsonParser}.
+     */
+    private static JSONHandler.BadJSONResponse strict(byte[] document) throws IOException {
+        JsonReader reader = new JsonReader(
+                new Utf8Reader(new ByteArrayInputStream(document), BufferPool.DEFAULT, document.length));
+        try {
+            try {
+                reader.peek();
+            } catch (EOFException e) {
+                return null;
+            }
+            reader.skipValue();
+            if(JsonToken.END_DOCUMENT != reader.peek()) {
+                return new JSONHandler.BadJSONResponse("Did not consume the entire document.", "strict", 0);
+            }
+            return null;
+        } catch (MalformedJsonException | EOFException e) {
+            return new JSONHandler.BadJSONResponse(e.getMessage(), "strict", 0);
+        } catch (NumberFormatException e) {
+            String location = reader.toString().substring(JsonReader.class.getSimpleName().length());
+            return new JSONHandler.BadJSONResponse("Invalid escape sequence" + location, "strict", 0);
+        }
+    }
+
+    private JSONHandler.BadJSONResponse gson(InputStream in, long length) throws IOException {
+        return mHandler.transferRequest(new Utf8Reader(in, BufferPool.DEFAULT, length), null, "gson", 0);
+    }
+
+    private static int errorCode(JSONHandler.BadJSONResponse response) {
+        return (null == response) ? -1 : response.errorCode;
+    }
+
+    private static InputStream bytes(String document) {
+        return new ByteArrayInputStream(document.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static File[] files(File directory) {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(".json"));
+        assertNotNull(files, directory + " is missing");
+        assertFalse(0 == files.length, directory + " is empty");
+        Arrays.sort(files);
+        return files;
+    }
+}
@@ -0,0 +1,48 @@
+package service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HistogramTest {
+    @Test
+    void bucketsFollowEachOther() {
+        for(int index = 1; index < 300; ++index) {
+            long lower = Histogram.upperBound(index - 1) + 1;
+            assertEquals(index, Histogram.indexOf(lower), "lower bound of " + index);
+            assertEquals(index, Histogram.indexOf(Histogram.upperBound(index)), "upper bound of " + index);
+        }
+    }
+
+    @Test
+    void valueIsKnownWithinAnEighth() {
+        Random random = new Random(7);
+        for(int i = 0; i < 100000; ++i) {
+            long value = random.nextLong() >>> (1 + random.nextInt(62));
+            long bound = Histogram.upperBound(Histogram.indexOf(value));
+            assertTrue(value <= bound, "value " + value);
+            assertTrue(bound - value <= value / Histogram.SUB_BUCKETS, "value " + value + " bound " + bound);
+        }
+    }
+
+    @Test
+    void writesCumulativeBuckets() {
+        Histogram histogram = new Histogram();
+        for(long value = 0; value < 1000; ++value) {
+            histogram.record(value);
+        }
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+
+        StringBuilder out = new StringBuilder();
+        histogram.write(out, "h", "", 100, 200, 1);
+        String text = out.toString();
+        // 0..111 and the negative value, which is taken for zero
+        assertTrue(text.contains("h_bucket{le=\"111\"} 113\n"), text);
+        assertTrue(text.contains("h_bucket{le=\"+Inf\"} 1002\n"), text);
+        assertTrue(text.contains("h_count 1002\n"), text);
+    }
+}
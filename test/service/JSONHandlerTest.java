@@ -0,0 +1,135 @@
+package service;
+
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Sends requests in the {@code pretty} mode to {@link JSONHandler} behind the JDK's {@code HttpServer}, with both
+ * engines, and watches how the response is framed.
+ */
+class JSONHandlerTest {
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+    private HttpServer mServer;
+
+    @AfterEach
+    void stop() {
+        if(null != mServer) {
+            mServer.stop(0);
+        }
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    void largeResponseStartsBeforeTheRequestEnds() throws Exception {
+        byte[] document = array(200_000);
+        for(JVSOptions.Engine engine : JVSOptions.Engine.values()) {
+            start(engine);
+            try(Socket socket = RawHttp.connect(mServer.getAddress().getPort())) {
+                OutputStream out = socket.getOutputStream();
+                out.write(RawHttp.post("/json", document.length));
+                int half = document.length / 2;
+                out.write(document, 0, half);
+                out.flush();
+
+                RawHttp.Response[] response = {null};
+                CountDownLatch started = new CountDownLatch(1);
+                Thread reader = new Thread(() -> {
+                    try {
+                        response[0] = RawHttp.read(socket, started);
+                    } catch (IOException e) {
+                        fail("The response cannot be read: " + e);
+                    }
+                });
+                reader.start();
+                assertTrue(started.await(10, TimeUnit.SECONDS), engine + ": no response to the first half");
+                out.write(document, half, document.length - half);
+                out.flush();
+                reader.join(30_000);
+
+                assertNotNull(response[0], engine.toString());
+                assertEquals(200, response[0].status, engine.toString());
+                assertTrue(response[0].chunked, engine.toString());
+                assertTrue(response[0].complete, engine.toString());
+                assertEquals(new JsonParser().parse(new String(document, StandardCharsets.UTF_8)),
+                        new JsonParser().parse(response[0].body()), engine.toString());
+            }
+            mServer.stop(0);
+        }
+    }
+
+    @Test
+    void errorAfterTheCommitCutsTheResponse() throws Exception {
+        byte[] document = array(200_000);
+        document[document.length - 1] = '}';
+        for(JVSOptions.Engine engine : JVSOptions.Engine.values()) {
+            start(engine);
+            RawHttp.Response response = exchange(document);
+            assertEquals(200, response.status, engine.toString());
+            assertTrue(response.chunked, engine.toString());
+            assertFalse(response.complete, engine + ": the response has not been cut");
+            assertTrue(DeferredResponseStream.COMMIT_THRESHOLD < response.bytes.length, engine.toString());
+            assertFalse(response.body().contains("errorCode"), engine.toString());
+            mServer.stop(0);
+        }
+    }
+
+    @Test
+    void errorBeforeTheCommitReplacesTheResponse() throws Exception {
+        byte[] document = array(10_000);
+        document[document.length - 1] = '}';
+        for(JVSOptions.Engine engine : JVSOptions.Engine.values()) {
+            start(engine);
+            RawHttp.Response response = exchange(document);
+            assertEquals(200, response.status, engine.toString());
+            assertFalse(response.chunked, engine.toString());
+            assertTrue(response.complete, engine.toString());
+            assertEquals(ErrorCode.UNTERMINATED_ARRAY.code, new JsonParser().parse(response.body()).getAsJsonObject()
+                    .get("errorCode").getAsInt(), engine + ": " + response.body());
+            mServer.stop(0);
+        }
+    }
+
+    private void start(JVSOptions.Engine engine) throws IOException {
+        JVSOptions options = new JVSOptionsBuilder().setEngine(engine).setMode(JVSOptions.Mode.PRETTY)
+                .setJfr(false).setServerTiming(false).build();
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        mServer.setExecutor(mExecutor);
+        mServer.createContext("/", new JSONHandler(options));
+        mServer.start();
+    }
+
+    private RawHttp.Response exchange(byte[] document) throws IOException {
+        return RawHttp.exchange(mServer.getAddress().getPort(), "/json", document);
+    }
+
+    /**
+     * Makes an array of objects, at least {@code size} bytes long.
+     */
+    private static byte[] array(int size) {
+        StringBuilder document = new StringBuilder("[");
+        for(int i = 0; document.length() < size; ++i) {
+            document.append((0 == i) ? "" : ",").append("{\"id\":").append(i).append(",\"name\":\"item ")
+                    .append(i).append("\",\"tags\":[\"a\",null,true]}");
+        }
+        return document.append(']').toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
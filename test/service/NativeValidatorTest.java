@@ -0,0 +1,42 @@
+package service;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NativeValidatorTest {
+    @Test
+    void depthIsReportedApartFromSyntaxErrors() {
+        NativeValidator validator = new NativeValidator();
+        validator.setMaxDepth(2);
+        assertTrue(validate(validator, "[{\"a\": 1}]"));
+
+        assertFalse(validate(validator, "[{\"a\": [13]}]"));
+        assertTrue(validator.isTooDeep());
+        assertNull(validator.getError());
+        assertEquals(7, validator.getErrorOffset());
+
+        assertFalse(validate(validator, "[{\"a\" 1}]"));
+        assertFalse(validator.isTooDeep());
+        assertEquals(ErrorCode.EXPECTED_COLON, validator.getError());
+    }
+
+    @Test
+    void endOfInputIsUnknown() {
+        NativeValidator validator = new NativeValidator();
+        assertFalse(validate(validator, "[1,"));
+        assertEquals(ErrorCode.UNKNOWN, validator.getError());
+        assertEquals(3, validator.getErrorOffset());
+    }
+
+    private static boolean validate(NativeValidator validator, String document) {
+        byte[] bytes = document.getBytes(StandardCharsets.UTF_8);
+        validator.reset();
+        return validator.feed(bytes, 0, bytes.length) && validator.finish();
+    }
+}
@@ -0,0 +1,244 @@
+package service;
+
+import com.sun.net.httpserver.HttpExchange;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Talks HTTP to {@link NioHttpServer} over plain sockets.
+ */
+class NioHttpServerTest {
+    private static final long TIMEOUT = 500;
+
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+    private final LinkedBlockingQueue<Throwable> mFailures = new LinkedBlockingQueue<>();
+    private NioHttpServer mServer;
+
+    @BeforeEach
+    void start() throws IOException {
+        mServer = new NioHttpServer(2);
+        mServer.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        mServer.setExecutor(mExecutor);
+        mServer.setTimeouts(TIMEOUT, TIMEOUT);
+        mServer.createContext("/echo", this::echo);
+        mServer.start();
+    }
+
+    @AfterEach
+    void stop() {
+        mServer.stop(0);
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * Echoes the request body, with chunked encoding if the request asks for it with {@code ?chunked}, in writes
+     * of every size: single bytes, small ones which are gathered and large ones which are queued as they are.
+     */
+    private void echo(HttpExchange t) throws IOException {
+        byte[] body;
+        try(InputStream in = t.getRequestBody()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int b = in.read();
+            if(-1 != b) {
+                out.write(b);
+                byte[] buffer = new byte[3000];
+                int n;
+                while(-1 != (n = in.read(buffer))) {
+                    out.write(buffer, 0, n);
+                }
+            }
+            body = out.toByteArray();
+        } catch (IOException e) {
+            mFailures.add(e);
+            throw e;
+        }
+        boolean chunked = "chunked".equals(t.getRequestURI().getQuery());
+        t.sendResponseHeaders(200, chunked ? 0 : (0 == body.length) ? -1 : body.length);
+        try(OutputStream out = t.getResponseBody()) {
+            int off = 0;
+            int size = 1;
+            while(off < body.length) {
+                int n = Math.min(size, body.length - off);
+                if(1 == n) {
+                    out.write(body[off]);
+                } else {
+                    out.write(body, off, n);
+                }
+                off += n;
+                size = (20000 < size) ? 1 : size * 7;
+            }
+        }
+    }
+
+    @Test
+    void requestsArePipelinedOnOneConnection() throws IOException {
+        try(Socket socket = connect()) {
+            OutputStream out = socket.getOutputStream();
+            out.write(("POST /echo HTTP/1.1\r\nContent-length: 5\r\n\r\nfirst"
+                    + "POST /echo?chunked HTTP/1.1\r\nTransfer-encoding: chunked\r\n\r\n"
+                    + "3\r\nsec\r\n3;x=y\r\nond\r\n0\r\n\r\n"
+                    + "GET /echo HTTP/1.1\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+
+            InputStream in = socket.getInputStream();
+            assertEquals("first", text(readResponse(in)));
+            assertEquals("second", text(readResponse(in)));
+            assertEquals("", text(readResponse(in)));
+
+            out.write("POST /echo HTTP/1.1\r\nContent-length: 4\r\nConnection: close\r\n\r\nlast"
+                    .getBytes(StandardCharsets.ISO_8859_1));
+            assertEquals("last", text(readResponse(in)));
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    void largeBodiesArePassedThrough() throws IOException {
+        byte[] body = new byte[3 * 1024 * 1024 + 17];
+        new Random(7).nextBytes(body);
+        for(String query : new String[] {"", "?chunked"}) {
+            try(Socket socket = connect()) {
+                OutputStream out = socket.getOutputStream();
+                out.write(("POST /echo" + query + " HTTP/1.1\r\nContent-length: " + body.length + "\r\n\r\n")
+                        .getBytes(StandardCharsets.ISO_8859_1));
+                // the server answers while the body is still being sent, so the response is read concurrently
+                ByteArrayOutputStream[] response = {null};
+                Thread reader = new Thread(() -> {
+                    try {
+                        response[0] = readResponse(socket.getInputStream());
+                    } catch (IOException e) {
+                        mFailures.add(e);
+                    }
+                });
+                reader.start();
+                for(int off = 0; off < body.length; off += 100_000) {
+                    out.write(body, off, Math.min(100_000, body.length - off));
+                }
+                out.flush();
+                join(reader);
+                assertNotNull(response[0], String.valueOf(mFailures.peek()));
+                assertArrayEquals(body, response[0].toByteArray(), query);
+            }
+        }
+        assertTrue(mFailures.isEmpty(), String.valueOf(mFailures.peek()));
+    }
+
+    @Test
+    void idleConnectionIsClosed() throws IOException {
+        try(Socket socket = connect()) {
+            socket.setSoTimeout((int) (10 * TIMEOUT));
+            long start = System.currentTimeMillis();
+            assertEquals(-1, socket.getInputStream().read());
+            assertTrue(TIMEOUT <= System.currentTimeMillis() - start);
+        }
+    }
+
+    @Test
+    void stalledBodyIsClosedAndFailsTheHandler() throws Exception {
+        try(Socket socket = connect()) {
+            socket.setSoTimeout((int) (10 * TIMEOUT));
+            socket.getOutputStream().write("POST /echo HTTP/1.1\r\nContent-length: 10\r\n\r\nabc"
+                    .getBytes(StandardCharsets.ISO_8859_1));
+            assertEquals(-1, socket.getInputStream().read());
+        }
+        Throwable failure = mFailures.poll(10 * TIMEOUT, TimeUnit.MILLISECONDS);
+        assertNotNull(failure, "the handler has not been released");
+        assertEquals("Connection has been closed", failure.getMessage());
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), mServer.getAddress().getPort());
+        socket.setSoTimeout(30_000);
+        return socket;
+    }
+
+    private static void join(Thread thread) {
+        try {
+            thread.join(30_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static String text(ByteArrayOutputStream body) {
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads a response of status 200 and returns its body, which is framed with a length or chunked encoding.
+     */
+    private static ByteArrayOutputStream readResponse(InputStream in) throws IOException {
+        String status = readLine(in);
+        assertTrue(status.startsWith("HTTP/1.1 200 "), status);
+        long length = 0;
+        boolean chunked = false;
+        for(String line = readLine(in); !line.isEmpty(); line = readLine(in)) {
+            String header = line.toLowerCase(Locale.ROOT);
+            if(header.startsWith("content-length:")) {
+                length = Long.parseLong(header.substring(15).trim());
+            } else if(header.startsWith("transfer-encoding:")) {
+                chunked = header.endsWith("chunked");
+            }
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        if(!chunked) {
+            copy(in, body, length);
+            return body;
+        }
+        for(long size = chunkSize(in); 0 != size; size = chunkSize(in)) {
+            copy(in, body, size);
+            assertEquals("", readLine(in));
+        }
+        assertEquals("", readLine(in));
+        return body;
+    }
+
+    private static long chunkSize(InputStream in) throws IOException {
+        return Long.parseLong(readLine(in), 16);
+    }
+
+    private static void copy(InputStream in, ByteArrayOutputStream out, long length) throws IOException {
+        byte[] buffer = new byte[8192];
+        while(0 < length) {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, length));
+            if(-1 == n) {
+                throw new IOException("Response has been cut");
+            }
+            out.write(buffer, 0, n);
+            length -= n;
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while('\n' != (b = in.read())) {
+            if(-1 == b) {
+                throw new IOException("Response has been cut");
+            }
+            line.append((char) b);
+        }
+        return line.toString().trim();
+    }
+}
@@ -0,0 +1,173 @@
+package service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Breaks a large top-level array next to the commas where the segments are cut, and expects the same error
+ * from {@link ParallelValidator} as from the sequential validation.
+ */
+class ParallelValidatorTest {
+    private static final String[] ELEMENTS = {
+            "12345", "-0.5e+3", "true", "false", "null", "\"a,b]c\"", "\"\\\",[\"", "{\"a\": [1, 2], \"b\": {}}",
+            "[[], [null, \"x\"]]", "\"café €\"", "{}", "[]", "0",
+    };
+
+    private final ForkJoinPool mPool = new ForkJoinPool(4);
+    private final JSONHandler mHandler = new JSONHandler(new JVSOptions());
+    private final ParallelValidator mParallel =
+            new ParallelValidator(mPool, BufferPool.MIN_SIZE, new Admission(new JVSOptions()));
+
+    @AfterEach
+    void stop() {
+        mPool.shutdownNow();
+    }
+
+    @Test
+    void validArraysAreAccepted() throws IOException {
+        Random random = new Random(15);
+        for(int i = 0; i < 20; ++i) {
+            byte[] document = array(random, 4 * BufferPool.MIN_SIZE + random.nextInt(BufferPool.MIN_SIZE));
+            assertNull(parallel(new ByteArrayInputStream(document)));
+            assertNull(parallel(new TrickleInputStream(document)));
+        }
+        assertNull(parallel(new ByteArrayInputStream("[]".getBytes(StandardCharsets.UTF_8))));
+        assertNull(parallel(new ByteArrayInputStream(" {\"a\": [1, 2]} ".getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    void errorsAtSegmentBoundariesAreReportedAsSequentially() throws IOException {
+        byte[] replacements = " x],\"[".getBytes(StandardCharsets.US_ASCII);
+        int compared = 0;
+        for(int seed = 0; seed < 10; ++seed) {
+            byte[] document = array(new Random(1015 + seed), 6 * BufferPool.MIN_SIZE);
+            for(int comma : cuts(document)) {
+                compared += breakAround(document, comma, replacements);
+            }
+        }
+        assertTrue(1000 < compared, "too few documents: " + compared);
+    }
+
+    @Test
+    void tooDeepSegmentIsReportedAsSequentially() throws IOException {
+        StringBuilder document = new StringBuilder(new String(array(new Random(7), 3 * BufferPool.MIN_SIZE),
+                StandardCharsets.UTF_8));
+        document.setLength(document.length() - 1);
+        document.append(',');
+        for(int i = 0; i < 2000; ++i) {
+            document.append('[');
+        }
+        compare(document.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void compare(byte[] document) throws IOException {
+        JSONHandler.BadJSONResponse expected =
+                mHandler.checkRequest(new ByteArrayInputStream(document), document.length, "p", 0);
+        JSONHandler.BadJSONResponse actual = parallel(new ByteArrayInputStream(document));
+        String text = new String(document, StandardCharsets.UTF_8);
+        assertEquals(null == expected, null == actual, text);
+        if(null != expected) {
+            assertEquals(expected.errorCode, actual.errorCode, text);
+            assertEquals(expected.errorPlace(), actual.errorPlace(), text);
+        }
+    }
+
+    /**
+     * Breaks the document in every way at the comma and the two bytes on each side of it.
+     *
+     * @return  the number of the documents compared.
+     */
+    private int breakAround(byte[] document, int comma, byte[] replacements) throws IOException {
+        int compared = 0;
+        for(int at = comma - 2; at <= comma + 2; ++at) {
+            for(byte b : replacements) {
+                if(document[at] != b) {
+                    byte[] replaced = document.clone();
+                    replaced[at] = b;
+                    compare(replaced);
+                    ++compared;
+                }
+            }
+            byte[] deleted = new byte[document.length - 1];
+            System.arraycopy(document, 0, deleted, 0, at);
+            System.arraycopy(document, at + 1, deleted, at, document.length - at - 1);
+            compare(deleted);
+            compare(Arrays.copyOf(document, at));
+            compared += 2;
+        }
+        return compared;
+    }
+
+    private JSONHandler.BadJSONResponse parallel(InputStream in) throws IOException {
+        return mParallel.check(in, new byte[BufferPool.MIN_SIZE], "p", 0);
+    }
+
+    /**
+     * Makes an array of random elements with a line break now and then, at least {@code size} bytes long.
+     */
+    private static byte[] array(Random random, int size) {
+        StringBuilder document = new StringBuilder("[");
+        while(document.length() < size) {
+            document.append(ELEMENTS[random.nextInt(ELEMENTS.length)]);
+            document.append(0 == random.nextInt(5) ? ",\n" : ",");
+        }
+        document.append("1]");
+        return document.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Finds the commas where the segments are cut: the first comma of the top-level array after every
+     * {@link BufferPool#MIN_SIZE} bytes of a segment. The commas on both sides of a cut are taken too, in case
+     * the cut moves by an element.
+     */
+    private static List<Integer> cuts(byte[] document) {
+        List<Integer> commas = new ArrayList<>();
+        List<Integer> cuts = new ArrayList<>();
+        int start = 0;
+        int depth = 0;
+        boolean string = false;
+        for(int i = 0; i < document.length; ++i) {
+            byte b = document[i];
+            if(string) {
+                if('\\' == b) {
+                    ++i;
+                } else if('"' == b) {
+                    string = false;
+                }
+            } else if('"' == b) {
+                string = true;
+            } else if('[' == b || '{' == b) {
+                ++depth;
+            } else if(']' == b || '}' == b) {
+                --depth;
+            } else if(',' == b && 1 == depth) {
+                commas.add(i);
+                if(start + BufferPool.MIN_SIZE <= i) {
+                    start = i;
+                    cuts.add(commas.size() - 1);
+                }
+            }
+        }
+        List<Integer> around = new ArrayList<>();
+        for(int cut : cuts) {
+            for(int j = Math.max(0, cut - 1); j <= Math.min(commas.size() - 1, cut + 1); ++j) {
+                around.add(commas.get(j));
+            }
+        }
+        return around;
+    }
+}
@@ -0,0 +1,164 @@
+package service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Talks HTTP/1.1 over a plain socket, so a test sees how a response is framed and whether it has been cut.
+ */
+final class RawHttp {
+    /** A response as it has been received */
+    static final class Response {
+        /** The status code, zero if the connection has been closed before the status line */
+        int status;
+        /** The headers with names in lower case */
+        final Map<String, String> headers = new HashMap<>();
+        boolean chunked;
+        /** Whether the body has been received whole, with the last chunk if it is chunked */
+        boolean complete;
+        byte[] bytes = new byte[0];
+
+        String body() {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    private RawHttp() {
+    }
+
+    static Socket connect(int port) throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        socket.setSoTimeout(30_000);
+        return socket;
+    }
+
+    /**
+     * @param headers  the header lines of a {@code POST} request without the line ends.
+     * @return  the head of a {@code POST} request with {@code Content-Length} of the body.
+     */
+    static byte[] post(String path, long length, String... headers) {
+        StringBuilder head = new StringBuilder("POST ").append(path).append(" HTTP/1.1\r\nHost: localhost\r\n");
+        if(0 <= length) {
+            head.append("Content-length: ").append(length).append("\r\n");
+        }
+        for(String header : headers) {
+            head.append(header).append("\r\n");
+        }
+        return head.append("\r\n").toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Sends a {@code POST} request with the body and reads the response.
+     */
+    static Response exchange(int port, String path, byte[] body, String... headers) throws IOException {
+        try(Socket socket = connect(port)) {
+            OutputStream out = socket.getOutputStream();
+            out.write(post(path, body.length, headers));
+            try {
+                out.write(body);
+                out.flush();
+            } catch (IOException e) {
+                // the server may answer and close the connection before the body has been sent
+            }
+            return read(socket, new CountDownLatch(1));
+        }
+    }
+
+    /**
+     * Reads a response until it ends or the connection is closed.
+     *
+     * @param started  counted down once the status line has arrived.
+     * @return  the response, with the part of the body which has arrived.
+     */
+    static Response read(Socket socket, CountDownLatch started) throws IOException {
+        Response response = new Response();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        InputStream in = socket.getInputStream();
+        String status = readLine(in);
+        started.countDown();
+        if(null == status) {
+            return response;
+        }
+        response.status = Integer.parseInt(status.split(" ")[1]);
+        long length = 0;
+        for(String line = readLine(in); null != line && !line.isEmpty(); line = readLine(in)) {
+            int colon = line.indexOf(':');
+            String name = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+            String value = line.substring(colon + 1).trim();
+            response.headers.put(name, value);
+            if("content-length".equals(name)) {
+                length = Long.parseLong(value);
+            } else if("transfer-encoding".equals(name)) {
+                response.chunked = value.toLowerCase(Locale.ROOT).endsWith("chunked");
+            }
+        }
+        if(!response.chunked) {
+            response.complete = copy(in, body, length);
+        } else {
+            String size;
+            while(null != (size = readLine(in)) && !size.isEmpty()) {
+                long n = Long.parseLong(size, 16);
+                if(0 == n) {
+                    response.complete = "".equals(readLine(in));
+                    break;
+                }
+                if(!copy(in, body, n) || !"".equals(readLine(in))) {
+                    break;
+                }
+            }
+        }
+        response.bytes = body.toByteArray();
+        return response;
+    }
+
+    /**
+     * @return  {@code false} if the connection has been closed before all the bytes have arrived.
+     */
+    private static boolean copy(InputStream in, ByteArrayOutputStream out, long length) throws IOException {
+        byte[] buffer = new byte[8192];
+        while(0 < length) {
+            int n;
+            try {
+                n = in.read(buffer, 0, (int) Math.min(buffer.length, length));
+            } catch (SocketException e) {
+                return false;
+            }
+            if(-1 == n) {
+                return false;
+            }
+            out.write(buffer, 0, n);
+            length -= n;
+        }
+        return true;
+    }
+
+    /**
+     * @return  the line, or {@code null} if the connection has been closed before it.
+     */
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        try {
+            while('\n' != (b = in.read())) {
+                if(-1 == b) {
+                    return (0 == line.length()) ? null : line.toString().trim();
+                }
+                line.append((char) b);
+            }
+        } catch (SocketException e) {
+            // a connection which is reset is closed as well
+            return (0 == line.length()) ? null : line.toString().trim();
+        }
+        return line.toString().trim();
+    }
+}
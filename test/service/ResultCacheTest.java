@@ -0,0 +1,106 @@
+package service;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the byte accounting and the eviction order of {@link ResultCache}.
+ */
+class ResultCacheTest {
+    /** The weight of an entry of a 10-byte request and a 20-byte response */
+    private static final long WEIGHT = 128 + 10 + 20;
+
+    @Test
+    void entriesAreWeighedWithTheirBytes() {
+        ResultCache cache = new ResultCache(1000);
+        cache.put(key("request-01", 0), response(20));
+        assertEquals(WEIGHT, metric(cache, "jvs_cache_bytes"));
+        cache.put(key("request-02", 0), new ResultCache.Entry(
+                new JSONHandler.BadJSONResponse(ErrorCode.NAN.message, "r", 0)));
+        assertEquals(WEIGHT + 128 + 10 + 128, metric(cache, "jvs_cache_bytes"));
+        assertEquals(2, metric(cache, "jvs_cache_entries"));
+    }
+
+    @Test
+    void replacedEntryIsNotCountedTwice() {
+        ResultCache cache = new ResultCache(1000);
+        cache.put(key("request-01", 0), response(20));
+        cache.put(key("request-01", 0), response(50));
+        assertEquals(WEIGHT + 30, metric(cache, "jvs_cache_bytes"));
+        assertEquals(1, metric(cache, "jvs_cache_entries"));
+        assertEquals(50, cache.get(key("request-01", 0)).body.length);
+    }
+
+    @Test
+    void leastRecentlyUsedEntriesAreEvicted() {
+        ResultCache cache = new ResultCache(3 * WEIGHT);
+        ResultCache.Entry first = response(20);
+        cache.put(key("request-01", 0), first);
+        cache.put(key("request-02", 0), response(20));
+        cache.put(key("request-03", 0), response(20));
+        assertSame(first, cache.get(key("request-01", 0)));
+
+        cache.put(key("request-04", 0), response(20));
+        assertNull(cache.get(key("request-02", 0)));
+        assertNotNull(cache.get(key("request-01", 0)));
+        assertEquals(3 * WEIGHT, metric(cache, "jvs_cache_bytes"));
+
+        // one large entry pushes out as many as it takes
+        cache.put(key("request-05", 0), response(20 + 2 * (int) WEIGHT));
+        assertEquals(1, metric(cache, "jvs_cache_entries"));
+        assertEquals(3 * WEIGHT, metric(cache, "jvs_cache_bytes"));
+        assertEquals(4, metric(cache, "jvs_cache_evictions_total"));
+    }
+
+    @Test
+    void entryLargerThanTheCacheIsNotKept() {
+        ResultCache cache = new ResultCache(WEIGHT);
+        cache.put(key("request-01", 0), response(20));
+        cache.put(key("request-02", 0), response(21));
+        assertNull(cache.get(key("request-02", 0)));
+        assertNotNull(cache.get(key("request-01", 0)));
+        assertEquals(WEIGHT, metric(cache, "jvs_cache_bytes"));
+        assertEquals(0, metric(cache, "jvs_cache_evictions_total"));
+    }
+
+    @Test
+    void keyIsTheBytesAndTheVariant() {
+        ResultCache cache = new ResultCache(1000);
+        byte[] buffer = "request-01 and more".getBytes(StandardCharsets.UTF_8);
+        cache.put(ResultCache.key(buffer, 10, 1), response(20));
+        // the cache keeps a copy, the buffer is reused for the next request
+        buffer[0] = 'R';
+        assertNotNull(cache.get(key("request-01", 1)));
+        assertNull(cache.get(key("request-01", 2)));
+        assertNull(cache.get(key("request-0", 1)));
+        assertNull(cache.get(ResultCache.key(buffer, 10, 1)));
+        assertEquals(1, metric(cache, "jvs_cache_hits_total"));
+        assertEquals(3, metric(cache, "jvs_cache_misses_total"));
+    }
+
+    private static ResultCache.Key key(String request, int variant) {
+        byte[] bytes = request.getBytes(StandardCharsets.UTF_8);
+        return ResultCache.key(bytes, bytes.length, variant);
+    }
+
+    private static ResultCache.Entry response(int size) {
+        return new ResultCache.Entry(200, new byte[size]);
+    }
+
+    private static long metric(ResultCache cache, String name) {
+        StringBuilder out = new StringBuilder();
+        cache.write(out);
+        Matcher matcher = Pattern.compile("(?m)^" + name + " (\\d+)$").matcher(out);
+        assertTrue(matcher.find(), name);
+        return Long.parseLong(matcher.group(1));
+    }
+}
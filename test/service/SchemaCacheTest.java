@@ -0,0 +1,113 @@
+package service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Deploys, changes and removes schema files under a running {@link SchemaCache}.
+ */
+class SchemaCacheTest {
+    @TempDir
+    Path mDirectory;
+
+    @Test
+    void changedFileIsCompiledAgain() throws Exception {
+        SchemaCache cache = new SchemaCache(mDirectory, 8);
+        assertNull(cache.get("v1/orders"));
+
+        write("v1/orders", "{\"type\": \"object\"}");
+        // a missing file is cached as well, so the new one is only seen after a check
+        assertNull(cache.get("v1/orders"));
+        waitForCheck();
+        Schema compiled = cache.get("v1/orders");
+        assertNotNull(compiled);
+        assertSame(compiled, cache.get("v1/orders"));
+
+        write("v1/orders", "{\"type\": \"array\", \"items\": {}}");
+        waitForCheck();
+        Schema changed = cache.get("v1/orders");
+        assertNotSame(compiled, changed);
+        assertEquals(Schema.ARRAY, changed.types);
+
+        write("v1/orders", "{\"type\": ");
+        waitForCheck();
+        assertSame(Schema.BROKEN, cache.get("v1/orders"));
+
+        Files.delete(mDirectory.resolve("v1/orders.json"));
+        waitForCheck();
+        assertNull(cache.get("v1/orders"));
+
+        assertEquals(2, metric(cache, "jvs_schema_compilations_total"));
+        assertEquals(1, metric(cache, "jvs_schema_failures_total"));
+    }
+
+    @Test
+    void unchangedFileIsKept() throws Exception {
+        write("orders", "{\"type\": \"object\"}");
+        SchemaCache cache = new SchemaCache(mDirectory, 8);
+        Schema compiled = cache.get("orders");
+        waitForCheck();
+        assertSame(compiled, cache.get("orders"));
+        assertEquals(1, metric(cache, "jvs_schema_compilations_total"));
+    }
+
+    @Test
+    void namesOutsideTheDirectoryAreNotLookedUp() throws IOException {
+        write("orders", "{}");
+        SchemaCache cache = new SchemaCache(mDirectory.resolve("v1"), 8);
+        assertNull(cache.get("../orders"));
+        assertNull(cache.get(".hidden"));
+        assertNull(cache.get("/orders"));
+        assertNull(cache.get(""));
+        assertEquals(0, metric(cache, "jvs_schema_entries"));
+    }
+
+    @Test
+    void leastRecentlyUsedNamesAreEvicted() throws IOException {
+        for(String name : new String[] {"a", "b", "c"}) {
+            write(name, "{}");
+        }
+        SchemaCache cache = new SchemaCache(mDirectory, 2);
+        Schema a = cache.get("a");
+        cache.get("b");
+        assertSame(a, cache.get("a"));
+        cache.get("c");
+        assertEquals(1, metric(cache, "jvs_schema_evictions_total"));
+        assertEquals(2, metric(cache, "jvs_schema_entries"));
+        assertSame(a, cache.get("a"));
+        cache.get("b");
+        assertEquals(4, metric(cache, "jvs_schema_compilations_total"));
+    }
+
+    private void write(String name, String schema) throws IOException {
+        Path file = mDirectory.resolve(name + ".json");
+        Files.createDirectories(file.getParent());
+        Files.write(file, schema.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void waitForCheck() throws InterruptedException {
+        Thread.sleep(SchemaCache.CHECK_MILLIS + 100);
+    }
+
+    private static long metric(SchemaCache cache, String name) {
+        StringBuilder out = new StringBuilder();
+        cache.write(out);
+        Matcher matcher = Pattern.compile("(?m)^" + name + " (\\d+)$").matcher(out);
+        assertTrue(matcher.find(), name);
+        return Long.parseLong(matcher.group(1));
+    }
+}
@@ -0,0 +1,164 @@
+package service;
+
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks documents against schemas with both engines: tokens of Gson's reader, and tapes of the native engine
+ * recorded from the whole request and one byte at a time.
+ */
+class SchemaValidatorTest {
+    private static final String ORDER = "{\"type\": \"object\", \"required\": [\"id\", \"items\"],"
+            + " \"additionalProperties\": false,"
+            + " \"properties\": {\"id\": {\"type\": \"integer\", \"minimum\": 1},"
+            + " \"note\": {\"type\": [\"string\", \"null\"]},"
+            + " \"items\": {\"type\": \"array\", \"items\": {\"$ref\": \"#/$defs/item\"}}},"
+            + " \"$defs\": {\"item\": {\"type\": \"object\", \"required\": [\"sku\"],"
+            + " \"properties\": {\"sku\": {\"type\": \"string\"}, \"qty\": {\"type\": \"integer\"}}}}}";
+
+    private final JSONHandler mHandler = new JSONHandler(new JVSOptions());
+
+    @Test
+    void typesAndConstants() throws IOException {
+        assertEquals(Collections.emptyList(), violations("{\"type\": [\"integer\", \"null\"]}", "12"));
+        assertEquals(Collections.emptyList(), violations("{\"type\": \"integer\"}", "1.0e1"));
+        assertEquals(list("$: is a string, expected null or integer"),
+                violations("{\"type\": [\"integer\", \"null\"]}", "\"12\""));
+        assertEquals(list("$: is a number, expected integer"), violations("{\"type\": \"integer\"}", "1.5"));
+        assertEquals(list("$: is not allowed"), violations("false", "{}"));
+        assertEquals(1, violations("{\"enum\": [1, \"a\", null, true]}", "[]").size());
+        assertEquals(Collections.emptyList(), violations("{\"enum\": [1, \"a\", null]}", "null"));
+        assertEquals(1, violations("{\"enum\": [1, \"a\", null]}", "\"b\"").size());
+        assertEquals(1, violations("{\"const\": \"a\\u00e9\"}", "\"a\"").size());
+        assertEquals(Collections.emptyList(), violations("{\"const\": \"a\\u00e9\"}", "\"a\\u00e9\""));
+    }
+
+    @Test
+    void objects() throws IOException {
+        assertEquals(Collections.emptyList(),
+                violations(ORDER, "{\"id\": 7, \"note\": null, \"items\": [{\"sku\": \"a\", \"qty\": 2}]}"));
+        assertEquals(list("$.id: is less than the minimum 1", "$.extra: is not allowed",
+                        "$: required member \"items\" is missing"),
+                violations(ORDER, "{\"id\": 0, \"extra\": {\"id\": 0}}"));
+        assertEquals(list("$.items[1].sku: is an integer, expected string",
+                        "$.items[2]: required member \"sku\" is missing"),
+                violations(ORDER, "{\"id\": 1, \"items\": [{\"sku\": \"a\"}, {\"sku\": 1}, {\"qty\": 1}]}"));
+        String counted = "{\"minProperties\": 2, \"maxProperties\": 3,"
+                + " \"patternProperties\": {\"^x\": {\"type\": \"boolean\"}}}";
+        assertEquals(list("$: has fewer than 2 members"), violations(counted, "{\"a\": 1}"));
+        assertEquals(list("$.x1: is an integer, expected boolean", "$: has more than 3 members"),
+                violations(counted, "{\"x1\": 1, \"x2\": true, \"b\": 1, \"c\": 1}"));
+    }
+
+    @Test
+    void arrays() throws IOException {
+        String tuple = "{\"prefixItems\": [{\"type\": \"string\"}, {\"type\": \"integer\"}],"
+                + " \"items\": {\"type\": \"boolean\"}, \"minItems\": 2, \"maxItems\": 4}";
+        assertEquals(Collections.emptyList(), violations(tuple, "[\"a\", 1, true, false]"));
+        assertEquals(list("$: has fewer than 2 items"), violations(tuple, "[\"a\"]"));
+        assertEquals(list("$[1]: is a string, expected integer"), violations(tuple, "[\"a\", \"b\"]"));
+        assertEquals(list("$[2]: is null, expected boolean", "$: has more than 4 items"),
+                violations(tuple, "[\"a\", 1, null, true, true]"));
+    }
+
+    @Test
+    void scalars() throws IOException {
+        String string = "{\"minLength\": 2, \"maxLength\": 3, \"pattern\": \"^[^A-Z]+$\"}";
+        assertEquals(Collections.emptyList(), violations(string, "\"\\u00e9t\\u00e9\""));
+        assertEquals(list("$: is shorter than 2 characters"), violations(string, "\"a\""));
+        assertEquals(list("$: is longer than 3 characters", "$: does not match the pattern ^[^A-Z]+$"),
+                violations(string, "\"abcD\""));
+        String number = "{\"minimum\": -1, \"exclusiveMaximum\": 10, \"multipleOf\": 0.25}";
+        assertEquals(Collections.emptyList(), violations(number, "9.75"));
+        assertEquals(Collections.emptyList(), violations(number, "-1E0"));
+        assertEquals(list("$: is less than the minimum -1"), violations(number, "-1.25"));
+        assertEquals(list("$: is not less than 10"), violations(number, "1e1"));
+        assertEquals(list("$: is not a multiple of 0.25"), violations(number, "0.3"));
+        assertEquals(list("$: is not greater than 0"), violations("{\"exclusiveMinimum\": 0}", "0"));
+        assertEquals(list("$: is greater than the maximum 5"), violations("{\"maximum\": 5}", "5.000001"));
+    }
+
+    @Test
+    void referencesAndAllOf() throws IOException {
+        String tree = "{\"$ref\": \"#/$defs/node\", \"$defs\": {\"node\": {\"type\": \"object\","
+                + " \"properties\": {\"children\": {\"type\": \"array\", \"items\": {\"$ref\": \"#/$defs/node\"}}}}}}";
+        assertEquals(Collections.emptyList(), violations(tree, "{\"children\": [{\"children\": [{}]}, {}]}"));
+        assertEquals(list("$.children[0].children[1]: is an array, expected object"),
+                violations(tree, "{\"children\": [{\"children\": [{}, []]}]}"));
+        String both = "{\"allOf\": [{\"type\": \"integer\"}, {\"minimum\": 3}]}";
+        assertEquals(list("$: is a number, expected integer", "$: is less than the minimum 3"),
+                violations(both, "2.5"));
+    }
+
+    @Test
+    void onlyTheFirstViolationsAreKept() throws IOException {
+        StringBuilder document = new StringBuilder("[0");
+        for(int i = 1; i < 40; ++i) {
+            document.append(',').append(i);
+        }
+        document.append(']');
+        SchemaValidator checker = check("{\"items\": {\"type\": \"string\"}}", document.toString());
+        assertEquals(SchemaValidator.MAX_VIOLATIONS, checker.getViolations().size());
+        assertEquals(40, checker.getTotal());
+    }
+
+    private static List<String> list(String... violations) {
+        return Arrays.asList(violations);
+    }
+
+    /**
+     * @return  the violations as {@code "<path>: <message>"}, which all the ways to check the document agree on.
+     */
+    private List<String> violations(String schema, String document) throws IOException {
+        List<String> gson = strings(check(schema, document));
+        byte[] bytes = document.getBytes(StandardCharsets.UTF_8);
+
+        SchemaValidator whole = new SchemaValidator(compile(schema));
+        format(new ByteArrayInputStream(bytes), bytes.length, null, whole);
+        assertEquals(gson, strings(whole), document);
+
+        SchemaValidator trickled = new SchemaValidator(compile(schema));
+        format(new TrickleInputStream(bytes), -1, "", trickled);
+        assertEquals(gson, strings(trickled), document);
+        return gson;
+    }
+
+    private SchemaValidator check(String schema, String document) throws IOException {
+        SchemaValidator checker = new SchemaValidator(compile(schema));
+        JSONHandler.BadJSONResponse response = mHandler.transferRequest(new Utf8Reader(
+                new ByteArrayInputStream(document.getBytes(StandardCharsets.UTF_8)), BufferPool.DEFAULT, -1),
+                null, checker, "s", 0);
+        assertEquals(checker.isValid() ? null : ErrorCode.SCHEMA_VIOLATION, (null != response) ? response.code : null);
+        return checker;
+    }
+
+    private void format(InputStream in, long length, String indent, SchemaValidator checker) throws IOException {
+        JSONHandler.BadJSONResponse response =
+                mHandler.formatRequest(in, length, new ByteArrayOutputStream(), indent, checker, "s", 0);
+        assertEquals(checker.isValid() ? null : ErrorCode.SCHEMA_VIOLATION, (null != response) ? response.code : null);
+    }
+
+    private static Schema compile(String schema) {
+        return Schema.compile(new JsonParser().parse(schema), "test");
+    }
+
+    private static List<String> strings(SchemaValidator checker) {
+        List<String> strings = new ArrayList<>();
+        for(SchemaValidator.Violation violation : checker.getViolations()) {
+            strings.add(violation.path + ": " + violation.message);
+        }
+        return strings;
+    }
+}
@@ -0,0 +1,171 @@
+package service;
+
+import com.google.gson.stream.JsonWriter;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Formats documents with the native engine, from the whole request and one byte at a time, and compares the output
+ * with the one of Gson's {@code JsonWriter}.
+ */
+class TapeTest {
+    private static final JVSOptions.Mode[] MODES = {JVSOptions.Mode.PRETTY, JVSOptions.Mode.MINIFIED};
+
+    private final JSONHandler mHandler = new JSONHandler(new JVSOptions());
+
+    @Test
+    void corpusIsFormattedAsGsonDoes() throws IOException {
+        File[] files = new File("corpus/valid").listFiles();
+        assertNotNull(files);
+        Arrays.sort(files);
+        for(File file : files) {
+            byte[] document = Files.readAllBytes(file.toPath());
+            for(JVSOptions.Mode mode : MODES) {
+                compare(document, mode, file.getName());
+            }
+        }
+    }
+
+    @Test
+    void stringsAreEscapedAsGsonDoes() throws IOException {
+        String[] documents = {
+                "\"<a href='x'>&amp;=</a>\"",
+                "[\"\\u2028\\u2029\", \"\\u0000\\u001f\\u007f\", \"\\/\\b\\f\\n\\r\\t\"]",
+                "{\"\\u00e9t\\u00e9\": \"café € 😀\", \"\\ud83d\\ude00\": \"\\\"\\\\\"}",
+                "\"café \"",
+                "{\"a\": null, \"b\": [null, {\"c\": null}], \"d\": {\"e\": null}, \"f\": null}",
+                "[{}, [], {\"a\": {}}, [[]], -0, 1E+400, 0.1e-7, 12345678901234567890123]",
+                " \n\t{ \"a\" : [ 1 , 2 ] , \"b\" : true , \"c\" : false } \r\n",
+                "null",
+                "",
+        };
+        for(String document : documents) {
+            for(JVSOptions.Mode mode : MODES) {
+                compare(document.getBytes(StandardCharsets.UTF_8), mode, document);
+            }
+        }
+    }
+
+    /**
+     * Generates documents with a fixed seed and cuts them into reads of random sizes, so every token is split
+     * somewhere.
+     */
+    @Test
+    void randomDocumentsInRandomReads() throws IOException {
+        Random random = new Random(20241018);
+        for(int i = 0; i < 300; ++i) {
+            StringBuilder document = new StringBuilder();
+            value(document, random, 0);
+            byte[] bytes = document.toString().getBytes(StandardCharsets.UTF_8);
+            for(JVSOptions.Mode mode : MODES) {
+                String expected = gson(bytes, mode);
+                assertEquals(expected, nativ(new ChunkedInputStream(bytes, random), mode), document.toString());
+            }
+        }
+    }
+
+    private void compare(byte[] document, JVSOptions.Mode mode, String name) throws IOException {
+        String expected = gson(document, mode);
+        assertEquals(expected, nativ(new ByteArrayInputStream(document), mode), name);
+        assertEquals(expected, nativ(new TrickleInputStream(document), mode), name);
+    }
+
+    /**
+     * Writes the document the way {@link JSONHandler} sets up its {@code JsonWriter}.
+     */
+    private String gson(byte[] document, JVSOptions.Mode mode) throws IOException {
+        StringWriter out = new StringWriter();
+        JsonWriter writer = new JsonWriter(out);
+        writer.setIndent(mode.indent);
+        writer.setLenient(true);
+        writer.setHtmlSafe(true);
+        writer.setSerializeNulls(false);
+        assertNull(mHandler.transferRequest(
+                new Utf8Reader(new ByteArrayInputStream(document), BufferPool.DEFAULT, document.length),
+                writer, "t", 0));
+        writer.flush();
+        return out.toString();
+    }
+
+    private String nativ(ByteArrayInputStream in, JVSOptions.Mode mode) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertNull(mHandler.formatRequest(in, -1, out, mode.indent, null, "t", 0));
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static void value(StringBuilder out, Random random, int depth) {
+        switch(random.nextInt((8 > depth) ? 8 : 5)) {
+            case 0:
+                out.append(random.nextBoolean() ? "true" : "false");
+                break;
+            case 1:
+                out.append("null");
+                break;
+            case 2:
+                out.append(random.nextInt(3) - 1).append(random.nextBoolean() ? ".5e-3" : "");
+                break;
+            case 3:
+            case 4:
+                string(out, random);
+                break;
+            case 5:
+            case 6:
+                out.append('{');
+                for(int n = random.nextInt(4); 0 < n; --n) {
+                    string(out, random);
+                    out.append(": ");
+                    value(out, random, depth + 1);
+                    out.append((1 < n) ? ", " : "");
+                }
+                out.append('}');
+                break;
+            default:
+                out.append('[');
+                for(int n = random.nextInt(4); 0 < n; --n) {
+                    value(out, random, depth + 1);
+                    out.append((1 < n) ? "," : "");
+                }
+                out.append(']');
+                break;
+        }
+    }
+
+    private static void string(StringBuilder out, Random random) {
+        String[] pieces = {"a", "bc", "é", "€", "😀", "<", "&", "\\n", "\\\"", "\\u2028", " "};
+        out.append('"');
+        for(int n = random.nextInt(6); 0 < n; --n) {
+            out.append(pieces[random.nextInt(pieces.length)]);
+        }
+        out.append('"');
+    }
+
+    /**
+     * Hands out a document in reads of 1 to 16 bytes.
+     */
+    private static final class ChunkedInputStream extends ByteArrayInputStream {
+        private final Random mRandom;
+
+        ChunkedInputStream(byte[] bytes, Random random) {
+            super(bytes);
+            mRandom = random;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            return super.read(b, off, Math.min(1 + mRandom.nextInt(16), len));
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package service;
+
+import java.io.ByteArrayInputStream;
+
+/**
+ * Hands out a document one byte per read, so every state of a streaming reader is cut at a chunk boundary.
+ */
+class TrickleInputStream extends ByteArrayInputStream {
+    TrickleInputStream(byte[] bytes) {
+        super(bytes);
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) {
+        return super.read(b, off, Math.min(1, len));
+    }
+}